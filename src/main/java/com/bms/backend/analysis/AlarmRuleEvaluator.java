@@ -0,0 +1,120 @@
+package com.bms.backend.analysis;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 编译后的单体告警规则：阈值、扣分与回差在加载时展开为 final 字段，评估只读写原始类型数组，
+ * 原因输出为位掩码（位序见 {@link #REASON_NAMES}），不生成字符串与中间对象。
+ * 缺失值用 NaN 表示；回差依据上一轮的原因位判断单体此前所处的等级。
+ */
+public final class AlarmRuleEvaluator {
+
+    public static final int VOLTAGE_OUT_OF_RANGE = 1;
+    public static final int VOLTAGE_NEAR_LIMIT = 1 << 1;
+    public static final int VOLTAGE_MISSING = 1 << 2;
+    public static final int TEMPERATURE_HIGH = 1 << 3;
+    public static final int TEMPERATURE_WARN = 1 << 4;
+    public static final int TEMPERATURE_MISSING = 1 << 5;
+    /** 离群位由包内统计（鲁棒 z）给出，不参与评分，这里只占位保证全局位序一致 */
+    public static final int VOLTAGE_OUTLIER = 1 << 6;
+    public static final int TEMPERATURE_OUTLIER = 1 << 7;
+
+    /** 第 i 位对应的原因名 */
+    public static final List<String> REASON_NAMES = Collections.unmodifiableList(Arrays.asList(
+            "voltage_out_of_range", "voltage_near_limit", "voltage_missing",
+            "temperature_high", "temperature_warn", "temperature_missing",
+            "voltage_outlier", "temperature_outlier"));
+
+    public static final byte STATUS_NORMAL = 0;
+    public static final byte STATUS_WARN = 1;
+    public static final byte STATUS_ALARM = 2;
+
+    /** 内置默认规则（原硬编码阈值），无回差 */
+    public static final AlarmRuleEvaluator DEFAULT = new AlarmRuleEvaluator(
+            4.2, 4.15, 3.1, 3.0, 45, 35, 40, 20, 40, 20, 10, 50, 80, 0, 0);
+
+    private final double vHighAlarm;
+    private final double vHighWarn;
+    private final double vLowWarn;
+    private final double vLowAlarm;
+    private final double tAlarm;
+    private final double tWarn;
+    private final int vAlarmPenalty;
+    private final int vWarnPenalty;
+    private final int tAlarmPenalty;
+    private final int tWarnPenalty;
+    private final int missingPenalty;
+    private final int alarmScore;
+    private final int warnScore;
+    private final double vHysteresis;
+    private final double tHysteresis;
+
+    public AlarmRuleEvaluator(double vHighAlarm, double vHighWarn, double vLowWarn, double vLowAlarm,
+                              double tAlarm, double tWarn,
+                              int vAlarmPenalty, int vWarnPenalty, int tAlarmPenalty, int tWarnPenalty,
+                              int missingPenalty, int alarmScore, int warnScore,
+                              double vHysteresis, double tHysteresis) {
+        this.vHighAlarm = vHighAlarm;
+        this.vHighWarn = vHighWarn;
+        this.vLowWarn = vLowWarn;
+        this.vLowAlarm = vLowAlarm;
+        this.tAlarm = tAlarm;
+        this.tWarn = tWarn;
+        this.vAlarmPenalty = vAlarmPenalty;
+        this.vWarnPenalty = vWarnPenalty;
+        this.tAlarmPenalty = tAlarmPenalty;
+        this.tWarnPenalty = tWarnPenalty;
+        this.missingPenalty = missingPenalty;
+        this.alarmScore = alarmScore;
+        this.warnScore = warnScore;
+        this.vHysteresis = Math.max(0, vHysteresis);
+        this.tHysteresis = Math.max(0, tHysteresis);
+    }
+
+    /**
+     * 评估 [from, to) 区间的单体。reasons 既是输入（上一轮原因位，用于回差）也是输出。
+     */
+    public void evaluate(double[] voltage, double[] temperature, int[] reasons, int[] score, byte[] status,
+                         int from, int to) {
+        for (int i = from; i < to; i++) {
+            int prev = reasons[i];
+            int mask = voltageBits(voltage[i], prev) | temperatureBits(temperature[i], prev);
+            int s = 100;
+            if ((mask & VOLTAGE_OUT_OF_RANGE) != 0) s -= vAlarmPenalty;
+            else if ((mask & VOLTAGE_NEAR_LIMIT) != 0) s -= vWarnPenalty;
+            else if ((mask & VOLTAGE_MISSING) != 0) s -= missingPenalty;
+            if ((mask & TEMPERATURE_HIGH) != 0) s -= tAlarmPenalty;
+            else if ((mask & TEMPERATURE_WARN) != 0) s -= tWarnPenalty;
+            else if ((mask & TEMPERATURE_MISSING) != 0) s -= missingPenalty;
+            s = Math.max(0, Math.min(100, s));
+            reasons[i] = mask;
+            score[i] = s;
+            status[i] = s < alarmScore ? STATUS_ALARM : s < warnScore ? STATUS_WARN : STATUS_NORMAL;
+        }
+    }
+
+    private int voltageBits(double v, int prev) {
+        if (Double.isNaN(v)) return VOLTAGE_MISSING;
+        // 已在该等级的单体，退出阈值向安全区内收 hysteresis
+        double ha = (prev & VOLTAGE_OUT_OF_RANGE) != 0 ? vHysteresis : 0;
+        if (v >= vHighAlarm - ha || v <= vLowAlarm + ha) return VOLTAGE_OUT_OF_RANGE;
+        double hw = (prev & (VOLTAGE_OUT_OF_RANGE | VOLTAGE_NEAR_LIMIT)) != 0 ? vHysteresis : 0;
+        if (v >= vHighWarn - hw || v <= vLowWarn + hw) return VOLTAGE_NEAR_LIMIT;
+        return 0;
+    }
+
+    private int temperatureBits(double t, int prev) {
+        if (Double.isNaN(t)) return TEMPERATURE_MISSING;
+        double ha = (prev & TEMPERATURE_HIGH) != 0 ? tHysteresis : 0;
+        if (t >= tAlarm - ha) return TEMPERATURE_HIGH;
+        double hw = (prev & (TEMPERATURE_HIGH | TEMPERATURE_WARN)) != 0 ? tHysteresis : 0;
+        if (t >= tWarn - hw) return TEMPERATURE_WARN;
+        return 0;
+    }
+
+    public static String statusName(byte status) {
+        return status == STATUS_ALARM ? "alarm" : status == STATUS_WARN ? "warn" : "normal";
+    }
+}
@@ -0,0 +1,134 @@
+package com.bms.backend.analysis;
+
+import java.util.Arrays;
+
+/**
+ * 单个 (数据源, cycle) 的原始时间序列，按列存为 double[]，缺失值为 NaN。
+ * 时间列的单位随数据源（CSV 为 Time_Min 分钟，Influx 为 epoch 毫秒），由 {@link #getTimeUnit()} 明确给出。
+ * 实例构造后不可变，可在缓存与多个分析路径之间共享，调用方不得修改返回的数组。
+ */
+public final class CycleSeries {
+
+    /** 时间列的单位 */
+    public enum TimeUnit {
+        /** 相对分钟（CSV 的 Time_Min 列） */
+        MINUTES,
+        /** epoch 毫秒（Influx 的 _time） */
+        EPOCH_MILLIS
+    }
+
+    /** 每个点 5 列 double，另加对象头与数组头的固定开销 */
+    private static final long BYTES_PER_POINT = 5L * Double.BYTES;
+    private static final long FIXED_OVERHEAD_BYTES = 128L;
+
+    private final int cycle;
+    private final int size;
+    private final TimeUnit timeUnit;
+    private final double[] time;
+    private final double[] voltage;
+    private final double[] current;
+    private final double[] temp;
+    private final double[] capacity;
+
+    public CycleSeries(int cycle, int size, TimeUnit timeUnit, double[] time, double[] voltage,
+                       double[] current, double[] temp, double[] capacity) {
+        this.cycle = cycle;
+        this.size = size;
+        this.timeUnit = timeUnit;
+        this.time = time;
+        this.voltage = voltage;
+        this.current = current;
+        this.temp = temp;
+        this.capacity = capacity;
+    }
+
+    public int getCycle() {
+        return cycle;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TimeUnit getTimeUnit() {
+        return timeUnit;
+    }
+
+    public double[] getTime() {
+        return time;
+    }
+
+    public double[] getVoltage() {
+        return voltage;
+    }
+
+    public double[] getCurrent() {
+        return current;
+    }
+
+    public double[] getTemp() {
+        return temp;
+    }
+
+    public double[] getCapacity() {
+        return capacity;
+    }
+
+    /** 堆上占用估算，用作 LRU 权重 */
+    public long estimateBytes() {
+        return FIXED_OVERHEAD_BYTES + BYTES_PER_POINT * size;
+    }
+
+    /**
+     * 逐点追加的构建器，数组按需倍增，build 时截断到实际长度。
+     */
+    public static final class Builder {
+        private final int cycle;
+        private final TimeUnit timeUnit;
+        private int size;
+        private double[] time;
+        private double[] voltage;
+        private double[] current;
+        private double[] temp;
+        private double[] capacity;
+
+        public Builder(int cycle, TimeUnit timeUnit, int initialCapacity) {
+            int cap = Math.max(16, initialCapacity);
+            this.cycle = cycle;
+            this.timeUnit = timeUnit;
+            this.time = new double[cap];
+            this.voltage = new double[cap];
+            this.current = new double[cap];
+            this.temp = new double[cap];
+            this.capacity = new double[cap];
+        }
+
+        public Builder add(double t, double v, double c, double tp, double q) {
+            if (size == time.length) {
+                int cap = size * 2;
+                time = Arrays.copyOf(time, cap);
+                voltage = Arrays.copyOf(voltage, cap);
+                current = Arrays.copyOf(current, cap);
+                temp = Arrays.copyOf(temp, cap);
+                capacity = Arrays.copyOf(capacity, cap);
+            }
+            time[size] = t;
+            voltage[size] = v;
+            current[size] = c;
+            temp[size] = tp;
+            capacity[size] = q;
+            size++;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public CycleSeries build() {
+            return new CycleSeries(cycle, size, timeUnit,
+                    Arrays.copyOf(time, size), Arrays.copyOf(voltage, size), Arrays.copyOf(current, size),
+                    Arrays.copyOf(temp, size), Arrays.copyOf(capacity, size));
+        }
+    }
+}
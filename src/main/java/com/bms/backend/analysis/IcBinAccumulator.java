@@ -0,0 +1,110 @@
+package com.bms.backend.analysis;
+
+/**
+ * 单个 (cell, cycle) 的增量 dQ/dV 累加器：采样逐条进入，按相邻两点中点电压落入固定宽度的电压桶，
+ * 每个桶累计 Σ|dV| 以及两套 Σ|dQ|（容量差分 / 电流梯形积分的库仑计数），不保留原始点。
+ * cycle 结束时 {@link #finish()} 得到按电压升序的未平滑 IC 曲线（每桶 Σ|dQ|/Σ|dV|）。
+ * dV、dQ 都取绝对值：充电段与放电段经过同一个桶时两者同向累加，不会出现 dV 相互抵消而 dQ 叠加的尖峰。
+ * <p>
+ * 选源规则与原始点算法一致：capacity 在 cycle 内有变化用容量差分，否则用库仑计数。
+ * 非线程安全，由调用方按 cell 串行调用。
+ */
+public final class IcBinAccumulator {
+
+    private final double vMin;
+    private final double binWidth;
+    private final int binCount;
+
+    private final double[] dvSum;
+    private final double[] capDqSum;
+    private final double[] ccDqSum;
+
+    private boolean hasPrev;
+    private long prevT;
+    private double prevV;
+    private double prevI;
+    private double prevCap;
+
+    private double firstCap = Double.NaN;
+    private boolean hasCapTrend;
+    private long sampleCount;
+
+    public IcBinAccumulator(double binWidth) {
+        this.vMin = IcCurveKernel.IC_V_MIN;
+        this.binWidth = binWidth;
+        this.binCount = (int) Math.ceil((IcCurveKernel.IC_V_MAX - IcCurveKernel.IC_V_MIN) / binWidth - 1e-9);
+        this.dvSum = new double[binCount];
+        this.capDqSum = new double[binCount];
+        this.ccDqSum = new double[binCount];
+    }
+
+    /**
+     * 追加一个采样点（按时间顺序）。
+     *
+     * @param timeMs   采样时间（毫秒）
+     * @param voltage  电压（V），非正值/非法值忽略
+     * @param current  电流（A），库仑计数取绝对值
+     * @param capacity 累计容量（Ah），缺失传 NaN；差分取绝对值
+     */
+    public void accept(long timeMs, double voltage, double current, double capacity) {
+        if (voltage <= 0 || Double.isNaN(voltage) || Double.isInfinite(voltage)) return;
+        sampleCount++;
+        boolean capValid = !Double.isNaN(capacity) && !Double.isInfinite(capacity);
+        if (capValid) {
+            if (Double.isNaN(firstCap)) firstCap = capacity;
+            else if (!hasCapTrend && Math.abs(capacity - firstCap) > 1e-6) hasCapTrend = true;
+        }
+
+        if (hasPrev && timeMs > prevT) {
+            double mid = (prevV + voltage) / 2.0;
+            int bin = (int) ((mid - vMin) / binWidth);
+            if (mid >= vMin && bin >= 0 && bin < binCount) {
+                dvSum[bin] += Math.abs(voltage - prevV);
+                double dtHour = (timeMs - prevT) / 3600000.0;
+                ccDqSum[bin] += (Math.abs(prevI) + Math.abs(current)) / 2.0 * dtHour;
+                if (capValid && !Double.isNaN(prevCap)) {
+                    capDqSum[bin] += Math.abs(capacity - prevCap);
+                }
+            }
+        }
+        if (!hasPrev || timeMs > prevT) {
+            hasPrev = true;
+            prevT = timeMs;
+            prevV = voltage;
+            prevI = current;
+            prevCap = capValid ? capacity : Double.NaN;
+        }
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /** true 表示曲线来自容量差分，false 表示来自库仑计数 */
+    public boolean usesCapacity() {
+        return hasCapTrend;
+    }
+
+    public double getBinWidth() {
+        return binWidth;
+    }
+
+    /**
+     * 生成未平滑的分桶 IC 曲线：电压取桶中心，Σ|dV| 过小的桶跳过，dQ/dV 粗裁到 ±{@link IcCurveKernel#DQDV_ABS_CLIP}。
+     */
+    public IcCurveKernel.IcCurve finish() {
+        double[] dq = hasCapTrend ? capDqSum : ccDqSum;
+        double[] voltage = new double[binCount];
+        double[] dqdv = new double[binCount];
+        int m = 0;
+        for (int b = 0; b < binCount; b++) {
+            if (dvSum[b] < 1e-6) continue;
+            double d = dq[b] / dvSum[b];
+            if (Double.isNaN(d) || Double.isInfinite(d)) continue;
+            voltage[m] = vMin + (b + 0.5) * binWidth;
+            dqdv[m] = Math.max(-IcCurveKernel.DQDV_ABS_CLIP, Math.min(IcCurveKernel.DQDV_ABS_CLIP, d));
+            m++;
+        }
+        return new IcCurveKernel.IcCurve(voltage, dqdv, m);
+    }
+}
@@ -0,0 +1,336 @@
+package com.bms.backend.analysis;
+
+import java.util.Arrays;
+
+/**
+ * IC（dQ/dV）曲线计算内核：全部在 double[] 上完成，不装箱、不生成中间 DTO 列表。
+ * <ul>
+ *     <li>中位数 / MAD 用 quickselect，线性期望时间；</li>
+ *     <li>滑动平均用前缀和，O(n) 与窗口无关；</li>
+ *     <li>MAD 裁剪、平滑均原地进行，按电压排序为稳定归并排序（与原 List.sort 语义一致）。</li>
+ * </ul>
+ * 临时数组按线程复用；DTO 只在 API 边界由调用方生成。
+ */
+public final class IcCurveKernel {
+
+    /** IC 主分析电压窗口（抑制两端噪声） */
+    public static final double IC_V_MIN = 3.60;
+    public static final double IC_V_MAX = 4.20;
+    /** dQ/dV 裁剪上限（先粗裁，再做 MAD 裁剪） */
+    public static final double DQDV_ABS_CLIP = 30.0;
+
+    private static final int ROBUST_MIN_POINTS = 8;
+    private static final double MAD_TO_SIGMA = 1.4826;
+    private static final double MAD_CLIP_SIGMAS = 3.5;
+
+    private static final ThreadLocal<Workspace> WORKSPACE = ThreadLocal.withInitial(Workspace::new);
+
+    private IcCurveKernel() {
+    }
+
+    /**
+     * IC 曲线：voltage/dqdv 前 size 个元素有效，按电压升序。
+     */
+    public static final class IcCurve {
+        private final double[] voltage;
+        private final double[] dqdv;
+        private final int size;
+
+        public IcCurve(double[] voltage, double[] dqdv, int size) {
+            this.voltage = voltage;
+            this.dqdv = dqdv;
+            this.size = size;
+        }
+
+        public double[] getVoltage() {
+            return voltage;
+        }
+
+        public double[] getDqdv() {
+            return dqdv;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        /** 峰值下标（dQ/dV 最大，并列取第一个）；空曲线返回 -1 */
+        public int peakIndex() {
+            int best = -1;
+            for (int i = 0; i < size; i++) {
+                if (best < 0 || dqdv[i] > dqdv[best]) best = i;
+            }
+            return best;
+        }
+    }
+
+    /** 线程内复用的临时数组 */
+    private static final class Workspace {
+        double[] scratch = new double[256];
+        double[] scratch2 = new double[256];
+        double[] prefix = new double[257];
+
+        void ensure(int n) {
+            if (scratch.length < n) {
+                int cap = Math.max(n, scratch.length * 2);
+                scratch = new double[cap];
+                scratch2 = new double[cap];
+                prefix = new double[cap + 1];
+            }
+        }
+    }
+
+    public static final IcCurve EMPTY = new IcCurve(new double[0], new double[0], 0);
+
+    /**
+     * 主峰特征：峰位电压、峰高、半高宽（FWHM）及半高宽区间内的峰面积（∫dQ/dV dV，单位 Ah）。
+     */
+    public static final class PeakFeatures {
+        private final double peakVoltage;
+        private final double peakHeight;
+        private final double peakArea;
+        private final double fwhm;
+
+        public PeakFeatures(double peakVoltage, double peakHeight, double peakArea, double fwhm) {
+            this.peakVoltage = peakVoltage;
+            this.peakHeight = peakHeight;
+            this.peakArea = peakArea;
+            this.fwhm = fwhm;
+        }
+
+        public double getPeakVoltage() {
+            return peakVoltage;
+        }
+
+        public double getPeakHeight() {
+            return peakHeight;
+        }
+
+        public double getPeakArea() {
+            return peakArea;
+        }
+
+        public double getFwhm() {
+            return fwhm;
+        }
+    }
+
+    /**
+     * 提取主峰特征。半高点在相邻两点间线性插值，一侧到曲线端点仍未降到半高时取端点。
+     *
+     * @return 空曲线或峰高不为正时返回 null
+     */
+    public static PeakFeatures peakFeatures(IcCurve curve) {
+        int p = curve.peakIndex();
+        if (p < 0) return null;
+        double[] v = curve.getVoltage();
+        double[] y = curve.getDqdv();
+        int n = curve.size();
+        double height = y[p];
+        if (!(height > 0)) return null;
+        double half = height / 2.0;
+
+        int li = p;
+        while (li > 0 && y[li - 1] > half) li--;
+        double leftV;
+        double leftY;
+        if (li == 0) {
+            leftV = v[0];
+            leftY = y[0];
+        } else {
+            leftV = interpolate(v[li - 1], y[li - 1], v[li], y[li], half);
+            leftY = half;
+        }
+
+        int ri = p;
+        while (ri < n - 1 && y[ri + 1] > half) ri++;
+        double rightV;
+        double rightY;
+        if (ri == n - 1) {
+            rightV = v[n - 1];
+            rightY = y[n - 1];
+        } else {
+            rightV = interpolate(v[ri], y[ri], v[ri + 1], y[ri + 1], half);
+            rightY = half;
+        }
+
+        // 梯形积分：左半高点 → v[li..ri] → 右半高点
+        double area = (v[li] - leftV) * (leftY + y[li]) / 2.0;
+        for (int i = li + 1; i <= ri; i++) {
+            area += (v[i] - v[i - 1]) * (y[i] + y[i - 1]) / 2.0;
+        }
+        area += (rightV - v[ri]) * (y[ri] + rightY) / 2.0;
+
+        return new PeakFeatures(v[p], height, area, rightV - leftV);
+    }
+
+    private static double interpolate(double v0, double y0, double v1, double y1, double target) {
+        if (Math.abs(y1 - y0) < 1e-12) return v0;
+        return v0 + (target - y0) * (v1 - v0) / (y1 - y0);
+    }
+
+    /**
+     * 由按时间排序的 (V, Q) 序列计算 IC 曲线：差分 → 粗裁 → MAD 裁剪 → 滑动平均 → 按电压排序。
+     *
+     * @param v 电压
+     * @param q 累计容量（Ah）
+     * @param n 有效点数
+     */
+    public static IcCurve compute(double[] v, double[] q, int n, int smoothWindow) {
+        if (n < 3) return EMPTY;
+        double[] vmid = new double[n - 1];
+        double[] dqdv = new double[n - 1];
+        int m = 0;
+        for (int i = 1; i < n; i++) {
+            double mid = (v[i - 1] + v[i]) / 2.0;
+            if (mid < IC_V_MIN || mid > IC_V_MAX) continue;
+            double dv = v[i] - v[i - 1];
+            if (Math.abs(dv) < 1e-6) continue;
+            double d = (q[i] - q[i - 1]) / dv;
+            if (Double.isNaN(d) || Double.isInfinite(d)) continue;
+            vmid[m] = mid;
+            dqdv[m] = Math.max(-DQDV_ABS_CLIP, Math.min(DQDV_ABS_CLIP, d));
+            m++;
+        }
+        Workspace ws = WORKSPACE.get();
+        ws.ensure(m);
+        robustClipInPlace(dqdv, m, ws.scratch);
+        movingAverageInPlace(dqdv, m, Math.max(1, smoothWindow), ws.prefix);
+        sortByKey(vmid, dqdv, m, ws.scratch, ws.scratch2);
+        return new IcCurve(vmid, dqdv, m);
+    }
+
+    /**
+     * 对已按电压升序、已粗裁的分桶曲线（见 {@link IcBinAccumulator}）做 MAD 裁剪与滑动平均，输入不修改。
+     */
+    public static IcCurve smoothBinned(double[] voltage, double[] dqdv, int n, int smoothWindow) {
+        if (n == 0) return EMPTY;
+        double[] v = Arrays.copyOf(voltage, n);
+        double[] y = Arrays.copyOf(dqdv, n);
+        Workspace ws = WORKSPACE.get();
+        ws.ensure(n);
+        robustClipInPlace(y, n, ws.scratch);
+        movingAverageInPlace(y, n, Math.max(1, smoothWindow), ws.prefix);
+        return new IcCurve(v, y, n);
+    }
+
+    /**
+     * MAD（中位数绝对偏差）鲁棒裁剪，原地修改 y[0..n)。
+     * 中位数取排序后下标 n/2 的元素（偶数取上中位数），与原实现一致。
+     */
+    public static void robustClipInPlace(double[] y, int n, double[] scratch) {
+        if (n < ROBUST_MIN_POINTS) return;
+        System.arraycopy(y, 0, scratch, 0, n);
+        double median = select(scratch, n, n / 2);
+        for (int i = 0; i < n; i++) {
+            scratch[i] = Math.abs(y[i] - median);
+        }
+        double mad = select(scratch, n, n / 2);
+        if (mad < 1e-9) return;
+        double sigma = MAD_TO_SIGMA * mad;
+        double lo = median - MAD_CLIP_SIGMAS * sigma;
+        double hi = median + MAD_CLIP_SIGMAS * sigma;
+        for (int i = 0; i < n; i++) {
+            if (y[i] < lo) y[i] = lo;
+            else if (y[i] > hi) y[i] = hi;
+        }
+    }
+
+    /**
+     * 居中滑动平均（窗口 window，两端截断），前缀和实现，原地修改 y[0..n)。
+     *
+     * @param prefix 长度至少 n+1 的临时数组
+     */
+    public static void movingAverageInPlace(double[] y, int n, int window, double[] prefix) {
+        if (window <= 1 || n <= 2) return;
+        int half = window / 2;
+        prefix[0] = 0.0;
+        for (int i = 0; i < n; i++) {
+            prefix[i + 1] = prefix[i] + y[i];
+        }
+        for (int i = 0; i < n; i++) {
+            int l = Math.max(0, i - half);
+            int r = Math.min(n - 1, i + half);
+            y[i] = (prefix[r + 1] - prefix[l]) / (r - l + 1);
+        }
+    }
+
+    /**
+     * 第 k 小元素（0 基），快速选择，期望 O(n)；会打乱 a[0..n) 的顺序。
+     */
+    public static double select(double[] a, int n, int k) {
+        int lo = 0;
+        int hi = n - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            // 三数取中，避免已排序输入退化
+            if (a[mid] < a[lo]) swap(a, mid, lo);
+            if (a[hi] < a[lo]) swap(a, hi, lo);
+            if (a[hi] < a[mid]) swap(a, hi, mid);
+            double pivot = a[mid];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (a[i] < pivot) i++;
+                while (a[j] > pivot) j--;
+                if (i <= j) {
+                    swap(a, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else return a[k];
+        }
+        return a[k];
+    }
+
+    /**
+     * 按 key 升序对 (key, val) 两个并行数组做稳定归并排序。
+     */
+    public static void sortByKey(double[] key, double[] val, int n, double[] tmpKey, double[] tmpVal) {
+        if (n < 2) return;
+        boolean sorted = true;
+        for (int i = 1; i < n && sorted; i++) {
+            if (key[i] < key[i - 1]) sorted = false;
+        }
+        if (sorted) return;
+        for (int width = 1; width < n; width <<= 1) {
+            for (int lo = 0; lo < n - width; lo += width << 1) {
+                int mid = lo + width;
+                int hi = Math.min(lo + (width << 1), n);
+                if (key[mid - 1] <= key[mid]) continue;
+                int len = mid - lo;
+                System.arraycopy(key, lo, tmpKey, 0, len);
+                System.arraycopy(val, lo, tmpVal, 0, len);
+                int i = 0;
+                int j = mid;
+                int k = lo;
+                while (i < len && j < hi) {
+                    if (key[j] < tmpKey[i]) {
+                        key[k] = key[j];
+                        val[k++] = val[j++];
+                    } else {
+                        key[k] = tmpKey[i];
+                        val[k++] = tmpVal[i++];
+                    }
+                }
+                while (i < len) {
+                    key[k] = tmpKey[i];
+                    val[k++] = tmpVal[i++];
+                }
+            }
+        }
+    }
+
+    private static void swap(double[] a, int i, int j) {
+        double t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+}
@@ -0,0 +1,55 @@
+package com.bms.backend.analysis;
+
+/**
+ * 鲁棒 z 分数：z = (x - median) / (1.4826 · MAD)，中位数与 MAD 用 {@link IcCurveKernel#select} 快速选择，
+ * 线性期望时间。少数漂移单体不会像均值 / 标准差那样把基准一起拉偏，适合单包离群检测。
+ */
+public final class RobustZScore {
+
+    private static final double MAD_TO_SIGMA = 1.4826;
+    private static final double MEAN_AD_TO_SIGMA = 1.2533;
+    /** 有效单体少于该数时不判定离群 */
+    public static final int MIN_POINTS = 8;
+
+    private RobustZScore() {
+    }
+
+    /**
+     * 计算 values[0..n) 的鲁棒 z，写入 out；NaN 输入或样本不足、MAD 为 0 时输出 NaN。
+     *
+     * @param scratch 长度至少 n 的临时数组
+     */
+    public static void compute(double[] values, int n, double[] scratch, double[] out) {
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (!Double.isNaN(values[i])) scratch[m++] = values[i];
+        }
+        if (m < MIN_POINTS) {
+            fillNaN(out, n);
+            return;
+        }
+        double median = IcCurveKernel.select(scratch, m, m / 2);
+        m = 0;
+        for (int i = 0; i < n; i++) {
+            if (!Double.isNaN(values[i])) scratch[m++] = Math.abs(values[i] - median);
+        }
+        double sigma = MAD_TO_SIGMA * IcCurveKernel.select(scratch, m, m / 2);
+        if (sigma < 1e-9) {
+            // 过半单体读数相同（量化步长较粗时常见）：MAD 为 0，退回平均绝对偏差
+            double sum = 0;
+            for (int i = 0; i < m; i++) sum += scratch[i];
+            sigma = MEAN_AD_TO_SIGMA * sum / m;
+        }
+        if (sigma < 1e-9) {
+            fillNaN(out, n);
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            out[i] = Double.isNaN(values[i]) ? Double.NaN : (values[i] - median) / sigma;
+        }
+    }
+
+    private static void fillNaN(double[] out, int n) {
+        for (int i = 0; i < n; i++) out[i] = Double.NaN;
+    }
+}
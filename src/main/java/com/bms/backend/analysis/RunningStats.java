@@ -0,0 +1,121 @@
+package com.bms.backend.analysis;
+
+/**
+ * 可增删的流式统计（Welford）：均值 / 方差随单体值的替换 O(1) 更新，不重扫整包。
+ * NaN 视为缺失，不计入。最小 / 最大值在被替换掉的值恰为极值时才标记失效，由 {@link #refresh} 按需重扫；
+ * 累计更新次数过多时同样整体重算一次，消除长期增删带来的浮点漂移。
+ */
+public final class RunningStats {
+
+    private static final int RESYNC_UPDATES = 100_000;
+
+    private long count;
+    private double mean;
+    private double m2;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    private boolean extremaDirty;
+    private int updates;
+
+    public void add(double x) {
+        if (Double.isNaN(x)) return;
+        count++;
+        double delta = x - mean;
+        mean += delta / count;
+        m2 += delta * (x - mean);
+        if (Double.isNaN(min) || x < min) min = x;
+        if (Double.isNaN(max) || x > max) max = x;
+        updates++;
+    }
+
+    public void remove(double x) {
+        if (Double.isNaN(x) || count == 0) return;
+        if (count == 1) {
+            clear();
+            return;
+        }
+        double delta = x - mean;
+        mean -= delta / (count - 1);
+        m2 -= delta * (x - mean);
+        if (m2 < 0) m2 = 0;
+        count--;
+        if (x <= min || x >= max) extremaDirty = true;
+        updates++;
+    }
+
+    public void replace(double oldValue, double newValue) {
+        if (Double.doubleToLongBits(oldValue) == Double.doubleToLongBits(newValue)) return;
+        remove(oldValue);
+        add(newValue);
+    }
+
+    /** 极值失效或漂移累积时，按当前值 values[0..n) 重算 */
+    public void refresh(double[] values, int n) {
+        if (updates >= RESYNC_UPDATES) {
+            clear();
+            for (int i = 0; i < n; i++) add(values[i]);
+            updates = 0;
+            return;
+        }
+        if (!extremaDirty) return;
+        min = Double.NaN;
+        max = Double.NaN;
+        for (int i = 0; i < n; i++) {
+            double x = values[i];
+            if (Double.isNaN(x)) continue;
+            if (Double.isNaN(min) || x < min) min = x;
+            if (Double.isNaN(max) || x > max) max = x;
+        }
+        extremaDirty = false;
+    }
+
+    /** 合并另一组统计（Chan 并行公式），用于由各 PACK 汇总 ALL，不触碰单体 */
+    public void merge(RunningStats o) {
+        if (o.count == 0) return;
+        if (count == 0) {
+            count = o.count;
+            mean = o.mean;
+            m2 = o.m2;
+            min = o.min;
+            max = o.max;
+            return;
+        }
+        long n = count + o.count;
+        double delta = o.mean - mean;
+        mean += delta * o.count / n;
+        m2 += o.m2 + delta * delta * count * o.count / n;
+        count = n;
+        min = Math.min(min, o.min);
+        max = Math.max(max, o.max);
+    }
+
+    public void clear() {
+        count = 0;
+        mean = 0;
+        m2 = 0;
+        min = Double.NaN;
+        max = Double.NaN;
+        extremaDirty = false;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    /** 总体标准差 */
+    public double getStd() {
+        return count == 0 ? Double.NaN : Math.sqrt(m2 / count);
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,30 @@
+package com.bms.backend.config;
+
+import com.bms.backend.service.StartupWarmupService;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * 启动预热健康检查（health 组件名 warmup），已加入 readiness 组：
+ * 预热完成或超时前为 OUT_OF_SERVICE，滚动发布时新实例在缓存就绪前不接流量。
+ */
+@Component
+public class WarmupHealthIndicator implements HealthIndicator {
+
+    private final StartupWarmupService warmupService;
+
+    public WarmupHealthIndicator(StartupWarmupService warmupService) {
+        this.warmupService = warmupService;
+    }
+
+    @Override
+    public Health health() {
+        Health.Builder builder = warmupService.isReady() ? Health.up() : Health.outOfService();
+        return builder
+                .withDetail("elapsedMs", warmupService.getElapsedMs())
+                .withDetail("timedOut", warmupService.isTimedOut())
+                .withDetail("steps", warmupService.getSteps())
+                .build();
+    }
+}
@@ -0,0 +1,24 @@
+package com.bms.backend.config;
+
+import com.bms.backend.websocket.DashboardStreamWebSocketHandler;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    private final DashboardStreamWebSocketHandler dashboardStreamWebSocketHandler;
+
+    public WebSocketConfig(DashboardStreamWebSocketHandler dashboardStreamWebSocketHandler) {
+        this.dashboardStreamWebSocketHandler = dashboardStreamWebSocketHandler;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(dashboardStreamWebSocketHandler, "/ws/battery-dashboard/stream")
+                .setAllowedOrigins("*");
+    }
+}
@@ -0,0 +1,46 @@
+package com.bms.backend.controller;
+
+import com.bms.backend.dto.BatteryAlarmRuleRequest;
+import com.bms.backend.entity.BatteryAlarmRule;
+import com.bms.backend.service.BatteryAlarmRuleService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/alarm-rules")
+@CrossOrigin(origins = "*")
+public class BatteryAlarmRuleController {
+
+    private final BatteryAlarmRuleService alarmRuleService;
+
+    public BatteryAlarmRuleController(BatteryAlarmRuleService alarmRuleService) {
+        this.alarmRuleService = alarmRuleService;
+    }
+
+    /**
+     * 全部告警规则（modelId 为空的一条是默认规则）
+     */
+    @GetMapping
+    public ResponseEntity<List<BatteryAlarmRule>> list() {
+        return ResponseEntity.ok(alarmRuleService.listAll());
+    }
+
+    /**
+     * 新增 / 覆盖默认规则
+     */
+    @PutMapping
+    public ResponseEntity<BatteryAlarmRule> saveDefault(@RequestBody BatteryAlarmRuleRequest request) {
+        return ResponseEntity.ok(alarmRuleService.save(null, request));
+    }
+
+    /**
+     * 新增 / 覆盖某型号的规则，保存后拓扑告警在下一个刷新周期生效
+     */
+    @PutMapping("/{modelCode}")
+    public ResponseEntity<BatteryAlarmRule> saveForModel(@PathVariable String modelCode,
+                                                         @RequestBody BatteryAlarmRuleRequest request) {
+        return ResponseEntity.ok(alarmRuleService.save(modelCode, request));
+    }
+}
@@ -1,14 +1,29 @@
 package com.bms.backend.controller;
 
 import com.bms.backend.dto.IcAnalysisResponse;
-import com.bms.backend.dto.TopologySnapshotDto;
+import com.bms.backend.dto.IcCycleFeatureDto;
+import com.bms.backend.dto.MultiChannelStreamDto;
+import com.bms.backend.dto.PackIcComparisonResponse;
+import com.bms.backend.dto.WindowedHistoryResponse;
 import com.bms.backend.entity.DashboardData;
+import com.bms.backend.exception.BusinessException;
 import com.bms.backend.service.BatteryDataService;
+import com.bms.backend.service.DashboardStreamHub;
+import com.bms.backend.service.IcFeatureExtractionService;
+import com.bms.backend.service.PackIcAnalysisService;
+import com.bms.backend.service.PlaybackService;
 import com.bms.backend.service.TopologySnapshotService;
+import com.bms.backend.service.TopologyWireCodec;
+import com.bms.backend.service.WindowedHistoryService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.List;
+
 @RestController
 @RequestMapping("/api/battery-dashboard")
 @CrossOrigin(origins = "*")
@@ -18,6 +33,19 @@ public class BatteryDashboardController {
     private BatteryDataService batteryDataService;
     @Autowired
     private TopologySnapshotService topologySnapshotService;
+    @Autowired
+    private DashboardStreamHub dashboardStreamHub;
+    @Autowired
+    private PackIcAnalysisService packIcAnalysisService;
+    @Autowired
+    private IcFeatureExtractionService icFeatureExtractionService;
+    @Autowired
+    private WindowedHistoryService windowedHistoryService;
+    @Autowired
+    private PlaybackService playbackService;
+
+    @Value("${bms.dashboard.multi.max-channels:64}")
+    private int maxChannels;
 
     // 前端调用地址: GET /api/battery/stream
     @GetMapping("/stream")
@@ -26,12 +54,68 @@ public class BatteryDashboardController {
             @RequestParam(required = false) String idA,
             @RequestParam(required = false) String idB
     ) {
+        // 同组合已有 WebSocket 推送时直接复用 ticker 的最新结果
+        DashboardData pushed = dashboardStreamHub.latestIfFresh(idA, idB);
+        if (pushed != null) {
+            return pushed;
+        }
         if (idA == null || idA.isEmpty() || idB == null || idB.isEmpty()) {
             return batteryDataService.getDashboardStreamLatestTwo();
         }
         return batteryDataService.getDashboardStream(idA, idB);
     }
 
+    /**
+     * N 通道实时数据（列式）：ids 为逗号分隔的电池编号，或传 packId 取整个 PACK；一次请求只查一次 Influx/缓存
+     */
+    @GetMapping("/stream/multi")
+    public MultiChannelStreamDto getMultiStream(
+            @RequestParam(required = false) List<String> ids,
+            @RequestParam(required = false) String packId
+    ) {
+        List<String> cellIds = (ids == null || ids.isEmpty())
+                ? batteryDataService.findCellIdsByPack(packId)
+                : ids;
+        if (cellIds.isEmpty()) {
+            throw new BusinessException("ids 或 packId 至少提供一个有效值！");
+        }
+        if (cellIds.size() > maxChannels) {
+            throw new BusinessException("通道数不能超过 " + maxChannels + "！");
+        }
+        return batteryDataService.getMultiChannelStream(cellIds);
+    }
+
+    /**
+     * 单个电池的窗口聚合历史，例如最近 6 小时温度：?cellId=b1c0&fields=temperature&fns=mean,max&range=-6h&window=1m
+     * window 不传时按 maxPoints 自动推算；已结束的窗口走缓存，刷新只查询未结束的窗口
+     */
+    @GetMapping("/history")
+    public WindowedHistoryResponse getHistory(
+            @RequestParam String cellId,
+            @RequestParam(required = false) List<String> fields,
+            @RequestParam(required = false) List<String> fns,
+            @RequestParam(required = false, defaultValue = "-6h") String range,
+            @RequestParam(required = false) String window,
+            @RequestParam(required = false) Integer maxPoints
+    ) {
+        return windowedHistoryService.getHistory(cellId, fields, fns, range, window, maxPoints);
+    }
+
+    /**
+     * 只读历史回放（SSE）：按倍速重放单体或整包已存储的数据，不写 Influx。
+     * 事件依次为 info、frames（若干帧的数组）、end；例如 ?cellId=b1c0&start=-3d&speed=600
+     */
+    @GetMapping("/playback")
+    public SseEmitter getPlayback(
+            @RequestParam(required = false) String cellId,
+            @RequestParam(required = false) String packId,
+            @RequestParam(required = false) String start,
+            @RequestParam(required = false) String stop,
+            @RequestParam(required = false, defaultValue = "60") Double speed
+    ) {
+        return playbackService.start(cellId, packId, start, stop, speed == null ? 60.0 : speed);
+    }
+
     @GetMapping("/ic")
     public IcAnalysisResponse getIc(
             @RequestParam String cellId,
@@ -42,22 +126,79 @@ public class BatteryDashboardController {
         return batteryDataService.getIcAnalysis(cellId, refCycle, currCycle, smooth == null ? 5 : smooth);
     }
 
+    /**
+     * 整包 IC 对比：PACK 内全部单体的峰位移/峰降幅，按峰降幅从大到小排序（不含曲线点）
+     */
+    @GetMapping("/ic/pack")
+    public PackIcComparisonResponse getPackIc(
+            @RequestParam String packId,
+            @RequestParam(required = false) Integer refCycle,
+            @RequestParam(required = false) Integer currCycle,
+            @RequestParam(required = false, defaultValue = "5") Integer smooth
+    ) {
+        return packIcAnalysisService.comparePack(packId, refCycle, currCycle, smooth == null ? 5 : smooth);
+    }
+
+    /**
+     * 逐 cycle 的 IC 峰特征趋势（峰位、峰高、峰面积、半高宽），数据来自后台批处理结果
+     */
+    @GetMapping("/ic/features")
+    public List<IcCycleFeatureDto> getIcFeatureTrend(@RequestParam String cellId) {
+        return icFeatureExtractionService.getFeatureTrend(cellId);
+    }
+
     /**
      * 获取PACK 拓扑矩阵监控数据
      * @param packId
+     * @param format json（默认）/ columnar / cbor；未指定时 Accept: application/cbor 视为 cbor
      * @return
      */
     @GetMapping("/topology/snapshot")
-    public TopologySnapshotDto getTopologySnapshot(
-            @RequestParam(required = false) String packId
+    public ResponseEntity<byte[]> getTopologySnapshot(
+            @RequestParam(required = false) String packId,
+            @RequestParam(required = false) String format,
+            @RequestHeader(value = "Accept", required = false) String accept
     ) {
-        return topologySnapshotService.getSnapshot(packId);
+        // 直接返回刷新线程预编码的字节（与 SSE 推送同一份），不再逐请求合并与序列化
+        TopologyWireCodec.Format wire = TopologyWireCodec.Format.parse(format, accept);
+        return ResponseEntity.ok()
+                .contentType(wire.mediaType())
+                .body(topologySnapshotService.getSnapshotBytes(packId, wire));
     }
 
+    /**
+     * 拓扑 SSE 推送。mode=delta（默认）：关键帧（snapshot，带 seq）+ 每秒增量帧（delta）；
+     * mode=full：每秒完整快照（旧客户端）。format=columnar 时帧为列式 JSON（SSE 不支持二进制，cbor 同 columnar）。
+     * from（epoch 毫秒）：先补发自该时刻起的历史帧（事件名 history），再接实时推送。
+     * delta 模式的事件带 id：EventSource 自动重连时回传 Last-Event-ID，只补发错过的增量；
+     * 手动重建连接时可用 lastEventId 参数传入同样的值。
+     */
     @GetMapping("/topology/stream")
     public SseEmitter getTopologyStream(
-            @RequestParam(required = false) String packId
+            @RequestParam(required = false) String packId,
+            @RequestParam(required = false, defaultValue = "delta") String mode,
+            @RequestParam(required = false) String format,
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) String lastEventId,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventIdHeader
+    ) {
+        return topologySnapshotService.subscribe(packId, mode, TopologyWireCodec.Format.parse(format, null), from,
+                lastEventIdHeader != null ? lastEventIdHeader : lastEventId);
+    }
+
+    /**
+     * 拓扑回看：packId 在 at（epoch 毫秒）时刻的矩阵，来自内存历史缓冲（最近 bms.topology.history.retention-ms）
+     */
+    @GetMapping("/topology/history")
+    public ResponseEntity<byte[]> getTopologyHistory(
+            @RequestParam(required = false) String packId,
+            @RequestParam long at,
+            @RequestParam(required = false) String format,
+            @RequestHeader(value = "Accept", required = false) String accept
     ) {
-        return topologySnapshotService.subscribe(packId);
+        TopologyWireCodec.Format wire = TopologyWireCodec.Format.parse(format, accept);
+        return ResponseEntity.ok()
+                .contentType(wire.mediaType())
+                .body(topologySnapshotService.getHistoryBytes(packId, at, wire));
     }
 }
\ No newline at end of file
@@ -0,0 +1,39 @@
+package com.bms.backend.dto;
+
+import lombok.Data;
+
+/**
+ * 新增 / 覆盖告警规则的请求DTO；为空的字段继承默认规则 / 内置默认值
+ */
+@Data
+public class BatteryAlarmRuleRequest {
+
+    private Boolean enabled;
+
+    // 电压阈值 (V)
+    private Double voltageHighAlarm;
+    private Double voltageHighWarn;
+    private Double voltageLowWarn;
+    private Double voltageLowAlarm;
+
+    // 温度阈值 (°C)
+    private Double temperatureAlarm;
+    private Double temperatureWarn;
+
+    // 扣分权重（0..100）
+    private Integer voltageAlarmPenalty;
+    private Integer voltageWarnPenalty;
+    private Integer temperatureAlarmPenalty;
+    private Integer temperatureWarnPenalty;
+    private Integer missingPenalty;
+
+    // 状态分界
+    private Integer alarmScore;
+    private Integer warnScore;
+
+    // 回差
+    private Double voltageHysteresis;
+    private Double temperatureHysteresis;
+
+    private String remark;
+}
@@ -0,0 +1,15 @@
+package com.bms.backend.dto;
+
+import lombok.Data;
+
+/**
+ * 单个 cycle 的 IC 峰特征（趋势图数据点）
+ */
+@Data
+public class IcCycleFeatureDto {
+    private Integer cycleIndex;
+    private Double peakVoltage;
+    private Double peakHeight;
+    private Double peakArea;
+    private Double fwhm;
+}
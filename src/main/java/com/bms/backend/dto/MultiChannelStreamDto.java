@@ -0,0 +1,21 @@
+package com.bms.backend.dto;
+
+import lombok.Data;
+
+/**
+ * N 通道实时数据（列式）：ids 与各数值数组按下标一一对应，无数据的通道对应位置为 null。
+ */
+@Data
+public class MultiChannelStreamDto {
+    private String time;      // 时间字符串 "HH:mm:ss"（各通道最新采样中最晚的一个）
+
+    private String[] ids;
+
+    private Double[] voltage;     // 电压（服务端 EMA 降噪后）
+    private Double[] current;     // 电流（服务端 EMA 降噪后）
+    private Double[] voltageRaw;  // Influx 直出电压
+    private Double[] currentRaw;  // Influx 直出电流
+
+    /** Influx 被限流/超时/失败时为 true，此时数值为上一次成功查询的结果 */
+    private boolean stale;
+}
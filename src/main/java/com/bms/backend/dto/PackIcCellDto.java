@@ -0,0 +1,17 @@
+package com.bms.backend.dto;
+
+import lombok.Data;
+
+/**
+ * 整包 IC 对比中单体电池的结果：参考/当前 cycle 的峰位与峰降幅。
+ * error 非空表示该单体计算失败或超时，其余字段为空。
+ */
+@Data
+public class PackIcCellDto {
+    private String cellId;
+    private Integer refCycle;
+    private Integer currCycle;
+    private Double peakShift;
+    private Double peakDropPercent;
+    private String error;
+}
@@ -0,0 +1,20 @@
+package com.bms.backend.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 整包 IC 对比结果，cells 按峰降幅从大到小排序（无法计算的排在最后）。
+ */
+@Data
+public class PackIcComparisonResponse {
+    private String packId;
+    private Integer refCycle;
+    private Integer currCycle;
+    private Integer cellCount = 0;
+    private Integer analyzedCount = 0;
+    private Long elapsedMs;
+    private List<PackIcCellDto> cells = new ArrayList<>();
+}
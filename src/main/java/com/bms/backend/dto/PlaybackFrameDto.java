@@ -0,0 +1,15 @@
+package com.bms.backend.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 历史回放的一帧：同一采样时间（毫秒）的全部点
+ */
+@Data
+public class PlaybackFrameDto {
+    private long time;
+    private List<PlaybackPointDto> points = new ArrayList<>();
+}
@@ -0,0 +1,16 @@
+package com.bms.backend.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 历史回放会话信息（SSE 首个 info 事件）：回放的电池、数据时间范围（毫秒）与倍速
+ */
+@Data
+public class PlaybackInfoDto {
+    private List<String> cellIds;
+    private long start;
+    private long stop;
+    private double speed;
+}
@@ -0,0 +1,16 @@
+package com.bms.backend.dto;
+
+import lombok.Data;
+
+/**
+ * 历史回放中的单个采样点
+ */
+@Data
+public class PlaybackPointDto {
+    private String cellId;
+    private Integer cycle;
+    private Double voltage;
+    private Double current;
+    private Double temperature;
+    private Double capacity;
+}
@@ -7,7 +7,8 @@ import java.util.List;
 
 /**
  * PACK 拓扑矩阵监控数据单体电池DTO
- * 包括电池PACK ID、电池ID、行、列、模块索引、电压、温度、电流、得分、状态、原因。
+ * 包括电池PACK ID、电池ID、行、列、模块索引、电压、温度、电流、得分、状态、原因，
+ * 以及电压、温度在本 PACK 内的鲁棒 z 分数（保留一位小数，样本不足时为空）。
  */
 @Data
 public class TopologyCellDto {
@@ -22,5 +23,7 @@ public class TopologyCellDto {
     private Integer score;
     private String status; // normal | warn | alarm
     private List<String> reasons = new ArrayList<>();
+    private Double voltageZ;
+    private Double temperatureZ;
 }
 
@@ -0,0 +1,28 @@
+package com.bms.backend.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 多实例部署时主节点经 Redis 发布的一次拓扑刷新结果。
+ * packIds 为当前布局下全部 PACK（按顺序）；packs 只含本 tick 刷新过的 PACK，其中单体未变化的 PACK 的 cells 为 null，
+ * 从节点沿用上一帧的单体列表。full 帧带全部 PACK 的完整单体，供新加入的从节点或主节点切换后对齐。
+ * leaderEpoch 为发布者当选时取得的 fencing token，从节点忽略 epoch 低于已见最大值的帧（失去租约后仍在发布的旧主节点）。
+ * streamEpoch / streamSeq 为主节点给本 tick 分配的视图流时钟（SSE 事件 id 为 epoch.seq），从节点照用；心跳帧 streamSeq 为 0。
+ */
+@Data
+public class TopologyClusterFrameDto {
+    private String node;
+    private long leaderEpoch;
+    private String streamEpoch;
+    private long streamSeq;
+    private long layoutVersion;
+    private long ts;
+    private boolean full;
+    private List<String> packIds = new ArrayList<>();
+    private List<TopologySnapshotDto> packs = new ArrayList<>();
+    private boolean allStale;
+    private TopologySummaryDto allSummary = new TopologySummaryDto();
+}
@@ -0,0 +1,49 @@
+package com.bms.backend.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 拓扑快照 / 增量帧的列式编码：单体字段拆成等长并行数组，第 i 个元素属于第 i 个单体。
+ * <ul>
+ *     <li>pack 为 packs 字典下标；status 为 statusCodes 下标；reasons 为 reasonCodes 下标的位掩码；</li>
+ *     <li>voltage / temperature / current 为按 *Scale 放大后取整的整数，缺失为 null；</li>
+ *     <li>voltageZ / temperatureZ 为包内鲁棒 z 乘以 robustZScale 后的整数，不可用为 null。</li>
+ * </ul>
+ * 快照帧 removed 为空（不输出），增量帧 columns 只含变化单体。
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TopologyColumnarDto {
+    private String packId;
+    private Long seq;
+    private Long ts;
+    private boolean stale;
+    private TopologySummaryDto summary;
+
+    private int voltageScale;
+    private int temperatureScale;
+    private int currentScale;
+    private int robustZScale;
+    private List<String> statusCodes;
+    private List<String> reasonCodes;
+
+    private List<String> packs;
+    private String[] cellId;
+    private int[] pack;
+    private int[] row;
+    private int[] col;
+    private int[] moduleIndex;
+    private Integer[] voltage;
+    private Integer[] temperature;
+    private Integer[] current;
+    private Integer[] voltageZ;
+    private Integer[] temperatureZ;
+    private int[] score;
+    private int[] status;
+    private int[] reasons;
+
+    private List<String> removed;
+}
@@ -0,0 +1,21 @@
+package com.bms.backend.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 拓扑增量帧：相对上一帧（seq - 1）变化超过死区或状态变化的单体，以及已移除的单体 ID。
+ * 客户端发现 seq 不连续时应重新订阅以获取关键帧。
+ */
+@Data
+public class TopologyDeltaDto {
+    private String packId;
+    private long seq;
+    private Long ts;
+    private boolean stale;
+    private TopologySummaryDto summary = new TopologySummaryDto();
+    private List<TopologyCellDto> cells = new ArrayList<>();
+    private List<String> removed = new ArrayList<>();
+}
@@ -8,10 +8,12 @@ import java.util.List;
 /**
  * PACK 拓扑矩阵监控数据DTO
  * 包括电池PACK ID、时间戳、是否过期、摘要、电池列表。
+ * 作为 SSE 关键帧发送时 seq 为帧序号，其后的增量帧（{@link TopologyDeltaDto}）从 seq + 1 开始。
  */
 @Data
 public class TopologySnapshotDto {
     private String packId;
+    private Long seq;
     private Long ts;
     private boolean stale;
     private TopologySummaryDto summary = new TopologySummaryDto();
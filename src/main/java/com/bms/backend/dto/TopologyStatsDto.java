@@ -0,0 +1,17 @@
+package com.bms.backend.dto;
+
+import lombok.Data;
+
+/**
+ * PACK 单项量测（电压或温度）的统计：有效单体数、均值、标准差、最小 / 最大值、极差（max - min）、离群单体数。
+ */
+@Data
+public class TopologyStatsDto {
+    private Integer count = 0;
+    private Double mean;
+    private Double std;
+    private Double min;
+    private Double max;
+    private Double spread;
+    private Integer outliers = 0;
+}
@@ -4,7 +4,7 @@ import lombok.Data;
 
 /**
  * PACK 拓扑矩阵监控数据摘要DTO
- * 包括电池总数、正常电池数、警告电池数、报警电池数。
+ * 包括电池总数、正常电池数、警告电池数、报警电池数，以及电压、温度的一致性统计。
  */
 @Data
 public class TopologySummaryDto {
@@ -12,5 +12,7 @@ public class TopologySummaryDto {
     private Integer normal = 0;
     private Integer warn = 0;
     private Integer alarm = 0;
+    private TopologyStatsDto voltageStats;
+    private TopologyStatsDto temperatureStats;
 }
 
@@ -0,0 +1,26 @@
+package com.bms.backend.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 单个电池的窗口聚合历史（列式）：time 为各窗口起点（毫秒），最后一个为尚未结束的窗口。
+ */
+@Data
+public class WindowedHistoryResponse {
+    private String cellId;
+    private long windowMs;
+    private long start;
+    private long stop;
+
+    private long[] time;
+    private List<WindowedSeriesDto> series = new ArrayList<>();
+
+    /** 直接由缓存提供的已关闭窗口数 */
+    private int cachedBuckets;
+
+    /** Influx 不可用时为 true，此时只有缓存中的已关闭窗口 */
+    private boolean stale;
+}
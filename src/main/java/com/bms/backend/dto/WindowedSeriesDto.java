@@ -0,0 +1,17 @@
+package com.bms.backend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 窗口聚合的一条序列：values 与 {@link WindowedHistoryResponse#getTime()} 按下标对应，空窗口为 null。
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class WindowedSeriesDto {
+    private String field;     // voltage / current / temperature / capacity
+    private String fn;        // mean / min / max / last
+    private Double[] values;
+}
@@ -0,0 +1,98 @@
+package com.bms.backend.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Data;
+
+import javax.persistence.*;
+import java.time.OffsetDateTime;
+
+/**
+ * 拓扑告警规则（按电池型号配置）：电压 / 温度阈值、扣分权重、状态分界与回差。
+ * model_id 为空的一条是默认规则，未配置规则的型号使用它；两者都没有时使用内置默认值（4.2 / 3.0 V、45 °C）。
+ * PostgreSQL 的唯一约束不约束 NULL，默认规则的唯一性由 default_rule 列保证。
+ * 修改后由 AlarmRuleRegistry 热加载，无需重启。
+ */
+@Entity
+@Table(name = "battery_alarm_rule")
+@Data
+public class BatteryAlarmRule {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // 电池型号ID，空表示默认规则
+    @Column(name = "model_id", unique = true)
+    private Long modelId;
+
+    // 默认规则为 true，型号规则为空：唯一约束保证最多一条默认规则
+    @JsonIgnore
+    @Column(name = "default_rule", unique = true)
+    private Boolean defaultRule;
+
+    @Column(nullable = false)
+    private Boolean enabled = true;
+
+    // 电压阈值 (V)：越过 alarm 为超限，越过 warn 为临界
+    @Column(name = "voltage_high_alarm")
+    private Double voltageHighAlarm;
+
+    @Column(name = "voltage_high_warn")
+    private Double voltageHighWarn;
+
+    @Column(name = "voltage_low_warn")
+    private Double voltageLowWarn;
+
+    @Column(name = "voltage_low_alarm")
+    private Double voltageLowAlarm;
+
+    // 温度阈值 (°C)
+    @Column(name = "temperature_alarm")
+    private Double temperatureAlarm;
+
+    @Column(name = "temperature_warn")
+    private Double temperatureWarn;
+
+    // 扣分权重（满分 100）
+    @Column(name = "voltage_alarm_penalty")
+    private Integer voltageAlarmPenalty;
+
+    @Column(name = "voltage_warn_penalty")
+    private Integer voltageWarnPenalty;
+
+    @Column(name = "temperature_alarm_penalty")
+    private Integer temperatureAlarmPenalty;
+
+    @Column(name = "temperature_warn_penalty")
+    private Integer temperatureWarnPenalty;
+
+    @Column(name = "missing_penalty")
+    private Integer missingPenalty;
+
+    // 状态分界：分数低于 alarm_score 为 alarm，低于 warn_score 为 warn
+    @Column(name = "alarm_score")
+    private Integer alarmScore;
+
+    @Column(name = "warn_score")
+    private Integer warnScore;
+
+    // 回差：已处于告警 / 临界的单体需回落到阈值以内这么多才解除，避免在阈值附近来回跳变
+    @Column(name = "voltage_hysteresis")
+    private Double voltageHysteresis;
+
+    @Column(name = "temperature_hysteresis")
+    private Double temperatureHysteresis;
+
+    @Column
+    private String remark;
+
+    @Column(name = "updated_at", nullable = false, columnDefinition = "TIMESTAMPTZ")
+    private OffsetDateTime updatedAt;
+
+    @PrePersist
+    @PreUpdate
+    public void touch() {
+        this.defaultRule = modelId == null ? Boolean.TRUE : null;
+        this.updatedAt = OffsetDateTime.now();
+    }
+}
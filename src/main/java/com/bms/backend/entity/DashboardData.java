@@ -20,4 +20,7 @@ public class DashboardData {
     private Double caRaw;
     private Double vbRaw;
     private Double cbRaw;
+
+    /** Influx 被限流/超时/失败时为 true，此时数值为上一次成功查询的结果 */
+    private boolean stale;
 }
\ No newline at end of file
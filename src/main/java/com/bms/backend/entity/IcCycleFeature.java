@@ -0,0 +1,79 @@
+package com.bms.backend.entity;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import java.time.OffsetDateTime;
+
+/**
+ * IcCycleFeature 存储每个 (cell_id, cycle_index) 的 IC 主峰特征，供全量 cycle 趋势图直接读取。
+ * 由后台批处理任务增量写入。无有效峰的 cycle 也写一行（peak_found=false，峰特征列填 0），
+ * 记录重试次数，避免每轮都重新查询 Influx。
+ */
+@Entity
+@Table(name = "ic_cycle_feature",
+        uniqueConstraints = @UniqueConstraint(name = "uk_ic_cycle_feature_cell_cycle", columnNames = {"cell_id", "cycle_index"}),
+        indexes = @Index(name = "idx_ic_cycle_feature_cell", columnList = "cell_id"))
+@Data
+public class IcCycleFeature {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "cell_id", length = 64, nullable = false)
+    private String cellId;
+
+    @Column(name = "cycle_index", nullable = false)
+    private Integer cycleIndex;
+
+    // 峰位电压（V）
+    @Column(name = "peak_voltage", nullable = false)
+    private Double peakVoltage;
+
+    // 峰高 dQ/dV（Ah/V）
+    @Column(name = "peak_height", nullable = false)
+    private Double peakHeight;
+
+    // 半高宽区间内峰面积（Ah）
+    @Column(name = "peak_area", nullable = false)
+    private Double peakArea;
+
+    // 半高宽（V）
+    @Column(name = "fwhm", nullable = false)
+    private Double fwhm;
+
+    // 计算时使用的平滑窗口
+    @Column(name = "smooth_window", nullable = false)
+    private Integer smoothWindow;
+
+    // 是否找到有效峰；false 为“无峰”标记行，峰特征列无意义。旧数据为 null，视为 true
+    @Column(name = "peak_found")
+    private Boolean peakFound;
+
+    // 连续未找到峰的次数，用于退避重试
+    @Column(name = "attempts")
+    private Integer attempts;
+
+    // 计算时该 cycle 在目录中的最后写入时间（epoch ms），目录更新后据此重算
+    @Column(name = "source_last_ms")
+    private Long sourceLastMs;
+
+    @Column(name = "created_at", columnDefinition = "TIMESTAMPTZ", nullable = false)
+    private OffsetDateTime createdAt;
+
+    @Column(name = "updated_at", columnDefinition = "TIMESTAMPTZ", nullable = false)
+    private OffsetDateTime updatedAt;
+
+    @PrePersist
+    public void prePersist() {
+        OffsetDateTime now = OffsetDateTime.now();
+        this.createdAt = now;
+        this.updatedAt = now;
+    }
+
+    @PreUpdate
+    public void preUpdate() {
+        this.updatedAt = OffsetDateTime.now();
+    }
+}
@@ -0,0 +1,69 @@
+package com.bms.backend.entity;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import java.time.OffsetDateTime;
+
+/**
+ * IcDerivedCurve 存储写入时增量计算的分桶 IC（dQ/dV）曲线，一个 (cell_id, cycle_index) 一条。
+ * 曲线为未平滑结果，读取时再按请求的窗口做裁剪/平滑。
+ */
+@Entity
+@Table(name = "ic_derived_curve",
+        uniqueConstraints = @UniqueConstraint(name = "uk_ic_derived_curve_cell_cycle", columnNames = {"cell_id", "cycle_index"}))
+@Data
+public class IcDerivedCurve {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "cell_id", length = 64, nullable = false)
+    private String cellId;
+
+    @Column(name = "cycle_index", nullable = false)
+    private Integer cycleIndex;
+
+    /**
+     * dQ 来源：
+     * - capacity：capacity 字段差分
+     * - coulomb：电流梯形积分
+     */
+    @Column(name = "source", length = 16, nullable = false)
+    private String source;
+
+    // 电压分桶宽度（V）
+    @Column(name = "bin_width", nullable = false)
+    private Double binWidth;
+
+    // 参与累计的采样点数
+    @Column(name = "sample_count", nullable = false)
+    private Long sampleCount;
+
+    // 桶中心电压，逗号分隔，升序
+    @Column(name = "voltages", columnDefinition = "TEXT", nullable = false)
+    private String voltages;
+
+    // 与 voltages 一一对应的 dQ/dV，逗号分隔
+    @Column(name = "dqdv", columnDefinition = "TEXT", nullable = false)
+    private String dqdv;
+
+    @Column(name = "created_at", columnDefinition = "TIMESTAMPTZ", nullable = false)
+    private OffsetDateTime createdAt;
+
+    @Column(name = "updated_at", columnDefinition = "TIMESTAMPTZ", nullable = false)
+    private OffsetDateTime updatedAt;
+
+    @PrePersist
+    public void prePersist() {
+        OffsetDateTime now = OffsetDateTime.now();
+        this.createdAt = now;
+        this.updatedAt = now;
+    }
+
+    @PreUpdate
+    public void preUpdate() {
+        this.updatedAt = OffsetDateTime.now();
+    }
+}
@@ -0,0 +1,301 @@
+package com.bms.backend.influx;
+
+import com.influxdb.query.FluxRecord;
+import com.influxdb.query.FluxTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 每个 cell（及其每个 cycle）首/末采样时间目录，用于给 Flux 生成精确的 range(start:, stop:)。
+ * 写入路径（CSV 导入、模拟写入）在写点时同步更新；启动预热阶段从 Influx 全量加载一次，之后定期增量对齐，
+ * 以覆盖其他实例写入的数据。目录未加载或未命中时回退到调用方给出的相对时间窗。
+ */
+@Component
+public class CellTimeRangeCatalog {
+
+    private static final Logger log = LoggerFactory.getLogger(CellTimeRangeCatalog.class);
+
+    private final InfluxQueryGateway influxQueryGateway;
+
+    @Value("${influxdb.bucket}")
+    private String bucket;
+
+    /** 首次加载回看的时间窗 */
+    @Value("${bms.influx.catalog.bootstrap-range:-365d}")
+    private String bootstrapRange;
+
+    private static final Pattern RELATIVE_PATTERN = Pattern.compile("-(\\d+)([dhms])");
+
+    private final ConcurrentHashMap<String, CellEntry> cells = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+    private volatile long lastSyncAtMs = 0L;
+
+    /** 不可变的时间边界（毫秒，闭区间） */
+    public static final class TimeBounds {
+        private final long firstMs;
+        private final long lastMs;
+
+        public TimeBounds(long firstMs, long lastMs) {
+            this.firstMs = firstMs;
+            this.lastMs = lastMs;
+        }
+
+        public long getFirstMs() {
+            return firstMs;
+        }
+
+        public long getLastMs() {
+            return lastMs;
+        }
+    }
+
+    private static final class Bounds {
+        private long firstMs = Long.MAX_VALUE;
+        private long lastMs = Long.MIN_VALUE;
+
+        synchronized void extend(long first, long last) {
+            if (first < firstMs) firstMs = first;
+            if (last > lastMs) lastMs = last;
+        }
+
+        synchronized TimeBounds snapshot() {
+            return firstMs <= lastMs ? new TimeBounds(firstMs, lastMs) : null;
+        }
+    }
+
+    private static final class CellEntry {
+        final Bounds all = new Bounds();
+        final ConcurrentHashMap<Integer, Bounds> cycles = new ConcurrentHashMap<>();
+        /** 上次 {@link #pollEarliestWrite(String)} 之后写入的最早数据时间 */
+        final AtomicLong earliestUnpolledMs = new AtomicLong(Long.MAX_VALUE);
+    }
+
+    public CellTimeRangeCatalog(InfluxQueryGateway influxQueryGateway) {
+        this.influxQueryGateway = influxQueryGateway;
+    }
+
+    /**
+     * 写入路径调用：登记一个采样点。
+     */
+    public void record(String cellId, int cycle, long timeMs) {
+        extend(cellId, cycle, timeMs, timeMs);
+    }
+
+    private void extend(String cellId, Integer cycle, long firstMs, long lastMs) {
+        if (cellId == null || cellId.trim().isEmpty()) return;
+        CellEntry entry = cells.computeIfAbsent(cellId.trim().toLowerCase(), k -> new CellEntry());
+        entry.all.extend(firstMs, lastMs);
+        if (firstMs < entry.earliestUnpolledMs.get()) {
+            entry.earliestUnpolledMs.accumulateAndGet(firstMs, Math::min);
+        }
+        if (cycle != null) {
+            entry.cycles.computeIfAbsent(cycle, k -> new Bounds()).extend(firstMs, lastMs);
+        }
+    }
+
+    /**
+     * 取出并清空该 cell 自上次调用以来写入（含增量对齐发现）的最早数据时间，没有新写入返回 Long.MAX_VALUE。
+     * 供窗口聚合缓存判断哪些已关闭的窗口被补写而失效（单一消费者）。
+     */
+    public long pollEarliestWrite(String cellId) {
+        CellEntry entry = cellId == null ? null : cells.get(cellId.trim().toLowerCase());
+        return entry == null ? Long.MAX_VALUE : entry.earliestUnpolledMs.getAndSet(Long.MAX_VALUE);
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public TimeBounds cellBounds(String cellId) {
+        CellEntry entry = cellId == null ? null : cells.get(cellId.trim().toLowerCase());
+        return entry == null ? null : entry.all.snapshot();
+    }
+
+    public TimeBounds cycleBounds(String cellId, int cycle) {
+        CellEntry entry = cellId == null ? null : cells.get(cellId.trim().toLowerCase());
+        if (entry == null) return null;
+        Bounds b = entry.cycles.get(cycle);
+        return b == null ? null : b.snapshot();
+    }
+
+    /** 已登记的 cycle（升序）；未知 cell 返回空列表 */
+    public List<Integer> cycles(String cellId) {
+        CellEntry entry = cellId == null ? null : cells.get(cellId.trim().toLowerCase());
+        if (entry == null) return Collections.emptyList();
+        List<Integer> list = new ArrayList<>(entry.cycles.keySet());
+        Collections.sort(list);
+        return list;
+    }
+
+    /**
+     * 单个 cell 全部数据的 range 子句。只收紧 start：目录之后（其他实例、外部写入方）写入的点
+     * 要等下次对齐才登记，stop 不封口才能查到。
+     */
+    public String rangeForCell(String cellId, String fallbackStart) {
+        return rangeClause(cellBounds(cellId), fallbackStart, true);
+    }
+
+    /**
+     * 单个 cell 某个 cycle 的 range 子句：已结束的 cycle 用精确的 start / stop；
+     * 该 cell 已知的最新 cycle 可能仍在写入，stop 不封口。
+     */
+    public String rangeForCycle(String cellId, int cycle, String fallbackStart) {
+        TimeBounds b = cycleBounds(cellId, cycle);
+        if (b == null) return rangeClause(cellBounds(cellId), fallbackStart, true);
+        return rangeClause(b, fallbackStart, isLatestCycle(cellId, cycle));
+    }
+
+    private boolean isLatestCycle(String cellId, int cycle) {
+        CellEntry entry = cells.get(cellId.trim().toLowerCase());
+        if (entry == null) return true;
+        for (Integer c : entry.cycles.keySet()) {
+            if (c > cycle) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 取「最新点」的 range 子句：start 收紧到这些 cell 各自最后一个采样中最早的那个，stop 不封口，
+     * 目录登记之后才写入的点（其他实例、外部写入方）照样能查到。
+     *
+     * @param cellIds null 表示目录内全部 cell
+     */
+    public String rangeForLatest(Collection<String> cellIds, String fallbackStart) {
+        if (!loaded) return rangeClause(null, fallbackStart, true);
+        long minLast = Long.MAX_VALUE;
+        long maxLast = Long.MIN_VALUE;
+        Collection<CellEntry> entries;
+        if (cellIds == null) {
+            entries = cells.values();
+        } else {
+            entries = new ArrayList<>(cellIds.size());
+            for (String id : cellIds) {
+                if (id == null) continue;
+                CellEntry e = cells.get(id.trim().toLowerCase());
+                // 目录已加载后未登记的 cell 视为无数据，不参与放宽时间窗
+                if (e != null) entries.add(e);
+            }
+        }
+        for (CellEntry e : entries) {
+            TimeBounds b = e.all.snapshot();
+            if (b == null) continue;
+            minLast = Math.min(minLast, b.getLastMs());
+            maxLast = Math.max(maxLast, b.getLastMs());
+        }
+        // 不早于原相对时间窗的起点，保持「窗口外的旧 cell 不返回」的语义，也避免一个陈旧 cell 拉宽整个区间
+        long floorMs = relativeStartMs(fallbackStart);
+        if (floorMs != Long.MIN_VALUE) {
+            minLast = Math.max(minLast, floorMs);
+        }
+        if (minLast > maxLast) return rangeClause(null, fallbackStart, true);
+        return rangeClause(new TimeBounds(minLast, maxLast), fallbackStart, true);
+    }
+
+    /** 解析 -30d / -12h / -5m / -10s 形式的相对起点；无法解析返回 Long.MIN_VALUE */
+    private static long relativeStartMs(String relative) {
+        Matcher m = RELATIVE_PATTERN.matcher(relative == null ? "" : relative.trim());
+        if (!m.matches()) return Long.MIN_VALUE;
+        long n = Long.parseLong(m.group(1));
+        long unitMs;
+        switch (m.group(2)) {
+            case "d":
+                unitMs = 86_400_000L;
+                break;
+            case "h":
+                unitMs = 3_600_000L;
+                break;
+            case "m":
+                unitMs = 60_000L;
+                break;
+            default:
+                unitMs = 1000L;
+                break;
+        }
+        return System.currentTimeMillis() - n * unitMs;
+    }
+
+    private static String rangeClause(TimeBounds b, String fallbackStart, boolean openStop) {
+        if (b == null) {
+            return "range(start: " + fallbackStart + ")";
+        }
+        if (openStop) {
+            return "range(start: " + Instant.ofEpochMilli(b.getFirstMs()) + ")";
+        }
+        // stop 为开区间，+1ms 包含最后一个点
+        return "range(start: " + Instant.ofEpochMilli(b.getFirstMs()) + ", stop: " + Instant.ofEpochMilli(b.getLastMs() + 1) + ")";
+    }
+
+    /**
+     * 定期与 Influx 对齐：首次回看 bootstrap-range，之后只扫描上次同步以来的新数据（覆盖其他实例的写入）。
+     */
+    @Scheduled(fixedDelayString = "${bms.influx.catalog.sync-interval-ms:600000}",
+            initialDelayString = "${bms.influx.catalog.sync-interval-ms:600000}")
+    public synchronized void syncFromInflux() {
+        long startedAt = System.currentTimeMillis();
+        String start = loaded
+                ? Instant.ofEpochMilli(lastSyncAtMs - 60_000L).toString()
+                : bootstrapRange;
+        try {
+            Map<String, long[]> firsts = queryEdge(start, "first");
+            Map<String, long[]> lasts = queryEdge(start, "last");
+            for (Map.Entry<String, long[]> e : lasts.entrySet()) {
+                long[] last = e.getValue();
+                long[] first = firsts.get(e.getKey());
+                String cellId = e.getKey().substring(0, e.getKey().indexOf('\0'));
+                extend(cellId, last[0] == Long.MIN_VALUE ? null : (int) last[0], first != null ? first[1] : last[1], last[1]);
+            }
+            lastSyncAtMs = startedAt;
+            if (!loaded) {
+                loaded = true;
+                log.info("✅ cell 时间目录加载完成：cells={}", cells.size());
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ cell 时间目录同步失败，沿用相对时间窗: {}", e.getMessage());
+        }
+    }
+
+    /** key = cellId + '\0' + cycle，value = [cycle 或 MIN_VALUE, 时间毫秒] */
+    private Map<String, long[]> queryEdge(String start, String selector) {
+        String query = String.format(
+                "from(bucket: \"%s\") " +
+                        "|> range(start: %s) " +
+                        "|> filter(fn: (r) => r[\"_measurement\"] == \"battery_metrics\") " +
+                        "|> filter(fn: (r) => r[\"_field\"] == \"voltage\") " +
+                        "|> group(columns: [\"cell_id\", \"cycle_index\"]) " +
+                        "|> %s() " +
+                        "|> keep(columns: [\"cell_id\", \"cycle_index\", \"_time\"])",
+                bucket, start, selector
+        );
+        Map<String, long[]> out = new ConcurrentHashMap<>();
+        for (FluxTable table : influxQueryGateway.query(query, InfluxLane.BACKGROUND)) {
+            for (FluxRecord record : table.getRecords()) {
+                Object cell = record.getValueByKey("cell_id");
+                if (cell == null || record.getTime() == null) continue;
+                Object rawCycle = record.getValueByKey("cycle_index");
+                long cycle = Long.MIN_VALUE;
+                if (rawCycle != null) {
+                    try {
+                        cycle = Integer.parseInt(String.valueOf(rawCycle));
+                    } catch (Exception ignored) {
+                    }
+                }
+                out.put(cell + "\0" + cycle, new long[]{cycle, record.getTime().toEpochMilli()});
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,143 @@
+package com.bms.backend.influx;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Influx 舱壁：每个 {@link InfluxLane} 一个固定大小线程池 + 有界队列。
+ * 队列满立即丢弃（不阻塞 Tomcat 线程），单次查询超时后放弃等待；
+ * 慢 Influx 最多占满对应通道，不会拖垮其他通道和 Web 线程。
+ */
+@Component
+public class InfluxBulkhead {
+
+    @Value("${bms.influx.bulkhead.interactive.concurrency:8}")
+    private int interactiveConcurrency = 8;
+    @Value("${bms.influx.bulkhead.interactive.queue:32}")
+    private int interactiveQueue = 32;
+    @Value("${bms.influx.bulkhead.interactive.timeout-ms:5000}")
+    private long interactiveTimeoutMs = 5000L;
+
+    @Value("${bms.influx.bulkhead.refresh.concurrency:2}")
+    private int refreshConcurrency = 2;
+    @Value("${bms.influx.bulkhead.refresh.queue:2}")
+    private int refreshQueue = 2;
+    @Value("${bms.influx.bulkhead.refresh.timeout-ms:3000}")
+    private long refreshTimeoutMs = 3000L;
+
+    @Value("${bms.influx.bulkhead.background.concurrency:2}")
+    private int backgroundConcurrency = 2;
+    @Value("${bms.influx.bulkhead.background.queue:64}")
+    private int backgroundQueue = 64;
+    @Value("${bms.influx.bulkhead.background.timeout-ms:30000}")
+    private long backgroundTimeoutMs = 30000L;
+
+    private final Map<InfluxLane, Lane> lanes = new EnumMap<>(InfluxLane.class);
+
+    private static final class Lane {
+        final ThreadPoolExecutor executor;
+        final long timeoutMs;
+        final AtomicLong shed = new AtomicLong();
+        final AtomicLong timedOut = new AtomicLong();
+
+        Lane(InfluxLane lane, int concurrency, int queue, long timeoutMs) {
+            int n = Math.max(1, concurrency);
+            AtomicInteger seq = new AtomicInteger();
+            String prefix = "influx-" + lane.name().toLowerCase() + "-";
+            this.executor = new ThreadPoolExecutor(n, n, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, queue)),
+                    r -> {
+                        Thread t = new Thread(r, prefix + seq.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    },
+                    new ThreadPoolExecutor.AbortPolicy());
+            this.executor.allowCoreThreadTimeOut(true);
+            this.timeoutMs = timeoutMs;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        lanes.put(InfluxLane.INTERACTIVE, new Lane(InfluxLane.INTERACTIVE, interactiveConcurrency, interactiveQueue, interactiveTimeoutMs));
+        lanes.put(InfluxLane.REFRESH, new Lane(InfluxLane.REFRESH, refreshConcurrency, refreshQueue, refreshTimeoutMs));
+        lanes.put(InfluxLane.BACKGROUND, new Lane(InfluxLane.BACKGROUND, backgroundConcurrency, backgroundQueue, backgroundTimeoutMs));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Lane lane : lanes.values()) {
+            lane.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 在指定通道执行查询，调用线程最多等待该通道的超时时间。
+     *
+     * @throws InfluxUnavailableException 通道已满被丢弃、超时或执行失败
+     */
+    public <T> T execute(InfluxLane lane, Callable<T> task) {
+        Lane l = lanes.get(lane);
+        Future<T> future;
+        try {
+            future = l.executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            l.shed.incrementAndGet();
+            throw new InfluxUnavailableException("Influx " + lane + " 通道已满，请求被丢弃", e);
+        }
+        return await(lane, future, true);
+    }
+
+    /**
+     * 等待一个已在执行中的查询（single-flight 的跟随者），超时按当前通道计算；
+     * 跟随者超时只放弃等待，不取消共享的查询。
+     */
+    public <T> T awaitShared(InfluxLane lane, Future<T> future) {
+        return await(lane, future, false);
+    }
+
+    private <T> T await(InfluxLane lane, Future<T> future, boolean cancelOnTimeout) {
+        Lane l = lanes.get(lane);
+        try {
+            return future.get(l.timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            l.timedOut.incrementAndGet();
+            if (cancelOnTimeout) future.cancel(true);
+            throw new InfluxUnavailableException("Influx " + lane + " 查询超时(" + l.timeoutMs + "ms)", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (cancelOnTimeout) future.cancel(true);
+            throw new InfluxUnavailableException("Influx " + lane + " 查询被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof InfluxUnavailableException) throw (InfluxUnavailableException) cause;
+            throw new InfluxUnavailableException("Influx 查询失败: " + cause.getMessage(), cause);
+        } catch (CancellationException e) {
+            throw new InfluxUnavailableException("Influx " + lane + " 查询已取消", e);
+        }
+    }
+
+    public long getShedCount(InfluxLane lane) {
+        return lanes.get(lane).shed.get();
+    }
+
+    public long getTimeoutCount(InfluxLane lane) {
+        return lanes.get(lane).timedOut.get();
+    }
+}
@@ -0,0 +1,13 @@
+package com.bms.backend.influx;
+
+/**
+ * Influx 访问优先级通道：各通道并发、排队长度与超时独立配置，互不抢占。
+ */
+public enum InfluxLane {
+    /** 用户请求（大屏、列表、IC 分析） */
+    INTERACTIVE,
+    /** 定时刷新（拓扑快照） */
+    REFRESH,
+    /** 后台任务（目录同步、批量分析） */
+    BACKGROUND
+}
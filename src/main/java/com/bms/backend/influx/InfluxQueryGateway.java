@@ -0,0 +1,145 @@
+package com.bms.backend.influx;
+
+import com.influxdb.client.InfluxDBClient;
+import com.influxdb.query.FluxTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Influx 查询网关：对完全相同的 Flux 语句做 single-flight 合并。
+ * 同一时刻只有第一个调用方真正打到 Influx，其余并发调用方等待并共享同一份结果；
+ * 可选短 TTL（默认关闭）让紧随其后的相同查询直接复用结果。
+ * 真正的查询经 {@link InfluxBulkhead} 按通道限流、限时执行。
+ * 返回的表列表为共享只读对象，调用方不要修改。
+ */
+@Component
+public class InfluxQueryGateway {
+
+    private static final Logger log = LoggerFactory.getLogger(InfluxQueryGateway.class);
+
+    private final InfluxDBClient influxDBClient;
+    private final InfluxBulkhead bulkhead;
+    private final String org;
+    private final long resultTtlMs;
+
+    @Value("${bms.influx.gateway.max-cached-results:256}")
+    private int maxCachedResults = 256;
+
+    private final ConcurrentHashMap<String, CompletableFuture<List<FluxTable>>> inFlight = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CachedResult> recent = new ConcurrentHashMap<>();
+    /** 按逻辑 key 保存最后一次成功结果，限流/超时时兜底返回 */
+    private final ConcurrentHashMap<String, List<FluxTable>> lastGood = new ConcurrentHashMap<>();
+
+    private static final class CachedResult {
+        final List<FluxTable> tables;
+        final long atMs;
+
+        CachedResult(List<FluxTable> tables, long atMs) {
+            this.tables = tables;
+            this.atMs = atMs;
+        }
+    }
+
+    public InfluxQueryGateway(InfluxDBClient influxDBClient,
+                              InfluxBulkhead bulkhead,
+                              @Value("${influxdb.org}") String org,
+                              @Value("${bms.influx.gateway.result-ttl-ms:0}") long resultTtlMs) {
+        this.influxDBClient = influxDBClient;
+        this.bulkhead = bulkhead;
+        this.org = org;
+        this.resultTtlMs = resultTtlMs;
+    }
+
+    /**
+     * 以交互通道执行 Flux 查询，见 {@link #query(String, InfluxLane)}。
+     */
+    public List<FluxTable> query(String flux) {
+        return query(flux, InfluxLane.INTERACTIVE);
+    }
+
+    /**
+     * 执行 Flux 查询；相同语句的并发调用只会触发一次 Influx 请求。
+     * 查询失败时所有等待中的调用方都会收到同一个异常。
+     *
+     * @throws InfluxUnavailableException 通道已满、超时或查询失败
+     */
+    public List<FluxTable> query(String flux, InfluxLane lane) {
+        if (resultTtlMs > 0) {
+            CachedResult cached = recent.get(flux);
+            if (cached != null && System.currentTimeMillis() - cached.atMs < resultTtlMs) {
+                return cached.tables;
+            }
+        }
+
+        CompletableFuture<List<FluxTable>> mine = new CompletableFuture<>();
+        CompletableFuture<List<FluxTable>> existing = inFlight.putIfAbsent(flux, mine);
+        if (existing != null) {
+            return bulkhead.awaitShared(lane, existing);
+        }
+        try {
+            List<FluxTable> tables = bulkhead.execute(lane,
+                    () -> Collections.unmodifiableList(influxDBClient.getQueryApi().query(flux, org)));
+            if (resultTtlMs > 0) {
+                remember(flux, tables);
+            }
+            mine.complete(tables);
+            return tables;
+        } catch (Throwable e) {
+            // Error（OOM、栈溢出）同样要唤醒合并等待的调用方，否则它们只能等到各自超时
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            // 先写缓存再移出 in-flight，保证后来者要么命中缓存要么重新发起
+            inFlight.remove(flux, mine);
+        }
+    }
+
+    /**
+     * 执行查询，失败（限流丢弃、超时、Influx 异常）时不抛出，而是返回 staleKey 对应的上一次成功结果并标记 stale。
+     * staleKey 为调用方的逻辑 key（例如「双通道 A|B」），时间窗变化导致 Flux 文本不同也能命中。
+     */
+    public InfluxQueryResult queryOrStale(String flux, InfluxLane lane, String staleKey) {
+        try {
+            List<FluxTable> tables = query(flux, lane);
+            rememberLastGood(staleKey, tables);
+            return new InfluxQueryResult(tables, false);
+        } catch (RuntimeException e) {
+            List<FluxTable> previous = lastGood.get(staleKey);
+            log.warn("⚠️ Influx 查询不可用，返回{}结果 key={}: {}",
+                    previous != null ? "上次成功" : "空", staleKey, e.getMessage());
+            return new InfluxQueryResult(previous, true);
+        }
+    }
+
+    private void rememberLastGood(String staleKey, List<FluxTable> tables) {
+        if (lastGood.size() >= maxCachedResults && !lastGood.containsKey(staleKey)) {
+            lastGood.clear();
+        }
+        lastGood.put(staleKey, tables);
+    }
+
+    private void remember(String flux, List<FluxTable> tables) {
+        long now = System.currentTimeMillis();
+        if (recent.size() >= maxCachedResults) {
+            Iterator<Map.Entry<String, CachedResult>> it = recent.entrySet().iterator();
+            while (it.hasNext()) {
+                if (now - it.next().getValue().atMs >= resultTtlMs) {
+                    it.remove();
+                }
+            }
+            if (recent.size() >= maxCachedResults) {
+                recent.clear();
+            }
+        }
+        recent.put(flux, new CachedResult(tables, now));
+    }
+}
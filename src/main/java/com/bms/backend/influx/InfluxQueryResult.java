@@ -0,0 +1,28 @@
+package com.bms.backend.influx;
+
+import com.influxdb.query.FluxTable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 带「是否过期」标记的查询结果：stale=true 表示本次查询被限流/超时/失败，tables 为上一次成功结果（可能为空）。
+ */
+public class InfluxQueryResult {
+
+    private final List<FluxTable> tables;
+    private final boolean stale;
+
+    public InfluxQueryResult(List<FluxTable> tables, boolean stale) {
+        this.tables = tables != null ? tables : Collections.<FluxTable>emptyList();
+        this.stale = stale;
+    }
+
+    public List<FluxTable> getTables() {
+        return tables;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+}
@@ -0,0 +1,12 @@
+package com.bms.backend.influx;
+
+/**
+ * Influx 查询被限流丢弃、超时或失败。
+ */
+public class InfluxUnavailableException extends RuntimeException {
+
+    public InfluxUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.bms.backend.repository;
+
+import com.bms.backend.entity.BatteryAlarmRule;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.time.OffsetDateTime;
+import java.util.Optional;
+
+public interface BatteryAlarmRuleRepository extends JpaRepository<BatteryAlarmRule, Long> {
+
+    Optional<BatteryAlarmRule> findByModelId(Long modelId);
+
+    // 约束加上之前可能已有多条默认规则：取最早的一条，与 AlarmRuleRegistry 一致
+    Optional<BatteryAlarmRule> findFirstByModelIdIsNullOrderByIdAsc();
+
+    // 热加载指纹：与 count() 一起使用，条数或最近修改时间变化即重新编译
+    @Query("select max(r.updatedAt) from BatteryAlarmRule r")
+    OffsetDateTime findLatestUpdatedAt();
+}
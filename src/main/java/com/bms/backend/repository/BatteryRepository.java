@@ -7,6 +7,7 @@ import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
 
 import java.util.Optional;
 import java.util.List;
@@ -37,4 +38,8 @@ public interface BatteryRepository
 
     // 拓扑快照：查询全部在库电池
     List<Battery> findByDeletedFalse();
+
+    // 拓扑布局：只取在库电池编码与型号ID（[batteryCode, modelId]），不加载实体
+    @Query("select b.batteryCode, b.model.id from Battery b where b.deleted = false")
+    List<Object[]> findActiveBatteryCodeModels();
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+package com.bms.backend.repository;
+
+import com.bms.backend.entity.IcCycleFeature;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+
+/**
+ * IcCycleFeatureRepository 用于读写逐 cycle 的 IC 峰特征
+ */
+public interface IcCycleFeatureRepository extends JpaRepository<IcCycleFeature, Long> {
+
+    List<IcCycleFeature> findByCellIdOrderByCycleIndexAsc(String cellId);
+
+    /**
+     * 某个 cell 已有的全部特征行（含无峰标记行），用于增量批处理判断哪些 cycle 需要重算
+     */
+    List<IcCycleFeature> findByCellId(String cellId);
+}
@@ -0,0 +1,14 @@
+package com.bms.backend.repository;
+
+import com.bms.backend.entity.IcDerivedCurve;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.Optional;
+
+/**
+ * IcDerivedCurveRepository 用于读写写入时预计算的 IC 曲线
+ */
+public interface IcDerivedCurveRepository extends JpaRepository<IcDerivedCurve, Long> {
+
+    Optional<IcDerivedCurve> findByCellIdAndCycleIndex(String cellId, Integer cycleIndex);
+}
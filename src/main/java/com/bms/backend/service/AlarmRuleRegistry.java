@@ -0,0 +1,204 @@
+package com.bms.backend.service;
+
+import com.bms.backend.analysis.AlarmRuleEvaluator;
+import com.bms.backend.entity.BatteryAlarmRule;
+import com.bms.backend.repository.BatteryAlarmRuleRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.OffsetDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 告警规则注册表：把 battery_alarm_rule 编译为按型号索引的 {@link AlarmRuleEvaluator}。
+ * 规则经 BatteryAlarmRuleService 修改时在事务提交后立即重新编译；直接改库的情况由定时指纹检查
+ * （条数 + 最近修改时间）兜底。编译结果整体替换，评估方每个 tick 取一次 {@link #current()}，不会读到半新半旧的规则。
+ */
+@Component
+public class AlarmRuleRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(AlarmRuleRegistry.class);
+
+    /** 一次编译的结果（只读） */
+    public static final class RuleSet {
+        private final long version;
+        private final AlarmRuleEvaluator defaultEvaluator;
+        private final Map<Long, AlarmRuleEvaluator> byModel;
+
+        RuleSet(long version, AlarmRuleEvaluator defaultEvaluator, Map<Long, AlarmRuleEvaluator> byModel) {
+            this.version = version;
+            this.defaultEvaluator = defaultEvaluator;
+            this.byModel = byModel;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /** 型号未配置（或规则停用）时返回默认规则 */
+        public AlarmRuleEvaluator evaluatorFor(Long modelId) {
+            AlarmRuleEvaluator e = modelId == null ? null : byModel.get(modelId);
+            return e != null ? e : defaultEvaluator;
+        }
+    }
+
+    private final BatteryAlarmRuleRepository ruleRepository;
+
+    private volatile RuleSet rules;
+    private long version = 0L;
+    private long loadedCount = -1L;
+    private OffsetDateTime loadedLatest;
+    /** 预热结束前跳过定时指纹检查（规则在首次使用时加载） */
+    private volatile boolean warmedUp = false;
+
+    public AlarmRuleRegistry(BatteryAlarmRuleRepository ruleRepository) {
+        this.ruleRepository = ruleRepository;
+    }
+
+    /** 当前规则；首次调用时加载，加载失败则使用内置默认规则 */
+    public RuleSet current() {
+        RuleSet r = rules;
+        if (r != null) return r;
+        synchronized (this) {
+            if (rules == null) reload();
+            return rules;
+        }
+    }
+
+    /** 定时兜底：指纹变化才重新编译 */
+    @Scheduled(fixedDelayString = "${bms.alarm.rules.reload-interval-ms:30000}", initialDelay = 30000)
+    public void reloadIfChanged() {
+        if (!warmedUp) return;
+        try {
+            long count = ruleRepository.count();
+            OffsetDateTime latest = ruleRepository.findLatestUpdatedAt();
+            synchronized (this) {
+                if (rules != null && count == loadedCount && Objects.equals(latest, loadedLatest)) return;
+            }
+            reload();
+        } catch (Exception e) {
+            log.warn("⚠️ 告警规则指纹检查失败，沿用当前规则: {}", e.getMessage());
+        }
+    }
+
+    @EventListener
+    public void onWarmupFinished(WarmupFinishedEvent event) {
+        warmedUp = true;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRuleChanged(BatteryAlarmRuleChangedEvent event) {
+        reload();
+    }
+
+    public synchronized void reload() {
+        List<BatteryAlarmRule> all;
+        OffsetDateTime latest = null;
+        try {
+            all = ruleRepository.findAll();
+        } catch (Exception e) {
+            log.warn("⚠️ 告警规则加载失败，沿用{}: {}", rules == null ? "内置默认规则" : "当前规则", e.getMessage());
+            if (rules == null) {
+                rules = new RuleSet(++version, AlarmRuleEvaluator.DEFAULT, Collections.emptyMap());
+            }
+            return;
+        }
+        AlarmRuleEvaluator defaultEvaluator = AlarmRuleEvaluator.DEFAULT;
+        BatteryAlarmRule defaultRule = null;
+        for (BatteryAlarmRule rule : all) {
+            // 历史数据中有多条默认规则时取最早的一条（与 BatteryAlarmRuleService 覆盖的是同一条）
+            if (rule.getModelId() == null && (defaultRule == null || idOf(rule) < idOf(defaultRule))) defaultRule = rule;
+        }
+        if (defaultRule != null && Boolean.FALSE.equals(defaultRule.getEnabled())) {
+            defaultRule = null;
+        }
+        if (defaultRule != null) {
+            defaultEvaluator = compileOr(defaultRule, null, AlarmRuleEvaluator.DEFAULT);
+        }
+        Map<Long, AlarmRuleEvaluator> byModel = new HashMap<>();
+        for (BatteryAlarmRule rule : all) {
+            if (rule.getUpdatedAt() != null && (latest == null || rule.getUpdatedAt().isAfter(latest))) {
+                latest = rule.getUpdatedAt();
+            }
+            if (rule.getModelId() == null || Boolean.FALSE.equals(rule.getEnabled())) continue;
+            // 型号规则中未填写的字段继承默认规则
+            AlarmRuleEvaluator e = compileOr(rule, defaultRule, null);
+            if (e != null) byModel.put(rule.getModelId(), e);
+        }
+        rules = new RuleSet(++version, defaultEvaluator, Collections.unmodifiableMap(byModel));
+        loadedCount = all.size();
+        loadedLatest = latest;
+        log.info("✅ 告警规则已编译：{} 条型号规则，版本 {}", byModel.size(), version);
+    }
+
+    /** 无效规则记日志后用 fallback 代替（为 null 时该型号退回默认规则） */
+    private static AlarmRuleEvaluator compileOr(BatteryAlarmRule rule, BatteryAlarmRule parent, AlarmRuleEvaluator fallback) {
+        try {
+            return compile(rule, parent);
+        } catch (IllegalArgumentException e) {
+            log.warn("⚠️ 告警规则无效已忽略 id={} model={}: {}", rule.getId(), rule.getModelId(), e.getMessage());
+            return fallback;
+        }
+    }
+
+    /**
+     * 编译一条规则：空字段依次取 parent、内置默认值。阈值顺序、扣分（0..100）或回差不合法时抛 IllegalArgumentException。
+     * 电压回差需小于临界区间（lowWarn..highWarn）宽度的一半，否则进入告警 / 临界的单体再也回不到正常。
+     */
+    public static AlarmRuleEvaluator compile(BatteryAlarmRule rule, BatteryAlarmRule parent) {
+        double vHighAlarm = pick(rule.getVoltageHighAlarm(), parent == null ? null : parent.getVoltageHighAlarm(), 4.2);
+        double vHighWarn = pick(rule.getVoltageHighWarn(), parent == null ? null : parent.getVoltageHighWarn(), 4.15);
+        double vLowWarn = pick(rule.getVoltageLowWarn(), parent == null ? null : parent.getVoltageLowWarn(), 3.1);
+        double vLowAlarm = pick(rule.getVoltageLowAlarm(), parent == null ? null : parent.getVoltageLowAlarm(), 3.0);
+        double tAlarm = pick(rule.getTemperatureAlarm(), parent == null ? null : parent.getTemperatureAlarm(), 45.0);
+        double tWarn = pick(rule.getTemperatureWarn(), parent == null ? null : parent.getTemperatureWarn(), 35.0);
+        int vAlarmPenalty = pick(rule.getVoltageAlarmPenalty(), parent == null ? null : parent.getVoltageAlarmPenalty(), 40);
+        int vWarnPenalty = pick(rule.getVoltageWarnPenalty(), parent == null ? null : parent.getVoltageWarnPenalty(), 20);
+        int tAlarmPenalty = pick(rule.getTemperatureAlarmPenalty(), parent == null ? null : parent.getTemperatureAlarmPenalty(), 40);
+        int tWarnPenalty = pick(rule.getTemperatureWarnPenalty(), parent == null ? null : parent.getTemperatureWarnPenalty(), 20);
+        int missingPenalty = pick(rule.getMissingPenalty(), parent == null ? null : parent.getMissingPenalty(), 10);
+        int alarmScore = pick(rule.getAlarmScore(), parent == null ? null : parent.getAlarmScore(), 50);
+        int warnScore = pick(rule.getWarnScore(), parent == null ? null : parent.getWarnScore(), 80);
+        double vHysteresis = pick(rule.getVoltageHysteresis(), parent == null ? null : parent.getVoltageHysteresis(), 0.0);
+        double tHysteresis = pick(rule.getTemperatureHysteresis(), parent == null ? null : parent.getTemperatureHysteresis(), 0.0);
+        if (!(vLowAlarm <= vLowWarn && vLowWarn < vHighWarn && vHighWarn <= vHighAlarm)) {
+            throw new IllegalArgumentException("电压阈值需满足 lowAlarm <= lowWarn < highWarn <= highAlarm");
+        }
+        if (tWarn > tAlarm) {
+            throw new IllegalArgumentException("温度阈值需满足 warn <= alarm");
+        }
+        if (alarmScore > warnScore) {
+            throw new IllegalArgumentException("状态分界需满足 alarmScore <= warnScore");
+        }
+        for (int penalty : new int[]{vAlarmPenalty, vWarnPenalty, tAlarmPenalty, tWarnPenalty, missingPenalty}) {
+            if (penalty < 0 || penalty > 100) {
+                throw new IllegalArgumentException("扣分权重需在 0..100 之间");
+            }
+        }
+        if (!(vHysteresis >= 0 && vHysteresis < (vHighWarn - vLowWarn) / 2)) {
+            throw new IllegalArgumentException("电压回差需满足 0 <= hysteresis < (highWarn - lowWarn) / 2");
+        }
+        if (!(tHysteresis >= 0 && tHysteresis < 100)) {
+            throw new IllegalArgumentException("温度回差需在 0..100 之间");
+        }
+        return new AlarmRuleEvaluator(vHighAlarm, vHighWarn, vLowWarn, vLowAlarm, tAlarm, tWarn,
+                vAlarmPenalty, vWarnPenalty, tAlarmPenalty, tWarnPenalty, missingPenalty,
+                alarmScore, warnScore, vHysteresis, tHysteresis);
+    }
+
+    private static long idOf(BatteryAlarmRule rule) {
+        return rule.getId() == null ? Long.MAX_VALUE : rule.getId();
+    }
+
+    private static <T> T pick(T own, T inherited, T builtin) {
+        return own != null ? own : inherited != null ? inherited : builtin;
+    }
+}
@@ -0,0 +1,17 @@
+package com.bms.backend.service;
+
+/**
+ * 告警规则变更事件，由 BatteryAlarmRuleService 在写库后发布，AlarmRuleRegistry 在事务提交后重新编译规则。
+ */
+public class BatteryAlarmRuleChangedEvent {
+
+    private final Long modelId;
+
+    public BatteryAlarmRuleChangedEvent(Long modelId) {
+        this.modelId = modelId;
+    }
+
+    public Long getModelId() {
+        return modelId;
+    }
+}
@@ -0,0 +1,89 @@
+package com.bms.backend.service;
+
+import com.bms.backend.dto.BatteryAlarmRuleRequest;
+import com.bms.backend.entity.BatteryAlarmRule;
+import com.bms.backend.entity.BatteryModel;
+import com.bms.backend.exception.BusinessException;
+import com.bms.backend.repository.BatteryAlarmRuleRepository;
+import com.bms.backend.repository.BatteryModelRepository;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * 按型号维护拓扑告警规则；保存后发布 BatteryAlarmRuleChangedEvent，拓扑评估在下一个 tick 使用新规则。
+ */
+@Service
+public class BatteryAlarmRuleService {
+
+    private final BatteryAlarmRuleRepository ruleRepository;
+    private final BatteryModelRepository modelRepository;
+    private final ApplicationEventPublisher eventPublisher;
+
+    public BatteryAlarmRuleService(BatteryAlarmRuleRepository ruleRepository,
+                                   BatteryModelRepository modelRepository,
+                                   ApplicationEventPublisher eventPublisher) {
+        this.ruleRepository = ruleRepository;
+        this.modelRepository = modelRepository;
+        this.eventPublisher = eventPublisher;
+    }
+
+    @Transactional(readOnly = true)
+    public List<BatteryAlarmRule> listAll() {
+        return ruleRepository.findAll();
+    }
+
+    /**
+     * 新增或覆盖规则。modelCode 为空时维护默认规则；请求中为空的字段继承默认规则 / 内置默认值。
+     * 两个请求同时新建同一条规则时，后提交的一方违反唯一约束，返回业务错误由客户端重试（重试时覆盖已有的一条）。
+     */
+    @Transactional
+    public BatteryAlarmRule save(String modelCode, BatteryAlarmRuleRequest request) {
+        Long modelId = null;
+        if (modelCode != null && !modelCode.trim().isEmpty()) {
+            BatteryModel model = modelRepository.findByModelCode(modelCode.trim());
+            if (model == null) {
+                throw new BusinessException("电池型号不存在，modelCode = " + modelCode);
+            }
+            modelId = model.getId();
+        }
+        BatteryAlarmRule rule = (modelId == null ? ruleRepository.findFirstByModelIdIsNullOrderByIdAsc() : ruleRepository.findByModelId(modelId))
+                .orElseGet(BatteryAlarmRule::new);
+        rule.setModelId(modelId);
+        rule.setEnabled(request.getEnabled() == null || request.getEnabled());
+        rule.setVoltageHighAlarm(request.getVoltageHighAlarm());
+        rule.setVoltageHighWarn(request.getVoltageHighWarn());
+        rule.setVoltageLowWarn(request.getVoltageLowWarn());
+        rule.setVoltageLowAlarm(request.getVoltageLowAlarm());
+        rule.setTemperatureAlarm(request.getTemperatureAlarm());
+        rule.setTemperatureWarn(request.getTemperatureWarn());
+        rule.setVoltageAlarmPenalty(request.getVoltageAlarmPenalty());
+        rule.setVoltageWarnPenalty(request.getVoltageWarnPenalty());
+        rule.setTemperatureAlarmPenalty(request.getTemperatureAlarmPenalty());
+        rule.setTemperatureWarnPenalty(request.getTemperatureWarnPenalty());
+        rule.setMissingPenalty(request.getMissingPenalty());
+        rule.setAlarmScore(request.getAlarmScore());
+        rule.setWarnScore(request.getWarnScore());
+        rule.setVoltageHysteresis(request.getVoltageHysteresis());
+        rule.setTemperatureHysteresis(request.getTemperatureHysteresis());
+        rule.setRemark(request.getRemark());
+
+        BatteryAlarmRule parent = modelId == null ? null : ruleRepository.findFirstByModelIdIsNullOrderByIdAsc().orElse(null);
+        try {
+            AlarmRuleRegistry.compile(rule, parent);
+        } catch (IllegalArgumentException e) {
+            throw new BusinessException("告警规则无效：" + e.getMessage());
+        }
+        BatteryAlarmRule saved;
+        try {
+            saved = ruleRepository.saveAndFlush(rule);
+        } catch (DataIntegrityViolationException e) {
+            throw new BusinessException("告警规则已被同时创建，请重试");
+        }
+        eventPublisher.publishEvent(new BatteryAlarmRuleChangedEvent(modelId));
+        return saved;
+    }
+}
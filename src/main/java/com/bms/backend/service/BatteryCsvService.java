@@ -1,6 +1,7 @@
 package com.bms.backend.service;
 
 
+import com.bms.backend.analysis.CycleSeries;
 import com.bms.backend.dto.BatteryDraftDto;
 import com.bms.backend.dto.BatteryRecordDto;
 import com.bms.backend.dto.LifecyclePointDto;
@@ -35,19 +36,22 @@ public class BatteryCsvService {
     private final SohPredictService sohPredictService;
     private final ObjectStorageService objectStorageService;
     private final InfluxCsvIngestService influxCsvIngestService;
+    private final CycleSeriesService cycleSeriesService;
 
     public BatteryCsvService(BatteryRepository batteryRepository,
                              BatteryRecordRepository batteryRecordRepository,
                              BatteryCsvUploadRepository batteryCsvUploadRepository,
                              SohPredictService sohPredictService,
                              ObjectStorageService objectStorageService,
-                             InfluxCsvIngestService influxCsvIngestService) {
+                             InfluxCsvIngestService influxCsvIngestService,
+                             CycleSeriesService cycleSeriesService) {
         this.batteryRepository = batteryRepository;
         this.batteryRecordRepository = batteryRecordRepository;
         this.uploadRepository = batteryCsvUploadRepository;
         this.sohPredictService = sohPredictService;
         this.objectStorageService = objectStorageService;
         this.influxCsvIngestService = influxCsvIngestService;
+        this.cycleSeriesService = cycleSeriesService;
     }
 
     /**
@@ -185,65 +189,31 @@ public class BatteryCsvService {
             throw new BusinessException("上传记录缺少 fileKey，无法读取CSV");
         }
 
-        List<BatteryRecordDto> result = new ArrayList<>();
+        // 经 cycle 序列缓存读取，整份 CSV 只下载解析一次，SOH 预测等路径共享
+        CycleSeries series = cycleSeriesService.getCsvCycle(fileKey, cycle);
 
-        try (InputStream in = objectStorageService.downloadCsv(fileKey);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
-
-            String line;
-            boolean isFirstLine = true;
-
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty()) {
-                    continue;
-                }
-
-                String[] parts = splitColumns(line);
-
-                // 表头
-                if (isFirstLine) {
-                    isFirstLine = false;
-                    continue;
-                }
-
-                if (parts.length < 6) {
-                    continue;
-                }
-
-                Integer c        = parseIntOrNull(parts[0]);
-                Double timeMin   = parseDoubleOrNull(parts[1]);
-                Double voltage   = parseDoubleOrNull(parts[2]);
-                Double current   = parseDoubleOrNull(parts[3]);
-                Double temp      = parseDoubleOrNull(parts[4]);
-                Double capacity  = parseDoubleOrNull(parts[5]);
-
-                if (c == null || timeMin == null || voltage == null || current == null) {
-                    continue;
-                }
-
-                // 只取当前 cycle 的记录
-                if (!c.equals(cycle)) {
-                    continue;
-                }
-
-                BatteryRecordDto dto = new BatteryRecordDto();
-                dto.setId(null);
-                dto.setBatteryId(batteryId);
-                dto.setCycle(c);
-                dto.setTimeMin(timeMin);
-                dto.setVoltage(voltage);
-                dto.setCurrent(current);
-                dto.setTemp(temp);
-                dto.setCapacity(capacity);
-                dto.setSourceFile(upload.getFileName());
-                dto.setUploadBatch(upload.getUploadToken());
-
-                result.add(dto);
+        List<BatteryRecordDto> result = new ArrayList<>(series.size());
+        for (int i = 0; i < series.size(); i++) {
+            double timeMin = series.getTime()[i];
+            double voltage = series.getVoltage()[i];
+            double current = series.getCurrent()[i];
+            if (Double.isNaN(timeMin) || Double.isNaN(voltage) || Double.isNaN(current)) {
+                continue;
             }
 
-        } catch (IOException e) {
-            throw new BusinessException("读取 CSV 失败：" + e.getMessage());
+            BatteryRecordDto dto = new BatteryRecordDto();
+            dto.setId(null);
+            dto.setBatteryId(batteryId);
+            dto.setCycle(cycle);
+            dto.setTimeMin(timeMin);
+            dto.setVoltage(voltage);
+            dto.setCurrent(current);
+            dto.setTemp(nanToNull(series.getTemp()[i]));
+            dto.setCapacity(nanToNull(series.getCapacity()[i]));
+            dto.setSourceFile(upload.getFileName());
+            dto.setUploadBatch(upload.getUploadToken());
+
+            result.add(dto);
         }
 
         return result;
@@ -315,55 +285,16 @@ public class BatteryCsvService {
 
         Map<Integer, Double> lastCapacityByCycle = new HashMap<>();
 
-        try (InputStream in = objectStorageService.downloadCsv(fileKey);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
-
-            String line;
-            boolean isFirstLine = true;
-            Map<String, Integer> headerIndex = new HashMap<>();
-
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty()) {
-                    continue;
-                }
-
-                String[] parts = splitColumns(line);
-
-                // 处理表头
-                if (isFirstLine) {
-                    isFirstLine = false;
-                    for (int i = 0; i < parts.length; i++) {
-                        String colName = parts[i].trim();
-                        headerIndex.put(colName, i);
-                    }
-                    continue;
-                }
-
-                Integer cycleIdx    = headerIndex.get("Cycle");
-                Integer capacityIdx = headerIndex.get("Capacity");
-                if (cycleIdx == null || capacityIdx == null) {
-                    throw new BusinessException("CSV 中缺少 Cycle 或 Capacity 列");
-                }
-
-                if (parts.length <= Math.max(cycleIdx, capacityIdx)) {
-                    continue;
-                }
-
-                Integer c       = parseIntOrNull(parts[cycleIdx]);
-                Double capacity = parseDoubleOrNull(parts[capacityIdx]);
-
-                if (c == null) {
-                    continue;
-                }
-                if (capacity != null) {
-                    // 每次覆盖，最后留下这个 cycle 的“最后一条容量值”
-                    lastCapacityByCycle.put(c, capacity);
+        // 与单 cycle 曲线、SOH 预测共用 cycle 序列缓存
+        for (CycleSeries series : cycleSeriesService.getCsvCycles(fileKey)) {
+            double[] capacity = series.getCapacity();
+            // 取这个 cycle 的“最后一条容量值”
+            for (int i = series.size() - 1; i >= 0; i--) {
+                if (!Double.isNaN(capacity[i])) {
+                    lastCapacityByCycle.put(series.getCycle(), capacity[i]);
+                    break;
                 }
             }
-
-        } catch (IOException e) {
-            throw new BusinessException("读取 CSV 失败：" + e.getMessage());
         }
 
         // Map -> List，按 cycle 升序排序
@@ -408,36 +339,8 @@ public class BatteryCsvService {
     }
 
 
-    /**
-     * 解析整数
-     * @param s
-     * @return
-     */
-    private Integer parseIntOrNull(String s) {
-        if (s == null) return null;
-        s = s.trim();
-        if (s.isEmpty()) return null;
-        try {
-            return Integer.parseInt(s);
-        }catch (NumberFormatException e){
-            return null;
-        }
-    }
-
-    /**
-     * 解析浮点数，解析失败返回null
-     * @param s
-     * @return
-     */
-    private Double parseDoubleOrNull(String s) {
-        if (s == null) return null;
-        s = s.trim();
-        if (s.isEmpty()) return null;
-        try {
-            return Double.parseDouble(s);
-        }catch (NumberFormatException e){
-            return null;
-        }
+    private static Double nanToNull(double v) {
+        return Double.isNaN(v) ? null : v;
     }
 
     /**
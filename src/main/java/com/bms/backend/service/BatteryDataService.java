@@ -1,11 +1,17 @@
 package com.bms.backend.service;
 
+import com.bms.backend.analysis.CycleSeries;
+import com.bms.backend.analysis.IcCurveKernel;
 import com.bms.backend.dto.IcAnalysisResponse;
 import com.bms.backend.dto.IcPointDto;
+import com.bms.backend.dto.MultiChannelStreamDto;
 import com.bms.backend.entity.Battery;
 import com.bms.backend.entity.DashboardData;
+import com.bms.backend.influx.CellTimeRangeCatalog;
+import com.bms.backend.influx.InfluxLane;
+import com.bms.backend.influx.InfluxQueryGateway;
+import com.bms.backend.influx.InfluxQueryResult;
 import com.bms.backend.repository.BatteryRepository;
-import com.influxdb.client.InfluxDBClient;
 import com.influxdb.query.FluxRecord;
 import com.influxdb.query.FluxTable;
 import org.slf4j.Logger;
@@ -18,8 +24,8 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -33,36 +39,38 @@ public class BatteryDataService {
 
     private static final Logger log = LoggerFactory.getLogger(BatteryDataService.class);
 
+    /** 所有 Flux 查询统一经网关发出，相同语句的并发请求只打一次 Influx */
     @Autowired
-    private InfluxDBClient influxDBClient;
+    private InfluxQueryGateway influxQueryGateway;
+    /** 按 cell/cycle 实际数据时间生成 range()，只打开含数据的分片 */
+    @Autowired
+    private CellTimeRangeCatalog timeRangeCatalog;
     @Autowired
     private BatteryRepository batteryRepository;
     @Autowired
     private RealtimeSignalFilterService signalFilterService;
+    /** 写入时预计算的分桶 IC 曲线，命中时不再拉整 cycle 原始点 */
+    @Autowired
+    private IcDerivedCurveService icDerivedCurveService;
+    /** 按 cycle 的原始序列统一经缓存读取 */
+    @Autowired
+    private CycleSeriesService cycleSeriesService;
 
     @Value("${influxdb.bucket}")
     private String bucket;
 
-    @Value("${influxdb.org}")
-    private String org;
-
     @Value("${bms.influx.latest-range:-30d}")
     private String influxLatestRange;
 
     /** 与拓扑共用同一份 Influx 最新点，避免列表与 @Scheduled 各打一遍 */
     private volatile long latestVtcCacheAtMs = 0L;
-    private volatile Map<String, LatestVtc> latestVtcCache = Collections.emptyMap();
+    private volatile LatestVtcSnapshot latestVtcCache = new LatestVtcSnapshot(Collections.<String, LatestVtc>emptyMap(), false);
     private final Object latestVtcCacheLock = new Object();
     private static final long LATEST_VTC_CACHE_TTL_MS = 2000L;
 
     // 时间格式化器：转成前端需要的 "HH:mm:ss"
     private final DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("HH:mm:ss")
             .withZone(ZoneId.systemDefault());
-    // IC 主分析电压窗口（抑制两端噪声）
-    private static final double IC_V_MIN = 3.60;
-    private static final double IC_V_MAX = 4.20;
-    // dQ/dV 裁剪上限（先粗裁，再做分位数裁剪）
-    private static final double DQDV_ABS_CLIP = 30.0;
 
     /**
      * 获取双通道实时数据
@@ -76,21 +84,23 @@ public class BatteryDataService {
         // 逻辑：在过去 1 分钟内，找出 idA 或 idB 的 voltage/current 数据，取最后一条，并把字段转为列
         String query = String.format(
                 "from(bucket: \"%s\") " +
-                        "|> range(start: -30d) " +
+                        "|> %s " +
                         "|> filter(fn: (r) => r[\"_measurement\"] == \"battery_metrics\") " +
                         "|> filter(fn: (r) => r[\"cell_id\"] == \"%s\" or r[\"cell_id\"] == \"%s\") " +
                         "|> filter(fn: (r) => r[\"_field\"] == \"voltage\" or r[\"_field\"] == \"current\") " +
                         "|> last() " +
                         "|> pivot(rowKey:[\"_time\", \"cell_id\"], columnKey: [\"_field\"], valueColumn: \"_value\")",
-                bucket, idA, idB);
+                bucket, timeRangeCatalog.rangeForLatest(Arrays.asList(idA, idB), "-30d"), idA, idB);
 
         try {
             // 返回给前端用于显示
             data.setCellIdA(idA);
             data.setCellIdB(idB);
 
-            // 2. 执行查询
-            List<FluxTable> tables = influxDBClient.getQueryApi().query(query, org);
+            // 2. 执行查询（Influx 不可用时返回上次成功结果并标记 stale）
+            InfluxQueryResult result = influxQueryGateway.queryOrStale(query, InfluxLane.INTERACTIVE, "dashboard:" + idA + "|" + idB);
+            data.setStale(result.isStale());
+            List<FluxTable> tables = result.getTables();
 
             // 3. 解析结果
             boolean hasData = false;
@@ -110,8 +120,8 @@ public class BatteryDataService {
                     // 平滑电压和电流
                     if (cellId != null) {
                         String ck = cellId.toLowerCase();
-                        v = signalFilterService.smoothVoltageReading(ck, vRaw);
-                        c = signalFilterService.smoothCurrentReading(ck, cRaw);
+                        v = signalFilterService.smoothVoltageReading(ck, vRaw, record.getTime());
+                        c = signalFilterService.smoothCurrentReading(ck, cRaw, record.getTime());
                     }
 
                     // 记录最新的时间戳 (用于X轴)
@@ -154,6 +164,64 @@ public class BatteryDataService {
         return data;
     }
 
+    /**
+     * N 通道实时数据：一次缓存查找或一次合并 Influx 查询拿到全部通道的最新电压/电流，按列式返回。
+     * 通道顺序与 cellIds 一致（去重、去空白后）。
+     */
+    public MultiChannelStreamDto getMultiChannelStream(List<String> cellIds) {
+        List<String> ids = cellIds == null ? Collections.<String>emptyList() : cellIds.stream()
+                .filter(Objects::nonNull)
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .distinct()
+                .collect(Collectors.toList());
+        int n = ids.size();
+        MultiChannelStreamDto dto = new MultiChannelStreamDto();
+        dto.setIds(ids.toArray(new String[0]));
+        dto.setVoltage(new Double[n]);
+        dto.setCurrent(new Double[n]);
+        dto.setVoltageRaw(new Double[n]);
+        dto.setCurrentRaw(new Double[n]);
+
+        Instant latestTime = null;
+        if (n > 0) {
+            LatestVtcSnapshot snap = getLatestVtcSnapshotForCellIds(new HashSet<>(ids), InfluxLane.INTERACTIVE);
+            dto.setStale(snap.isStale());
+            for (int i = 0; i < n; i++) {
+                String ck = ids.get(i).toLowerCase();
+                LatestVtc vtc = snap.getValues().get(ck);
+                if (vtc == null) continue;
+                dto.getVoltageRaw()[i] = vtc.getVoltage();
+                dto.getCurrentRaw()[i] = vtc.getCurrent();
+                dto.getVoltage()[i] = signalFilterService.smoothVoltageReading(ck, vtc.getVoltage(), vtc.getTime());
+                dto.getCurrent()[i] = signalFilterService.smoothCurrentReading(ck, vtc.getCurrent(), vtc.getTime());
+                if (vtc.getTime() != null && (latestTime == null || vtc.getTime().isAfter(latestTime))) {
+                    latestTime = vtc.getTime();
+                }
+            }
+        }
+        dto.setTime(timeFormatter.format(latestTime != null ? latestTime : Instant.now()));
+        return dto;
+    }
+
+    /**
+     * 台账中属于某个 PACK 的电池编号（按编号排序），PACK 规则见 {@link TopologySnapshotService#detectPackId(String)}。
+     */
+    public List<String> findCellIdsByPack(String packId) {
+        if (packId == null || packId.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        String pack = packId.trim();
+        return batteryRepository.findByDeletedFalse().stream()
+                .map(Battery::getBatteryCode)
+                .filter(code -> code != null && !code.trim().isEmpty())
+                .map(String::trim)
+                .filter(code -> pack.equals(TopologySnapshotService.detectPackId(code)))
+                .distinct()
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
     /**
      * 自动选择 InfluxDB 中“最新采样”的电池 cell_id（取最新两块）作为双通道数据源。
      * 前端只要调用 /api/battery-dashboard/stream 不传 idA/idB，就会走这里。
@@ -173,7 +241,7 @@ public class BatteryDataService {
             // 1) 取最新的 2 个 cell_id（用 voltage 的 last() 作为采样时间依据）
             String queryLatestCells = String.format(
                     "from(bucket: \"%s\") " +
-                            "|> range(start: -30d) " +
+                            "|> %s " +
                             "|> filter(fn: (r) => r[\"_measurement\"] == \"battery_metrics\") " +
                             "|> filter(fn: (r) => r[\"_field\"] == \"voltage\") " +
                             "|> group(columns: [\"cell_id\"]) " +
@@ -181,10 +249,12 @@ public class BatteryDataService {
                             "|> keep(columns: [\"cell_id\", \"_time\"]) " +
                             "|> sort(columns: [\"_time\"], desc: true) " +
                             "|> limit(n: 2)",
-                    bucket
+                    bucket, timeRangeCatalog.rangeForLatest(null, "-30d")
             );
 
-            List<FluxTable> tables = influxDBClient.getQueryApi().query(queryLatestCells, org);
+            InfluxQueryResult latestCells = influxQueryGateway.queryOrStale(queryLatestCells, InfluxLane.INTERACTIVE, "dashboard:latest-two");
+            data.setStale(latestCells.isStale());
+            List<FluxTable> tables = latestCells.getTables();
 
             String idA = null;
             String idB = null;
@@ -223,16 +293,18 @@ public class BatteryDataService {
             // 2) 查这两个 cell_id 的最后电压/电流，pivot 成列
             String queryLatestVaCa = String.format(
                     "from(bucket: \"%s\") " +
-                            "|> range(start: -30d) " +
+                            "|> %s " +
                             "|> filter(fn: (r) => r[\"_measurement\"] == \"battery_metrics\") " +
                             "|> filter(fn: (r) => r[\"cell_id\"] == \"%s\" or r[\"cell_id\"] == \"%s\") " +
                             "|> filter(fn: (r) => r[\"_field\"] == \"voltage\" or r[\"_field\"] == \"current\") " +
                             "|> last() " +
                             "|> pivot(rowKey:[\"_time\", \"cell_id\"], columnKey: [\"_field\"], valueColumn: \"_value\")",
-                    bucket, idA, idB
+                    bucket, timeRangeCatalog.rangeForLatest(Arrays.asList(idA, idB), "-30d"), idA, idB
             );
 
-            List<FluxTable> tables2 = influxDBClient.getQueryApi().query(queryLatestVaCa, org);
+            InfluxQueryResult latestVaCa = influxQueryGateway.queryOrStale(queryLatestVaCa, InfluxLane.INTERACTIVE, "dashboard:" + idA + "|" + idB);
+            data.setStale(data.isStale() || latestVaCa.isStale());
+            List<FluxTable> tables2 = latestVaCa.getTables();
 
             for (FluxTable table : tables2) {
                 for (FluxRecord record : table.getRecords()) {
@@ -247,8 +319,8 @@ public class BatteryDataService {
                     // 平滑电压和电流
                     if (cellId != null) {
                         String ck = cellId.toLowerCase();
-                        v = signalFilterService.smoothVoltageReading(ck, v);
-                        c = signalFilterService.smoothCurrentReading(ck, c);
+                        v = signalFilterService.smoothVoltageReading(ck, v, record.getTime());
+                        c = signalFilterService.smoothCurrentReading(ck, c, record.getTime());
                     }
 
                     if (record.getTime() != null) {
@@ -336,23 +408,47 @@ public class BatteryDataService {
      * 获取所有 cell_id 的最新电压/温度/电流（拓扑快照）；短时缓存避免与电池列表连续重复查 Influx。
      */
     public Map<String, LatestVtc> getLatestVtcByCellId() {
+        return new HashMap<>(getLatestVtcSnapshot(InfluxLane.INTERACTIVE).getValues());
+    }
+
+    /**
+     * 同 {@link #getLatestVtcByCellId()}，可指定 Influx 通道；Influx 不可用时返回上次成功结果并标记 stale。
+     * 返回的 values 为共享只读 Map。
+     */
+    public LatestVtcSnapshot getLatestVtcSnapshot(InfluxLane lane) {
         long now = System.currentTimeMillis();
         if (now - latestVtcCacheAtMs < LATEST_VTC_CACHE_TTL_MS) {
-            return new HashMap<>(latestVtcCache);
+            return latestVtcCache;
         }
         synchronized (latestVtcCacheLock) {
             if (System.currentTimeMillis() - latestVtcCacheAtMs < LATEST_VTC_CACHE_TTL_MS) {
-                return new HashMap<>(latestVtcCache);
+                return latestVtcCache;
             }
-            Map<String, LatestVtc> fresh = fetchLatestVtcMapFromInflux();
+            LatestVtcSnapshot fresh = fetchLatestVtcFromInflux(null, lane);
             latestVtcCache = fresh;
             latestVtcCacheAtMs = System.currentTimeMillis();
-            return new HashMap<>(fresh);
+            return fresh;
         }
     }
 
-    private Map<String, LatestVtc> fetchLatestVtcMapFromInflux() {
-        return fetchLatestVtcMapFromInfluxWithOptionalCellFilter(null);
+    /**
+     * 指定 cell_id 的最新点：全量缓存仍新鲜时直接取子集，否则按集合发一次 Influx 查询（过大时走全量缓存）。
+     * values 的 key 为小写 cell_id。
+     */
+    public LatestVtcSnapshot getLatestVtcSnapshotForCellIds(Set<String> cellIds, InfluxLane lane) {
+        boolean cacheFresh = System.currentTimeMillis() - latestVtcCacheAtMs < LATEST_VTC_CACHE_TTL_MS;
+        if (!cacheFresh && cellIds.size() <= MAX_CELL_IDS_FOR_DIRECT_INFLUX_FILTER) {
+            return fetchLatestVtcFromInflux(cellIds, lane);
+        }
+        LatestVtcSnapshot full = getLatestVtcSnapshot(lane);
+        Map<String, LatestVtc> sub = new HashMap<>();
+        for (String id : cellIds) {
+            LatestVtc v = full.getValues().get(id.toLowerCase());
+            if (v != null) {
+                sub.put(id.toLowerCase(), v);
+            }
+        }
+        return new LatestVtcSnapshot(sub, full.isStale());
     }
 
     /**
@@ -378,13 +474,13 @@ public class BatteryDataService {
             }
             return sub;
         }
-        return fetchLatestVtcMapFromInfluxWithOptionalCellFilter(cellIds);
+        return new HashMap<>(fetchLatestVtcFromInflux(cellIds, InfluxLane.INTERACTIVE).getValues());
     }
 
     /**
      * @param cellIdFilter null 表示不过滤 cell（全量）；非空则 Influx 侧按正则限定 cell_id，显著减轻列表场景负载。
      */
-    private Map<String, LatestVtc> fetchLatestVtcMapFromInfluxWithOptionalCellFilter(Set<String> cellIdFilter) {
+    private LatestVtcSnapshot fetchLatestVtcFromInflux(Set<String> cellIdFilter, InfluxLane lane) {
         Map<String, LatestVtc> map = new HashMap<>();
         String cellIdClause = "";
         if (cellIdFilter != null && !cellIdFilter.isEmpty()) {
@@ -406,7 +502,7 @@ public class BatteryDataService {
 
         String query = String.format(
                 "from(bucket: \"%s\") " +
-                        "|> range(start: %s) " +
+                        "|> %s " +
                         "|> filter(fn: (r) => r[\"_measurement\"] == \"battery_metrics\") " +
                         "|> filter(fn: (r) => r[\"_field\"] == \"voltage\" or r[\"_field\"] == \"temperature\" or r[\"_field\"] == \"current\") " +
                         "%s" +
@@ -414,13 +510,18 @@ public class BatteryDataService {
                         "|> last() " +
                         "|> keep(columns: [\"cell_id\", \"_field\", \"_value\", \"_time\"])",
                 bucket,
-                influxLatestRange,
+                timeRangeCatalog.rangeForLatest(cellIdFilter, influxLatestRange),
                 cellIdClause
         );
 
+        String staleKey = cellIdFilter == null
+                ? "latest-vtc:*"
+                : "latest-vtc:" + cellIdFilter.stream().filter(Objects::nonNull).sorted().collect(Collectors.joining(","));
+        boolean stale = false;
         try {
-            List<FluxTable> tables = influxDBClient.getQueryApi().query(query, org);
-            for (FluxTable table : tables) {
+            InfluxQueryResult result = influxQueryGateway.queryOrStale(query, lane, staleKey);
+            stale = result.isStale();
+            for (FluxTable table : result.getTables()) {
                 for (FluxRecord record : table.getRecords()) {
                     String cellId = (String) record.getValueByKey("cell_id");
                     if (cellId == null) continue;
@@ -442,8 +543,9 @@ public class BatteryDataService {
             }
         } catch (Exception e) {
             log.error("❌ 查询 InfluxDB 最新 voltage/temperature/current 失败: {}", e.getMessage());
+            stale = true;
         }
-        return map;
+        return new LatestVtcSnapshot(Collections.unmodifiableMap(map), stale);
     }
 
     /**
@@ -557,233 +659,207 @@ public class BatteryDataService {
         }
     }
 
+    /**
+     * 全量最新点 + 是否为兜底的过期数据
+     */
+    public static class LatestVtcSnapshot {
+        private final Map<String, LatestVtc> values;
+        private final boolean stale;
+
+        public LatestVtcSnapshot(Map<String, LatestVtc> values, boolean stale) {
+            this.values = values;
+            this.stale = stale;
+        }
+
+        public Map<String, LatestVtc> getValues() {
+            return values;
+        }
+
+        public boolean isStale() {
+            return stale;
+        }
+    }
+
     public IcAnalysisResponse getIcAnalysis(String cellId, Integer refCycle, Integer currCycle, int smoothWindow) {
+        return analyzeIc(cellId, refCycle, currCycle, smoothWindow, InfluxLane.INTERACTIVE, true);
+    }
+
+    /**
+     * 只计算峰位移 / 峰降幅，不返回曲线点（整包对比等批量场景）。
+     */
+    public IcAnalysisResponse getIcPeakComparison(String cellId, Integer refCycle, Integer currCycle,
+                                                  int smoothWindow, InfluxLane lane) {
+        return analyzeIc(cellId, refCycle, currCycle, smoothWindow, lane, false);
+    }
+
+    private IcAnalysisResponse analyzeIc(String cellId, Integer refCycle, Integer currCycle,
+                                         int smoothWindow, InfluxLane lane, boolean includeCurves) {
         IcAnalysisResponse resp = new IcAnalysisResponse();
         resp.setCellId(cellId);
         if (cellId == null || cellId.trim().isEmpty()) {
             return resp;
         }
 
-        List<Integer> cycles = queryAvailableCycles(cellId);
-        if (cycles.isEmpty()) {
-            return resp;
+        int finalRef;
+        int finalCurr;
+        if (refCycle != null && currCycle != null) {
+            // 两个 cycle 都已指定时不必再查可用 cycle 列表
+            finalRef = refCycle;
+            finalCurr = currCycle;
+        } else {
+            List<Integer> cycles = queryAvailableCycles(cellId, lane);
+            if (cycles.isEmpty()) {
+                return resp;
+            }
+            finalRef = refCycle != null ? refCycle : cycles.get(0);
+            finalCurr = currCycle != null ? currCycle : cycles.get(cycles.size() - 1);
         }
-        int defaultRef = cycles.get(0);
-        int defaultCurr = cycles.get(cycles.size() - 1);
-        int finalRef = refCycle != null ? refCycle : defaultRef;
-        int finalCurr = currCycle != null ? currCycle : defaultCurr;
         resp.setRefCycle(finalRef);
         resp.setCurrCycle(finalCurr);
 
-        List<IcPointDto> ref = calculateIcCurve(cellId, finalRef, smoothWindow);
-        List<IcPointDto> curr = calculateIcCurve(cellId, finalCurr, smoothWindow);
-        resp.setRefCurve(ref);
-        resp.setCurrCurve(curr);
-
-        if (!ref.isEmpty() && !curr.isEmpty()) {
-            IcPointDto refPeak = ref.stream().max(Comparator.comparing(IcPointDto::getDqdv)).orElse(null);
-            IcPointDto currPeak = curr.stream().max(Comparator.comparing(IcPointDto::getDqdv)).orElse(null);
-            if (refPeak != null && currPeak != null) {
-                resp.setPeakShift(currPeak.getVoltage() - refPeak.getVoltage());
-                if (refPeak.getDqdv() != null && Math.abs(refPeak.getDqdv()) > 1e-9) {
-                    resp.setPeakDropPercent((refPeak.getDqdv() - currPeak.getDqdv()) / refPeak.getDqdv() * 100.0);
-                }
+        IcCurveKernel.IcCurve[] pair = calculateIcCurvePair(cellId, finalRef, finalCurr, smoothWindow, lane);
+        IcCurveKernel.IcCurve ref = pair[0];
+        IcCurveKernel.IcCurve curr = pair[1];
+        if (includeCurves) {
+            // 仅在 API 边界生成 DTO
+            resp.setRefCurve(toIcPointDtos(ref));
+            resp.setCurrCurve(toIcPointDtos(curr));
+        }
+
+        int refPeak = ref.peakIndex();
+        int currPeak = curr.peakIndex();
+        if (refPeak >= 0 && currPeak >= 0) {
+            double refV = ref.getVoltage()[refPeak];
+            double refQ = ref.getDqdv()[refPeak];
+            resp.setPeakShift(curr.getVoltage()[currPeak] - refV);
+            if (Math.abs(refQ) > 1e-9) {
+                resp.setPeakDropPercent((refQ - curr.getDqdv()[currPeak]) / refQ * 100.0);
             }
         }
         return resp;
     }
 
-    private List<Integer> queryAvailableCycles(String cellId) {
+    private List<Integer> queryAvailableCycles(String cellId, InfluxLane lane) {
         Set<Integer> cycleSet = new HashSet<>();
         String query = String.format(
                 "from(bucket: \"%s\") " +
-                        "|> range(start: -365d) " +
+                        "|> %s " +
                         "|> filter(fn: (r) => r[\"_measurement\"] == \"battery_metrics\") " +
                         "|> filter(fn: (r) => r[\"cell_id\"] == \"%s\") " +
                         "|> filter(fn: (r) => r[\"_field\"] == \"capacity\") " +
                         "|> group(columns: [\"cycle_index\"]) " +
                         "|> last() " +
                         "|> keep(columns: [\"cycle_index\"])",
-                bucket, cellId
+                bucket, timeRangeCatalog.rangeForCell(cellId, "-365d"), cellId
         );
-        try {
-            List<FluxTable> tables = influxDBClient.getQueryApi().query(query, org);
-            for (FluxTable table : tables) {
-                for (FluxRecord record : table.getRecords()) {
-                    Object raw = record.getValueByKey("cycle_index");
-                    if (raw == null) continue;
-                    try {
-                        cycleSet.add(Integer.parseInt(String.valueOf(raw)));
-                    } catch (Exception ignored) {
-                    }
+        // 查询失败向上抛出（整包对比记在该单体的 error 上），不当作「没有 cycle」
+        List<FluxTable> tables = influxQueryGateway.query(query, lane);
+        for (FluxTable table : tables) {
+            for (FluxRecord record : table.getRecords()) {
+                Object raw = record.getValueByKey("cycle_index");
+                if (raw == null) continue;
+                try {
+                    cycleSet.add(Integer.parseInt(String.valueOf(raw)));
+                } catch (Exception ignored) {
                 }
             }
-        } catch (Exception e) {
-            log.error("❌ 查询 cycle_index 失败: {}", e.getMessage());
         }
         return cycleSet.stream().sorted().collect(Collectors.toList());
     }
 
-    private List<IcPointDto> calculateIcCurve(String cellId, int cycle, int smoothWindow) {
-        List<double[]> points = queryVoltageCapacityPoints(cellId, cycle);
-        if (points.size() < 3) return new ArrayList<>();
-
-        List<IcPointDto> raw = new ArrayList<>();
-        for (int i = 1; i < points.size(); i++) {
-            double v1 = points.get(i - 1)[0];
-            double q1 = points.get(i - 1)[1];
-            double v2 = points.get(i)[0];
-            double q2 = points.get(i)[1];
-            double vmid = (v1 + v2) / 2.0;
-            if (vmid < IC_V_MIN || vmid > IC_V_MAX) continue;
-            double dv = v2 - v1;
-            if (Math.abs(dv) < 1e-6) continue;
-            double dqdv = (q2 - q1) / dv;
-            if (Double.isNaN(dqdv) || Double.isInfinite(dqdv)) continue;
-            dqdv = Math.max(-DQDV_ABS_CLIP, Math.min(DQDV_ABS_CLIP, dqdv));
-            raw.add(new IcPointDto(vmid, dqdv));
-        }
-        List<IcPointDto> robust = robustClip(raw);
-        List<IcPointDto> smoothed = smoothIc(robust, Math.max(1, smoothWindow));
-        smoothed.sort(Comparator.comparingDouble(p -> p.getVoltage() == null ? 0.0 : p.getVoltage()));
-        return smoothed;
+    /**
+     * 一次对比的两条 IC 曲线（参考、当前）：两个 cycle 都有写入时预计算的分桶曲线才用分桶曲线，
+     * 否则两条都由原始点计算。分桶与原始点的分辨率、平滑不同，混用会让峰位移 / 峰降幅失真。
+     */
+    private IcCurveKernel.IcCurve[] calculateIcCurvePair(String cellId, int refCycle, int currCycle,
+                                                         int smoothWindow, InfluxLane lane) {
+        IcCurveKernel.IcCurve ref = icDerivedCurveService.findCurve(cellId, refCycle, smoothWindow);
+        IcCurveKernel.IcCurve curr = ref == null ? null : icDerivedCurveService.findCurve(cellId, currCycle, smoothWindow);
+        if (ref != null && curr != null) {
+            return new IcCurveKernel.IcCurve[]{ref, curr};
+        }
+        return new IcCurveKernel.IcCurve[]{
+                calculateRawIcCurve(cellId, refCycle, smoothWindow, lane),
+                calculateRawIcCurve(cellId, currCycle, smoothWindow, lane)};
     }
 
-    private List<double[]> queryVoltageCapacityPoints(String cellId, int cycle) {
-        class Row {
-            Instant t;
-            Double v;
-            Double c;
-            Double qCap;
-        }
-        List<Row> rows = new ArrayList<>();
-        String query = String.format(
-                "from(bucket: \"%s\") " +
-                        "|> range(start: -365d) " +
-                        "|> filter(fn: (r) => r[\"_measurement\"] == \"battery_metrics\") " +
-                        "|> filter(fn: (r) => r[\"cell_id\"] == \"%s\") " +
-                        "|> filter(fn: (r) => r[\"cycle_index\"] == \"%d\") " +
-                        "|> filter(fn: (r) => r[\"_field\"] == \"voltage\" or r[\"_field\"] == \"capacity\" or r[\"_field\"] == \"current\") " +
-                        "|> pivot(rowKey:[\"_time\"], columnKey:[\"_field\"], valueColumn:\"_value\") " +
-                        "|> keep(columns:[\"_time\", \"voltage\", \"capacity\", \"current\"]) " +
-                        "|> sort(columns:[\"_time\"])",
-                bucket, cellId, cycle
-        );
-        try {
-            List<FluxTable> tables = influxDBClient.getQueryApi().query(query, org);
-            for (FluxTable table : tables) {
-                for (FluxRecord record : table.getRecords()) {
-                    Object vRaw = record.getValueByKey("voltage");
-                    Object cRaw = record.getValueByKey("current");
-                    Object qRaw = record.getValueByKey("capacity");
-                    if (vRaw == null || cRaw == null || record.getTime() == null) continue;
-                    Row row = new Row();
-                    row.t = record.getTime();
-                    row.v = getDoubleValue(vRaw);
-                    row.c = getDoubleValue(cRaw);
-                    row.qCap = qRaw == null ? null : getDoubleValue(qRaw);
-                    if (row.v == null || row.v <= 0 || Double.isNaN(row.v) || Double.isInfinite(row.v)) continue;
-                    rows.add(row);
-                }
-            }
-        } catch (Exception e) {
-            log.error("❌ 查询 IC 原始点失败 cellId={}, cycle={}, err={}", cellId, cycle, e.getMessage());
+    /**
+     * 单个 cycle 由原始点计算的 IC 曲线（不读分桶曲线），供需要跨 cycle 可比的批量特征使用。
+     *
+     * @throws com.bms.backend.influx.InfluxUnavailableException 原始点查询失败；空曲线只表示该 cycle 确实没有有效点
+     */
+    public IcCurveKernel.IcCurve calculateRawIcCurve(String cellId, int cycle, int smoothWindow, InfluxLane lane) {
+        double[][] vq = queryVoltageCapacityPoints(cellId, cycle, lane);
+        return IcCurveKernel.compute(vq[0], vq[1], vq[0].length, smoothWindow);
+    }
+
+    private static List<IcPointDto> toIcPointDtos(IcCurveKernel.IcCurve curve) {
+        List<IcPointDto> out = new ArrayList<>(curve.size());
+        for (int i = 0; i < curve.size(); i++) {
+            out.add(new IcPointDto(curve.getVoltage()[i], curve.getDqdv()[i]));
         }
-        rows.sort(Comparator.comparing(r -> r.t));
-        if (rows.size() < 2) return new ArrayList<>();
+        return out;
+    }
+
+    /**
+     * 某 cycle 的 (V, Q) 序列，按时间排序，返回 {电压[], 容量[]}（等长）；原始点经 {@link CycleSeriesService} 缓存读取。
+     * 若 capacity 在该 cycle 内有变化则直接用 capacity，否则退化为电流梯形积分得到 Q(t)。
+     */
+    private double[][] queryVoltageCapacityPoints(String cellId, int cycle, InfluxLane lane) {
+        CycleSeries series = cycleSeriesService.getInfluxCycle(cellId, cycle, lane);
+        int size = series == null ? 0 : series.size();
+        // 过滤无效电压 / 缺电流的点，缓存里的原始序列不修改
+        long[] t = new long[size];
+        double[] v = new double[size];
+        double[] c = new double[size];
+        double[] cap = new double[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            double volts = series.getVoltage()[i];
+            double amps = series.getCurrent()[i];
+            if (volts <= 0 || Double.isNaN(volts) || Double.isInfinite(volts) || Double.isNaN(amps)) continue;
+            t[n] = (long) series.getTime()[i];
+            v[n] = volts;
+            c[n] = amps;
+            cap[n] = series.getCapacity()[i];
+            n++;
+        }
+        if (n < 2) return new double[][]{new double[0], new double[0]};
 
-        // 如果 capacity 在该 cycle 内有变化，则优先用 capacity；否则退化为电流积分得到 Q(t)
         boolean hasCapTrend = false;
-        Double firstCap = null;
-        for (Row r : rows) {
-            if (r.qCap == null || Double.isNaN(r.qCap) || Double.isInfinite(r.qCap)) continue;
-            if (firstCap == null) firstCap = r.qCap;
-            if (firstCap != null && Math.abs(r.qCap - firstCap) > 1e-6) {
+        double firstCap = Double.NaN;
+        for (int i = 0; i < n; i++) {
+            if (Double.isNaN(cap[i]) || Double.isInfinite(cap[i])) continue;
+            if (Double.isNaN(firstCap)) firstCap = cap[i];
+            if (Math.abs(cap[i] - firstCap) > 1e-6) {
                 hasCapTrend = true;
                 break;
             }
         }
 
-        List<double[]> list = new ArrayList<>();
+        double[] outV = new double[n];
+        double[] outQ = new double[n];
+        int m = 0;
         if (hasCapTrend) {
-            for (Row r : rows) {
-                if (r.qCap == null || Double.isNaN(r.qCap) || Double.isInfinite(r.qCap)) continue;
-                list.add(new double[]{r.v, r.qCap});
+            for (int i = 0; i < n; i++) {
+                if (Double.isNaN(cap[i]) || Double.isInfinite(cap[i])) continue;
+                outV[m] = v[i];
+                outQ[m++] = cap[i];
             }
-            return list;
-        }
-
-        double qAh = 0.0;
-        list.add(new double[]{rows.get(0).v, qAh});
-        for (int i = 1; i < rows.size(); i++) {
-            Row prev = rows.get(i - 1);
-            Row curr = rows.get(i);
-            long dtMs = curr.t.toEpochMilli() - prev.t.toEpochMilli();
-            if (dtMs <= 0) continue;
-            double dtHour = dtMs / 3600000.0;
-            double iAvg = (Math.abs(prev.c) + Math.abs(curr.c)) / 2.0;
-            qAh += iAvg * dtHour;
-            list.add(new double[]{curr.v, qAh});
-        }
-        return list;
-    }
-
-    private List<IcPointDto> smoothIc(List<IcPointDto> src, int window) {
-        if (window <= 1 || src.size() <= 2) return src;
-        List<IcPointDto> out = new ArrayList<>(src.size());
-        int half = window / 2;
-        for (int i = 0; i < src.size(); i++) {
-            int l = Math.max(0, i - half);
-            int r = Math.min(src.size() - 1, i + half);
-            double sum = 0.0;
-            int n = 0;
-            for (int j = l; j <= r; j++) {
-                if (src.get(j).getDqdv() != null) {
-                    sum += src.get(j).getDqdv();
-                    n++;
-                }
-            }
-            double avg = n > 0 ? sum / n : 0.0;
-            out.add(new IcPointDto(src.get(i).getVoltage(), avg));
-        }
-        return out;
-    }
-
-    /**
-     * 使用 MAD（中位数绝对偏差）做鲁棒裁剪，抑制尖峰。
-     */
-    private List<IcPointDto> robustClip(List<IcPointDto> src) {
-        if (src == null || src.size() < 8) return src;
-        List<Double> vals = src.stream()
-                .map(IcPointDto::getDqdv)
-                .filter(v -> v != null && !Double.isNaN(v) && !Double.isInfinite(v))
-                .sorted()
-                .collect(Collectors.toList());
-        if (vals.size() < 8) return src;
-
-        double median = vals.get(vals.size() / 2);
-        List<Double> absDev = vals.stream()
-                .map(v -> Math.abs(v - median))
-                .sorted()
-                .collect(Collectors.toList());
-        double mad = absDev.get(absDev.size() / 2);
-        if (mad < 1e-9) return src;
-
-        double sigma = 1.4826 * mad;
-        double lo = median - 3.5 * sigma;
-        double hi = median + 3.5 * sigma;
-
-        List<IcPointDto> out = new ArrayList<>(src.size());
-        for (IcPointDto p : src) {
-            if (p.getDqdv() == null) {
-                out.add(p);
-                continue;
+        } else {
+            double qAh = 0.0;
+            outV[m] = v[0];
+            outQ[m++] = qAh;
+            for (int i = 1; i < n; i++) {
+                long dtMs = t[i] - t[i - 1];
+                if (dtMs <= 0) continue;
+                double dtHour = dtMs / 3600000.0;
+                double iAvg = (Math.abs(c[i - 1]) + Math.abs(c[i])) / 2.0;
+                qAh += iAvg * dtHour;
+                outV[m] = v[i];
+                outQ[m++] = qAh;
             }
-            double v = p.getDqdv();
-            if (v < lo) v = lo;
-            if (v > hi) v = hi;
-            out.add(new IcPointDto(p.getVoltage(), v));
         }
-        return out;
+        return new double[][]{Arrays.copyOf(outV, m), Arrays.copyOf(outQ, m)};
     }
-}
\ No newline at end of file
+}
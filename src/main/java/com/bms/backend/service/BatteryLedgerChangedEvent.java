@@ -0,0 +1,18 @@
+package com.bms.backend.service;
+
+/**
+ * 电池台账变更事件（新增 / 编辑 / 逻辑删除），由 BatteryService 在写库后发布。
+ * 监听方用它失效依赖台账的内存结构（如拓扑布局），事务提交后才会收到。
+ */
+public class BatteryLedgerChangedEvent {
+
+    private final Long batteryId;
+
+    public BatteryLedgerChangedEvent(Long batteryId) {
+        this.batteryId = batteryId;
+    }
+
+    public Long getBatteryId() {
+        return batteryId;
+    }
+}
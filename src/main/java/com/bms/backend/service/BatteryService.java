@@ -16,6 +16,7 @@ import com.bms.backend.repository.BatteryModelRepository;
 import com.bms.backend.repository.BatteryRecordRepository;
 import com.bms.backend.repository.BatteryRepository;
 import com.bms.backend.repository.CustomerRepository;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.*;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
@@ -47,6 +48,7 @@ public class BatteryService {
     private final BatteryCsvService batteryCsvService;
     private final BatteryDataService batteryDataService;
     private final RealtimeSignalFilterService signalFilterService;
+    private final ApplicationEventPublisher eventPublisher;
 
     private static final Pattern CELL_ID_PATTERN = Pattern.compile("(b\\d+c\\d+)");
 
@@ -57,7 +59,8 @@ public class BatteryService {
                           BatteryCsvUploadRepository batteryCsvUploadRepository,
                           BatteryCsvService batteryCsvService,
                           BatteryDataService batteryDataService,
-                          RealtimeSignalFilterService signalFilterService) {
+                          RealtimeSignalFilterService signalFilterService,
+                          ApplicationEventPublisher eventPublisher) {
         this.batteryRepository = batteryRepository;
         this.batteryModelRepository = batteryModelRepository;
         this.customerRepository = customerRepository;
@@ -66,6 +69,7 @@ public class BatteryService {
         this.batteryCsvService = batteryCsvService;
         this.batteryDataService = batteryDataService;
         this.signalFilterService = signalFilterService;
+        this.eventPublisher = eventPublisher;
     }
 
     /**
@@ -349,6 +353,7 @@ public class BatteryService {
                 .build();
 
         battery = batteryRepository.save(battery);
+        eventPublisher.publishEvent(new BatteryLedgerChangedEvent(battery.getId()));
 
         // 8. 如果请求里带uploadToken，把这次上传记录绑定到电池
         if (uploadToken != null && !uploadToken.trim().isEmpty()) {
@@ -372,6 +377,7 @@ public class BatteryService {
         }
         battery.setDeleted(true);
         batteryRepository.save(battery);
+        eventPublisher.publishEvent(new BatteryLedgerChangedEvent(id));
 
     }
 
@@ -450,6 +456,7 @@ public class BatteryService {
 
         // 9. 保存
         Battery saved = batteryRepository.save(battery);
+        eventPublisher.publishEvent(new BatteryLedgerChangedEvent(saved.getId()));
 
         // 10. 返回列表DTO
         return toListItemDto(saved);
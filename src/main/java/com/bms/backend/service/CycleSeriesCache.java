@@ -0,0 +1,370 @@
+package com.bms.backend.service;
+
+import com.bms.backend.analysis.CycleSeries;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 按 cycle 的原始序列缓存，IC 分析、单 cycle 曲线、SOH 预测、全生命周期容量共用。
+ * <ul>
+ *     <li>堆内层：{@link CycleSeries} 原始数组，按字节估算加权的 LRU，总量不超过 max-bytes；</li>
+ *     <li>磁盘层（可选，disk-dir 为空则关闭）：已完成 cycle 写穿到本地文件，堆内淘汰后从磁盘回填，重启后仍可命中；</li>
+ *     <li>已完成 cycle 视为不可变，不过期；进行中的 cycle 只在堆内保留 open-ttl-ms。</li>
+ * </ul>
+ * 相同 (series, cycle) 的并发未命中只加载一次。seriesKey 由调用方约定，例如 {@code csv:<fileKey>}、{@code influx:<cellId>}。
+ */
+@Component
+public class CycleSeriesCache {
+
+    private static final Logger log = LoggerFactory.getLogger(CycleSeriesCache.class);
+
+    private static final int DISK_MAGIC = 0x43594353; // "CYCS"
+    private static final int DISK_VERSION = 2;
+
+    private final long maxBytes;
+    private final long openTtlMs;
+    private final Path diskDir;
+    private final long diskMaxBytes;
+
+    /** 访问顺序 LinkedHashMap，key = seriesKey + '#' + cycle；所有访问在 lru 上同步 */
+    private final LinkedHashMap<String, Entry> lru = new LinkedHashMap<>(256, 0.75f, true);
+    private long heapBytes = 0L;
+
+    private final ConcurrentHashMap<String, CompletableFuture<CycleSeries>> inFlight = new ConcurrentHashMap<>();
+    /** seriesKey -> 失效次数；加载开始后该 series 发生过失效的结果不再写入缓存（其他 series 的在途加载不受影响） */
+    private final ConcurrentHashMap<String, Long> epochs = new ConcurrentHashMap<>();
+    private final AtomicLong diskBytes = new AtomicLong();
+
+    private static final class Entry {
+        final CycleSeries series;
+        final boolean completed;
+        final long loadedAtMs;
+        final long bytes;
+
+        Entry(CycleSeries series, boolean completed, long loadedAtMs) {
+            this.series = series;
+            this.completed = completed;
+            this.loadedAtMs = loadedAtMs;
+            this.bytes = series.estimateBytes();
+        }
+    }
+
+    public CycleSeriesCache(@Value("${bms.cycle-cache.max-bytes:268435456}") long maxBytes,
+                            @Value("${bms.cycle-cache.open-ttl-ms:30000}") long openTtlMs,
+                            @Value("${bms.cycle-cache.disk-dir:}") String diskDir,
+                            @Value("${bms.cycle-cache.disk-max-bytes:2147483648}") long diskMaxBytes) {
+        this.maxBytes = maxBytes;
+        this.openTtlMs = openTtlMs;
+        this.diskMaxBytes = diskMaxBytes;
+        this.diskDir = initDiskDir(diskDir);
+    }
+
+    /**
+     * 读取某个 cycle 的序列，未命中时调用 loader 加载。
+     *
+     * @param completed 该 cycle 是否已完成（完成后数据不再变化）
+     * @param loader    返回 null 表示加载失败，结果不缓存；抛出的异常原样传给合并等待的调用方
+     */
+    public CycleSeries get(String seriesKey, int cycle, boolean completed, Supplier<CycleSeries> loader) {
+        String key = key(seriesKey, cycle);
+        CycleSeries hit = getIfPresent(key);
+        if (hit != null) return hit;
+
+        if (completed) {
+            CycleSeries fromDisk = readDisk(seriesKey, cycle);
+            if (fromDisk != null) {
+                putHeap(key, fromDisk, true);
+                return fromDisk;
+            }
+        }
+
+        CompletableFuture<CycleSeries> mine = new CompletableFuture<>();
+        CompletableFuture<CycleSeries> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw unwrap(e);
+            }
+        }
+        long startEpoch = epochOf(seriesKey);
+        try {
+            CycleSeries loaded = loader.get();
+            if (loaded != null && epochOf(seriesKey) == startEpoch) {
+                putHeap(key, loaded, completed);
+                if (completed) writeDisk(seriesKey, loaded);
+            }
+            mine.complete(loaded);
+            return loaded;
+        } catch (Throwable e) {
+            // Error（解析大 cycle 时 OOM 等）同样要唤醒合并等待的调用方，否则它们会永远阻塞在 join 上
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /** 合并等待方拿到与加载线程相同的异常，而不是 CompletionException 包装 */
+    static RuntimeException unwrap(CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) return (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        return e;
+    }
+
+    /**
+     * 批量放入同一数据源的多个 cycle（例如整份 CSV 解析一次得到的全部 cycle）。
+     */
+    public void putAll(String seriesKey, Collection<CycleSeries> series, boolean completed) {
+        for (CycleSeries s : series) {
+            putHeap(key(seriesKey, s.getCycle()), s, completed);
+            if (completed) writeDisk(seriesKey, s);
+        }
+    }
+
+    /** 只查缓存（堆内，已完成的再查磁盘），不触发加载 */
+    public CycleSeries peek(String seriesKey, int cycle) {
+        CycleSeries hit = getIfPresent(key(seriesKey, cycle));
+        if (hit != null) return hit;
+        CycleSeries fromDisk = readDisk(seriesKey, cycle);
+        if (fromDisk != null) {
+            putHeap(key(seriesKey, cycle), fromDisk, true);
+        }
+        return fromDisk;
+    }
+
+    /**
+     * 数据源被重写（同一 cell 重新导入等）时丢弃其全部 cycle，包括磁盘层。
+     */
+    public void invalidate(String seriesKey) {
+        epochs.merge(seriesKey, 1L, Long::sum);
+        String prefix = seriesKey + '#';
+        synchronized (lru) {
+            Iterator<Map.Entry<String, Entry>> it = lru.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> e = it.next();
+                if (e.getKey().startsWith(prefix)) {
+                    heapBytes -= e.getValue().bytes;
+                    it.remove();
+                }
+            }
+        }
+        if (diskDir != null) {
+            Path dir = seriesDir(seriesKey);
+            if (Files.isDirectory(dir)) {
+                try (Stream<Path> files = Files.list(dir)) {
+                    for (Path f : files.collect(Collectors.toList())) {
+                        deleteDiskFile(f);
+                    }
+                    Files.deleteIfExists(dir);
+                } catch (IOException e) {
+                    log.warn("⚠️ 清理 cycle 磁盘缓存失败 series={}: {}", seriesKey, e.getMessage());
+                }
+            }
+        }
+    }
+
+    public long getHeapBytes() {
+        synchronized (lru) {
+            return heapBytes;
+        }
+    }
+
+    public int getHeapEntryCount() {
+        synchronized (lru) {
+            return lru.size();
+        }
+    }
+
+    private CycleSeries getIfPresent(String key) {
+        synchronized (lru) {
+            Entry e = lru.get(key);
+            if (e == null) return null;
+            if (!e.completed && System.currentTimeMillis() - e.loadedAtMs >= openTtlMs) {
+                lru.remove(key);
+                heapBytes -= e.bytes;
+                return null;
+            }
+            return e.series;
+        }
+    }
+
+    private void putHeap(String key, CycleSeries series, boolean completed) {
+        Entry entry = new Entry(series, completed, System.currentTimeMillis());
+        // 单条超过总容量的序列不进堆内层，避免把其余条目全部挤出
+        if (entry.bytes > maxBytes) return;
+        synchronized (lru) {
+            Entry old = lru.put(key, entry);
+            if (old != null) heapBytes -= old.bytes;
+            heapBytes += entry.bytes;
+            Iterator<Map.Entry<String, Entry>> it = lru.entrySet().iterator();
+            while (heapBytes > maxBytes && it.hasNext()) {
+                Map.Entry<String, Entry> eldest = it.next();
+                if (eldest.getKey().equals(key)) continue;
+                heapBytes -= eldest.getValue().bytes;
+                it.remove();
+            }
+        }
+    }
+
+    private long epochOf(String seriesKey) {
+        return epochs.getOrDefault(seriesKey, 0L);
+    }
+
+    private static String key(String seriesKey, int cycle) {
+        return seriesKey + '#' + cycle;
+    }
+
+    // ---------------- 磁盘层 ----------------
+
+    private Path initDiskDir(String dir) {
+        if (dir == null || dir.trim().isEmpty()) return null;
+        Path path = Paths.get(dir.trim());
+        try {
+            Files.createDirectories(path);
+            try (Stream<Path> files = Files.walk(path)) {
+                diskBytes.set(files.filter(Files::isRegularFile).mapToLong(CycleSeriesCache::sizeOf).sum());
+            }
+            log.info("✅ cycle 序列磁盘缓存: {}（已有 {} 字节）", path, diskBytes.get());
+            return path;
+        } catch (IOException e) {
+            log.warn("⚠️ cycle 序列磁盘缓存目录不可用，仅使用堆内缓存 dir={}: {}", dir, e.getMessage());
+            return null;
+        }
+    }
+
+    private Path seriesDir(String seriesKey) {
+        return diskDir.resolve(UUID.nameUUIDFromBytes(seriesKey.getBytes(StandardCharsets.UTF_8)).toString());
+    }
+
+    private CycleSeries readDisk(String seriesKey, int cycle) {
+        if (diskDir == null) return null;
+        Path file = seriesDir(seriesKey).resolve(cycle + ".bin");
+        if (!Files.isRegularFile(file)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != DISK_MAGIC || in.readInt() != DISK_VERSION
+                    || !seriesKey.equals(in.readUTF()) || in.readInt() != cycle) {
+                return null;
+            }
+            CycleSeries.TimeUnit unit = CycleSeries.TimeUnit.values()[in.readByte()];
+            int n = in.readInt();
+            double[][] cols = new double[5][n];
+            for (double[] col : cols) {
+                for (int i = 0; i < n; i++) {
+                    col[i] = in.readDouble();
+                }
+            }
+            // 用修改时间近似访问时间，磁盘层超限时按它淘汰
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return new CycleSeries(cycle, n, unit, cols[0], cols[1], cols[2], cols[3], cols[4]);
+        } catch (IOException e) {
+            log.warn("⚠️ 读取 cycle 磁盘缓存失败 file={}: {}", file, e.getMessage());
+            deleteDiskFile(file);
+            return null;
+        }
+    }
+
+    private void writeDisk(String seriesKey, CycleSeries s) {
+        if (diskDir == null) return;
+        try {
+            Path dir = seriesDir(seriesKey);
+            Files.createDirectories(dir);
+            Path file = dir.resolve(s.getCycle() + ".bin");
+            Path tmp = dir.resolve(s.getCycle() + ".bin.tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(DISK_MAGIC);
+                out.writeInt(DISK_VERSION);
+                out.writeUTF(seriesKey);
+                out.writeInt(s.getCycle());
+                out.writeByte(s.getTimeUnit().ordinal());
+                out.writeInt(s.size());
+                for (double[] col : new double[][]{s.getTime(), s.getVoltage(), s.getCurrent(), s.getTemp(), s.getCapacity()}) {
+                    for (int i = 0; i < s.size(); i++) {
+                        out.writeDouble(col[i]);
+                    }
+                }
+            }
+            long previous = Files.exists(file) ? sizeOf(file) : 0L;
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (diskBytes.addAndGet(sizeOf(file) - previous) > diskMaxBytes) {
+                trimDisk();
+            }
+        } catch (IOException e) {
+            log.warn("⚠️ 写入 cycle 磁盘缓存失败 series={}, cycle={}: {}", seriesKey, s.getCycle(), e.getMessage());
+        }
+    }
+
+    /** 磁盘层超限：按修改时间从旧到新删除，直到降到上限的 90% */
+    private synchronized void trimDisk() {
+        if (diskBytes.get() <= diskMaxBytes) return;
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(diskDir)) {
+            files = walk.filter(p -> Files.isRegularFile(p) && p.toString().endsWith(".bin"))
+                    .collect(Collectors.toCollection(ArrayList::new));
+        } catch (IOException e) {
+            log.warn("⚠️ 扫描 cycle 磁盘缓存失败: {}", e.getMessage());
+            return;
+        }
+        files.sort(Comparator.comparingLong(CycleSeriesCache::lastModifiedOf));
+        long target = diskMaxBytes / 10 * 9;
+        for (Path f : files) {
+            if (diskBytes.get() <= target) break;
+            deleteDiskFile(f);
+        }
+    }
+
+    private void deleteDiskFile(Path f) {
+        long size = sizeOf(f);
+        try {
+            if (Files.deleteIfExists(f)) diskBytes.addAndGet(-size);
+        } catch (IOException ignored) {
+            // 下次淘汰再试
+        }
+    }
+
+    private static long sizeOf(Path p) {
+        try {
+            return Files.size(p);
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    private static long lastModifiedOf(Path p) {
+        try {
+            return Files.getLastModifiedTime(p).toMillis();
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+}
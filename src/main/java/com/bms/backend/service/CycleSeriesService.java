@@ -0,0 +1,313 @@
+package com.bms.backend.service;
+
+import com.bms.backend.analysis.CycleSeries;
+import com.bms.backend.exception.BusinessException;
+import com.bms.backend.influx.CellTimeRangeCatalog;
+import com.bms.backend.influx.InfluxLane;
+import com.bms.backend.influx.InfluxQueryGateway;
+import com.bms.backend.influx.InfluxUnavailableException;
+import com.bms.backend.storage.ObjectStorageService;
+import com.influxdb.query.FluxRecord;
+import com.influxdb.query.FluxTable;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按 cycle 读取原始序列的统一入口，所有读取都经过 {@link CycleSeriesCache}：
+ * <ul>
+ *     <li>CSV（MinIO 上传文件）：文件不可变，一次解析得到全部 cycle 并整体放入缓存；</li>
+ *     <li>Influx（cell_id + cycle_index）：目录中已有更晚的 cycle 且该 cell 当前没有写入任务时视为已完成，
+ *     否则按进行中处理（短 TTL）。</li>
+ * </ul>
+ */
+@Service
+public class CycleSeriesService {
+
+    private static final Logger log = LoggerFactory.getLogger(CycleSeriesService.class);
+
+    private static final String CSV_PREFIX = "csv:";
+    private static final String INFLUX_PREFIX = "influx:";
+    /** CSV 文件 -> cycle 列表的索引条数上限（只存 int[]，超过直接清空） */
+    private static final int MAX_CSV_INDEX = 1024;
+
+    private final CycleSeriesCache cache;
+    private final ObjectStorageService objectStorageService;
+    private final InfluxQueryGateway influxQueryGateway;
+    private final CellTimeRangeCatalog timeRangeCatalog;
+
+    @Value("${influxdb.bucket}")
+    private String bucket;
+
+    private final ConcurrentHashMap<String, int[]> csvCycleIndex = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<Map<Integer, CycleSeries>>> csvParsing = new ConcurrentHashMap<>();
+    /** 正在写入 Influx 的 cell（小写）-> 写入任务数；Influx 序列的缓存 key 同样按小写 cellId，与写入登记一致 */
+    private final ConcurrentHashMap<String, AtomicInteger> writing = new ConcurrentHashMap<>();
+
+    public CycleSeriesService(CycleSeriesCache cache,
+                              ObjectStorageService objectStorageService,
+                              InfluxQueryGateway influxQueryGateway,
+                              CellTimeRangeCatalog timeRangeCatalog) {
+        this.cache = cache;
+        this.objectStorageService = objectStorageService;
+        this.influxQueryGateway = influxQueryGateway;
+        this.timeRangeCatalog = timeRangeCatalog;
+    }
+
+    // ---------------- CSV ----------------
+
+    /**
+     * CSV 中某个 cycle 的序列（时间单位 {@link CycleSeries.TimeUnit#MINUTES}）；文件中没有该 cycle 时返回空序列。
+     */
+    public CycleSeries getCsvCycle(String fileKey, int cycle) {
+        return cache.get(CSV_PREFIX + fileKey, cycle, true, () -> {
+            Map<Integer, CycleSeries> all = parseCsvOnce(fileKey);
+            CycleSeries s = all.get(cycle);
+            return s != null ? s : new CycleSeries.Builder(cycle, CycleSeries.TimeUnit.MINUTES, 0).build();
+        });
+    }
+
+    /**
+     * CSV 全部 cycle（按 cycle 升序）；缓存中齐全时不重新下载解析。
+     */
+    public List<CycleSeries> getCsvCycles(String fileKey) {
+        int[] cycles = csvCycleIndex.get(fileKey);
+        if (cycles != null) {
+            List<CycleSeries> out = new ArrayList<>(cycles.length);
+            for (int c : cycles) {
+                CycleSeries s = cache.peek(CSV_PREFIX + fileKey, c);
+                if (s == null) break;
+                out.add(s);
+            }
+            if (out.size() == cycles.length) return out;
+        }
+        return new ArrayList<>(parseCsvOnce(fileKey).values());
+    }
+
+    /** 同一文件的并发解析只做一次；解析结果整体放入缓存 */
+    private Map<Integer, CycleSeries> parseCsvOnce(String fileKey) {
+        CompletableFuture<Map<Integer, CycleSeries>> mine = new CompletableFuture<>();
+        CompletableFuture<Map<Integer, CycleSeries>> existing = csvParsing.putIfAbsent(fileKey, mine);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw CycleSeriesCache.unwrap(e);
+            }
+        }
+        try {
+            Map<Integer, CycleSeries> all = parseCsv(fileKey);
+            cache.putAll(CSV_PREFIX + fileKey, all.values(), true);
+            if (csvCycleIndex.size() >= MAX_CSV_INDEX) csvCycleIndex.clear();
+            csvCycleIndex.put(fileKey, all.keySet().stream().mapToInt(Integer::intValue).toArray());
+            mine.complete(all);
+            return all;
+        } catch (Throwable e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            csvParsing.remove(fileKey, mine);
+        }
+    }
+
+    /**
+     * 解析整份 CSV：表头须包含 Cycle, Time_Min, Voltage, Current, Temp, Capacity（忽略大小写，列顺序不限），
+     * 缺列时抛出 {@link BusinessException}。分隔符按表头判断：逗号优先，表头没有逗号时按制表符（与上传解析一致）。
+     * Cycle 无法解析的行跳过，其余列解析失败记为 NaN。
+     */
+    private Map<Integer, CycleSeries> parseCsv(String fileKey) {
+        Map<Integer, CycleSeries.Builder> builders = new TreeMap<>();
+        try (InputStream in = objectStorageService.downloadCsv(fileKey);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+
+            reader.mark(64 * 1024);
+            String header = reader.readLine();
+            if (header == null || header.trim().isEmpty()) {
+                throw new BusinessException("CSV 文件为空");
+            }
+            reader.reset();
+            char delimiter = header.indexOf(',') < 0 && header.indexOf('\t') >= 0 ? '\t' : ',';
+            CSVFormat format = CSVFormat.DEFAULT.builder()
+                    .setDelimiter(delimiter)
+                    .setHeader()
+                    .setSkipHeaderRecord(true)
+                    .setIgnoreHeaderCase(true)
+                    .setIgnoreEmptyLines(true)
+                    .setAllowMissingColumnNames(true)
+                    .setTrim(true)
+                    .build();
+
+            try (CSVParser parser = format.parse(reader)) {
+                Map<String, Integer> headerMap = parser.getHeaderMap();
+                int idxCycle = columnIndex(headerMap, "cycle");
+                int idxCapacity = columnIndex(headerMap, "capacity");
+                if (idxCycle < 0 || idxCapacity < 0) {
+                    throw new BusinessException("CSV 中缺少 Cycle 或 Capacity 列");
+                }
+                int[] idx = {columnIndex(headerMap, "time_min"), columnIndex(headerMap, "voltage"),
+                        columnIndex(headerMap, "current"), columnIndex(headerMap, "temp")};
+                for (int i : idx) {
+                    if (i < 0) throw new BusinessException("CSV 表头不符合预期: " + header.trim());
+                }
+
+                for (CSVRecord record : parser) {
+                    double cycleRaw = column(record, idxCycle);
+                    if (Double.isNaN(cycleRaw) || cycleRaw != Math.rint(cycleRaw)) continue;
+                    int cycle = (int) cycleRaw;
+                    builders.computeIfAbsent(cycle, c -> new CycleSeries.Builder(c, CycleSeries.TimeUnit.MINUTES, 256))
+                            .add(column(record, idx[0]), column(record, idx[1]), column(record, idx[2]),
+                                    column(record, idx[3]), column(record, idxCapacity));
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            throw new BusinessException("读取 CSV 失败：" + e.getMessage());
+        }
+        Map<Integer, CycleSeries> out = new TreeMap<>();
+        builders.forEach((cycle, b) -> out.put(cycle, b.build()));
+        return out;
+    }
+
+    private static double column(CSVRecord record, int idx) {
+        if (idx >= record.size()) return Double.NaN;
+        String s = record.get(idx);
+        if (s == null || s.isEmpty()) return Double.NaN;
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static int columnIndex(Map<String, Integer> headerMap, String name) {
+        for (Map.Entry<String, Integer> e : headerMap.entrySet()) {
+            if (e.getKey() != null && e.getKey().trim().equalsIgnoreCase(name)) return e.getValue();
+        }
+        return -1;
+    }
+
+    // ---------------- Influx ----------------
+
+    /**
+     * Influx 中某 cell 某 cycle 的序列（时间单位 {@link CycleSeries.TimeUnit#EPOCH_MILLIS}，已按时间排序）。
+     *
+     * @throws InfluxUnavailableException 查询被限流丢弃、超时或失败（不缓存，也不当作空序列返回）
+     */
+    public CycleSeries getInfluxCycle(String cellId, int cycle, InfluxLane lane) {
+        return cache.get(INFLUX_PREFIX + normalize(cellId), cycle, isInfluxCycleCompleted(cellId, cycle),
+                () -> queryInfluxCycle(cellId, cycle, lane));
+    }
+
+    /**
+     * 写入路径（CSV 导入、模拟写入）开始写某个 cell 时调用：写入期间该 cell 的 cycle 一律按进行中处理，
+     * 并丢弃已缓存的旧序列。
+     */
+    public void beginWrite(String cellId) {
+        if (cellId == null) return;
+        writing.computeIfAbsent(normalize(cellId), k -> new AtomicInteger()).incrementAndGet();
+        cache.invalidate(INFLUX_PREFIX + normalize(cellId));
+    }
+
+    /** 写入结束（含失败、中断）时调用，与 {@link #beginWrite(String)} 成对 */
+    public void endWrite(String cellId) {
+        if (cellId == null) return;
+        writing.computeIfPresent(normalize(cellId), (k, n) -> n.decrementAndGet() <= 0 ? null : n);
+        // 写入期间以进行中状态缓存的序列可能缺最后一批点
+        cache.invalidate(INFLUX_PREFIX + normalize(cellId));
+    }
+
+    private boolean isInfluxCycleCompleted(String cellId, int cycle) {
+        if (writing.containsKey(normalize(cellId))) return false;
+        List<Integer> cycles = timeRangeCatalog.cycles(cellId);
+        return !cycles.isEmpty() && cycles.get(cycles.size() - 1) > cycle;
+    }
+
+    private CycleSeries queryInfluxCycle(String cellId, int cycle, InfluxLane lane) {
+        String query = String.format(
+                "from(bucket: \"%s\") " +
+                        "|> %s " +
+                        "|> filter(fn: (r) => r[\"_measurement\"] == \"battery_metrics\") " +
+                        "|> filter(fn: (r) => r[\"cell_id\"] == \"%s\") " +
+                        "|> filter(fn: (r) => r[\"cycle_index\"] == \"%d\") " +
+                        "|> filter(fn: (r) => r[\"_field\"] == \"voltage\" or r[\"_field\"] == \"current\" or r[\"_field\"] == \"temperature\" or r[\"_field\"] == \"capacity\") " +
+                        "|> pivot(rowKey:[\"_time\"], columnKey:[\"_field\"], valueColumn:\"_value\") " +
+                        "|> keep(columns:[\"_time\", \"voltage\", \"current\", \"temperature\", \"capacity\"]) " +
+                        "|> sort(columns:[\"_time\"])",
+                bucket, timeRangeCatalog.rangeForCycle(cellId, cycle, "-365d"), cellId, cycle
+        );
+        List<FluxTable> tables;
+        try {
+            tables = influxQueryGateway.query(query, lane);
+        } catch (RuntimeException e) {
+            log.error("❌ 查询 cycle 原始序列失败 cellId={}, cycle={}, err={}", cellId, cycle, e.getMessage());
+            throw e instanceof InfluxUnavailableException ? (InfluxUnavailableException) e
+                    : new InfluxUnavailableException("查询 cycle 原始序列失败: " + e.getMessage(), e);
+        }
+        int total = 0;
+        for (FluxTable table : tables) {
+            total += table.getRecords().size();
+        }
+        CycleSeries.Builder b = new CycleSeries.Builder(cycle, CycleSeries.TimeUnit.EPOCH_MILLIS, total);
+        boolean sorted = true;
+        double prevT = Double.NEGATIVE_INFINITY;
+        for (FluxTable table : tables) {
+            for (FluxRecord record : table.getRecords()) {
+                if (record.getTime() == null) continue;
+                double t = record.getTime().toEpochMilli();
+                if (t < prevT) sorted = false;
+                prevT = t;
+                b.add(t, toDouble(record.getValueByKey("voltage")), toDouble(record.getValueByKey("current")),
+                        toDouble(record.getValueByKey("temperature")), toDouble(record.getValueByKey("capacity")));
+            }
+        }
+        CycleSeries s = b.build();
+        if (!sorted) sortByTime(s);
+        return s;
+    }
+
+    /** Flux 已按 _time 排序，通常不需要；多表拼接导致乱序时按时间稳定插入排序（就地，尚未发布） */
+    private static void sortByTime(CycleSeries s) {
+        double[] t = s.getTime();
+        double[][] cols = {s.getVoltage(), s.getCurrent(), s.getTemp(), s.getCapacity()};
+        double[] tmp = new double[cols.length];
+        for (int i = 1; i < s.size(); i++) {
+            if (t[i] >= t[i - 1]) continue;
+            double tk = t[i];
+            for (int c = 0; c < cols.length; c++) tmp[c] = cols[c][i];
+            int j = i - 1;
+            while (j >= 0 && t[j] > tk) {
+                t[j + 1] = t[j];
+                for (double[] col : cols) col[j + 1] = col[j];
+                j--;
+            }
+            t[j + 1] = tk;
+            for (int c = 0; c < cols.length; c++) cols[c][j + 1] = tmp[c];
+        }
+    }
+
+    private static double toDouble(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+
+    private static String normalize(String cellId) {
+        return cellId == null ? "" : cellId.trim().toLowerCase();
+    }
+}
@@ -0,0 +1,374 @@
+package com.bms.backend.service;
+
+import com.bms.backend.entity.DashboardData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 双通道大屏推送中心：每个不同的 (idA, idB) 组合只有一个定时 ticker，
+ * 每个周期计算一次 {@link DashboardData}、序列化一次，再扇出给该组合的全部订阅者。
+ * 后端开销按组合计，与观看人数无关；最后一个订阅者离开时 ticker 停止。
+ * idA/idB 为空表示「台账最新两块」组合。
+ * 订阅时 format=cbor 的 session 收 CBOR 二进制帧（同样每周期只编码一次），其余收 JSON 文本帧。
+ * <p>
+ * ticker 只把帧放进各 session 的出站槽，由有界的发送线程池逐个 session 发送：每个 session 同一时刻最多一个发送任务，
+ * 未发出的旧帧被新帧覆盖（大屏帧是完整状态）。单帧发送超过 send-timeout-ms 的 session 由看门狗断开并中断发送线程，
+ * 同时为线程池临时补一个线程（至多 sender-threads 个），一个失联的客户端不会卡住整组的 ticker 与其他订阅者。
+ */
+@Service
+public class DashboardStreamHub {
+
+    private static final Logger log = LoggerFactory.getLogger(DashboardStreamHub.class);
+
+    private static final String LATEST_TWO_KEY = "*";
+    private static final String SESSION_PAIR_KEY = "dashboard.pairKey";
+    private static final String SESSION_BINARY_KEY = "dashboard.binary";
+
+    private final BatteryDataService batteryDataService;
+    private final TopologyWireCodec codec;
+
+    @Value("${bms.dashboard.push.interval-ms:1000}")
+    private long intervalMs = 1000L;
+
+    @Value("${bms.dashboard.push.scheduler-threads:2}")
+    private int schedulerThreads = 2;
+
+    @Value("${bms.dashboard.push.sender-threads:4}")
+    private int senderThreads = 4;
+
+    @Value("${bms.dashboard.push.send-timeout-ms:10000}")
+    private long sendTimeoutMs = 10000L;
+
+    @Value("${bms.dashboard.push.watchdog-interval-ms:1000}")
+    private long watchdogIntervalMs = 1000L;
+
+    private ThreadPoolTaskScheduler scheduler;
+    private ThreadPoolExecutor senderPool;
+    /** 为卡住的发送临时补充的线程数（由 senderPool 锁保护） */
+    private int spareThreads = 0;
+
+    private final ConcurrentHashMap<String, PairTicker> tickers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<WebSocketSession, Outbox> outboxes = new ConcurrentHashMap<>();
+
+    /** 单个 session 的出站槽：只保留最新一帧，同一时刻最多一个发送任务 */
+    private static final class Outbox {
+        final WebSocketSession session;
+        /** 当前在途发送的开始时间，0 表示没有在途发送 */
+        volatile long sendStartedMs = 0L;
+        /** 以下由自身锁保护 */
+        WebSocketMessage<?> pending;
+        boolean draining = false;
+        Thread sender;
+        boolean abandoned = false;
+        boolean replaced = false;
+
+        Outbox(WebSocketSession session) {
+            this.session = session;
+        }
+    }
+
+    private final class PairTicker {
+        final String idA;
+        final String idB;
+        final Set<WebSocketSession> sessions = ConcurrentHashMap.newKeySet();
+        volatile ScheduledFuture<?> future;
+        volatile DashboardData latest;
+        volatile TextMessage latestMessage;
+        volatile BinaryMessage latestBinary;
+        volatile long latestAtMs;
+
+        PairTicker(String idA, String idB) {
+            this.idA = idA;
+            this.idB = idB;
+        }
+
+        void tick() {
+            DashboardData data;
+            try {
+                data = idA == null
+                        ? batteryDataService.getDashboardStreamLatestTwo()
+                        : batteryDataService.getDashboardStream(idA, idB);
+            } catch (Exception e) {
+                log.warn("⚠️ 大屏推送取数失败 {}|{}: {}", idA, idB, e.getMessage());
+                return;
+            }
+            // 每个周期每种格式只序列化一次，所有订阅者共享同一个消息对象
+            byte[] json = codec.encodePlain(data, TopologyWireCodec.Format.JSON);
+            if (json == null) return;
+            TextMessage message = new TextMessage(json);
+            BinaryMessage binary = null;
+            for (WebSocketSession session : sessions) {
+                if (isBinary(session)) {
+                    binary = encodeBinary(data);
+                    break;
+                }
+            }
+            latest = data;
+            latestMessage = message;
+            latestBinary = binary;
+            latestAtMs = System.currentTimeMillis();
+            for (WebSocketSession session : sessions) {
+                if (!isBinary(session)) {
+                    enqueue(session, message);
+                } else if (binary != null) {
+                    enqueue(session, binary);
+                }
+            }
+        }
+
+        /** 最近一帧（按 session 格式），二进制帧首次需要时再编码 */
+        WebSocketMessage<?> latestFor(WebSocketSession session) {
+            if (!isBinary(session)) return latestMessage;
+            DashboardData data = latest;
+            if (latestBinary == null && data != null) {
+                latestBinary = encodeBinary(data);
+            }
+            return latestBinary;
+        }
+    }
+
+    public DashboardStreamHub(BatteryDataService batteryDataService, TopologyWireCodec codec) {
+        this.batteryDataService = batteryDataService;
+        this.codec = codec;
+    }
+
+    @PostConstruct
+    public void init() {
+        scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(Math.max(1, schedulerThreads));
+        scheduler.setThreadNamePrefix("dashboard-push-");
+        scheduler.setDaemon(true);
+        scheduler.initialize();
+        AtomicInteger seq = new AtomicInteger();
+        int threads = Math.max(1, senderThreads);
+        senderPool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "dashboard-send-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        if (sendTimeoutMs > 0) {
+            scheduler.scheduleWithFixedDelay(this::evictStalledSenders, Math.max(100L, watchdogIntervalMs));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+        senderPool.shutdownNow();
+    }
+
+    /**
+     * 订阅某个组合；该组合首个订阅者会启动 ticker，已有最新结果时立即补发一帧。
+     * session 应已做并发发送保护（见 ConcurrentWebSocketSessionDecorator）。
+     */
+    public void subscribe(String idA, String idB, WebSocketSession session) {
+        subscribe(idA, idB, session, TopologyWireCodec.Format.JSON);
+    }
+
+    public void subscribe(String idA, String idB, WebSocketSession session, TopologyWireCodec.Format format) {
+        String key = pairKey(idA, idB);
+        // 先登记，ticker 发送失败时 unsubscribe 才能找到所属组合
+        session.getAttributes().put(SESSION_PAIR_KEY, key);
+        session.getAttributes().put(SESSION_BINARY_KEY, format != null && format.isBinary());
+        outboxes.putIfAbsent(session, new Outbox(session));
+        boolean latestTwo = LATEST_TWO_KEY.equals(key);
+        PairTicker ticker = tickers.compute(key, (k, existing) -> {
+            PairTicker t = existing != null ? existing
+                    : new PairTicker(latestTwo ? null : idA.trim(), latestTwo ? null : idB.trim());
+            t.sessions.add(session);
+            if (t.future == null) {
+                t.future = scheduler.scheduleAtFixedRate(t::tick, Math.max(100L, intervalMs));
+            }
+            return t;
+        });
+        WebSocketMessage<?> last = ticker.latestFor(session);
+        if (last != null) {
+            enqueue(session, last);
+        }
+    }
+
+    public void unsubscribe(WebSocketSession session) {
+        Outbox box = outboxes.remove(session);
+        if (box != null) {
+            synchronized (box) {
+                box.pending = null;
+            }
+        }
+        Object key = session.getAttributes().get(SESSION_PAIR_KEY);
+        if (key == null) return;
+        tickers.computeIfPresent((String) key, (k, t) -> {
+            t.sessions.remove(session);
+            if (!t.sessions.isEmpty()) return t;
+            if (t.future != null) t.future.cancel(false);
+            return null;
+        });
+    }
+
+    /**
+     * 某组合正在推送且结果足够新（两个推送周期内）时直接返回，供 REST 轮询复用，避免重复查询与推进 EMA。
+     */
+    public DashboardData latestIfFresh(String idA, String idB) {
+        PairTicker ticker = tickers.get(pairKey(idA, idB));
+        if (ticker == null || ticker.latest == null) return null;
+        if (System.currentTimeMillis() - ticker.latestAtMs > 2 * intervalMs) return null;
+        return ticker.latest;
+    }
+
+    public int getActivePairCount() {
+        return tickers.size();
+    }
+
+    /** 放入 session 的出站槽并在需要时提交发送任务，不在调用线程上发送 */
+    private void enqueue(WebSocketSession session, WebSocketMessage<?> message) {
+        Outbox box = outboxes.get(session);
+        if (box == null) return;
+        if (!session.isOpen()) {
+            unsubscribe(session);
+            return;
+        }
+        boolean schedule;
+        synchronized (box) {
+            if (box.abandoned) return;
+            box.pending = message;
+            schedule = !box.draining;
+            if (schedule) box.draining = true;
+        }
+        if (schedule) {
+            try {
+                senderPool.execute(() -> drain(box));
+            } catch (RejectedExecutionException e) {
+                synchronized (box) {
+                    box.draining = false;
+                }
+            }
+        }
+    }
+
+    private void drain(Outbox box) {
+        synchronized (box) {
+            box.sender = Thread.currentThread();
+        }
+        try {
+            while (true) {
+                WebSocketMessage<?> message;
+                synchronized (box) {
+                    message = box.pending;
+                    box.pending = null;
+                    if (message == null || box.abandoned) {
+                        box.draining = false;
+                        return;
+                    }
+                }
+                box.sendStartedMs = System.currentTimeMillis();
+                try {
+                    box.session.sendMessage(message);
+                } catch (Exception e) {
+                    log.debug("大屏推送发送失败，移除订阅 session={}: {}", box.session.getId(), e.getMessage());
+                    unsubscribe(box.session);
+                    return;
+                } finally {
+                    box.sendStartedMs = 0L;
+                }
+            }
+        } finally {
+            boolean abandoned;
+            boolean replaced;
+            synchronized (box) {
+                box.sender = null;
+                abandoned = box.abandoned;
+                replaced = box.replaced;
+            }
+            if (abandoned) {
+                // 看门狗放弃时未关闭 session（关闭可能与阻塞中的发送争用同一连接），由返回的发送线程收尾
+                try {
+                    box.session.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (replaced) releaseSpareThread();
+        }
+    }
+
+    /**
+     * 看门狗：断开单帧发送超过 send-timeout-ms 的 session。
+     * ConcurrentWebSocketSessionDecorator 的 send-time-limit 只在另一线程争用同一 session 时才检查，单发送线程下不会触发。
+     */
+    public void evictStalledSenders() {
+        long now = System.currentTimeMillis();
+        for (Outbox box : outboxes.values()) {
+            long started = box.sendStartedMs;
+            if (started == 0L || now - started < sendTimeoutMs) continue;
+            synchronized (box) {
+                // 检查期间已发送完成或已换下一帧：不算卡住
+                if (box.sender == null || box.sendStartedMs != started || box.abandoned) continue;
+                box.abandoned = true;
+                box.replaced = acquireSpareThread();
+                // 持锁中断：发送线程离开本 session 的 drain 前需要拿同一把锁，不会误中断其他 session 的发送
+                box.sender.interrupt();
+            }
+            log.warn("⚠️ 大屏推送单帧发送超过 {}ms 未返回，断开 session={}", sendTimeoutMs, box.session.getId());
+            unsubscribe(box.session);
+        }
+    }
+
+    /** 为卡住的发送线程补一个线程，补充数不超过 sender-threads */
+    private boolean acquireSpareThread() {
+        synchronized (senderPool) {
+            int threads = Math.max(1, senderThreads);
+            if (spareThreads >= threads || senderPool.isShutdown()) return false;
+            spareThreads++;
+            senderPool.setMaximumPoolSize(threads + spareThreads);
+            senderPool.setCorePoolSize(threads + spareThreads);
+            return true;
+        }
+    }
+
+    private void releaseSpareThread() {
+        synchronized (senderPool) {
+            if (spareThreads == 0) return;
+            spareThreads--;
+            int size = Math.max(1, senderThreads) + spareThreads;
+            senderPool.setCorePoolSize(size);
+            senderPool.setMaximumPoolSize(size);
+        }
+    }
+
+    private BinaryMessage encodeBinary(DashboardData data) {
+        byte[] cbor = codec.encodePlain(data, TopologyWireCodec.Format.CBOR);
+        return cbor == null ? null : new BinaryMessage(cbor);
+    }
+
+    private static boolean isBinary(WebSocketSession session) {
+        return Boolean.TRUE.equals(session.getAttributes().get(SESSION_BINARY_KEY));
+    }
+
+    private static String pairKey(String idA, String idB) {
+        String a = blankToNull(idA);
+        String b = blankToNull(idB);
+        if (a == null || b == null) return LATEST_TWO_KEY;
+        return a + "|" + b;
+    }
+
+    private static String blankToNull(String s) {
+        return s == null || s.trim().isEmpty() ? null : s.trim();
+    }
+}
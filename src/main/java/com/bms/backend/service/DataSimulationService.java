@@ -1,5 +1,6 @@
 package com.bms.backend.service;
 
+import com.bms.backend.influx.CellTimeRangeCatalog;
 import com.influxdb.client.InfluxDBClient;
 import com.influxdb.client.WriteApiBlocking;
 import com.influxdb.client.domain.WritePrecision;
@@ -31,6 +32,15 @@ public class DataSimulationService {
     @Autowired
     private InfluxDBClient influxDBClient;
 
+    @Autowired
+    private CellTimeRangeCatalog timeRangeCatalog;
+
+    @Autowired
+    private IcDerivedCurveService icDerivedCurveService;
+
+    @Autowired
+    private CycleSeriesService cycleSeriesService;
+
     @Value("${influxdb.bucket}")
     private String bucket;
 
@@ -46,6 +56,8 @@ public class DataSimulationService {
         isRunning = true;
 
         log.info("🚀 线程启动 -> 电池: {} | 文件: {}", targetCellId, filePath);
+        // 模拟期间该 cell 的 cycle 序列不作为已完成缓存
+        cycleSeriesService.beginWrite(targetCellId);
 
         try (Reader in = new FileReader(filePath)) {
             CSVFormat csvFormat = CSVFormat.DEFAULT.builder()
@@ -61,11 +73,13 @@ public class DataSimulationService {
 
             Instant simulationStartTime = Instant.now();
             int count = 0;
+            boolean interrupted = false;
 
             for (CSVRecord record : records) {
                 // 检查全局停止开关
                 if (!isRunning) {
                     log.warn("🛑 [{}] 检测到全局停止指令，线程中断。", targetCellId);
+                    interrupted = true;
                     break;
                 }
 
@@ -91,6 +105,8 @@ public class DataSimulationService {
                             .time(pointTime, WritePrecision.MS);
 
                     batchPoints.add(point);
+                    timeRangeCatalog.record(targetCellId, cycle, pointTime.toEpochMilli());
+                    icDerivedCurveService.accept(targetCellId, cycle, pointTime.toEpochMilli(), voltage, current, capacity);
 
                     if (batchPoints.size() >= 500) {
                         writeApi.writePoints(bucket, org, batchPoints);
@@ -116,11 +132,20 @@ public class DataSimulationService {
             if (!batchPoints.isEmpty()) {
                 writeApi.writePoints(bucket, org, batchPoints);
             }
+            // 自然结束时最后一个 cycle 完整，落库派生 IC；被中断则丢弃未完成的 cycle
+            if (interrupted) {
+                icDerivedCurveService.discardCell(targetCellId);
+            } else {
+                icDerivedCurveService.completeCell(targetCellId);
+            }
 
             log.info("✅ [{}] 模拟自然结束！共写入 {} 条数据。", targetCellId, count);
 
         } catch (Exception e) {
+            icDerivedCurveService.discardCell(targetCellId);
             log.error("❌ [{}] 文件读取或模拟过程失败: {}", targetCellId, e.getMessage());
+        } finally {
+            cycleSeriesService.endWrite(targetCellId);
         }
 
         // 4. 删除了 finally { isRunning = false; }
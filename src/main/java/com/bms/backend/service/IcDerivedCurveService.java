@@ -0,0 +1,164 @@
+package com.bms.backend.service;
+
+import com.bms.backend.analysis.IcBinAccumulator;
+import com.bms.backend.analysis.IcCurveKernel;
+import com.bms.backend.entity.IcDerivedCurve;
+import com.bms.backend.repository.IcDerivedCurveRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 写入时派生 IC 曲线：CSV 导入 / 模拟写 Influx 时逐点喂入，按 cell 维护当前 cycle 的 {@link IcBinAccumulator}；
+ * cycle 切换或数据源结束即视为该 cycle 完成，分桶曲线落库到 ic_derived_curve。
+ * IC 分析优先读取这里的两条小曲线，未命中（历史数据、进行中的 cycle）再回退到原始点计算。
+ */
+@Service
+public class IcDerivedCurveService {
+
+    private static final Logger log = LoggerFactory.getLogger(IcDerivedCurveService.class);
+
+    public static final String SOURCE_CAPACITY = "capacity";
+    public static final String SOURCE_COULOMB = "coulomb";
+
+    /** 少于该桶数的曲线不落库（数据过少或几乎不在 IC 电压窗口内） */
+    private static final int MIN_BINS = 8;
+
+    private final IcDerivedCurveRepository repository;
+
+    @Value("${bms.ic.derived.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${bms.ic.derived.bin-width-v:0.005}")
+    private double binWidth = 0.005;
+
+    /** cell_id -> 当前正在累计的 cycle */
+    private final ConcurrentHashMap<String, OpenCycle> open = new ConcurrentHashMap<>();
+
+    private static final class OpenCycle {
+        final int cycle;
+        final IcBinAccumulator acc;
+
+        OpenCycle(int cycle, IcBinAccumulator acc) {
+            this.cycle = cycle;
+            this.acc = acc;
+        }
+    }
+
+    public IcDerivedCurveService(IcDerivedCurveRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * 喂入一个采样点；cycle 与该 cell 正在累计的 cycle 不同时，先把上一个 cycle 落库。
+     * 同一 cell 的采样应按时间顺序串行喂入（单个导入/模拟线程）。
+     */
+    public void accept(String cellId, int cycle, long timeMs, double voltage, double current, double capacity) {
+        if (!enabled || cellId == null) return;
+        OpenCycle cur = open.get(cellId);
+        if (cur == null || cur.cycle != cycle) {
+            OpenCycle[] finished = new OpenCycle[1];
+            cur = open.compute(cellId, (k, existing) -> {
+                if (existing != null && existing.cycle == cycle) return existing;
+                finished[0] = existing;
+                return new OpenCycle(cycle, new IcBinAccumulator(binWidth));
+            });
+            if (finished[0] != null) {
+                persist(cellId, finished[0]);
+            }
+        }
+        synchronized (cur.acc) {
+            cur.acc.accept(timeMs, voltage, current, capacity);
+        }
+    }
+
+    /**
+     * 数据源自然结束（整份 CSV 写完）：当前 cycle 同样视为完成并落库。
+     */
+    public void completeCell(String cellId) {
+        if (cellId == null) return;
+        OpenCycle cur = open.remove(cellId);
+        if (cur != null) persist(cellId, cur);
+    }
+
+    /**
+     * 数据源被中断：当前 cycle 不完整，直接丢弃，IC 分析回退到原始点。
+     */
+    public void discardCell(String cellId) {
+        if (cellId == null) return;
+        open.remove(cellId);
+    }
+
+    /**
+     * 读取预计算曲线并按 smoothWindow 做 MAD 裁剪 + 平滑；不存在时返回 null。
+     */
+    public IcCurveKernel.IcCurve findCurve(String cellId, int cycle, int smoothWindow) {
+        if (!enabled) return null;
+        OpenCycle cur = open.get(cellId);
+        if (cur != null && cur.cycle == cycle) {
+            // 正在写入的 cycle 即使库里有旧结果也可能已被重新导入，按原始点计算
+            return null;
+        }
+        Optional<IcDerivedCurve> row;
+        try {
+            row = repository.findByCellIdAndCycleIndex(cellId, cycle);
+        } catch (Exception e) {
+            log.warn("⚠️ 读取预计算 IC 曲线失败 cellId={}, cycle={}, err={}", cellId, cycle, e.getMessage());
+            return null;
+        }
+        if (!row.isPresent()) return null;
+        double[] voltage = parseCsv(row.get().getVoltages());
+        double[] dqdv = parseCsv(row.get().getDqdv());
+        if (voltage == null || dqdv == null || voltage.length != dqdv.length) return null;
+        return IcCurveKernel.smoothBinned(voltage, dqdv, voltage.length, smoothWindow);
+    }
+
+    private void persist(String cellId, OpenCycle done) {
+        IcCurveKernel.IcCurve curve;
+        IcBinAccumulator acc = done.acc;
+        synchronized (acc) {
+            curve = acc.finish();
+        }
+        if (curve.size() < MIN_BINS) return;
+        try {
+            IcDerivedCurve row = repository.findByCellIdAndCycleIndex(cellId, done.cycle).orElseGet(IcDerivedCurve::new);
+            row.setCellId(cellId);
+            row.setCycleIndex(done.cycle);
+            row.setSource(acc.usesCapacity() ? SOURCE_CAPACITY : SOURCE_COULOMB);
+            row.setBinWidth(acc.getBinWidth());
+            row.setSampleCount(acc.getSampleCount());
+            row.setVoltages(toCsv(curve.getVoltage(), curve.size()));
+            row.setDqdv(toCsv(curve.getDqdv(), curve.size()));
+            repository.save(row);
+        } catch (Exception e) {
+            log.warn("⚠️ 预计算 IC 曲线落库失败 cellId={}, cycle={}, err={}", cellId, done.cycle, e.getMessage());
+        }
+    }
+
+    static String toCsv(double[] a, int n) {
+        StringBuilder sb = new StringBuilder(n * 8);
+        for (int i = 0; i < n; i++) {
+            if (i > 0) sb.append(',');
+            sb.append((float) a[i]);
+        }
+        return sb.toString();
+    }
+
+    static double[] parseCsv(String s) {
+        if (s == null || s.isEmpty()) return new double[0];
+        String[] parts = s.split(",");
+        double[] out = new double[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                out[i] = Double.parseDouble(parts[i]);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return out;
+    }
+}
@@ -0,0 +1,251 @@
+package com.bms.backend.service;
+
+import com.bms.backend.analysis.IcCurveKernel;
+import com.bms.backend.dto.IcCycleFeatureDto;
+import com.bms.backend.entity.Battery;
+import com.bms.backend.entity.IcCycleFeature;
+import com.bms.backend.exception.BusinessException;
+import com.bms.backend.influx.CellTimeRangeCatalog;
+import com.bms.backend.influx.InfluxLane;
+import com.bms.backend.repository.BatteryRepository;
+import com.bms.backend.repository.IcCycleFeatureRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * 全量 IC 峰特征批处理：定期遍历所有电池的所有 cycle，用与 IC 分析相同的曲线计算提取
+ * 峰位电压、峰高、峰面积、半高宽，写入 ic_cycle_feature。
+ * 增量处理：表中没有的 cycle、平滑窗口与当前配置不同的行、目录中该 cycle 在计算之后又有写入的行都会（重新）计算；
+ * 无有效峰的 cycle 写入“无峰”标记行，按 retry-backoff-ms 指数退避重试，最多 max-retries 次。
+ * 每个 cell 的最新 cycle 在最后一个采样静默 settle-ms 之后才视为完成。
+ * Influx 查询走后台通道，不与交互请求抢并发。
+ */
+@Service
+public class IcFeatureExtractionService {
+
+    private static final Logger log = LoggerFactory.getLogger(IcFeatureExtractionService.class);
+
+    private final BatteryRepository batteryRepository;
+    private final BatteryDataService batteryDataService;
+    private final CellTimeRangeCatalog timeRangeCatalog;
+    private final IcCycleFeatureRepository featureRepository;
+
+    @Value("${bms.ic.features.enabled:true}")
+    private boolean enabled;
+
+    @Value("${bms.ic.features.parallelism:2}")
+    private int parallelism;
+
+    @Value("${bms.ic.features.smooth:5}")
+    private int smoothWindow;
+
+    @Value("${bms.ic.features.settle-ms:600000}")
+    private long settleMs;
+
+    @Value("${bms.ic.features.retry-backoff-ms:3600000}")
+    private long retryBackoffMs;
+
+    @Value("${bms.ic.features.max-retries:5}")
+    private int maxRetries;
+
+    private ForkJoinPool pool;
+
+    /** 预热结束前跳过定时批处理 */
+    private volatile boolean warmedUp = false;
+
+    public IcFeatureExtractionService(BatteryRepository batteryRepository,
+                                      BatteryDataService batteryDataService,
+                                      CellTimeRangeCatalog timeRangeCatalog,
+                                      IcCycleFeatureRepository featureRepository) {
+        this.batteryRepository = batteryRepository;
+        this.batteryDataService = batteryDataService;
+        this.timeRangeCatalog = timeRangeCatalog;
+        this.featureRepository = featureRepository;
+    }
+
+    @PostConstruct
+    public void init() {
+        pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static final class CycleTask {
+        final String cellId;
+        final int cycle;
+        // 已有的特征行（重算时原地更新，受 cell_id + cycle_index 唯一约束）
+        final IcCycleFeature existing;
+        final Long sourceLastMs;
+
+        CycleTask(String cellId, int cycle, IcCycleFeature existing, Long sourceLastMs) {
+            this.cellId = cellId;
+            this.cycle = cycle;
+            this.existing = existing;
+            this.sourceLastMs = sourceLastMs;
+        }
+    }
+
+    @EventListener
+    public void onWarmupFinished(WarmupFinishedEvent event) {
+        warmedUp = true;
+    }
+
+    @Scheduled(fixedDelayString = "${bms.ic.features.interval-ms:1800000}",
+            initialDelayString = "${bms.ic.features.initial-delay-ms:120000}")
+    public void scheduledRun() {
+        if (!enabled) return;
+        if (!warmedUp) {
+            log.info("ℹ️ 启动预热尚未结束，跳过本轮 IC 特征提取");
+            return;
+        }
+        if (!timeRangeCatalog.isLoaded()) {
+            log.info("ℹ️ cycle 目录尚未加载，跳过本轮 IC 特征提取");
+            return;
+        }
+        runIncremental();
+    }
+
+    /**
+     * 增量提取一次，返回写入（含无峰标记）的 cycle 数。
+     */
+    public synchronized int runIncremental() {
+        long startedAt = System.currentTimeMillis();
+        List<CycleTask> tasks = collectPendingCycles();
+        if (tasks.isEmpty()) return 0;
+
+        AtomicInteger saved = new AtomicInteger();
+        try {
+            pool.submit(() -> tasks.parallelStream().forEach(task -> {
+                if (extract(task)) saved.incrementAndGet();
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return saved.get();
+        } catch (Exception e) {
+            log.error("❌ IC 特征批处理失败: {}", e.getMessage());
+        }
+        log.info("✅ IC 特征提取完成：待处理 {} 个 cycle，写入 {} 个，耗时 {}ms",
+                tasks.size(), saved.get(), System.currentTimeMillis() - startedAt);
+        return saved.get();
+    }
+
+    public List<IcCycleFeatureDto> getFeatureTrend(String cellId) {
+        if (cellId == null || cellId.trim().isEmpty()) {
+            throw new BusinessException("cellId 不能为空！");
+        }
+        return featureRepository.findByCellIdOrderByCycleIndexAsc(cellId.trim()).stream()
+                .filter(row -> !Boolean.FALSE.equals(row.getPeakFound()))
+                .map(IcFeatureExtractionService::toDto)
+                .collect(Collectors.toList());
+    }
+
+    private List<CycleTask> collectPendingCycles() {
+        long now = System.currentTimeMillis();
+        List<CycleTask> tasks = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (Battery battery : batteryRepository.findByDeletedFalse()) {
+            String cellId = battery.getBatteryCode() == null ? null : battery.getBatteryCode().trim();
+            if (cellId == null || cellId.isEmpty() || !seen.add(cellId)) continue;
+
+            List<Integer> cycles = timeRangeCatalog.cycles(cellId);
+            if (cycles.isEmpty()) continue;
+            Map<Integer, IcCycleFeature> rows = new HashMap<>();
+            for (IcCycleFeature row : featureRepository.findByCellId(cellId)) rows.put(row.getCycleIndex(), row);
+            int latest = cycles.get(cycles.size() - 1);
+            for (Integer cycle : cycles) {
+                CellTimeRangeCatalog.TimeBounds b = timeRangeCatalog.cycleBounds(cellId, cycle);
+                Long lastMs = b == null ? null : b.getLastMs();
+                IcCycleFeature row = rows.get(cycle);
+                if (row != null && !isStale(row, lastMs, now)) continue;
+                // 最新 cycle 可能仍在写入
+                if (cycle == latest && (lastMs == null || now - lastMs < settleMs)) continue;
+                tasks.add(new CycleTask(cellId, cycle, row, lastMs));
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * 已有的行是否需要重算：平滑窗口变了、目录中该 cycle 在计算之后又有写入，或无峰标记行的退避时间已到。
+     */
+    private boolean isStale(IcCycleFeature row, Long lastMs, long now) {
+        if (row.getSmoothWindow() == null || row.getSmoothWindow() != smoothWindow) return true;
+        if (lastMs != null) {
+            // 旧数据没有 source_last_ms，退回比较行的更新时间
+            long computedFrom = row.getSourceLastMs() != null ? row.getSourceLastMs()
+                    : row.getUpdatedAt() == null ? Long.MIN_VALUE : row.getUpdatedAt().toInstant().toEpochMilli();
+            if (lastMs > computedFrom) return true;
+        }
+        if (!Boolean.FALSE.equals(row.getPeakFound())) return false;
+        int attempts = row.getAttempts() == null ? 1 : row.getAttempts();
+        if (attempts >= maxRetries) return false;
+        long backoff = retryBackoffMs << Math.min(attempts - 1, 16);
+        return row.getUpdatedAt() == null || now - row.getUpdatedAt().toInstant().toEpochMilli() >= backoff;
+    }
+
+    private boolean extract(CycleTask task) {
+        try {
+            // 全部 cycle 统一用原始点计算，趋势中各 cycle 的特征可比（分桶曲线只覆盖上线后写入的 cycle）
+            IcCurveKernel.IcCurve curve = batteryDataService.calculateRawIcCurve(
+                    task.cellId, task.cycle, smoothWindow, InfluxLane.BACKGROUND);
+            IcCurveKernel.PeakFeatures f = IcCurveKernel.peakFeatures(curve);
+            IcCycleFeature row = task.existing != null ? task.existing : new IcCycleFeature();
+            row.setCellId(task.cellId);
+            row.setCycleIndex(task.cycle);
+            row.setSmoothWindow(smoothWindow);
+            row.setSourceLastMs(task.sourceLastMs);
+            if (f == null) {
+                // 无有效峰：写标记行（峰特征列非空，填 0），按退避间隔重试
+                boolean wasMarker = Boolean.FALSE.equals(row.getPeakFound()) && row.getAttempts() != null;
+                row.setPeakFound(false);
+                row.setAttempts(wasMarker ? row.getAttempts() + 1 : 1);
+                row.setPeakVoltage(0.0);
+                row.setPeakHeight(0.0);
+                row.setPeakArea(0.0);
+                row.setFwhm(0.0);
+            } else {
+                row.setPeakFound(true);
+                row.setAttempts(0);
+                row.setPeakVoltage(f.getPeakVoltage());
+                row.setPeakHeight(f.getPeakHeight());
+                row.setPeakArea(f.getPeakArea());
+                row.setFwhm(f.getFwhm());
+            }
+            featureRepository.save(row);
+            return true;
+        } catch (Exception e) {
+            // Influx 限流、超时或失败：不写无峰标记行、不计入重试次数，下一轮重新计算
+            log.warn("⚠️ IC 特征提取失败 cellId={}, cycle={}, err={}", task.cellId, task.cycle, e.getMessage());
+            return false;
+        }
+    }
+
+    private static IcCycleFeatureDto toDto(IcCycleFeature row) {
+        IcCycleFeatureDto dto = new IcCycleFeatureDto();
+        dto.setCycleIndex(row.getCycleIndex());
+        dto.setPeakVoltage(row.getPeakVoltage());
+        dto.setPeakHeight(row.getPeakHeight());
+        dto.setPeakArea(row.getPeakArea());
+        dto.setFwhm(row.getFwhm());
+        return dto;
+    }
+}
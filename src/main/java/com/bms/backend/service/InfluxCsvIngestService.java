@@ -1,5 +1,6 @@
 package com.bms.backend.service;
 
+import com.bms.backend.influx.CellTimeRangeCatalog;
 import com.bms.backend.storage.ObjectStorageService;
 import com.influxdb.client.InfluxDBClient;
 import com.influxdb.client.WriteApiBlocking;
@@ -34,9 +35,18 @@ public class InfluxCsvIngestService {
     @Autowired
     private InfluxDBClient influxDBClient;
 
+    @Autowired
+    private CellTimeRangeCatalog timeRangeCatalog;
+
+    @Autowired
+    private IcDerivedCurveService icDerivedCurveService;
+
     @Autowired
     private ObjectStorageService objectStorageService;
 
+    @Autowired
+    private CycleSeriesService cycleSeriesService;
+
     @Value("${influxdb.bucket}")
     private String bucket;
 
@@ -65,6 +75,8 @@ public class InfluxCsvIngestService {
         Instant endInstant = Instant.now();
         Instant startInstant = endInstant.minusSeconds((long) (maxTimeMin * 60));
 
+        // 写入期间该 cell 的 cycle 序列不作为已完成缓存
+        cycleSeriesService.beginWrite(cellId);
         // 第二次解析并写入
         try (InputStream in = objectStorageService.downloadCsv(fileKey);
              BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
@@ -123,6 +135,9 @@ public class InfluxCsvIngestService {
                             .time(pointTime, WritePrecision.MS);
 
                     batchPoints.add(point);
+                    timeRangeCatalog.record(cellId, cycle, pointTime.toEpochMilli());
+                    icDerivedCurveService.accept(cellId, cycle, pointTime.toEpochMilli(), voltage, current,
+                            idxCapacity >= 0 ? capacity : Double.NaN);
                     if (batchPoints.size() >= BATCH_SIZE) {
                         writeBatch(batchPoints);
                         written += batchPoints.size();
@@ -138,11 +153,16 @@ public class InfluxCsvIngestService {
                 writeBatch(batchPoints);
                 written += batchPoints.size();
             }
+            // 整份 CSV 已写完，最后一个 cycle 也视为完成
+            icDerivedCurveService.completeCell(cellId);
 
             log.info("✅ Influx 写入完成：fileKey={}, cell_id={}, batch_id={}, points={}",
                     fileKey, cellId, batchId, written);
         } catch (Exception e) {
+            icDerivedCurveService.discardCell(cellId);
             log.error("❌ Influx 写入失败：fileKey={}, err={}", fileKey, e.getMessage());
+        } finally {
+            cycleSeriesService.endWrite(cellId);
         }
     }
 
@@ -0,0 +1,156 @@
+package com.bms.backend.service;
+
+import com.bms.backend.dto.IcAnalysisResponse;
+import com.bms.backend.dto.PackIcCellDto;
+import com.bms.backend.dto.PackIcComparisonResponse;
+import com.bms.backend.exception.BusinessException;
+import com.bms.backend.influx.InfluxLane;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 整包 IC 对比：对一个 PACK 内全部单体并行计算参考/当前 cycle 的 IC 峰位移与峰降幅。
+ * 所有请求共用一个固定大小的线程池（全局并行度 = parallelism），Influx 查询默认走 BACKGROUND 通道，
+ * 不与用户的交互请求争抢。单个单体失败只记在该单体的 error 上；整体超时后未完成的单体被取消并标记超时。
+ */
+@Service
+public class PackIcAnalysisService {
+
+    private static final Logger log = LoggerFactory.getLogger(PackIcAnalysisService.class);
+
+    private final BatteryDataService batteryDataService;
+
+    @Value("${bms.ic.pack.parallelism:4}")
+    private int parallelism;
+
+    @Value("${bms.ic.pack.timeout-ms:30000}")
+    private long timeoutMs;
+
+    @Value("${bms.ic.pack.lane:BACKGROUND}")
+    private InfluxLane lane = InfluxLane.BACKGROUND;
+
+    private ExecutorService pool;
+
+    public PackIcAnalysisService(BatteryDataService batteryDataService) {
+        this.batteryDataService = batteryDataService;
+    }
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger seq = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(Math.max(1, parallelism), r -> {
+            Thread t = new Thread(r, "pack-ic-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * @param packId    由 {@link TopologySnapshotService#detectPackId(String)} 推导的 PACK ID
+     * @param refCycle  参考 cycle，为空时取每个单体的第一个 cycle
+     * @param currCycle 当前 cycle，为空时取每个单体的最后一个 cycle
+     */
+    public PackIcComparisonResponse comparePack(String packId, Integer refCycle, Integer currCycle, int smoothWindow) {
+        if (packId == null || packId.trim().isEmpty()) {
+            throw new BusinessException("packId 不能为空！");
+        }
+        String pack = packId.trim();
+        long startedAt = System.currentTimeMillis();
+
+        List<String> cellIds = batteryDataService.findCellIdsByPack(pack);
+
+        PackIcComparisonResponse resp = new PackIcComparisonResponse();
+        resp.setPackId(pack);
+        resp.setRefCycle(refCycle);
+        resp.setCurrCycle(currCycle);
+        resp.setCellCount(cellIds.size());
+        if (cellIds.isEmpty()) {
+            resp.setElapsedMs(System.currentTimeMillis() - startedAt);
+            return resp;
+        }
+
+        List<Future<PackIcCellDto>> futures = new ArrayList<>(cellIds.size());
+        for (String cellId : cellIds) {
+            futures.add(pool.submit(() -> toCellDto(batteryDataService.getIcPeakComparison(
+                    cellId, refCycle, currCycle, smoothWindow, lane))));
+        }
+        long deadline = startedAt + timeoutMs;
+        List<PackIcCellDto> cells = new ArrayList<>(cellIds.size());
+        int failed = 0;
+        boolean timedOut = false;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                String cellId = cellIds.get(i);
+                Future<PackIcCellDto> f = futures.get(i);
+                try {
+                    if (timedOut) throw new TimeoutException();
+                    cells.add(f.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+                } catch (TimeoutException e) {
+                    // 超时后取消剩余任务（排队中的不再执行，执行中的被中断），不再占用线程池与 Influx
+                    timedOut = true;
+                    f.cancel(true);
+                    cells.add(errorRow(cellId, "分析超时"));
+                } catch (ExecutionException e) {
+                    failed++;
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    log.warn("⚠️ 整包 IC 分析单体失败 packId={}, cellId={}, err={}", pack, cellId, cause.getMessage());
+                    cells.add(errorRow(cellId, cause.getMessage()));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(f -> f.cancel(true));
+            throw new BusinessException("整包 IC 分析被中断");
+        }
+        if (timedOut) {
+            log.warn("⚠️ 整包 IC 分析超时 packId={}，未完成的单体已取消", pack);
+        }
+        if (failed == cellIds.size()) {
+            throw new BusinessException("整包 IC 分析失败：全部单体计算出错");
+        }
+
+        cells.sort(Comparator.comparing(PackIcCellDto::getPeakDropPercent,
+                Comparator.nullsLast(Comparator.reverseOrder())));
+        resp.setCells(cells);
+        resp.setAnalyzedCount((int) cells.stream().filter(c -> c.getPeakDropPercent() != null).count());
+        resp.setElapsedMs(System.currentTimeMillis() - startedAt);
+        return resp;
+    }
+
+    private static PackIcCellDto errorRow(String cellId, String error) {
+        PackIcCellDto dto = new PackIcCellDto();
+        dto.setCellId(cellId);
+        dto.setError(error == null ? "计算失败" : error);
+        return dto;
+    }
+
+    private static PackIcCellDto toCellDto(IcAnalysisResponse ic) {
+        PackIcCellDto dto = new PackIcCellDto();
+        dto.setCellId(ic.getCellId());
+        dto.setRefCycle(ic.getRefCycle());
+        dto.setCurrCycle(ic.getCurrCycle());
+        dto.setPeakShift(ic.getPeakShift());
+        dto.setPeakDropPercent(ic.getPeakDropPercent());
+        return dto;
+    }
+}
@@ -0,0 +1,507 @@
+package com.bms.backend.service;
+
+import com.bms.backend.dto.PlaybackFrameDto;
+import com.bms.backend.dto.PlaybackInfoDto;
+import com.bms.backend.dto.PlaybackPointDto;
+import com.bms.backend.exception.BusinessException;
+import com.bms.backend.influx.CellTimeRangeCatalog;
+import com.bms.backend.influx.InfluxLane;
+import com.bms.backend.influx.InfluxQueryGateway;
+import com.influxdb.query.FluxRecord;
+import com.influxdb.query.FluxTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 只读历史回放：把 Influx 中已存储的单体 / 整包数据按倍速（1x–max-speed）通过 SSE 重新播放，不写任何数据。
+ * <ul>
+ *     <li>取数：按 chunk-ms 分段经 {@link InfluxQueryGateway} 的后台通道查询（受舱壁并发与超时约束），
+ *     起止时间先收敛到目录中的数据范围，没有任何单体数据的分段直接跳过；
+ *     每段结果由取数线程逐条放入容量为 prefetch 的有界队列，队列满时取数线程阻塞、不再发起下一段查询，
+ *     内存上限为一段结果加预取队列，与回放时长无关；</li>
+ *     <li>节拍：按「数据时间差 / 倍速」安排发送时刻，每 min-send-interval-ms 最多发送一次（一次可含多帧）；
+ *     数据空档最多等待 max-gap-ms；客户端写入变慢时整体顺延，不会在恢复后集中补发。</li>
+ * </ul>
+ * 同时回放的会话数受 max-sessions 限制；会话关闭时取消取数任务（进行中的查询随之中断）。
+ */
+@Service
+public class PlaybackService {
+
+    private static final Logger log = LoggerFactory.getLogger(PlaybackService.class);
+
+    /** 落后计划超过该值时重新对齐节拍（客户端或 Influx 变慢） */
+    private static final long LAG_RESET_MS = 1000L;
+    private static final long POLL_MS = 200L;
+    /** Flux RFC3339 时间上限 9999-12-31T23:59:59.999Z */
+    private static final long MAX_TIME_MS = 253402300799999L;
+
+    private final InfluxQueryGateway influxQueryGateway;
+    private final CellTimeRangeCatalog timeRangeCatalog;
+    private final BatteryDataService batteryDataService;
+
+    @Value("${influxdb.bucket}")
+    private String bucket;
+
+    @Value("${bms.playback.max-sessions:4}")
+    private int maxSessions = 4;
+
+    @Value("${bms.playback.max-speed:1000}")
+    private double maxSpeed = 1000.0;
+
+    @Value("${bms.playback.prefetch:2000}")
+    private int prefetch = 2000;
+
+    @Value("${bms.playback.chunk-ms:600000}")
+    private long chunkMs = 600000L;
+
+    @Value("${bms.playback.max-gap-ms:2000}")
+    private long maxGapMs = 2000L;
+
+    @Value("${bms.playback.min-send-interval-ms:50}")
+    private long minSendIntervalMs = 50L;
+
+    @Value("${bms.dashboard.multi.max-channels:64}")
+    private int maxChannels = 64;
+
+    private ExecutorService executor;
+    private Semaphore sessions;
+
+    /** 队列中的轻量行，不持有 FluxRecord */
+    private static final class Row {
+        final long time;
+        final String cellId;
+        final Integer cycle;
+        final Double voltage;
+        final Double current;
+        final Double temperature;
+        final Double capacity;
+
+        Row(long time, String cellId, Integer cycle, Double voltage, Double current, Double temperature, Double capacity) {
+            this.time = time;
+            this.cellId = cellId;
+            this.cycle = cycle;
+            this.voltage = voltage;
+            this.current = current;
+            this.temperature = temperature;
+            this.capacity = capacity;
+        }
+    }
+
+    /** 取数结束标记 */
+    private static final Row END = new Row(Long.MAX_VALUE, null, null, null, null, null, null);
+
+    private final class Session {
+        final SseEmitter emitter;
+        final List<String> cellIds;
+        /** 目录中各单体的数据范围；目录未命中的单体不在其中，每段都查询 */
+        final Map<String, CellTimeRangeCatalog.TimeBounds> bounds;
+        final long startMs;
+        final long stopMs;
+        final double speed;
+        final ArrayBlockingQueue<Row> queue = new ArrayBlockingQueue<>(Math.max(16, prefetch));
+        final AtomicBoolean closed = new AtomicBoolean(false);
+        /** 取数任务，提交时即记录，关闭时中断（含尚未取到第一条记录的查询） */
+        volatile Future<?> producer;
+
+        Session(SseEmitter emitter, List<String> cellIds, Map<String, CellTimeRangeCatalog.TimeBounds> bounds,
+                long startMs, long stopMs, double speed) {
+            this.emitter = emitter;
+            this.cellIds = cellIds;
+            this.bounds = bounds;
+            this.startMs = startMs;
+            this.stopMs = stopMs;
+            this.speed = speed;
+        }
+
+        boolean isClosed() {
+            return closed.get();
+        }
+
+        /** [fromMs, toMs) 内可能有数据的单体 */
+        List<String> cellsWithin(long fromMs, long toMs) {
+            List<String> out = new ArrayList<>(cellIds.size());
+            for (String id : cellIds) {
+                CellTimeRangeCatalog.TimeBounds b = bounds.get(id);
+                if (b == null || (b.getFirstMs() < toMs && b.getLastMs() >= fromMs)) out.add(id);
+            }
+            return out;
+        }
+
+        void close() {
+            if (!closed.compareAndSet(false, true)) return;
+            Future<?> f = producer;
+            if (f != null) f.cancel(true);
+            queue.clear();
+            sessions.release();
+        }
+    }
+
+    public PlaybackService(InfluxQueryGateway influxQueryGateway,
+                           CellTimeRangeCatalog timeRangeCatalog,
+                           BatteryDataService batteryDataService) {
+        this.influxQueryGateway = influxQueryGateway;
+        this.timeRangeCatalog = timeRangeCatalog;
+        this.batteryDataService = batteryDataService;
+    }
+
+    @PostConstruct
+    public void init() {
+        int n = Math.max(1, maxSessions);
+        sessions = new Semaphore(n);
+        AtomicInteger seq = new AtomicInteger();
+        // 每个会话一个取数线程 + 一个节拍线程
+        executor = Executors.newFixedThreadPool(n * 2, r -> {
+            Thread t = new Thread(r, "playback-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 开始一次回放。
+     *
+     * @param cellId 单体回放；与 packId 二选一
+     * @param packId 整包回放（PACK 内全部单体按时间合并）
+     * @param start  起点：ISO-8601 时间、毫秒时间戳或相对当前的 -6h / -2d；为空取数据最早时间
+     * @param stop   终点，格式同上；为空取数据最晚时间
+     * @param speed  倍速，1 ~ max-speed
+     */
+    public SseEmitter start(String cellId, String packId, String start, String stop, double speed) {
+        if (Double.isNaN(speed) || speed < 1.0 || speed > maxSpeed) {
+            throw new BusinessException("speed 取值范围为 1 ~ " + (long) maxSpeed);
+        }
+        List<String> cellIds;
+        if (cellId != null && !cellId.trim().isEmpty()) {
+            cellIds = Collections.singletonList(cellId.trim());
+        } else if (packId != null && !packId.trim().isEmpty()) {
+            cellIds = batteryDataService.findCellIdsByPack(packId);
+        } else {
+            throw new BusinessException("cellId 或 packId 至少提供一个！");
+        }
+        if (cellIds.isEmpty()) {
+            throw new BusinessException("PACK 内没有电池：" + packId);
+        }
+        if (cellIds.size() > maxChannels) {
+            throw new BusinessException("通道数不能超过 " + maxChannels + "！");
+        }
+
+        Map<String, CellTimeRangeCatalog.TimeBounds> bounds = new LinkedHashMap<>();
+        long dataFirst = Long.MAX_VALUE;
+        long dataLast = Long.MIN_VALUE;
+        for (String id : cellIds) {
+            CellTimeRangeCatalog.TimeBounds b = timeRangeCatalog.cellBounds(id);
+            if (b == null) continue;
+            bounds.put(id, b);
+            dataFirst = Math.min(dataFirst, b.getFirstMs());
+            dataLast = Math.max(dataLast, b.getLastMs());
+        }
+        long now = System.currentTimeMillis();
+        long startMs = parseTime(start, "start", now, dataFirst);
+        long stopMs = parseTime(stop, "stop", now, dataLast);
+        if (startMs == Long.MAX_VALUE || stopMs == Long.MIN_VALUE) {
+            throw new BusinessException("没有可回放的数据，请指定 start/stop");
+        }
+        if (stopMs < startMs) {
+            throw new BusinessException("stop 不能早于 start");
+        }
+        if (bounds.size() == cellIds.size()) {
+            // 目录覆盖全部单体：收敛到数据范围，避免逐段查询空档
+            startMs = Math.max(startMs, dataFirst);
+            stopMs = Math.min(stopMs, dataLast);
+            if (stopMs < startMs) {
+                throw new BusinessException("所选时间段内没有可回放的数据");
+            }
+        }
+
+        if (!sessions.tryAcquire()) {
+            throw new BusinessException("回放会话已满（最多 " + maxSessions + " 个），请稍后再试");
+        }
+        SseEmitter emitter = createEmitter();
+        Session session = new Session(emitter, cellIds, bounds, startMs, stopMs, speed);
+        emitter.onCompletion(session::close);
+        emitter.onTimeout(session::close);
+        emitter.onError(ex -> session.close());
+        try {
+            session.producer = executor.submit(() -> produce(session));
+            // 提交前后会话可能已被关闭
+            if (session.isClosed()) session.producer.cancel(true);
+            executor.execute(() -> pace(session));
+        } catch (RuntimeException e) {
+            session.close();
+            throw new BusinessException("回放启动失败：" + e.getMessage());
+        }
+        return emitter;
+    }
+
+    /** 当前回放会话数 */
+    public int getActiveSessions() {
+        return Math.max(1, maxSessions) - sessions.availablePermits();
+    }
+
+    protected SseEmitter createEmitter() {
+        return new SseEmitter(0L);
+    }
+
+    // ---------------- 取数 ----------------
+
+    private void produce(Session s) {
+        try {
+            long from = s.startMs;
+            while (from <= s.stopMs && !s.isClosed()) {
+                // range 的 stop 为开区间，最后一段多取 1ms 以包含 stopMs（已限制在 MAX_TIME_MS 内，不会溢出）
+                long to = Math.min(s.stopMs + 1, from + chunkMs);
+                List<String> cells = s.cellsWithin(from, to);
+                if (!cells.isEmpty() && !fetchChunk(s, cells, from, to)) return;
+                from = to;
+            }
+            offer(s, END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            s.close();
+        }
+    }
+
+    /** 查询一段并把全部记录入队，返回 true；会话关闭或查询失败返回 false */
+    private boolean fetchChunk(Session s, List<String> cells, long fromMs, long toMs) throws InterruptedException {
+        List<FluxTable> tables;
+        try {
+            tables = influxQueryGateway.query(buildFlux(cells, fromMs, toMs), InfluxLane.BACKGROUND);
+        } catch (RuntimeException e) {
+            if (s.isClosed() || Thread.currentThread().isInterrupted()) return false;
+            log.warn("⚠️ 回放取数失败 cells={}, err={}", s.cellIds, e.getMessage());
+            sendQuietly(s, SseEmitter.event().name("error").data("回放取数失败：" + e.getMessage()));
+            s.emitter.complete();
+            s.close();
+            return false;
+        }
+        for (FluxTable table : tables) {
+            for (FluxRecord record : table.getRecords()) {
+                if (s.isClosed()) return false;
+                offer(s, toRow(record));
+            }
+        }
+        return !s.isClosed();
+    }
+
+    /** 在取数线程上阻塞入队（有界预取）；会话关闭后放弃 */
+    private static void offer(Session s, Row row) throws InterruptedException {
+        while (!s.queue.offer(row, POLL_MS, TimeUnit.MILLISECONDS)) {
+            if (s.isClosed()) return;
+        }
+    }
+
+    private String buildFlux(List<String> cellIds, long fromMs, long toMs) {
+        StringBuilder cellExpr = new StringBuilder();
+        for (String id : cellIds) {
+            if (cellExpr.length() > 0) cellExpr.append(" or ");
+            cellExpr.append("r[\"cell_id\"] == \"").append(escape(id)).append('"');
+        }
+        return String.format(
+                "from(bucket: \"%s\") " +
+                        "|> range(start: %s, stop: %s) " +
+                        "|> filter(fn: (r) => r[\"_measurement\"] == \"battery_metrics\") " +
+                        "|> filter(fn: (r) => %s) " +
+                        "|> filter(fn: (r) => r[\"_field\"] == \"voltage\" or r[\"_field\"] == \"current\" or r[\"_field\"] == \"temperature\" or r[\"_field\"] == \"capacity\") " +
+                        "|> pivot(rowKey:[\"_time\"], columnKey:[\"_field\"], valueColumn:\"_value\") " +
+                        "|> group() " +
+                        "|> sort(columns:[\"_time\"]) " +
+                        "|> keep(columns:[\"_time\", \"cell_id\", \"cycle_index\", \"voltage\", \"current\", \"temperature\", \"capacity\"])",
+                bucket, Instant.ofEpochMilli(fromMs), Instant.ofEpochMilli(toMs), cellExpr);
+    }
+
+    private static Row toRow(FluxRecord record) {
+        Instant t = record.getTime();
+        Object cell = record.getValueByKey("cell_id");
+        Object cycle = record.getValueByKey("cycle_index");
+        Integer cycleIndex = null;
+        if (cycle != null) {
+            try {
+                cycleIndex = Integer.parseInt(cycle.toString());
+            } catch (NumberFormatException ignored) {
+                // 非数字 cycle_index 按缺失处理
+            }
+        }
+        return new Row(t == null ? 0L : t.toEpochMilli(), cell == null ? null : cell.toString(), cycleIndex,
+                toDouble(record.getValueByKey("voltage")), toDouble(record.getValueByKey("current")),
+                toDouble(record.getValueByKey("temperature")), toDouble(record.getValueByKey("capacity")));
+    }
+
+    private static Double toDouble(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : null;
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    // ---------------- 节拍 ----------------
+
+    private void pace(Session s) {
+        try {
+            PlaybackInfoDto info = new PlaybackInfoDto();
+            info.setCellIds(s.cellIds);
+            info.setStart(s.startMs);
+            info.setStop(s.stopMs);
+            info.setSpeed(s.speed);
+            if (!send(s, SseEmitter.event().name("info").data(info))) return;
+
+            List<PlaybackFrameDto> batch = new ArrayList<>();
+            long lastFlushWall = System.currentTimeMillis();
+            long anchorData = Long.MIN_VALUE;
+            long anchorWall = 0L;
+            PlaybackFrameDto frame = null;
+
+            while (!s.isClosed()) {
+                Row row = s.queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (row == null) continue;
+                if (frame != null && (row == END || row.time != frame.getTime())) {
+                    // 当前帧已完整，按计划时刻放入待发送批次
+                    long now = System.currentTimeMillis();
+                    if (anchorData == Long.MIN_VALUE) {
+                        anchorData = frame.getTime();
+                        anchorWall = now;
+                    }
+                    long due = anchorWall + (long) ((frame.getTime() - anchorData) / s.speed);
+                    if (due - now > maxGapMs) {
+                        // 数据空档：压缩到 max-gap-ms
+                        anchorWall -= due - now - maxGapMs;
+                        due = now + maxGapMs;
+                    } else if (now - due > LAG_RESET_MS) {
+                        // 发送端落后（客户端或 Influx 变慢）：整体顺延，不集中补发
+                        anchorWall += now - due;
+                        due = now;
+                    }
+                    if (due - now >= minSendIntervalMs) {
+                        if (!flush(s, batch)) return;
+                        lastFlushWall = System.currentTimeMillis();
+                        if (!sleepUntil(s, due)) return;
+                    }
+                    batch.add(frame);
+                    frame = null;
+                    if (System.currentTimeMillis() - lastFlushWall >= minSendIntervalMs) {
+                        if (!flush(s, batch)) return;
+                        lastFlushWall = System.currentTimeMillis();
+                    }
+                }
+                if (row == END) {
+                    if (!flush(s, batch)) return;
+                    send(s, SseEmitter.event().name("end").data("done"));
+                    s.emitter.complete();
+                    s.close();
+                    return;
+                }
+                if (frame == null) {
+                    frame = new PlaybackFrameDto();
+                    frame.setTime(row.time);
+                }
+                frame.getPoints().add(toPoint(row));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            s.close();
+        } catch (Exception e) {
+            log.warn("⚠️ 回放中断 cells={}, err={}", s.cellIds, e.getMessage());
+            s.close();
+        }
+    }
+
+    private static PlaybackPointDto toPoint(Row row) {
+        PlaybackPointDto p = new PlaybackPointDto();
+        p.setCellId(row.cellId);
+        p.setCycle(row.cycle);
+        p.setVoltage(row.voltage);
+        p.setCurrent(row.current);
+        p.setTemperature(row.temperature);
+        p.setCapacity(row.capacity);
+        return p;
+    }
+
+    private boolean flush(Session s, List<PlaybackFrameDto> batch) {
+        if (batch.isEmpty()) return true;
+        // send 同步写响应：客户端读得慢时在这里阻塞，取数随之停在有界队列上
+        boolean ok = send(s, SseEmitter.event().name("frames").data(new ArrayList<>(batch)));
+        batch.clear();
+        return ok;
+    }
+
+    private boolean send(Session s, SseEmitter.SseEventBuilder event) {
+        if (s.isClosed()) return false;
+        try {
+            s.emitter.send(event);
+            return true;
+        } catch (Exception e) {
+            log.debug("回放客户端已断开 cells={}: {}", s.cellIds, e.getMessage());
+            s.close();
+            return false;
+        }
+    }
+
+    private static void sendQuietly(Session s, SseEmitter.SseEventBuilder event) {
+        try {
+            s.emitter.send(event);
+        } catch (Exception ignored) {
+            // 客户端已断开
+        }
+    }
+
+    private static boolean sleepUntil(Session s, long wallMs) throws InterruptedException {
+        long wait;
+        while ((wait = wallMs - System.currentTimeMillis()) > 0) {
+            if (s.isClosed()) return false;
+            Thread.sleep(Math.min(wait, POLL_MS));
+        }
+        return !s.isClosed();
+    }
+
+    /**
+     * 解析回放起止时间；为空时返回 fallback（数据边界）。
+     */
+    private static long parseTime(String text, String name, long nowMs, long fallback) {
+        if (text == null || text.trim().isEmpty()) return fallback;
+        String t = text.trim();
+        long ms;
+        if (t.startsWith("-")) {
+            ms = nowMs - WindowedHistoryService.parseDurationMs(t, name);
+        } else {
+            try {
+                ms = Long.parseLong(t);
+            } catch (NumberFormatException ignored) {
+                try {
+                    ms = Instant.parse(t).toEpochMilli();
+                } catch (DateTimeParseException | ArithmeticException e) {
+                    throw new BusinessException(name + " 格式不正确：" + text);
+                }
+            }
+        }
+        if (ms < 0 || ms > MAX_TIME_MS) {
+            throw new BusinessException(name + " 超出范围：" + text);
+        }
+        return ms;
+    }
+}
@@ -70,15 +70,24 @@ public class RealtimeSignalFilterService {
         return out;
     }
 
-    /** 双通道等大屏：对单次读到的电压/电流做平滑（key 可用 cellId 小写）。 */
-    public double smoothVoltageReading(String cellKeyLower, double rawVolts) {
+    /** 拓扑刷新：只对最新采样时间发生变化的单体调用，同一采样不会被重复计入 EMA。 */
+    public BatteryDataService.LatestVtc smoothVtcReading(String cellKeyLower, BatteryDataService.LatestVtc raw) {
+        if (!enabled) return raw;
+        return smoothVtc(cellKeyLower, raw);
+    }
+
+    /**
+     * 双通道等大屏：对单次读到的电压/电流做平滑（key 可用 cellId 小写）。
+     * sampleTime 为该读数的采样时间；多个请求读到同一笔采样时只计入 EMA 一次。
+     */
+    public double smoothVoltageReading(String cellKeyLower, double rawVolts, Instant sampleTime) {
         if (!enabled) return rawVolts;
-        return updateChannel(channelKey(cellKeyLower, "v"), voltageAlpha, maxDeltaVoltage, rawVolts, Instant.now());
+        return updateChannel(channelKey(cellKeyLower, "v"), voltageAlpha, maxDeltaVoltage, rawVolts, sampleTime);
     }
 
-    public double smoothCurrentReading(String cellKeyLower, double rawAmps) {
+    public double smoothCurrentReading(String cellKeyLower, double rawAmps, Instant sampleTime) {
         if (!enabled) return rawAmps;
-        return updateChannel(channelKey(cellKeyLower, "i"), currentAlpha, maxDeltaCurrent, rawAmps, Instant.now());
+        return updateChannel(channelKey(cellKeyLower, "i"), currentAlpha, maxDeltaCurrent, rawAmps, sampleTime);
     }
 
     private BatteryDataService.LatestVt smoothVt(String cellKeyLower, BatteryDataService.LatestVt raw) {
@@ -124,6 +133,8 @@ public class RealtimeSignalFilterService {
         }
         final long staleMs = staleResetSeconds * 1000L;
         channels.compute(key, (k, st) -> {
+            // 同一笔采样（采样时间未变）已计入过，不再推进 EMA
+            if (st != null && st.ema != null && st.lastSampleEpochMs == sampleEpochMs) return st;
             ChannelState s = st != null ? st : new ChannelState();
             if (st != null && staleMs > 0 && sampleEpochMs - s.lastSampleEpochMs > staleMs) {
                 s.ema = null;
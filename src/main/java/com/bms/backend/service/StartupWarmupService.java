@@ -0,0 +1,229 @@
+package com.bms.backend.service;
+
+import com.bms.backend.entity.Battery;
+import com.bms.backend.influx.CellTimeRangeCatalog;
+import com.bms.backend.influx.InfluxLane;
+import com.bms.backend.repository.BatteryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 启动预热：应用就绪后并行加载
+ * <ul>
+ *     <li>电池台账元数据（同时预热 PostgreSQL 连接池）；</li>
+ *     <li>全部 cell 的最新 V/T/C（填充短时缓存与 stale 兜底结果），随后生成首份拓扑快照并建立 EMA 状态；</li>
+ *     <li>cell 时间 / cycle 目录，以及最近活跃 cell 的首末 cycle 原始序列（IC 默认对比的两条）。</li>
+ * </ul>
+ * 全部完成或超过 timeout-ms 后标记就绪，readiness 探针（见 WarmupHealthIndicator）才返回 UP，
+ * 同时发布 {@link WarmupFinishedEvent}，定时任务（拓扑刷新、IC 特征批处理、告警规则兜底重载）在此之前跳过；
+ * 超时后未完成的任务继续在后台执行。
+ */
+@Service
+public class StartupWarmupService {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupWarmupService.class);
+
+    public static final String STEP_METADATA = "metadata";
+    public static final String STEP_LATEST = "latest";
+    public static final String STEP_TOPOLOGY = "topology";
+    public static final String STEP_CATALOG = "catalog";
+    public static final String STEP_CYCLES = "cycles";
+
+    private final BatteryRepository batteryRepository;
+    private final BatteryDataService batteryDataService;
+    private final TopologySnapshotService topologySnapshotService;
+    private final CellTimeRangeCatalog timeRangeCatalog;
+    private final CycleSeriesService cycleSeriesService;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Value("${bms.warmup.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${bms.warmup.timeout-ms:60000}")
+    private long timeoutMs = 60000L;
+
+    @Value("${bms.warmup.parallelism:4}")
+    private int parallelism = 4;
+
+    @Value("${bms.warmup.recent-window-ms:604800000}")
+    private long recentWindowMs = 604800000L;
+
+    @Value("${bms.warmup.recent-cells:32}")
+    private int recentCells = 32;
+
+    private volatile boolean ready = false;
+    private volatile boolean timedOut = false;
+    private volatile long startedAtMs = 0L;
+    private volatile long finishedAtMs = 0L;
+    /** 步骤 -> 耗时毫秒（完成）/ -1（失败）；未出现表示仍在进行 */
+    private final Map<String, Long> steps = new ConcurrentHashMap<>();
+
+    public StartupWarmupService(BatteryRepository batteryRepository,
+                                BatteryDataService batteryDataService,
+                                TopologySnapshotService topologySnapshotService,
+                                CellTimeRangeCatalog timeRangeCatalog,
+                                CycleSeriesService cycleSeriesService,
+                                ApplicationEventPublisher eventPublisher) {
+        this.batteryRepository = batteryRepository;
+        this.batteryDataService = batteryDataService;
+        this.topologySnapshotService = topologySnapshotService;
+        this.timeRangeCatalog = timeRangeCatalog;
+        this.cycleSeriesService = cycleSeriesService;
+        this.eventPublisher = eventPublisher;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        startedAtMs = System.currentTimeMillis();
+        AtomicInteger seq = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism), r -> {
+            Thread t = new Thread(r, "warmup-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        if (!enabled) {
+            // 不预热时目录仍需加载一次，但不阻塞就绪
+            CompletableFuture.runAsync(timeRangeCatalog::syncFromInflux, executor)
+                    .whenComplete((v, e) -> executor.shutdown());
+            markReady(false);
+            return;
+        }
+
+        CompletableFuture<List<Battery>> metadata = CompletableFuture.supplyAsync(
+                () -> step(STEP_METADATA, batteryRepository::findByDeletedFalse), executor);
+        CompletableFuture<Void> latest = CompletableFuture.runAsync(
+                () -> step(STEP_LATEST, () -> batteryDataService.getLatestVtcSnapshot(InfluxLane.REFRESH)), executor);
+        CompletableFuture<Void> catalog = CompletableFuture.runAsync(
+                () -> step(STEP_CATALOG, () -> {
+                    timeRangeCatalog.syncFromInflux();
+                    return timeRangeCatalog.isLoaded();
+                }), executor);
+
+        // 元数据与最新值都到位后生成首份快照（同时建立 EMA 状态）
+        CompletableFuture<Void> topology = CompletableFuture.allOf(metadata, latest)
+                .thenRunAsync(() -> step(STEP_TOPOLOGY, () -> {
+                    topologySnapshotService.refreshSnapshot();
+                    return null;
+                }), executor);
+        CompletableFuture<Void> cycles = metadata.thenCombine(catalog, (batteries, v) -> batteries)
+                .thenAcceptAsync(batteries -> step(STEP_CYCLES, () -> warmRecentCycles(batteries)), executor);
+
+        CompletableFuture<Void> all = CompletableFuture.allOf(topology, cycles);
+        all.whenComplete((v, e) -> {
+            executor.shutdown();
+            if (!ready) markReady(false);
+        });
+        // 超时闸门放在独立线程，不占用预热线程，也不阻塞其他 ApplicationReadyEvent 监听器
+        Thread gate = new Thread(() -> {
+            try {
+                all.get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                log.warn("⚠️ 启动预热超过 {}ms，先行就绪，未完成步骤继续在后台执行", timeoutMs);
+                markReady(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                markReady(true);
+            } catch (Exception ignored) {
+                // 单步失败已在 step 中记录，whenComplete 会标记就绪
+            }
+        }, "warmup-gate");
+        gate.setDaemon(true);
+        gate.start();
+    }
+
+    /** 最近活跃（最后采样在 recent-window-ms 内）的前 recent-cells 个 cell：加载首末 cycle 原始序列 */
+    private int warmRecentCycles(List<Battery> batteries) {
+        if (batteries == null) return 0;
+        long since = System.currentTimeMillis() - recentWindowMs;
+        Map<String, Long> lastByCode = new LinkedHashMap<>();
+        for (Battery b : batteries) {
+            String code = b.getBatteryCode();
+            if (code == null || code.trim().isEmpty()) continue;
+            CellTimeRangeCatalog.TimeBounds bounds = timeRangeCatalog.cellBounds(code.trim());
+            if (bounds != null && bounds.getLastMs() >= since) {
+                lastByCode.put(code.trim(), bounds.getLastMs());
+            }
+        }
+        List<String> codes = new ArrayList<>(lastByCode.keySet());
+        codes.sort(Comparator.comparing(lastByCode::get, Comparator.reverseOrder()));
+        int warmed = 0;
+        for (String code : codes.subList(0, Math.min(codes.size(), Math.max(0, recentCells)))) {
+            List<Integer> cycles = timeRangeCatalog.cycles(code);
+            if (cycles.isEmpty()) continue;
+            cycleSeriesService.getInfluxCycle(code, cycles.get(0), InfluxLane.BACKGROUND);
+            if (cycles.size() > 1) {
+                cycleSeriesService.getInfluxCycle(code, cycles.get(cycles.size() - 1), InfluxLane.BACKGROUND);
+            }
+            warmed++;
+        }
+        return warmed;
+    }
+
+    private <T> T step(String name, Supplier<T> body) {
+        long t0 = System.currentTimeMillis();
+        try {
+            T result = body.get();
+            long cost = System.currentTimeMillis() - t0;
+            steps.put(name, cost);
+            log.info("✅ 预热步骤 {} 完成，耗时 {}ms", name, cost);
+            return result;
+        } catch (Exception e) {
+            steps.put(name, -1L);
+            log.warn("⚠️ 预热步骤 {} 失败: {}", name, e.getMessage());
+            return null;
+        }
+    }
+
+    private void markReady(boolean byTimeout) {
+        synchronized (this) {
+            if (ready) return;
+            timedOut = byTimeout;
+            finishedAtMs = System.currentTimeMillis();
+            ready = true;
+        }
+        if (!byTimeout) {
+            log.info("✅ 启动预热结束，耗时 {}ms，steps={}", finishedAtMs - startedAtMs, steps);
+        }
+        // 在锁外发布：监听方可能回调 isReady 等方法
+        eventPublisher.publishEvent(new WarmupFinishedEvent(byTimeout));
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    public long getElapsedMs() {
+        if (startedAtMs == 0L) return 0L;
+        return (ready ? finishedAtMs : System.currentTimeMillis()) - startedAtMs;
+    }
+
+    /** 各步骤耗时（毫秒，-1 表示失败），未完成的步骤不在其中 */
+    public Map<String, Long> getSteps() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(steps));
+    }
+}
@@ -0,0 +1,298 @@
+package com.bms.backend.service;
+
+import com.bms.backend.dto.TopologyClusterFrameDto;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 多实例拓扑刷新协调：经 Redis 选出一个主节点负责查 Influx / 台账并计算快照，结果通过 pub/sub 广播，
+ * 其余实例只把收到的快照扇出给本地 SSE 订阅者。
+ * <ul>
+ *     <li>选主：SET NX PX 抢租约，持有者每 renew-interval-ms 续期（仅当值仍为本节点时）；</li>
+ *     <li>fencing：抢到租约时原子地 INCR 得到单调递增的 leader epoch，随每帧发布；从节点丢弃 epoch 低于已见最大值的帧，
+ *     主节点收到更高 epoch 的帧时立即让位，避免 GC 停顿后租约已过期的旧主节点继续覆盖新主节点的结果；
+ *     Redis 重启或 epoch 键被淘汰后计数器从已见最大值续上（抢租约 / 续期时带上本节点见过的最大 epoch），不会倒退；</li>
+ *     <li>关注度：从节点把本地有订阅 / REST 读取的视图写入有序集合，主节点据此决定哪些 PACK 走快速刷新；</li>
+ *     <li>Redis 不可用时每个实例退回单机计算，恢复后重新选主。</li>
+ * </ul>
+ * enabled=false（默认）时不访问 Redis，本实例始终视为主节点。
+ */
+@Component
+public class TopologyClusterCoordinator {
+
+    private static final Logger log = LoggerFactory.getLogger(TopologyClusterCoordinator.class);
+
+    static final String LEADER_KEY = "bms:topology:leader";
+    static final String DEMAND_KEY = "bms:topology:demand";
+    static final String CHANNEL = "bms:topology:frames";
+    static final String EPOCH_KEY = "bms:topology:leader-epoch";
+
+    /**
+     * 抢租约成功时在同一脚本内把 epoch 置为 max(计数器, ARGV[3] 已见最大值) + 1 并返回；
+     * 未抢到返回 0，同时把计数器抬到已见最大值，让当前主节点在下次续期时发现自己落后。
+     */
+    private static final RedisScript<Long> ACQUIRE = new DefaultRedisScript<>(
+            "local seen = tonumber(ARGV[3]) "
+                    + "local stored = tonumber(redis.call('get', KEYS[2]) or '0') "
+                    + "if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then "
+                    + "local e = math.max(stored, seen) + 1 redis.call('set', KEYS[2], e) return e end "
+                    + "if seen > stored then redis.call('set', KEYS[2], seen) end "
+                    + "return 0",
+            Long.class);
+
+    /**
+     * 仅当租约仍属于本节点时续期，返回续期后的 epoch：计数器高于 ARGV[3]（本节点 epoch）时说明
+     * 计数器曾倒退、从节点见过更高的 epoch，递增后作为本节点的新 epoch；未持有租约返回 0。
+     */
+    private static final RedisScript<Long> RENEW = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) ~= ARGV[1] then return 0 end "
+                    + "redis.call('pexpire', KEYS[1], ARGV[2]) "
+                    + "local e = tonumber(ARGV[3]) "
+                    + "local stored = tonumber(redis.call('get', KEYS[2]) or '0') "
+                    + "if stored > e then e = stored + 1 end "
+                    + "if e > stored then redis.call('set', KEYS[2], e) end "
+                    + "return e",
+            Long.class);
+
+    /** 仅当租约仍属于本节点时释放 */
+    private static final RedisScript<Long> RELEASE = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
+    private final ObjectMapper objectMapper;
+    private final ObjectProvider<StringRedisTemplate> redisTemplate;
+    private final ObjectProvider<RedisConnectionFactory> connectionFactory;
+    private final String nodeId = ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+
+    @Value("${bms.topology.cluster.enabled:false}")
+    private boolean enabled = false;
+    @Value("${bms.topology.cluster.lease-ms:10000}")
+    private long leaseMs = 10000L;
+
+    private volatile boolean leader = false;
+    /** 本节点最近一次当选时取得的 epoch */
+    private volatile long epoch = 0L;
+    /** 已见过的最大 epoch（本节点当选或收到的帧） */
+    private final AtomicLong highestEpoch = new AtomicLong();
+    private volatile boolean redisAvailable = true;
+    private volatile Consumer<TopologyClusterFrameDto> frameListener;
+    private RedisMessageListenerContainer container;
+
+    public TopologyClusterCoordinator(ObjectMapper objectMapper,
+                                      ObjectProvider<StringRedisTemplate> redisTemplate,
+                                      ObjectProvider<RedisConnectionFactory> connectionFactory) {
+        this.objectMapper = objectMapper;
+        this.redisTemplate = redisTemplate;
+        this.connectionFactory = connectionFactory;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        try {
+            container = new RedisMessageListenerContainer();
+            container.setConnectionFactory(connectionFactory.getObject());
+            container.addMessageListener((message, pattern) -> onMessage(message.getBody()), new ChannelTopic(CHANNEL));
+            container.afterPropertiesSet();
+            container.start();
+        } catch (Exception e) {
+            log.warn("⚠️ 拓扑集群订阅启动失败，稍后由容器重连: {}", e.getMessage());
+        }
+        // 启动时先选一次，预热生成首份快照时已知道自己的角色
+        electLeader();
+        log.info("✅ 拓扑集群协调已启用 node={} leader={}", nodeId, leader);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (!enabled) return;
+        if (leader) {
+            // 主动让出租约，从节点下一次续期检查即可接管，不必等租约过期
+            try {
+                redisTemplate.getObject().execute(RELEASE, Collections.singletonList(LEADER_KEY), nodeId);
+            } catch (Exception e) {
+                log.debug("拓扑主节点租约释放失败: {}", e.getMessage());
+            }
+            leader = false;
+        }
+        if (container != null) {
+            try {
+                container.destroy();
+            } catch (Exception e) {
+                log.debug("拓扑集群订阅关闭失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** 未启用集群或 Redis 不可用时本实例自行计算 */
+    public boolean isLeader() {
+        return !enabled || !redisAvailable || leader;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public long getLeaseMs() {
+        return leaseMs;
+    }
+
+    /** 本节点当选时取得的 leader epoch，从未当选为 0 */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /** 由 TopologySnapshotService 注册，收到其他节点发布的帧时回调（Redis 订阅线程） */
+    public void setFrameListener(Consumer<TopologyClusterFrameDto> frameListener) {
+        this.frameListener = frameListener;
+    }
+
+    @Scheduled(fixedDelayString = "${bms.topology.cluster.renew-interval-ms:3000}", initialDelay = 3000)
+    public void electLeader() {
+        if (!enabled) return;
+        try {
+            StringRedisTemplate redis = redisTemplate.getObject();
+            boolean held;
+            if (leader) {
+                Long renewed = redis.execute(RENEW, Arrays.asList(LEADER_KEY, EPOCH_KEY), nodeId, String.valueOf(leaseMs),
+                        String.valueOf(epoch));
+                held = renewed != null && renewed > 0;
+                if (!held) {
+                    log.warn("⚠️ 拓扑主节点租约已失去 node={}", nodeId);
+                } else if (renewed != epoch) {
+                    log.warn("⚠️ epoch 计数器落后于已见最大值，主节点换用新 epoch node={} epoch={} -> {}", nodeId, epoch, renewed);
+                    epoch = renewed;
+                    highestEpoch.accumulateAndGet(renewed, Math::max);
+                }
+            } else {
+                Long acquired = redis.execute(ACQUIRE, Arrays.asList(LEADER_KEY, EPOCH_KEY), nodeId, String.valueOf(leaseMs),
+                        String.valueOf(highestEpoch.get()));
+                held = acquired != null && acquired > 0;
+                if (held) {
+                    epoch = acquired;
+                    highestEpoch.accumulateAndGet(acquired, Math::max);
+                    log.info("✅ 当选拓扑主节点 node={} epoch={}", nodeId, acquired);
+                }
+            }
+            if (!redisAvailable) log.info("✅ Redis 已恢复，拓扑刷新回到主从模式 node={}", nodeId);
+            redisAvailable = true;
+            leader = held;
+        } catch (Exception e) {
+            if (redisAvailable) log.warn("⚠️ Redis 不可用，拓扑刷新退回单机计算: {}", e.getMessage());
+            redisAvailable = false;
+            leader = false;
+        }
+    }
+
+    /** 主节点发布一次刷新结果；失败只记日志，本地订阅者不受影响 */
+    public void publish(TopologyClusterFrameDto frame) {
+        if (!enabled || !redisAvailable) return;
+        try {
+            frame.setNode(nodeId);
+            frame.setLeaderEpoch(epoch);
+            redisTemplate.getObject().convertAndSend(CHANNEL, objectMapper.writeValueAsString(frame));
+        } catch (Exception e) {
+            log.debug("拓扑帧发布失败: {}", e.getMessage());
+        }
+    }
+
+    /** 从节点登记本地关注的视图（分数为登记时间） */
+    public void reportDemand(Set<String> views, long now) {
+        if (!enabled || !redisAvailable || views.isEmpty()) return;
+        try {
+            Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>();
+            for (String view : views) tuples.add(ZSetOperations.TypedTuple.of(view, (double) now));
+            redisTemplate.getObject().opsForZSet().add(DEMAND_KEY, tuples);
+        } catch (Exception e) {
+            log.debug("拓扑关注度登记失败: {}", e.getMessage());
+        }
+    }
+
+    /** 主节点读取 windowMs 内各从节点登记过的视图，并清理过期登记 */
+    public Set<String> remoteDemand(long now, long windowMs) {
+        if (!enabled || !redisAvailable) return Collections.emptySet();
+        try {
+            ZSetOperations<String, String> zset = redisTemplate.getObject().opsForZSet();
+            zset.removeRangeByScore(DEMAND_KEY, 0, now - windowMs);
+            Set<String> views = zset.range(DEMAND_KEY, 0, -1);
+            return views == null ? Collections.emptySet() : views;
+        } catch (Exception e) {
+            log.debug("拓扑关注度读取失败: {}", e.getMessage());
+            return Collections.emptySet();
+        }
+    }
+
+    private void onMessage(byte[] body) {
+        try {
+            // 先只读帧头：主节点会收到自己发布的每一帧，无需整帧反序列化
+            String[] node = new String[1];
+            long frameEpoch = readHeader(body, node);
+            if (nodeId.equals(node[0])) return;
+            long seen = highestEpoch.get();
+            if (frameEpoch < seen) {
+                log.debug("忽略旧主节点的拓扑帧 node={} epoch={} < {}", node[0], frameEpoch, seen);
+                return;
+            }
+            highestEpoch.accumulateAndGet(frameEpoch, Math::max);
+            if (leader && frameEpoch > epoch) {
+                leader = false;
+                log.warn("⚠️ 收到更高 epoch 的拓扑帧，让出主节点 node={} epoch={} < {}", nodeId, epoch, frameEpoch);
+            }
+            Consumer<TopologyClusterFrameDto> listener = frameListener;
+            if (listener == null || isLeader()) return;
+            listener.accept(objectMapper.readValue(body, TopologyClusterFrameDto.class));
+        } catch (Exception e) {
+            log.warn("⚠️ 拓扑帧处理失败: {}", e.getMessage());
+        }
+    }
+
+    /** 读取顶层 node 与 leaderEpoch，跳过其余字段的内容；缺少 leaderEpoch 视为 0 */
+    private long readHeader(byte[] body, String[] node) throws IOException {
+        long frameEpoch = 0L;
+        try (JsonParser p = objectMapper.getFactory().createParser(body)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) throw new IOException("拓扑帧不是 JSON 对象");
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                p.nextToken();
+                if ("node".equals(name)) {
+                    node[0] = p.getValueAsString();
+                } else if ("leaderEpoch".equals(name)) {
+                    frameEpoch = p.getValueAsLong();
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+        return frameEpoch;
+    }
+}
@@ -0,0 +1,343 @@
+package com.bms.backend.service;
+
+import com.bms.backend.analysis.RunningStats;
+import com.bms.backend.dto.TopologyCellDto;
+import com.bms.backend.dto.TopologySnapshotDto;
+import com.bms.backend.dto.TopologySummaryDto;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 拓扑历史环形缓冲：每个 PACK 保留最近 retention-ms 内的逐帧单体值，供「回看告警发生时的样子」。
+ * 数据存放在按「帧 × 单体」展开的原始类型数组里（电压 / 温度 / 电流 float，状态与分数 byte，原因位掩码 int，
+ * 电压 / 温度鲁棒 z 按 {@link TopologyWireCodec#Z_SCALE} 缩放为 short），
+ * 每个 PACK 的容量在布局确定时一次性分配，内存占用 = 帧数 × 单体数 × 22 字节，不随运行时间增长。
+ * 只在 PACK 有单体重算或过期标记变化时写入一帧，回看取时间不晚于 T 的最近一帧。
+ * 回看帧的摘要统计（均值 / 标准差 / 极值 / 离群数）由还原出的单体值重新计算，数值按 float 精度。
+ */
+@Component
+public class TopologyHistoryStore {
+
+    /** 单体每帧占用：3 个 float + status/score 各 1 字节 + 原因位掩码 int + 2 个 z（short） */
+    private static final int BYTES_PER_CELL_FRAME = 3 * 4 + 1 + 1 + 4 + 2 * 2;
+    /** z 缺失（样本不足） */
+    private static final short Z_MISSING = Short.MIN_VALUE;
+    private static final String[] STATUS = {"normal", "warn", "alarm"};
+
+    /** 单个 PACK 的环形缓冲，单体顺序与该布局版本下的 PACK 单体列表一致 */
+    static final class PackRing {
+        /** 最近一次核对过单体列表的布局版本（只由刷新线程写） */
+        long layoutVersion;
+        final TopologyCellDto[] slots;
+        final int cells;
+        final int capacity;
+        final long[] ts;
+        final boolean[] stale;
+        final float[] voltage;
+        final float[] temperature;
+        final float[] current;
+        final byte[] status;
+        final byte[] score;
+        final int[] reasons;
+        final short[] voltageZ;
+        final short[] temperatureZ;
+        int head = 0;
+        int size = 0;
+
+        PackRing(long layoutVersion, List<TopologyCellDto> cells, int capacity) {
+            this.layoutVersion = layoutVersion;
+            this.cells = cells.size();
+            this.capacity = capacity;
+            this.slots = new TopologyCellDto[this.cells];
+            for (int i = 0; i < this.cells; i++) {
+                // 只保留位置信息，值从数组还原
+                TopologyCellDto src = cells.get(i);
+                TopologyCellDto slot = new TopologyCellDto();
+                slot.setPackId(src.getPackId());
+                slot.setCellId(src.getCellId());
+                slot.setRow(src.getRow());
+                slot.setCol(src.getCol());
+                slot.setModuleIndex(src.getModuleIndex());
+                slots[i] = slot;
+            }
+            int n = capacity * this.cells;
+            this.ts = new long[capacity];
+            this.stale = new boolean[capacity];
+            this.voltage = new float[n];
+            this.temperature = new float[n];
+            this.current = new float[n];
+            this.status = new byte[n];
+            this.score = new byte[n];
+            this.reasons = new int[n];
+            this.voltageZ = new short[n];
+            this.temperatureZ = new short[n];
+        }
+
+        long footprintBytes() {
+            return (long) capacity * cells * BYTES_PER_CELL_FRAME + capacity * 9L;
+        }
+
+        /** 第 k 新的帧（0 为最新）在数组中的帧下标 */
+        int frameAt(int k) {
+            return Math.floorMod(head - 1 - k, capacity);
+        }
+    }
+
+    private final TopologyWireCodec codec;
+    private final Map<String, PackRing> rings = new ConcurrentHashMap<>();
+
+    @Value("${bms.topology.history.retention-ms:300000}")
+    private long retentionMs = 300000L;
+    @Value("${bms.topology.refresh.fast-interval-ms:1000}")
+    private long frameIntervalMs = 1000L;
+    @Value("${bms.topology.history.replay-max-frames:300}")
+    private int replayMaxFrames = 300;
+    @Value("${bms.topology.history.replay-max-frames-all:30}")
+    private int replayMaxFramesAll = 30;
+
+    public TopologyHistoryStore(TopologyWireCodec codec, MeterRegistry meterRegistry) {
+        this.codec = codec;
+        Gauge.builder("bms.topology.history.bytes", this, TopologyHistoryStore::getFootprintBytes)
+                .description("拓扑历史环形缓冲占用的字节数")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /** 每个 PACK 的帧容量；retention-ms=0 时关闭 */
+    public int capacity() {
+        if (retentionMs <= 0) return 0;
+        return (int) Math.max(1, retentionMs / Math.max(100L, frameIntervalMs));
+    }
+
+    /**
+     * 写入一帧。该 PACK 的单体（id 与位置）变化时缓冲重新分配，旧历史丢弃；
+     * 布局版本变了但本 PACK 单体未变（其他 PACK 的台账变更）时沿用原缓冲，回看与补发不受影响。
+     * 只由刷新线程调用；cells 为该 PACK 已发布的单体列表。
+     */
+    public void record(String packId, long layoutVersion, long ts, boolean stale, List<TopologyCellDto> cells) {
+        int capacity = capacity();
+        if (capacity == 0 || cells == null || cells.isEmpty()) return;
+        PackRing ring = rings.get(packId);
+        if (ring == null || ring.cells != cells.size() || ring.capacity != capacity
+                || (ring.layoutVersion != layoutVersion && !sameCells(ring, cells))) {
+            ring = new PackRing(layoutVersion, cells, capacity);
+            rings.put(packId, ring);
+        } else {
+            ring.layoutVersion = layoutVersion;
+        }
+        synchronized (ring) {
+            if (ring.size > 0 && ring.ts[ring.frameAt(0)] >= ts) return;
+            int f = ring.head;
+            int base = f * ring.cells;
+            ring.ts[f] = ts;
+            ring.stale[f] = stale;
+            for (int i = 0; i < ring.cells; i++) {
+                TopologyCellDto c = cells.get(i);
+                ring.voltage[base + i] = toFloat(c.getVoltage());
+                ring.temperature[base + i] = toFloat(c.getTemperature());
+                ring.current[base + i] = toFloat(c.getCurrent());
+                ring.status[base + i] = statusCode(c.getStatus());
+                ring.score[base + i] = (byte) (c.getScore() == null ? 0 : c.getScore());
+                ring.reasons[base + i] = codec.reasonMask(c.getReasons());
+                ring.voltageZ[base + i] = toShortZ(c.getVoltageZ());
+                ring.temperatureZ[base + i] = toShortZ(c.getTemperatureZ());
+            }
+            ring.head = (f + 1) % ring.capacity;
+            if (ring.size < ring.capacity) ring.size++;
+        }
+    }
+
+    /** 布局变更后丢弃已不存在的 PACK */
+    public void retain(Set<String> packIds) {
+        rings.keySet().retainAll(packIds);
+    }
+
+    /**
+     * 回看：各 PACK 在 at 时刻（含）之前的最近一帧；packId 为空或 ALL 时合并全部 PACK。
+     * @return 缓冲中没有不晚于 at 的帧时为 null
+     */
+    public TopologySnapshotDto rewind(String packId, long at) {
+        List<String> packs = packsOf(packId);
+        List<TopologyCellDto> cells = new ArrayList<>();
+        long ts = Long.MIN_VALUE;
+        boolean stale = false;
+        for (String p : packs) {
+            PackRing ring = rings.get(p);
+            if (ring == null) continue;
+            synchronized (ring) {
+                int f = floorFrame(ring, at);
+                if (f < 0) continue;
+                appendCells(ring, f, cells);
+                ts = Math.max(ts, ring.ts[f]);
+                stale |= ring.stale[f];
+            }
+        }
+        if (ts == Long.MIN_VALUE) return null;
+        return snapshotOf(viewOf(packId), ts, stale, cells);
+    }
+
+    /**
+     * 补发时间点：单个 PACK 从 from 起（含 from 时刻生效的那一帧）到最新的帧时间，按时间升序，最多 replay-max-frames 个（保留最新的）。
+     * ALL 视图每帧都是全部 PACK 的完整状态，各 PACK 刷新时刻错开时按 fast-interval-ms 对齐、每个间隔只取最后一个时间点，
+     * 且最多 replay-max-frames-all 个。只返回时间，帧内容由调用方逐帧 rewind，避免一次性构建整段历史。
+     */
+    public List<Long> replayTimes(String packId, long from) {
+        List<String> packs = packsOf(packId);
+        TreeSet<Long> times = new TreeSet<>();
+        for (String p : packs) {
+            PackRing ring = rings.get(p);
+            if (ring == null) continue;
+            synchronized (ring) {
+                int start = floorFrame(ring, from);
+                for (int k = 0; k < ring.size; k++) {
+                    int f = ring.frameAt(k);
+                    if (ring.ts[f] >= from || f == start) times.add(ring.ts[f]);
+                }
+            }
+        }
+        boolean all = TopologySnapshotService.VIEW_ALL.equals(viewOf(packId));
+        List<Long> result = new ArrayList<>(times.size());
+        long interval = Math.max(100L, frameIntervalMs);
+        for (Long t : times) {
+            // 升序遍历：同一间隔内的后一个时间点覆盖前一个
+            if (all && !result.isEmpty() && Math.floorDiv(result.get(result.size() - 1), interval) == Math.floorDiv(t, interval)) {
+                result.set(result.size() - 1, t);
+            } else {
+                result.add(t);
+            }
+        }
+        int max = Math.max(1, all ? replayMaxFramesAll : replayMaxFrames);
+        return result.size() > max ? new ArrayList<>(result.subList(result.size() - max, result.size())) : result;
+    }
+
+    public long getFootprintBytes() {
+        long total = 0L;
+        for (PackRing ring : rings.values()) total += ring.footprintBytes();
+        return total;
+    }
+
+    private List<String> packsOf(String packId) {
+        String view = viewOf(packId);
+        if (!TopologySnapshotService.VIEW_ALL.equals(view)) return Collections.singletonList(view);
+        List<String> packs = new ArrayList<>(rings.keySet());
+        Collections.sort(packs);
+        return packs;
+    }
+
+    /** 缓冲的单体槽位与 cells 的 id、行列、模块逐一相同 */
+    private static boolean sameCells(PackRing ring, List<TopologyCellDto> cells) {
+        for (int i = 0; i < ring.cells; i++) {
+            TopologyCellDto slot = ring.slots[i];
+            TopologyCellDto c = cells.get(i);
+            if (!Objects.equals(slot.getCellId(), c.getCellId()) || !Objects.equals(slot.getRow(), c.getRow())
+                    || !Objects.equals(slot.getCol(), c.getCol()) || !Objects.equals(slot.getModuleIndex(), c.getModuleIndex())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** 不晚于 at 的最近一帧的帧下标，没有则 -1 */
+    private static int floorFrame(PackRing ring, long at) {
+        for (int k = 0; k < ring.size; k++) {
+            int f = ring.frameAt(k);
+            if (ring.ts[f] <= at) return f;
+        }
+        return -1;
+    }
+
+    private void appendCells(PackRing ring, int f, List<TopologyCellDto> out) {
+        int base = f * ring.cells;
+        for (int i = 0; i < ring.cells; i++) {
+            TopologyCellDto slot = ring.slots[i];
+            TopologyCellDto c = new TopologyCellDto();
+            c.setPackId(slot.getPackId());
+            c.setCellId(slot.getCellId());
+            c.setRow(slot.getRow());
+            c.setCol(slot.getCol());
+            c.setModuleIndex(slot.getModuleIndex());
+            c.setVoltage(toDouble(ring.voltage[base + i]));
+            c.setTemperature(toDouble(ring.temperature[base + i]));
+            c.setCurrent(toDouble(ring.current[base + i]));
+            c.setStatus(STATUS[ring.status[base + i]]);
+            c.setScore((int) ring.score[base + i]);
+            c.setReasons(codec.reasonsOf(ring.reasons[base + i]));
+            c.setVoltageZ(fromShortZ(ring.voltageZ[base + i]));
+            c.setTemperatureZ(fromShortZ(ring.temperatureZ[base + i]));
+            out.add(c);
+        }
+    }
+
+    private static TopologySnapshotDto snapshotOf(String view, long ts, boolean stale, List<TopologyCellDto> cells) {
+        int normal = 0, warn = 0, alarm = 0;
+        int voltageOutliers = 0, temperatureOutliers = 0;
+        RunningStats voltage = new RunningStats();
+        RunningStats temperature = new RunningStats();
+        for (TopologyCellDto c : cells) {
+            if ("alarm".equals(c.getStatus())) alarm++;
+            else if ("warn".equals(c.getStatus())) warn++;
+            else normal++;
+            if (c.getVoltage() != null) voltage.add(c.getVoltage());
+            if (c.getTemperature() != null) temperature.add(c.getTemperature());
+            if (c.getReasons().contains("voltage_outlier")) voltageOutliers++;
+            if (c.getReasons().contains("temperature_outlier")) temperatureOutliers++;
+        }
+        TopologySummaryDto summary = new TopologySummaryDto();
+        summary.setTotal(cells.size());
+        summary.setNormal(normal);
+        summary.setWarn(warn);
+        summary.setAlarm(alarm);
+        // ALL 视图直接对全部单体求统计，与实时路径按 PACK 合并的结果一致
+        summary.setVoltageStats(TopologySnapshotService.statsOf(voltage, voltageOutliers));
+        summary.setTemperatureStats(TopologySnapshotService.statsOf(temperature, temperatureOutliers));
+        TopologySnapshotDto snap = new TopologySnapshotDto();
+        snap.setPackId(view);
+        snap.setTs(ts);
+        snap.setStale(stale);
+        snap.setSummary(summary);
+        snap.setCells(cells);
+        return snap;
+    }
+
+    private static String viewOf(String packId) {
+        return (packId == null || packId.trim().isEmpty()) ? TopologySnapshotService.VIEW_ALL : packId.trim();
+    }
+
+    private static byte statusCode(String status) {
+        if ("alarm".equals(status)) return 2;
+        if ("warn".equals(status)) return 1;
+        return 0;
+    }
+
+    /** 缺失值用 NaN 表示 */
+    private static float toFloat(Double v) {
+        return v == null ? Float.NaN : v.floatValue();
+    }
+
+    /** z 已保留一位小数，按 Z_SCALE 存为 short；超出范围的截断到 short 边界 */
+    private static short toShortZ(Double z) {
+        if (z == null || z.isNaN()) return Z_MISSING;
+        long scaled = Math.round(z * TopologyWireCodec.Z_SCALE);
+        return (short) Math.max(Short.MIN_VALUE + 1, Math.min(Short.MAX_VALUE, scaled));
+    }
+
+    private static Double fromShortZ(short z) {
+        return z == Z_MISSING ? null : (double) z / TopologyWireCodec.Z_SCALE;
+    }
+
+    /** 按 float 的最短十进制表示还原，避免 3.651234f 变成 3.6512339115 */
+    private static Double toDouble(float v) {
+        return Float.isNaN(v) ? null : Double.valueOf(Float.toString(v));
+    }
+}
@@ -0,0 +1,227 @@
+package com.bms.backend.service;
+
+import com.bms.backend.repository.BatteryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 拓扑布局缓存：PACK -> 单体槽位（行、列、模块），由台账推导。
+ * 台账一天只变几次，因此布局只在 BatteryLedgerChangedEvent 后（或超过 max-age-ms 兜底）重建，
+ * 每秒的拓扑刷新只需把实时值合并进布局，不再全表加载电池实体、逐个正则解析编码。
+ * 重建得到的槽位与上一份布局完全相同时沿用上一份布局（版本号不变），下游不会因兜底重建而重置状态。
+ */
+@Component
+public class TopologyLayoutCache {
+
+    private static final Logger log = LoggerFactory.getLogger(TopologyLayoutCache.class);
+
+    private static final Pattern CELL_INDEX_PATTERN = Pattern.compile("c(\\d+)$", Pattern.CASE_INSENSITIVE);
+    private static final int GRID_COLS = 8;
+    private static final int CELLS_PER_MODULE = 16;
+
+    /** 单体槽位（只读） */
+    public static final class CellSlot {
+        private final String packId;
+        private final String cellId;
+        private final String lookupKey;
+        private final int row;
+        private final int col;
+        private final int moduleIndex;
+        private final Long modelId;
+
+        CellSlot(String packId, String cellId, int row, int col, int moduleIndex, Long modelId) {
+            this.packId = packId;
+            this.cellId = cellId;
+            this.lookupKey = cellId.toLowerCase();
+            this.row = row;
+            this.col = col;
+            this.moduleIndex = moduleIndex;
+            this.modelId = modelId;
+        }
+
+        public String getPackId() {
+            return packId;
+        }
+
+        public String getCellId() {
+            return cellId;
+        }
+
+        /** 实时值 Map 的键（小写 cell_id） */
+        public String getLookupKey() {
+            return lookupKey;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public int getCol() {
+            return col;
+        }
+
+        public int getModuleIndex() {
+            return moduleIndex;
+        }
+
+        /** 电池型号ID（选择告警规则） */
+        public Long getModelId() {
+            return modelId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CellSlot)) return false;
+            CellSlot other = (CellSlot) o;
+            return row == other.row && col == other.col && moduleIndex == other.moduleIndex
+                    && packId.equals(other.packId) && cellId.equals(other.cellId) && Objects.equals(modelId, other.modelId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(packId, cellId, row, col, moduleIndex, modelId);
+        }
+    }
+
+    /** 一份完整布局：PACK 按 ID 升序，每个 PACK 内槽位按行、列排序 */
+    public static final class Layout {
+        private final long version;
+        private final long builtAtMs;
+        private final Map<String, List<CellSlot>> byPack;
+
+        Layout(long version, long builtAtMs, Map<String, List<CellSlot>> byPack) {
+            this.version = version;
+            this.builtAtMs = builtAtMs;
+            this.byPack = byPack;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public long getBuiltAtMs() {
+            return builtAtMs;
+        }
+
+        public Map<String, List<CellSlot>> getByPack() {
+            return byPack;
+        }
+
+        public int cellCount() {
+            int n = 0;
+            for (List<CellSlot> slots : byPack.values()) n += slots.size();
+            return n;
+        }
+    }
+
+    private final BatteryRepository batteryRepository;
+
+    @Value("${bms.topology.layout.max-age-ms:600000}")
+    private long maxAgeMs = 600000L;
+
+    private volatile Layout layout;
+    /** 当前布局最近一次与台账核对的时间，max-age-ms 从这里算起 */
+    private volatile long checkedAtMs = 0L;
+    /** 最近一次重建得到的布局（失效后仍保留），用于判断台账是否真的变了；由 this 锁保护 */
+    private Layout last;
+    private long version = 0L;
+    /** 失效代数：重建期间发生的失效不能被这次重建的结果覆盖 */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public TopologyLayoutCache(BatteryRepository batteryRepository) {
+        this.batteryRepository = batteryRepository;
+    }
+
+    /** 当前布局；已失效或过期时同步重建（并发调用只查一次库） */
+    public Layout getLayout() {
+        Layout current = layout;
+        if (current != null && !expired()) return current;
+        synchronized (this) {
+            current = layout;
+            if (current != null && !expired()) return current;
+            long gen = invalidations.get();
+            Map<String, List<CellSlot>> byPack = group(batteryRepository.findActiveBatteryCodeModels());
+            Layout rebuilt;
+            if (last != null && last.getByPack().equals(byPack)) {
+                rebuilt = last;
+            } else {
+                rebuilt = new Layout(++version, System.currentTimeMillis(), byPack);
+                log.info("✅ 拓扑布局已重建：{} 个 PACK，{} 个单体", byPack.size(), rebuilt.cellCount());
+            }
+            last = rebuilt;
+            if (invalidations.get() == gen) {
+                checkedAtMs = System.currentTimeMillis();
+                layout = rebuilt;
+            }
+            return rebuilt;
+        }
+    }
+
+    public void invalidate() {
+        invalidations.incrementAndGet();
+        layout = null;
+    }
+
+    /** 台账新增 / 编辑 / 删除提交后失效；非事务内发布时立即执行 */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onLedgerChanged(BatteryLedgerChangedEvent event) {
+        invalidate();
+    }
+
+    private boolean expired() {
+        return maxAgeMs > 0 && System.currentTimeMillis() - checkedAtMs > maxAgeMs;
+    }
+
+    private static Map<String, List<CellSlot>> group(List<Object[]> rows) {
+        Map<String, List<CellSlot>> byPack = new TreeMap<>();
+        if (rows != null) {
+            for (Object[] row : rows) {
+                String code = (String) row[0];
+                if (code == null || code.trim().isEmpty()) continue;
+                Long modelId = row.length > 1 && row[1] != null ? ((Number) row[1]).longValue() : null;
+                String packId = TopologySnapshotService.detectPackId(code);
+                int idx = extractCellIndex(code);
+                byPack.computeIfAbsent(packId, k -> new ArrayList<>()).add(new CellSlot(
+                        packId,
+                        code,
+                        idx >= 0 ? idx / GRID_COLS : 0,
+                        idx >= 0 ? idx % GRID_COLS : 0,
+                        idx >= 0 ? idx / CELLS_PER_MODULE : 0,
+                        modelId));
+            }
+        }
+        Map<String, List<CellSlot>> frozen = new LinkedHashMap<>();
+        for (Map.Entry<String, List<CellSlot>> e : byPack.entrySet()) {
+            List<CellSlot> slots = e.getValue();
+            slots.sort(Comparator.comparingInt(CellSlot::getRow).thenComparingInt(CellSlot::getCol));
+            frozen.put(e.getKey(), Collections.unmodifiableList(slots));
+        }
+        return Collections.unmodifiableMap(frozen);
+    }
+
+    private static int extractCellIndex(String batteryCode) {
+        Matcher m = CELL_INDEX_PATTERN.matcher(batteryCode);
+        if (!m.find()) return -1;
+        try {
+            return Integer.parseInt(m.group(1));
+        } catch (Exception ignored) {
+            return -1;
+        }
+    }
+}
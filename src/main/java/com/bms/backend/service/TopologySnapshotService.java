@@ -1,26 +1,45 @@
 package com.bms.backend.service;
 
+import com.bms.backend.analysis.AlarmRuleEvaluator;
+import com.bms.backend.analysis.RobustZScore;
+import com.bms.backend.analysis.RunningStats;
 import com.bms.backend.dto.TopologyCellDto;
+import com.bms.backend.dto.TopologyClusterFrameDto;
+import com.bms.backend.dto.TopologyDeltaDto;
 import com.bms.backend.dto.TopologySnapshotDto;
-import com.bms.backend.entity.Battery;
-import com.bms.backend.repository.BatteryRepository;
+import com.bms.backend.dto.TopologyStatsDto;
+import com.bms.backend.dto.TopologySummaryDto;
+import com.bms.backend.exception.BusinessException;
+import com.bms.backend.influx.InfluxLane;
 import com.influxdb.query.FluxRecord;
 import com.influxdb.query.FluxTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
 /**
  * PACK 拓扑矩阵监控实时后端引擎
@@ -29,181 +48,1266 @@ import java.util.stream.Collectors;
 @Service
 public class TopologySnapshotService {
 
-    private final BatteryRepository batteryRepository;
+    private static final Logger log = LoggerFactory.getLogger(TopologySnapshotService.class);
+
+    public static final String VIEW_ALL = "ALL";
+
+    private final TopologyLayoutCache layoutCache;
     private final BatteryDataService batteryDataService;
     private final RealtimeSignalFilterService signalFilterService;
-    private final AtomicReference<Map<String, TopologySnapshotDto>> latestByPack =
-            new AtomicReference<>(Collections.emptyMap());
+    private final TopologyWireCodec codec;
+    private final AtomicReference<PublishedViews> published = new AtomicReference<>(PublishedViews.EMPTY);
+
+    private final TopologyStreamDispatcher dispatcher;
+    private final TopologyHistoryStore historyStore;
+    private final AlarmRuleRegistry alarmRuleRegistry;
+    private final TopologyClusterCoordinator cluster;
+    /** 增量模式下每个视图（packId 或 ALL）的帧序号与客户端基线 */
+    private final Map<String, ViewStream> viewStreams = new ConcurrentHashMap<>();
+
+    public static final String MODE_DELTA = "delta";
+    public static final String MODE_FULL = "full";
+
+    @Value("${bms.topology.stream.keyframe-interval:30}")
+    private int keyframeInterval = 30;
+    @Value("${bms.topology.stream.deadband-voltage:0.005}")
+    private double deadbandVoltage = 0.005;
+    @Value("${bms.topology.stream.deadband-temperature:0.2}")
+    private double deadbandTemperature = 0.2;
+    @Value("${bms.topology.stream.deadband-current:0.05}")
+    private double deadbandCurrent = 0.05;
+
+    @Value("${bms.topology.stream.resume-log-frames:120}")
+    private int resumeLogFrames = 120;
+    @Value("${bms.topology.stream.resume-window-ms:120000}")
+    private long resumeWindowMs = 120000L;
+
+    @Value("${bms.topology.stream.deadband-z:0.5}")
+    private double deadbandZ = 0.5;
+    @Value("${bms.topology.stats.outlier-z:3.5}")
+    private double outlierZ = 3.5;
+
+    @Value("${bms.topology.refresh.slow-interval-ms:30000}")
+    private long slowIntervalMs = 30000L;
+    @Value("${bms.topology.refresh.demand-window-ms:30000}")
+    private long demandWindowMs = 30000L;
+    @Value("${bms.topology.cluster.full-frame-interval:30}")
+    private int fullFrameInterval = 30;
+
+    /** REST 读取记录：视图 -> 最近一次读取时间，demand-window-ms 内视为有人关注 */
+    private final Map<String, Long> restReads = new ConcurrentHashMap<>();
+
+    /**
+     * 单个视图的增量流状态。baseline 是客户端应用完全部已发送帧后持有的单体值（而非上一 tick 的真实值），
+     * 因此低于死区的缓慢漂移会累积，越过死区后照常下发。
+     */
+    private static final class ViewStream {
+        /**
+         * SSE 事件 id 前缀。与视图流时钟对齐后为主节点分配的 epoch，seq 即时钟 tick，各节点同一 tick 的 id 与内容一致；
+         * 新建的视图流在下一个关键帧位置（seq 为 keyframe-interval 的倍数）之前、以及本地帧（从节点标记过期）之后使用本节点随机 epoch。
+         */
+        String epoch = newStreamEpoch();
+        boolean aligned = false;
+        long seq = 0L;
+        int sinceKeyframe = 0;
+        Map<String, TopologyCellDto> baseline;
+        TopologySummaryDto summary;
+        boolean stale;
+        Long ts;
+        /** 最近 resume-log-frames 帧的续传增量（按 seq 升序） */
+        final ArrayDeque<LoggedFrame> log = new ArrayDeque<>();
+        volatile long lastWatchedMs;
+
+        String idOf(long seq) {
+            return epoch + '.' + seq;
+        }
+    }
+
+    /**
+     * 事件日志中的一帧，统一为增量：增量 tick 即所发增量（与实时订阅者共享编码结果）；
+     * 关键帧 tick 为新旧基线之间的差异，续传的客户端不必重收整帧。
+     */
+    private static final class LoggedFrame {
+        /** 本帧的事件 id 与应用本帧前客户端应持有的 id（两者 epoch 可能不同：对齐到集群 epoch 的那一帧） */
+        final String id;
+        final String prevId;
+        final TopologyDeltaDto delta;
+        final Map<TopologyWireCodec.Format, byte[]> payloads;
 
-    private final CopyOnWriteArrayList<SseEmitter> emitters = new CopyOnWriteArrayList<>();
-    private final Map<SseEmitter, String> emitterPackFilter = new ConcurrentHashMap<>();
+        LoggedFrame(String id, String prevId, TopologyDeltaDto delta, Map<TopologyWireCodec.Format, byte[]> payloads) {
+            this.id = id;
+            this.prevId = prevId;
+            this.delta = delta;
+            this.payloads = payloads;
+        }
+
+        int size() {
+            return delta.getCells().size() + delta.getRemoved().size();
+        }
+    }
+
+    /** 视图流时钟的一个 tick：epoch 与序号 */
+    private static final class StreamTick {
+        final String epoch;
+        final long seq;
+
+        StreamTick(String epoch, long seq) {
+            this.epoch = epoch;
+            this.seq = seq;
+        }
+    }
+
+    private static String newStreamEpoch() {
+        return Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+    }
+
+    private static final long NO_SAMPLE = Long.MIN_VALUE;
+    private static final long UNKNOWN_SAMPLE_TIME = Long.MIN_VALUE + 1;
 
-    private static final Pattern CELL_INDEX_PATTERN = Pattern.compile("c(\\d+)$", Pattern.CASE_INSENSITIVE);
-    private static final int GRID_COLS = 8;
+    /** 单体的可变槽位：只在最新采样时间变化时重算；cell 是已发布对象，只整体替换、不原地修改 */
+    private static final class CellState {
+        final TopologyLayoutCache.CellSlot slot;
+        long sampleMs = NO_SAMPLE;
+        TopologyCellDto cell;
+
+        CellState(TopologyLayoutCache.CellSlot slot) {
+            this.slot = slot;
+        }
+    }
 
-    public TopologySnapshotService(BatteryRepository batteryRepository,
+    /**
+     * PACK 状态：单体值、评分结果以原始类型数组按槽位下标保存，告警规则直接在数组上评估；
+     * 按状态迁移增量维护计数，dirty 时才重新生成单体列表与摘要。
+     */
+    private static final class PackState {
+        final String packId;
+        final CellState[] cells;
+        /** 缺失值为 NaN */
+        final double[] voltage;
+        final double[] temperature;
+        final double[] current;
+        final int[] reasons;
+        final int[] score;
+        final byte[] status;
+        final int[] prevReasons;
+        final int[] prevScore;
+        final byte[] prevStatus;
+        /** 本 tick 有新采样的单体 */
+        final boolean[] sampled;
+        /** 电压 / 温度的包内流式统计，随单体值替换增量更新 */
+        final RunningStats voltageStats = new RunningStats();
+        final RunningStats temperatureStats = new RunningStats();
+        /** 鲁棒 z（一位小数，NaN 为不可用）与离群原因位 */
+        final double[] voltageZ;
+        final double[] temperatureZ;
+        final int[] outliers;
+        final double[] prevVoltageZ;
+        final double[] prevTemperatureZ;
+        final int[] prevOutliers;
+        int voltageOutliers;
+        int temperatureOutliers;
+        final double[] scratch;
+        final double[] zBuffer;
+        /** 按型号规则切分的连续区间（runStart[k] 起使用 runEvaluators[k]），随规则版本重建 */
+        long ruleVersion = -1L;
+        int[] runStart = new int[0];
+        AlarmRuleEvaluator[] runEvaluators = new AlarmRuleEvaluator[0];
+        int normal;
+        int warn;
+        int alarm;
+        boolean dirty = true;
+        List<TopologyCellDto> publishedCells = Collections.emptyList();
+        TopologySummaryDto summary = new TopologySummaryDto();
+        /** 0 表示尚未刷新过（无论是否有人关注都会先刷新一次） */
+        long refreshedAtMs = 0L;
+        boolean stale;
+        TopologySnapshotDto snapshot;
+        byte[] json;
+        /** 历史缓冲是否已有该 PACK 的帧、最近一帧的过期标记 */
+        boolean recorded;
+        boolean recordedStale;
+
+        PackState(String packId, List<TopologyLayoutCache.CellSlot> slots) {
+            this.packId = packId;
+            int n = slots.size();
+            this.cells = new CellState[n];
+            for (int i = 0; i < n; i++) {
+                cells[i] = new CellState(slots.get(i));
+            }
+            this.voltage = new double[n];
+            this.temperature = new double[n];
+            this.current = new double[n];
+            this.reasons = new int[n];
+            this.score = new int[n];
+            this.status = new byte[n];
+            this.prevReasons = new int[n];
+            this.prevScore = new int[n];
+            this.prevStatus = new byte[n];
+            this.sampled = new boolean[n];
+            this.voltageZ = new double[n];
+            this.temperatureZ = new double[n];
+            this.outliers = new int[n];
+            this.prevVoltageZ = new double[n];
+            this.prevTemperatureZ = new double[n];
+            this.prevOutliers = new int[n];
+            this.scratch = new double[n];
+            this.zBuffer = new double[n];
+            Arrays.fill(voltage, Double.NaN);
+            Arrays.fill(temperature, Double.NaN);
+            Arrays.fill(current, Double.NaN);
+            Arrays.fill(voltageZ, Double.NaN);
+            Arrays.fill(temperatureZ, Double.NaN);
+        }
+
+        /** @return 规则版本是否变化（变化时整包重新评估） */
+        boolean bindRules(AlarmRuleRegistry.RuleSet ruleSet) {
+            if (ruleVersion == ruleSet.getVersion()) return false;
+            int[] starts = new int[cells.length];
+            AlarmRuleEvaluator[] evaluators = new AlarmRuleEvaluator[cells.length];
+            int runs = 0;
+            for (int i = 0; i < cells.length; i++) {
+                AlarmRuleEvaluator e = ruleSet.evaluatorFor(cells[i].slot.getModelId());
+                if (runs == 0 || evaluators[runs - 1] != e) {
+                    starts[runs] = i;
+                    evaluators[runs] = e;
+                    runs++;
+                }
+            }
+            runStart = Arrays.copyOf(starts, runs);
+            runEvaluators = Arrays.copyOf(evaluators, runs);
+            ruleVersion = ruleSet.getVersion();
+            return true;
+        }
+
+        /** from < 0 表示新计入 */
+        void transition(int from, byte to) {
+            if (from >= 0) count(from, -1);
+            count(to, 1);
+        }
+
+        private void count(int status, int d) {
+            if (status == AlarmRuleEvaluator.STATUS_ALARM) alarm += d;
+            else if (status == AlarmRuleEvaluator.STATUS_WARN) warn += d;
+            else normal += d;
+        }
+    }
+
+    /** 刷新线程（定时任务与启动预热可能并发调用）独占的增量状态 */
+    private final Object refreshLock = new Object();
+    private long layoutVersion = -1L;
+    private List<PackState> packStates = Collections.emptyList();
+    /** null 表示需要重建（首次或布局变更后） */
+    private List<TopologyCellDto> allCells;
+    private TopologySummaryDto allSummary = new TopologySummaryDto();
+
+    /**
+     * 视图流时钟：主节点（或单机）每个推送 tick 递增 streamSeq，经集群帧下发，从节点沿用同一 epoch / seq，
+     * 新主节点接任后在最后收到的序号上继续编号，客户端可凭 Last-Event-ID 在任一节点续传。写入在 refreshLock 内。
+     */
+    private volatile String streamEpoch = newStreamEpoch();
+    private volatile long streamSeq = 0L;
+
+    /** 集群模式：上一 tick 是否为主节点、距上次 full 帧的帧数 */
+    private boolean wasLeader = false;
+    private int framesSinceFull = 0;
+    /** 从节点：最近一次收到的各 PACK 快照（来自 node 的 layoutVersion 布局）与收帧时间 */
+    private String remoteNode;
+    private long remoteLayoutVersion = -1L;
+    private Map<String, TopologySnapshotDto> remotePacks = Collections.emptyMap();
+    private List<TopologyCellDto> remoteAllCells;
+    private long lastFrameMs = 0L;
+    private boolean remoteStaleMarked = false;
+
+    /**
+     * 一次刷新产出的全部视图（各 PACK 与合并后的 ALL）及其预序列化 JSON。
+     * 发布后只读：SSE 订阅者和 REST 读取方拿到的是同一份字节，每个连接只剩一次 socket 写。
+     */
+    private static final class PublishedViews {
+        static final PublishedViews EMPTY = new PublishedViews(Collections.emptyMap(), Collections.emptyMap());
+
+        final Map<String, TopologySnapshotDto> snapshots;
+        final Map<String, byte[]> json;
+        /** 非默认格式（columnar / cbor）按需编码，每个视图每种格式只编码一次："view:FORMAT" -> 字节 */
+        final Map<String, byte[]> encoded = new ConcurrentHashMap<>();
+
+        PublishedViews(Map<String, TopologySnapshotDto> snapshots, Map<String, byte[]> json) {
+            this.snapshots = snapshots;
+            this.json = json;
+        }
+
+        boolean isEmpty() {
+            return snapshots.isEmpty();
+        }
+    }
+
+    public TopologySnapshotService(TopologyLayoutCache layoutCache,
                                    BatteryDataService batteryDataService,
-                                   RealtimeSignalFilterService signalFilterService) {
-        this.batteryRepository = batteryRepository;
+                                   RealtimeSignalFilterService signalFilterService,
+                                   TopologyWireCodec codec,
+                                   TopologyStreamDispatcher dispatcher,
+                                   TopologyHistoryStore historyStore,
+                                   AlarmRuleRegistry alarmRuleRegistry,
+                                   TopologyClusterCoordinator cluster) {
+        this.layoutCache = layoutCache;
         this.batteryDataService = batteryDataService;
         this.signalFilterService = signalFilterService;
+        this.codec = codec;
+        this.dispatcher = dispatcher;
+        this.historyStore = historyStore;
+        this.alarmRuleRegistry = alarmRuleRegistry;
+        this.cluster = cluster;
+        cluster.setFrameListener(this::onClusterFrame);
+    }
+
+    /** 预热结束前跳过定时刷新；首份快照由预热生成，见 {@link StartupWarmupService} */
+    private volatile boolean warmedUp = false;
+
+    @EventListener
+    public void onWarmupFinished(WarmupFinishedEvent event) {
+        warmedUp = true;
+    }
+
+    @Scheduled(fixedDelayString = "${bms.topology.refresh.fast-interval-ms:1000}", initialDelay = 1500)
+    public void scheduledRefresh() {
+        if (!warmedUp) return;
+        refreshSnapshot();
     }
 
-    @Scheduled(fixedDelay = 1000, initialDelay = 1500)
+    /**
+     * 按需刷新：有 SSE 订阅或 demand-window-ms 内有 REST 读取的 PACK（ALL 视图视为关注全部 PACK）每个 tick 刷新；
+     * 无人关注的 PACK 按 slow-interval-ms 后台刷新，slow-interval-ms=0 时暂停。
+     * 本 tick 没有到期的 PACK 时既不查 Influx 也不查库。
+     * 集群模式下只有主节点执行查询与计算并经 Redis 发布结果；从节点只登记本地关注的视图，
+     * 快照由 {@link #onClusterFrame} 收到后发布并推送。
+     */
     public void refreshSnapshot() {
-        boolean stale = false;
+        long now = Instant.now().toEpochMilli();
+        Set<String> watched = localWatchedViews(now);
+        boolean leader = cluster.isLeader();
+        if (cluster.isEnabled() && !leader) {
+            followerTick(watched, now);
+            return;
+        }
+        StreamTick tick = null;
         try {
-            Map<String, BatteryDataService.LatestVtc> vtcByCell =
-                    signalFilterService.smoothVtcMap(batteryDataService.getLatestVtcByCellId());
-            List<Battery> batteries = batteryRepository.findByDeletedFalse();
-            Map<String, List<Battery>> byPack = batteries.stream()
-                    .filter(b -> b.getBatteryCode() != null && !b.getBatteryCode().trim().isEmpty())
-                    .collect(Collectors.groupingBy(b -> detectPackId(b.getBatteryCode())));
-
-            Map<String, TopologySnapshotDto> next = new ConcurrentHashMap<>();
-            long now = Instant.now().toEpochMilli();
-            for (Map.Entry<String, List<Battery>> e : byPack.entrySet()) {
-                String packId = e.getKey();
-                TopologySnapshotDto snap = new TopologySnapshotDto();
-                snap.setPackId(packId);
-                snap.setTs(now);
-                snap.setStale(false);
-                snap.setCells(buildCells(packId, e.getValue(), vtcByCell));
-                computeSummary(snap);
-                next.put(packId, snap);
-            }
-            latestByPack.set(next);
+            // 布局来自缓存（台账变更时失效），这里只合并实时值
+            TopologyLayoutCache.Layout layout = layoutCache.getLayout();
+            synchronized (refreshLock) {
+                if (leader && !wasLeader) {
+                    // 刚接任主节点（或刚启动）：本地状态可能已落后，全部 PACK 重新刷新并发送 full 帧
+                    layoutVersion = -1L;
+                }
+                wasLeader = leader;
+                if (layout.getVersion() != layoutVersion) {
+                    // 从节点在布局版本变化后只接受 full 帧，下一帧必须是 full
+                    framesSinceFull = Integer.MAX_VALUE - 1;
+                    packStates = rebuildPackStates(layout);
+                    layoutVersion = layout.getVersion();
+                    allCells = null;
+                }
+                if (cluster.isEnabled()) {
+                    watched.addAll(cluster.remoteDemand(now, demandWindowMs));
+                }
+                List<PackState> due = duePacks(watched, now);
+                if (due.isEmpty() && allCells != null) {
+                    // 无到期 PACK 时仍发一个不带快照的帧作为心跳，从节点据此判断主节点存活
+                    if (cluster.isEnabled()) {
+                        cluster.publish(clusterFrame(Collections.emptyList(), Collections.emptySet(), now, null));
+                    }
+                    return;
+                }
+
+                // 定时刷新走独立的 REFRESH 通道，不与用户请求争抢；Influx 不可用时拿到的是上次成功值
+                BatteryDataService.LatestVtcSnapshot latest = fetchLatest(due);
+                boolean stale = latest.isStale();
+                if (stale && latest.getValues().isEmpty() && !published.get().isEmpty()) {
+                    // 没有任何可用的新值：保留上一份单体数据，仅标记过期
+                    for (PackState ps : due) {
+                        ps.stale = true;
+                        ps.refreshedAtMs = now;
+                    }
+                } else {
+                    applyLatest(due, latest.getValues(), stale, now);
+                }
+                Set<String> changed = publish(due, now);
+                tick = new StreamTick(streamEpoch, ++streamSeq);
+                if (cluster.isEnabled()) {
+                    cluster.publish(clusterFrame(due, changed, now, tick));
+                }
+            }
         } catch (Exception ignored) {
-            stale = true;
+            tick = null;
+            republishStale();
+        }
+        broadcast(tick);
+    }
+
+    /** 本实例有 SSE 订阅或 demand-window-ms 内有 REST 读取的视图 */
+    private Set<String> localWatchedViews(long now) {
+        Set<String> watched = new HashSet<>();
+        for (TopologyStreamDispatcher.Subscriber sub : dispatcher.getSubscribers()) {
+            watched.add(sub.getView());
+        }
+        restReads.entrySet().removeIf(e -> now - e.getValue() > demandWindowMs);
+        watched.addAll(restReads.keySet());
+        return watched;
+    }
+
+    private List<PackState> duePacks(Set<String> watched, long now) {
+        boolean all = watched.contains(VIEW_ALL);
+
+        List<PackState> due = new ArrayList<>();
+        for (PackState ps : packStates) {
+            if (ps.refreshedAtMs == 0L
+                    || all
+                    || watched.contains(ps.packId)
+                    || (slowIntervalMs > 0 && now - ps.refreshedAtMs >= slowIntervalMs)) {
+                due.add(ps);
+            }
+        }
+        return due;
+    }
+
+    /** 全部 PACK 到期时走全量（共享短时缓存），否则只查到期 PACK 的单体 */
+    private BatteryDataService.LatestVtcSnapshot fetchLatest(List<PackState> due) {
+        if (due.isEmpty()) {
+            return new BatteryDataService.LatestVtcSnapshot(Collections.emptyMap(), false);
+        }
+        if (due.size() == packStates.size()) {
+            return batteryDataService.getLatestVtcSnapshot(InfluxLane.REFRESH);
+        }
+        Set<String> cellIds = new HashSet<>();
+        for (PackState ps : due) {
+            for (CellState st : ps.cells) cellIds.add(st.slot.getLookupKey());
+        }
+        if (cellIds.isEmpty()) {
+            return new BatteryDataService.LatestVtcSnapshot(Collections.emptyMap(), false);
+        }
+        return batteryDataService.getLatestVtcSnapshotForCellIds(cellIds, InfluxLane.REFRESH);
+    }
+
+    /**
+     * 把最新值合并进到期 PACK 的单体数组：只有采样时间变化的单体才平滑；PACK 内有新采样或规则变化时
+     * 在数组上整包评估（编译后的型号规则），只有值或评估结果变化的单体才生成新对象，
+     * 只有含变化单体的 PACK 才重建列表和摘要，未变化的 PACK 复用上一帧的列表。
+     */
+    private void applyLatest(List<PackState> due,
+                             Map<String, BatteryDataService.LatestVtc> rawByCell,
+                             boolean stale,
+                             long now) {
+        AlarmRuleRegistry.RuleSet ruleSet = alarmRuleRegistry.current();
+        for (PackState ps : due) {
+            boolean rulesChanged = ps.bindRules(ruleSet);
+            boolean anySampled = false;
+            for (int i = 0; i < ps.cells.length; i++) {
+                if (updateValues(ps, i, rawByCell.get(ps.cells[i].slot.getLookupKey()))) {
+                    ps.sampled[i] = true;
+                    anySampled = true;
+                }
+            }
+            if (anySampled || rulesChanged) {
+                evaluate(ps, anySampled);
+            }
+            ps.stale = stale;
+            ps.refreshedAtMs = now;
+        }
+    }
+
+    private void evaluate(PackState ps, boolean valuesChanged) {
+        int n = ps.cells.length;
+        System.arraycopy(ps.reasons, 0, ps.prevReasons, 0, n);
+        System.arraycopy(ps.score, 0, ps.prevScore, 0, n);
+        System.arraycopy(ps.status, 0, ps.prevStatus, 0, n);
+        for (int k = 0; k < ps.runEvaluators.length; k++) {
+            int to = k + 1 < ps.runStart.length ? ps.runStart[k + 1] : n;
+            ps.runEvaluators[k].evaluate(ps.voltage, ps.temperature, ps.reasons, ps.score, ps.status, ps.runStart[k], to);
+        }
+        System.arraycopy(ps.voltageZ, 0, ps.prevVoltageZ, 0, n);
+        System.arraycopy(ps.temperatureZ, 0, ps.prevTemperatureZ, 0, n);
+        System.arraycopy(ps.outliers, 0, ps.prevOutliers, 0, n);
+        if (valuesChanged) {
+            updateOutliers(ps);
+        }
+        for (int i = 0; i < n; i++) {
+            CellState st = ps.cells[i];
+            boolean fresh = st.cell == null;
+            if (fresh || ps.sampled[i]
+                    || ps.reasons[i] != ps.prevReasons[i]
+                    || ps.score[i] != ps.prevScore[i]
+                    || ps.status[i] != ps.prevStatus[i]
+                    || ps.outliers[i] != ps.prevOutliers[i]
+                    || Double.compare(ps.voltageZ[i], ps.prevVoltageZ[i]) != 0
+                    || Double.compare(ps.temperatureZ[i], ps.prevTemperatureZ[i]) != 0) {
+                ps.transition(fresh ? -1 : ps.prevStatus[i], ps.status[i]);
+                st.cell = cellOf(ps, i);
+                ps.dirty = true;
+            }
+            ps.sampled[i] = false;
+        }
+    }
+
+    /**
+     * 只为本 tick 刷新过的 PACK 重建快照并序列化；ALL 在有 PACK 刷新时重建一次，其余视图沿用已发布的字节。
+     * @return 单体列表有变化的 PACK
+     */
+    private Set<String> publish(List<PackState> due, long now) {
+        boolean cellsChanged = allCells == null;
+        Set<String> changed = new HashSet<>();
+        for (PackState ps : due) {
+            boolean record = ps.dirty || !ps.recorded || ps.recordedStale != ps.stale;
+            if (ps.dirty) {
+                List<TopologyCellDto> cells = new ArrayList<>(ps.cells.length);
+                for (CellState st : ps.cells) cells.add(st.cell);
+                ps.publishedCells = Collections.unmodifiableList(cells);
+                ps.voltageStats.refresh(ps.voltage, ps.cells.length);
+                ps.temperatureStats.refresh(ps.temperature, ps.cells.length);
+                ps.summary = summaryOf(ps.cells.length, ps.normal, ps.warn, ps.alarm);
+                ps.summary.setVoltageStats(statsOf(ps.voltageStats, ps.voltageOutliers));
+                ps.summary.setTemperatureStats(statsOf(ps.temperatureStats, ps.temperatureOutliers));
+                ps.dirty = false;
+                cellsChanged = true;
+                changed.add(ps.packId);
+            }
+            ps.snapshot = snapshotOf(ps.packId, ps.refreshedAtMs, ps.stale, ps.publishedCells, ps.summary);
+            ps.json = codec.encode(ps.snapshot, TopologyWireCodec.Format.JSON);
+            if (record) {
+                // 只有单体重算或过期标记变化时写历史，未变化的 tick 回看时沿用上一帧
+                historyStore.record(ps.packId, layoutVersion, ps.refreshedAtMs, ps.stale, ps.publishedCells);
+                ps.recorded = true;
+                ps.recordedStale = ps.stale;
+            }
+        }
+        boolean anyStale = false;
+        int normal = 0, warn = 0, alarm = 0;
+        for (PackState ps : packStates) {
+            anyStale |= ps.stale;
+            normal += ps.normal;
+            warn += ps.warn;
+            alarm += ps.alarm;
+        }
+        if (cellsChanged) {
+            List<TopologyCellDto> cells = new ArrayList<>();
+            for (PackState ps : packStates) cells.addAll(ps.publishedCells);
+            allCells = Collections.unmodifiableList(cells);
+            allSummary = summaryOf(cells.size(), normal, warn, alarm);
+            // ALL 的统计由各 PACK 的统计合并得到，与单体总数无关
+            RunningStats voltage = new RunningStats();
+            RunningStats temperature = new RunningStats();
+            int voltageOutliers = 0, temperatureOutliers = 0;
+            for (PackState ps : packStates) {
+                voltage.merge(ps.voltageStats);
+                temperature.merge(ps.temperatureStats);
+                voltageOutliers += ps.voltageOutliers;
+                temperatureOutliers += ps.temperatureOutliers;
+            }
+            allSummary.setVoltageStats(statsOf(voltage, voltageOutliers));
+            allSummary.setTemperatureStats(statsOf(temperature, temperatureOutliers));
+        }
+
+        Map<String, TopologySnapshotDto> snapshots = new LinkedHashMap<>();
+        Map<String, byte[]> json = new HashMap<>(packStates.size() * 2 + 2);
+        for (PackState ps : packStates) {
+            if (ps.snapshot == null) continue;
+            snapshots.put(ps.packId, ps.snapshot);
+            if (ps.json != null) json.put(ps.packId, ps.json);
+        }
+        TopologySnapshotDto all = snapshotOf(VIEW_ALL, now, anyStale, allCells, allSummary);
+        snapshots.put(VIEW_ALL, all);
+        byte[] allJson = codec.encode(all, TopologyWireCodec.Format.JSON);
+        if (allJson != null) json.put(VIEW_ALL, allJson);
+        published.set(new PublishedViews(Collections.unmodifiableMap(snapshots), Collections.unmodifiableMap(json)));
+        return changed;
+    }
+
+    /**
+     * 主节点本 tick 的集群帧：到期 PACK 的快照，单体未变化的只带摘要（cells 为 null）；
+     * 每 full-frame-interval 帧（以及接任主节点、布局变化后的首帧）带全部 PACK 的完整单体。
+     */
+    private TopologyClusterFrameDto clusterFrame(List<PackState> due, Set<String> changed, long now, StreamTick tick) {
+        boolean full = ++framesSinceFull >= Math.max(1, fullFrameInterval);
+        if (full) framesSinceFull = 0;
+        TopologyClusterFrameDto frame = new TopologyClusterFrameDto();
+        if (tick != null) {
+            frame.setStreamEpoch(tick.epoch);
+            frame.setStreamSeq(tick.seq);
+        }
+        frame.setLayoutVersion(layoutVersion);
+        frame.setTs(now);
+        frame.setFull(full);
+        for (PackState ps : packStates) {
+            frame.getPackIds().add(ps.packId);
+        }
+        for (PackState ps : full ? packStates : due) {
+            if (ps.snapshot == null) continue;
+            TopologySnapshotDto snap = ps.snapshot;
+            if (!full && !changed.contains(ps.packId)) {
+                snap = copyOf(snap);
+                snap.setCells(null);
+            }
+            frame.getPacks().add(snap);
+        }
+        TopologySnapshotDto all = published.get().snapshots.get(VIEW_ALL);
+        frame.setAllStale(all == null || all.isStale());
+        frame.setAllSummary(allSummary);
+        return frame;
+    }
+
+    /**
+     * 从节点 tick：登记本地关注的视图供主节点决定刷新节奏；超过一个租约周期没有收到帧（主节点失联、尚未选出新主）
+     * 时把已发布数据标记为过期并推送一次。
+     */
+    private void followerTick(Set<String> watched, long now) {
+        cluster.reportDemand(watched, now);
+        boolean markStale;
+        synchronized (refreshLock) {
+            wasLeader = false;
+            markStale = !remoteStaleMarked && lastFrameMs > 0 && now - lastFrameMs > cluster.getLeaseMs();
+            if (markStale) remoteStaleMarked = true;
+        }
+        if (markStale) {
+            republishStale();
+            // 本地帧：不占用主节点的序号，视图流改用本节点 epoch
+            broadcast(null);
+        }
+    }
+
+    /**
+     * 从节点收到主节点的帧：合并进本地已发布视图并推送给本地订阅者，不查询 Influx 与台账。
+     * 布局或主节点变化后只接受 full 帧；cells 为 null 的 PACK 沿用上一帧的单体列表。
+     */
+    public void onClusterFrame(TopologyClusterFrameDto frame) {
+        StreamTick tick = null;
+        synchronized (refreshLock) {
+            boolean sameSource = Objects.equals(frame.getNode(), remoteNode) && frame.getLayoutVersion() == remoteLayoutVersion;
+            if (!sameSource && !frame.isFull()) return;
+            if (sameSource && frame.getPacks().isEmpty() && !remoteStaleMarked) {
+                lastFrameMs = Instant.now().toEpochMilli();
+                return;
+            }
+            Map<String, TopologySnapshotDto> received = new HashMap<>();
+            for (TopologySnapshotDto snap : frame.getPacks()) {
+                received.put(snap.getPackId(), snap);
+            }
+            Map<String, TopologySnapshotDto> previous = sameSource ? remotePacks : Collections.emptyMap();
+            PublishedViews prevViews = published.get();
+            Map<String, TopologySnapshotDto> packs = new LinkedHashMap<>();
+            Map<String, byte[]> json = new HashMap<>(frame.getPackIds().size() * 2 + 2);
+            boolean cellsChanged = remoteAllCells == null || !sameSource || previous.size() != frame.getPackIds().size();
+            for (String packId : frame.getPackIds()) {
+                TopologySnapshotDto prev = previous.get(packId);
+                TopologySnapshotDto snap = received.get(packId);
+                if (snap == null) {
+                    // 本 tick 主节点没有刷新该 PACK：沿用已发布的快照与字节
+                    if (prev == null) continue;
+                    packs.put(packId, prev);
+                    // 失联期间已发布的是过期副本，恢复后按原快照重新编码
+                    byte[] bytes = remoteStaleMarked ? null : prevViews.json.get(packId);
+                    if (bytes == null) bytes = codec.encode(prev, TopologyWireCodec.Format.JSON);
+                    if (bytes != null) json.put(packId, bytes);
+                    continue;
+                }
+                boolean cellsReceived = snap.getCells() != null;
+                if (!cellsReceived) {
+                    if (prev == null) continue;
+                    snap.setCells(prev.getCells());
+                } else {
+                    snap.setCells(Collections.unmodifiableList(snap.getCells()));
+                    cellsChanged = true;
+                }
+                packs.put(packId, snap);
+                byte[] bytes = codec.encode(snap, TopologyWireCodec.Format.JSON);
+                if (bytes != null) json.put(packId, bytes);
+                if (cellsReceived || prev == null || prev.isStale() != snap.isStale()) {
+                    historyStore.record(packId, frame.getLayoutVersion(), snap.getTs(), snap.isStale(), snap.getCells());
+                }
+            }
+            if (!sameSource) {
+                historyStore.retain(new HashSet<>(frame.getPackIds()));
+            }
+            if (cellsChanged) {
+                List<TopologyCellDto> cells = new ArrayList<>();
+                for (TopologySnapshotDto snap : packs.values()) cells.addAll(snap.getCells());
+                remoteAllCells = Collections.unmodifiableList(cells);
+            }
+            remoteNode = frame.getNode();
+            remoteLayoutVersion = frame.getLayoutVersion();
+            remotePacks = packs;
+            lastFrameMs = Instant.now().toEpochMilli();
+            remoteStaleMarked = false;
+            if (frame.getStreamEpoch() != null && frame.getStreamSeq() > 0) {
+                // 沿用主节点分配的序号：本节点视图流的事件 id 与主节点及其他从节点一致，接任主节点后在此基础上继续编号
+                streamEpoch = frame.getStreamEpoch();
+                streamSeq = frame.getStreamSeq();
+                tick = new StreamTick(streamEpoch, streamSeq);
+            }
+
+            Map<String, TopologySnapshotDto> snapshots = new LinkedHashMap<>(packs);
+            TopologySnapshotDto all = snapshotOf(VIEW_ALL, frame.getTs(), frame.isAllStale(), remoteAllCells, frame.getAllSummary());
+            snapshots.put(VIEW_ALL, all);
+            byte[] allJson = codec.encode(all, TopologyWireCodec.Format.JSON);
+            if (allJson != null) json.put(VIEW_ALL, allJson);
+            published.set(new PublishedViews(Collections.unmodifiableMap(snapshots), Collections.unmodifiableMap(json)));
+        }
+        broadcast(tick);
+    }
+
+    /** 台账变更后按新布局重建槽位；位置未变的单体沿用已算好的值，不重复计入 EMA */
+    private List<PackState> rebuildPackStates(TopologyLayoutCache.Layout layout) {
+        Map<String, PackState> previousPack = new HashMap<>();
+        Map<String, Integer> previousIndex = new HashMap<>();
+        for (PackState ps : packStates) {
+            for (int i = 0; i < ps.cells.length; i++) {
+                previousPack.put(ps.cells[i].slot.getCellId(), ps);
+                previousIndex.put(ps.cells[i].slot.getCellId(), i);
+            }
+        }
+        List<PackState> rebuilt = new ArrayList<>(layout.getByPack().size());
+        for (Map.Entry<String, List<TopologyLayoutCache.CellSlot>> e : layout.getByPack().entrySet()) {
+            PackState ps = new PackState(e.getKey(), e.getValue());
+            for (int i = 0; i < ps.cells.length; i++) {
+                CellState st = ps.cells[i];
+                PackState oldPack = previousPack.get(st.slot.getCellId());
+                if (oldPack == null) continue;
+                int j = previousIndex.get(st.slot.getCellId());
+                CellState old = oldPack.cells[j];
+                if (old.cell != null && sameSlot(old.slot, st.slot)) {
+                    st.sampleMs = old.sampleMs;
+                    st.cell = old.cell;
+                    ps.voltage[i] = oldPack.voltage[j];
+                    ps.temperature[i] = oldPack.temperature[j];
+                    ps.current[i] = oldPack.current[j];
+                    ps.reasons[i] = oldPack.reasons[j];
+                    ps.score[i] = oldPack.score[j];
+                    ps.status[i] = oldPack.status[j];
+                    ps.voltageZ[i] = oldPack.voltageZ[j];
+                    ps.temperatureZ[i] = oldPack.temperatureZ[j];
+                    ps.outliers[i] = oldPack.outliers[j];
+                    ps.voltageStats.add(ps.voltage[i]);
+                    ps.temperatureStats.add(ps.temperature[i]);
+                    ps.transition(-1, ps.status[i]);
+                }
+            }
+            rebuilt.add(ps);
+        }
+        historyStore.retain(layout.getByPack().keySet());
+        return rebuilt;
+    }
+
+    private static boolean sameSlot(TopologyLayoutCache.CellSlot a, TopologyLayoutCache.CellSlot b) {
+        return a.getPackId().equals(b.getPackId())
+                && a.getRow() == b.getRow()
+                && a.getCol() == b.getCol()
+                && a.getModuleIndex() == b.getModuleIndex();
+    }
+
+    /**
+     * 包内鲁棒 z 与离群标记：中位数 / MAD 由快速选择得到（O(n)），只在有新采样时计算；
+     * z 保留一位小数，基准的细微移动不会让整包单体对象都重建。
+     */
+    private void updateOutliers(PackState ps) {
+        int n = ps.cells.length;
+        RobustZScore.compute(ps.voltage, n, ps.scratch, ps.zBuffer);
+        int vOut = 0;
+        for (int i = 0; i < n; i++) {
+            double z = ps.zBuffer[i];
+            ps.voltageZ[i] = round1(z);
+            boolean outlier = !Double.isNaN(z) && Math.abs(z) >= outlierZ;
+            ps.outliers[i] = outlier ? AlarmRuleEvaluator.VOLTAGE_OUTLIER : 0;
+            if (outlier) vOut++;
+        }
+        RobustZScore.compute(ps.temperature, n, ps.scratch, ps.zBuffer);
+        int tOut = 0;
+        for (int i = 0; i < n; i++) {
+            double z = ps.zBuffer[i];
+            ps.temperatureZ[i] = round1(z);
+            if (!Double.isNaN(z) && Math.abs(z) >= outlierZ) {
+                ps.outliers[i] |= AlarmRuleEvaluator.TEMPERATURE_OUTLIER;
+                tOut++;
+            }
+        }
+        ps.voltageOutliers = vOut;
+        ps.temperatureOutliers = tOut;
+    }
+
+    private static double round1(double z) {
+        return Double.isNaN(z) ? Double.NaN : Math.round(z * 10.0) / 10.0;
+    }
+
+    /** @return 该单体是否有新值（采样时间变化、新出现或数据消失），有则平滑后写入数组 */
+    private boolean updateValues(PackState ps, int i, BatteryDataService.LatestVtc raw) {
+        CellState st = ps.cells[i];
+        long sampleMs = raw == null ? NO_SAMPLE
+                : raw.getTime() == null ? UNKNOWN_SAMPLE_TIME : raw.getTime().toEpochMilli();
+        if (st.cell != null && sampleMs == st.sampleMs && sampleMs != UNKNOWN_SAMPLE_TIME) {
+            return false;
         }
-        broadcast(stale);
+        st.sampleMs = sampleMs;
+        double v = Double.NaN;
+        double t = Double.NaN;
+        double c = Double.NaN;
+        if (raw != null) {
+            BatteryDataService.LatestVtc vtc = signalFilterService.smoothVtcReading(st.slot.getLookupKey(), raw);
+            v = vtc.getVoltage();
+            t = vtc.getTemperature();
+            c = vtc.getCurrent();
+        }
+        ps.voltageStats.replace(ps.voltage[i], v);
+        ps.temperatureStats.replace(ps.temperature[i], t);
+        ps.voltage[i] = v;
+        ps.temperature[i] = t;
+        ps.current[i] = c;
+        return true;
+    }
+
+    /** 由数组生成已发布的单体对象（发布后只读） */
+    private static TopologyCellDto cellOf(PackState ps, int i) {
+        TopologyLayoutCache.CellSlot slot = ps.cells[i].slot;
+        TopologyCellDto c = new TopologyCellDto();
+        c.setPackId(slot.getPackId());
+        c.setCellId(slot.getCellId());
+        c.setRow(slot.getRow());
+        c.setCol(slot.getCol());
+        c.setModuleIndex(slot.getModuleIndex());
+        c.setVoltage(boxed(ps.voltage[i]));
+        c.setTemperature(boxed(ps.temperature[i]));
+        c.setCurrent(boxed(ps.current[i]));
+        c.setScore(ps.score[i]);
+        c.setStatus(AlarmRuleEvaluator.statusName(ps.status[i]));
+        c.setVoltageZ(boxed(ps.voltageZ[i]));
+        c.setTemperatureZ(boxed(ps.temperatureZ[i]));
+        int mask = ps.reasons[i] | ps.outliers[i];
+        for (int b = 0; mask != 0 && b < AlarmRuleEvaluator.REASON_NAMES.size(); b++) {
+            if ((mask & (1 << b)) != 0) c.getReasons().add(AlarmRuleEvaluator.REASON_NAMES.get(b));
+        }
+        return c;
+    }
+
+    private static Double boxed(double v) {
+        return Double.isNaN(v) ? null : v;
+    }
+
+    private static TopologySummaryDto summaryOf(int total, int normal, int warn, int alarm) {
+        TopologySummaryDto summary = new TopologySummaryDto();
+        summary.setTotal(total);
+        summary.setNormal(normal);
+        summary.setWarn(warn);
+        summary.setAlarm(alarm);
+        return summary;
+    }
+
+    static TopologyStatsDto statsOf(RunningStats stats, int outliers) {
+        TopologyStatsDto dto = new TopologyStatsDto();
+        dto.setCount((int) stats.getCount());
+        dto.setOutliers(outliers);
+        if (stats.getCount() == 0) return dto;
+        dto.setMean(stats.getMean());
+        dto.setStd(stats.getStd());
+        dto.setMin(stats.getMin());
+        dto.setMax(stats.getMax());
+        dto.setSpread(stats.getMax() - stats.getMin());
+        return dto;
+    }
+
+    private static TopologySnapshotDto snapshotOf(String packId, long ts, boolean stale,
+                                                  List<TopologyCellDto> cells, TopologySummaryDto summary) {
+        TopologySnapshotDto snap = new TopologySnapshotDto();
+        snap.setPackId(packId);
+        snap.setTs(ts);
+        snap.setStale(stale);
+        snap.setCells(cells);
+        snap.setSummary(summary);
+        return snap;
+    }
+
+    /** 每个视图只序列化一次；快照对象与单体列表发布后只读 */
+    private void publish(Map<String, TopologySnapshotDto> snapshots) {
+        Map<String, byte[]> json = new HashMap<>(snapshots.size() * 2);
+        for (Map.Entry<String, TopologySnapshotDto> e : snapshots.entrySet()) {
+            byte[] bytes = codec.encode(e.getValue(), TopologyWireCodec.Format.JSON);
+            if (bytes != null) json.put(e.getKey(), bytes);
+        }
+        published.set(new PublishedViews(Collections.unmodifiableMap(snapshots), Collections.unmodifiableMap(json)));
+    }
+
+    /** 刷新失败：沿用上一份数据重新发布为过期（不修改已发布对象） */
+    private void republishStale() {
+        PublishedViews prev = published.get();
+        if (prev.isEmpty()) return;
+        Map<String, TopologySnapshotDto> snapshots = new LinkedHashMap<>();
+        for (Map.Entry<String, TopologySnapshotDto> e : prev.snapshots.entrySet()) {
+            TopologySnapshotDto copy = copyOf(e.getValue());
+            copy.setStale(true);
+            snapshots.put(e.getKey(), copy);
+        }
+        publish(snapshots);
     }
 
     public TopologySnapshotDto getSnapshot(String packId) {
-        Map<String, TopologySnapshotDto> all = latestByPack.get();
-        if (all.isEmpty()) return emptySnapshot(packId, true);
-        if (packId != null && !packId.trim().isEmpty()) {
-            TopologySnapshotDto one = all.get(packId);
-            return one != null ? one : emptySnapshot(packId, true);
+        PublishedViews views = published.get();
+        if (views.isEmpty()) return emptySnapshot(packId, true);
+        TopologySnapshotDto one = views.snapshots.get(viewOf(packId));
+        return one != null ? one : emptySnapshot(packId, true);
+    }
+
+    public byte[] getSnapshotJson(String packId) {
+        return getSnapshotBytes(packId, TopologyWireCodec.Format.JSON);
+    }
+
+    /**
+     * REST 读取：与 getSnapshot 相同内容的预编码字节，已发布视图直接返回共享字节，调用方不得修改。
+     * 同时登记关注，该视图在 demand-window-ms 内按快速节奏刷新（ts 为该 PACK 最近一次刷新时间）。
+     */
+    public byte[] getSnapshotBytes(String packId, TopologyWireCodec.Format format) {
+        String view = viewOf(packId);
+        restReads.put(view, Instant.now().toEpochMilli());
+        return viewBytes(view, format);
+    }
+
+    private byte[] viewBytes(String view, TopologyWireCodec.Format format) {
+        PublishedViews views = published.get();
+        if (format == TopologyWireCodec.Format.JSON) {
+            byte[] bytes = views.json.get(view);
+            if (bytes != null) return bytes;
         }
-        return mergeAllPacks(all);
+        return views.encoded.computeIfAbsent(view + ':' + format, k -> {
+            TopologySnapshotDto snap = views.snapshots.get(view);
+            return codec.encode(snap != null ? snap : emptySnapshot(view, true), format);
+        });
     }
 
-    public SseEmitter subscribe(String packId) {
+    /**
+     * 回看：packId（空为 ALL）在 at 时刻的拓扑，完全由内存中的历史环形缓冲还原，不查询 Influx。
+     */
+    public byte[] getHistoryBytes(String packId, long at, TopologyWireCodec.Format format) {
+        TopologySnapshotDto snap = historyStore.rewind(packId, at);
+        if (snap == null) {
+            throw new BusinessException("该时刻超出拓扑历史缓冲范围，at = " + at);
+        }
+        return codec.encode(snap, format);
+    }
+
+    private static String viewOf(String packId) {
+        return (packId == null || packId.trim().isEmpty()) ? VIEW_ALL : packId.trim();
+    }
+
+    /**
+     * 订阅拓扑推送。delta 模式先发一个关键帧（事件名 snapshot，带 seq），之后每秒一个增量帧（事件名 delta），
+     * 每 keyframe-interval 帧插入一个关键帧；full 模式每秒发送完整快照（旧行为）。
+     * SSE 是文本协议，请求 cbor 时按 columnar 发送。
+     * from 不为空时先按时间顺序补发历史缓冲中自 from 起的各帧（事件名 history），再接实时推送。
+     * delta 模式的关键帧与增量帧带 SSE 事件 id（epoch.seq）；重连时带上 Last-Event-ID 且仍在事件日志范围内，
+     * 只补发错过的增量（关键帧以新旧基线差异代替），否则照常从关键帧开始。
+     * 集群模式下 id 由主节点统一分配，在任一实例上（该实例有此视图的视图流时）都可续传。
+     */
+    public SseEmitter subscribe(String packId, String mode, TopologyWireCodec.Format format) {
+        return subscribe(packId, mode, format, null);
+    }
+
+    public SseEmitter subscribe(String packId, String mode, TopologyWireCodec.Format format, Long from) {
+        return subscribe(packId, mode, format, from, null);
+    }
+
+    public SseEmitter subscribe(String packId, String mode, TopologyWireCodec.Format format, Long from, String lastEventId) {
         SseEmitter emitter = new SseEmitter(0L);
-        emitters.add(emitter);
-        String normalizedPack = (packId == null || packId.trim().isEmpty()) ? "ALL" : packId.trim();
-        emitterPackFilter.put(emitter, normalizedPack);
-        emitter.onCompletion(() -> cleanupEmitter(emitter));
-        emitter.onTimeout(() -> cleanupEmitter(emitter));
-        emitter.onError((ex) -> cleanupEmitter(emitter));
-        try {
-            emitter.send(SseEmitter.event().name("snapshot").data(getSnapshot("ALL".equals(normalizedPack) ? null : normalizedPack)));
-        } catch (Exception ignored) {
-            cleanupEmitter(emitter);
+        String view = viewOf(packId);
+        String normalizedMode = MODE_FULL.equalsIgnoreCase(mode == null ? "" : mode.trim()) ? MODE_FULL : MODE_DELTA;
+        TopologyWireCodec.Format sseFormat = format == null ? TopologyWireCodec.Format.JSON
+                : format.isBinary() ? TopologyWireCodec.Format.COLUMNAR : format;
+        boolean resuming = MODE_DELTA.equals(normalizedMode) && lastEventId != null && !lastEventId.trim().isEmpty();
+        // 续传的客户端已回放过历史，不再重复补发
+        Iterator<byte[]> history = from != null && !resuming ? historyFrames(view, from, sseFormat) : null;
+        if (MODE_FULL.equals(normalizedMode)) {
+            TopologyStreamDispatcher.Subscriber sub = dispatcher.register(emitter, view, normalizedMode, sseFormat, "history", history);
+            dispatcher.offer(sub, "snapshot", viewBytes(view, sseFormat), null);
+        } else {
+            ViewStream vs = viewStreams.computeIfAbsent(view, k -> new ViewStream());
+            synchronized (vs) {
+                vs.lastWatchedMs = Instant.now().toEpochMilli();
+                // 在视图锁内登记并入队当前基线，保证客户端收到的第一个增量正好是 seq + 1
+                if (vs.baseline == null) {
+                    // 新视图流从当前时钟序号起编号，下一 tick 的增量与时钟连续，到关键帧位置即可对齐
+                    vs.seq = streamSeq;
+                    startKeyframe(vs, getSnapshot(view));
+                }
+                List<LoggedFrame> missed = resuming ? missedFrames(vs, lastEventId.trim()) : null;
+                if (missed != null) {
+                    if (!resume(emitter, view, vs, missed, sseFormat)) return emitter;
+                    dispatcher.register(emitter, view, normalizedMode, sseFormat);
+                } else {
+                    TopologyStreamDispatcher.Subscriber sub = dispatcher.register(emitter, view, normalizedMode, sseFormat, "history", history);
+                    dispatcher.offer(sub, "snapshot", vs.idOf(vs.seq), codec.encode(baselineSnapshot(view, vs), sseFormat), null);
+                }
+            }
         }
         return emitter;
     }
 
-    private List<TopologyCellDto> buildCells(String packId,
-                                             List<Battery> batteries,
-                                             Map<String, BatteryDataService.LatestVtc> vtcByCell) {
-        List<TopologyCellDto> cells = new ArrayList<>();
-        for (Battery b : batteries) {
-            String code = b.getBatteryCode();
-            String key = code == null ? "" : code.toLowerCase();
-            BatteryDataService.LatestVtc vtc = vtcByCell.get(key);
-            TopologyCellDto c = new TopologyCellDto();
-            c.setPackId(packId);
-            c.setCellId(code);
-            int idx = extractCellIndex(code);
-            c.setRow(idx >= 0 ? idx / GRID_COLS : 0);
-            c.setCol(idx >= 0 ? idx % GRID_COLS : 0);
-            c.setModuleIndex(idx >= 0 ? idx / 16 : 0);
-            if (vtc != null) {
-                c.setVoltage(vtc.getVoltage());
-                c.setTemperature(vtc.getTemperature());
-                c.setCurrent(vtc.getCurrent());
-            }
-            scoreAndStatus(c);
-            cells.add(c);
-        }
-        cells.sort((a, b) -> {
-            int r = Integer.compare(a.getRow(), b.getRow());
-            return r != 0 ? r : Integer.compare(a.getCol(), b.getCol());
-        });
-        return cells;
+    /**
+     * 历史补发帧：请求线程只取时间点（ALL 视图按 replay-max-frames-all 收紧），
+     * 各帧由发送线程逐帧 rewind + 编码，经订阅者的出站队列发出并排在实时帧之前。
+     */
+    private Iterator<byte[]> historyFrames(String view, long from, TopologyWireCodec.Format format) {
+        Iterator<Long> times = historyStore.replayTimes(view, from).iterator();
+        return new Iterator<byte[]>() {
+            @Override
+            public boolean hasNext() {
+                return times.hasNext();
+            }
+
+            @Override
+            public byte[] next() {
+                TopologySnapshotDto frame = historyStore.rewind(view, times.next());
+                return frame == null ? null : codec.encode(frame, format);
+            }
+        };
     }
 
-    private void scoreAndStatus(TopologyCellDto c) {
-        int score = 100;
-        List<String> reasons = c.getReasons();
-        Double v = c.getVoltage();
-        Double t = c.getTemperature();
+    /**
+     * Last-Event-ID 之后错过的帧（按 seq 升序）；已是最新时为空列表。
+     * 日志中找不到以该 id 为前驱的帧（id 来自其他 epoch、早于事件日志或本节点尚未对齐的时段），
+     * 或补发量不小于一个关键帧时返回 null，改为发送关键帧。id 由时钟分配，其他节点发出的 id 同样可续传。
+     */
+    private static List<LoggedFrame> missedFrames(ViewStream vs, String lastEventId) {
+        if (lastEventId.equals(vs.idOf(vs.seq))) return Collections.emptyList();
+        List<LoggedFrame> missed = null;
+        int cells = 0;
+        for (LoggedFrame f : vs.log) {
+            if (missed == null) {
+                if (!f.prevId.equals(lastEventId)) continue;
+                missed = new ArrayList<>();
+            }
+            missed.add(f);
+            cells += f.size();
+        }
+        return missed == null || cells >= vs.baseline.size() ? null : missed;
+    }
 
-        if (v != null) {
-            if (v >= 4.2 || v <= 3.0) {
-                score -= 40;
-                reasons.add("voltage_out_of_range");
-            } else if (v >= 4.15 || v <= 3.1) {
-                score -= 20;
-                reasons.add("voltage_near_limit");
+    /** 登记前直接写入 emitter，实时帧一定排在补发帧之后；补发量已受事件日志长度约束，编码结果在日志中共享 */
+    private boolean resume(SseEmitter emitter, String view, ViewStream vs, List<LoggedFrame> missed,
+                           TopologyWireCodec.Format format) {
+        try {
+            for (LoggedFrame f : missed) {
+                byte[] bytes = f.payloads.computeIfAbsent(format, k -> codec.encode(f.delta, k));
+                if (bytes == null) continue;
+                emitter.send(SseEmitter.event().name("delta").id(f.id).data(bytes, MediaType.APPLICATION_JSON));
             }
-        } else {
-            score -= 10;
-            reasons.add("voltage_missing");
+            return true;
+        } catch (Exception e) {
+            log.debug("拓扑续传失败 view={} epoch={}: {}", view, vs.epoch, e.getMessage());
+            emitter.completeWithError(e);
+            return false;
         }
+    }
 
-        if (t != null) {
-            if (t >= 45) {
-                score -= 40;
-                reasons.add("temperature_high");
-            } else if (t >= 35) {
-                score -= 20;
-                reasons.add("temperature_warn");
+    /**
+     * 只负责入队，实际发送在 TopologyStreamDispatcher 的发送线程池中进行，慢客户端不会拖慢刷新。
+     * 最后一个订阅者断开后，视图流在 resume-window-ms 内继续推进基线与事件日志，期间重连的客户端仍可续传。
+     *
+     * @param tick 本次推送对应的视图流时钟；为空表示本地帧（过期标记等），不与其他节点对齐
+     */
+    private void broadcast(StreamTick tick) {
+        List<TopologyStreamDispatcher.Subscriber> subscribers = dispatcher.getSubscribers();
+        if (subscribers.isEmpty() && viewStreams.isEmpty()) {
+            return;
+        }
+        long now = Instant.now().toEpochMilli();
+        Set<String> deltaViews = new HashSet<>();
+        for (TopologyStreamDispatcher.Subscriber sub : subscribers) {
+            String view = sub.getView();
+            if (MODE_DELTA.equals(sub.getMode())) {
+                deltaViews.add(view);
+                continue;
+            }
+            // 每个视图每种格式只编码一次（缓存在本次发布的 PublishedViews 中）
+            dispatcher.offer(sub, "snapshot", viewBytes(view, sub.getFormat()), null);
+        }
+        for (String view : deltaViews) {
+            viewStreams.computeIfAbsent(view, k -> new ViewStream()).lastWatchedMs = now;
+        }
+        // 超过续传窗口仍无人订阅的视图不再维护基线
+        viewStreams.values().removeIf(vs -> now - vs.lastWatchedMs > resumeWindowMs);
+        for (String view : viewStreams.keySet()) {
+            broadcastView(view, tick);
+        }
+    }
+
+    /**
+     * 每个视图每 tick 只计算一次关键帧或增量，每种格式只编码一次，所有订阅者共享同一份字节。
+     * 与时钟对齐的视图流只在 seq 为 keyframe-interval 倍数时发关键帧，各节点从同一关键帧起对同一串快照求增量，
+     * 因此同一 id 的帧内容一致。seq 不连续（漏收主节点帧）时发不进日志的关键帧。
+     */
+    private void broadcastView(String view, StreamTick tick) {
+        ViewStream vs = viewStreams.computeIfAbsent(view, k -> new ViewStream());
+        synchronized (vs) {
+            TopologySnapshotDto current = getSnapshot(view);
+            int interval = Math.max(1, keyframeInterval);
+            String prevId = vs.idOf(vs.seq);
+            long nextSeq = tick != null ? tick.seq : vs.seq + 1;
+            boolean contiguous = vs.baseline != null && nextSeq == vs.seq + 1;
+            boolean keyframe;
+            if (tick != null && (tick.epoch.equals(vs.epoch) || nextSeq % interval == 0)) {
+                // 已对齐，或在关键帧位置切换到时钟的 epoch
+                keyframe = !contiguous || nextSeq % interval == 0 || !tick.epoch.equals(vs.epoch);
+                vs.epoch = tick.epoch;
+                vs.aligned = true;
+            } else {
+                // 尚未到对齐位置，或本地帧：离开时钟 epoch / 序号断档时换新的本地 epoch，避免同一 id 对应不同内容
+                keyframe = !contiguous || vs.aligned || vs.sinceKeyframe + 1 >= interval;
+                if (vs.aligned || !contiguous) vs.epoch = newStreamEpoch();
+                vs.aligned = false;
+            }
+            vs.seq = nextSeq;
+            Object frame;
+            String event;
+            TopologyDeltaDto logged;
+            if (keyframe) {
+                // 续传的客户端以新旧基线的差异代替关键帧；没有基线或序号断档时不可续传
+                logged = contiguous ? baselineDiff(view, vs, current) : null;
+                startKeyframe(vs, current);
+                // 已发布快照是共享只读对象，带 seq 的关键帧用浅拷贝
+                TopologySnapshotDto keyframeDto = copyOf(current);
+                keyframeDto.setSeq(vs.seq);
+                frame = keyframeDto;
+                event = "snapshot";
+            } else {
+                vs.sinceKeyframe++;
+                logged = computeDelta(view, vs, current);
+                frame = logged;
+                event = "delta";
+            }
+            String id = vs.idOf(vs.seq);
+            Map<TopologyWireCodec.Format, byte[]> payloads = new EnumMap<>(TopologyWireCodec.Format.class);
+            if (logged == null) {
+                vs.log.clear();
+            } else {
+                logged.setSeq(vs.seq);
+                vs.log.addLast(new LoggedFrame(id, prevId, logged,
+                        logged == frame ? payloads : new EnumMap<>(TopologyWireCodec.Format.class)));
+                while (vs.log.size() > Math.max(0, resumeLogFrames)) vs.log.removeFirst();
+            }
+            // 积压的订阅者合并为一个关键帧（即应用完本帧后的基线），同一 tick 内每种格式只编码一次
+            TopologySnapshotDto[] resync = new TopologySnapshotDto[1];
+            Map<TopologyWireCodec.Format, byte[]> resyncPayloads = new EnumMap<>(TopologyWireCodec.Format.class);
+            // 在视图锁内遍历订阅者，与 subscribe 的登记互斥，避免新订阅者漏掉紧随关键帧的增量
+            for (TopologyStreamDispatcher.Subscriber sub : dispatcher.getSubscribers()) {
+                if (MODE_DELTA.equals(sub.getMode()) && view.equals(sub.getView())) {
+                    TopologyWireCodec.Format format = sub.getFormat();
+                    byte[] payload = payloads.computeIfAbsent(format, f -> codec.encode(frame, f));
+                    Supplier<byte[]> resyncFrame = () -> resyncPayloads.computeIfAbsent(format, f -> {
+                        if (resync[0] == null) resync[0] = baselineSnapshot(view, vs);
+                        return codec.encode(resync[0], f);
+                    });
+                    dispatcher.offer(sub, event, id, payload, resyncFrame);
+                }
             }
-        } else {
-            score -= 10;
-            reasons.add("temperature_missing");
         }
+    }
 
-        score = Math.max(0, Math.min(100, score));
-        c.setScore(score);
-        if (score < 50) c.setStatus("alarm");
-        else if (score < 80) c.setStatus("warn");
-        else c.setStatus("normal");
+    private static TopologySnapshotDto copyOf(TopologySnapshotDto src) {
+        TopologySnapshotDto dto = new TopologySnapshotDto();
+        dto.setPackId(src.getPackId());
+        dto.setTs(src.getTs());
+        dto.setStale(src.isStale());
+        dto.setSeq(src.getSeq());
+        dto.setSummary(src.getSummary());
+        dto.setCells(src.getCells());
+        return dto;
     }
 
-    private void computeSummary(TopologySnapshotDto snapshot) {
-        int normal = 0, warn = 0, alarm = 0;
-        for (TopologyCellDto c : snapshot.getCells()) {
-            if ("alarm".equals(c.getStatus())) alarm++;
-            else if ("warn".equals(c.getStatus())) warn++;
-            else normal++;
+    private static void startKeyframe(ViewStream vs, TopologySnapshotDto current) {
+        Map<String, TopologyCellDto> baseline = new LinkedHashMap<>();
+        for (TopologyCellDto c : current.getCells()) {
+            baseline.put(c.getCellId(), c);
         }
-        snapshot.getSummary().setTotal(snapshot.getCells().size());
-        snapshot.getSummary().setNormal(normal);
-        snapshot.getSummary().setWarn(warn);
-        snapshot.getSummary().setAlarm(alarm);
+        vs.baseline = baseline;
+        vs.sinceKeyframe = 0;
+        vs.summary = current.getSummary();
+        vs.stale = current.isStale();
+        vs.ts = current.getTs();
+    }
+
+    /** 由基线还原客户端当前应持有的完整视图（新订阅者的首个关键帧） */
+    private static TopologySnapshotDto baselineSnapshot(String view, ViewStream vs) {
+        TopologySnapshotDto dto = new TopologySnapshotDto();
+        dto.setPackId(view);
+        dto.setSeq(vs.seq);
+        dto.setTs(vs.ts);
+        dto.setStale(vs.stale);
+        dto.setSummary(vs.summary);
+        dto.setCells(new ArrayList<>(vs.baseline.values()));
+        return dto;
     }
 
-    private void broadcast(boolean staleFlag) {
-        if (emitters.isEmpty()) return;
-        for (SseEmitter emitter : emitters) {
-            String packId = emitterPackFilter.get(emitter);
-            TopologySnapshotDto snap = getSnapshot("ALL".equals(packId) ? null : packId);
-            if (staleFlag) snap.setStale(true);
-            try {
-                emitter.send(SseEmitter.event().name("snapshot").data(snap));
-            } catch (Exception ignored) {
-                cleanupEmitter(emitter);
+    private TopologyDeltaDto computeDelta(String view, ViewStream vs, TopologySnapshotDto current) {
+        TopologyDeltaDto delta = new TopologyDeltaDto();
+        delta.setPackId(view);
+        delta.setSeq(vs.seq);
+        delta.setTs(current.getTs());
+        delta.setStale(current.isStale());
+        delta.setSummary(current.getSummary());
+        Map<String, TopologyCellDto> seen = new HashMap<>(current.getCells().size() * 2);
+        for (TopologyCellDto c : current.getCells()) {
+            seen.put(c.getCellId(), c);
+            TopologyCellDto base = vs.baseline.get(c.getCellId());
+            // 未重算的单体沿用同一对象，直接跳过比较
+            if (base == c) continue;
+            if (base == null || changedBeyondDeadband(base, c)) {
+                delta.getCells().add(c);
+                vs.baseline.put(c.getCellId(), c);
+            }
+        }
+        Iterator<String> it = vs.baseline.keySet().iterator();
+        while (it.hasNext()) {
+            String cellId = it.next();
+            if (!seen.containsKey(cellId)) {
+                delta.getRemoved().add(cellId);
+                it.remove();
             }
         }
+        vs.summary = current.getSummary();
+        vs.stale = current.isStale();
+        vs.ts = current.getTs();
+        return delta;
     }
 
-    private void cleanupEmitter(SseEmitter emitter) {
-        emitters.remove(emitter);
-        emitterPackFilter.remove(emitter);
+    /** 关键帧前后基线之差：重算过的单体（对象不同）与已移除的单体，不经死区过滤，续传后与关键帧完全一致 */
+    private static TopologyDeltaDto baselineDiff(String view, ViewStream vs, TopologySnapshotDto current) {
+        TopologyDeltaDto delta = new TopologyDeltaDto();
+        delta.setPackId(view);
+        delta.setTs(current.getTs());
+        delta.setStale(current.isStale());
+        delta.setSummary(current.getSummary());
+        Set<String> seen = new HashSet<>(current.getCells().size() * 2);
+        for (TopologyCellDto c : current.getCells()) {
+            seen.add(c.getCellId());
+            if (vs.baseline.get(c.getCellId()) != c) delta.getCells().add(c);
+        }
+        for (String cellId : vs.baseline.keySet()) {
+            if (!seen.contains(cellId)) delta.getRemoved().add(cellId);
+        }
+        return delta;
+    }
+
+    private boolean changedBeyondDeadband(TopologyCellDto base, TopologyCellDto cur) {
+        if (!Objects.equals(base.getStatus(), cur.getStatus())
+                || !Objects.equals(base.getScore(), cur.getScore())
+                || !Objects.equals(base.getReasons(), cur.getReasons())
+                || !Objects.equals(base.getRow(), cur.getRow())
+                || !Objects.equals(base.getCol(), cur.getCol())
+                || !Objects.equals(base.getModuleIndex(), cur.getModuleIndex())
+                || !Objects.equals(base.getPackId(), cur.getPackId())) {
+            return true;
+        }
+        return beyond(base.getVoltage(), cur.getVoltage(), deadbandVoltage)
+                || beyond(base.getTemperature(), cur.getTemperature(), deadbandTemperature)
+                || beyond(base.getCurrent(), cur.getCurrent(), deadbandCurrent)
+                || beyond(base.getVoltageZ(), cur.getVoltageZ(), deadbandZ)
+                || beyond(base.getTemperatureZ(), cur.getTemperatureZ(), deadbandZ);
+    }
+
+    private static boolean beyond(Double base, Double cur, double deadband) {
+        if (base == null || cur == null) return base != cur;
+        return Math.abs(cur - base) >= deadband;
     }
 
     private TopologySnapshotDto emptySnapshot(String packId, boolean stale) {
@@ -214,46 +1318,13 @@ public class TopologySnapshotService {
         return dto;
     }
 
-    private TopologySnapshotDto mergeAllPacks(Map<String, TopologySnapshotDto> all) {
-        TopologySnapshotDto merged = new TopologySnapshotDto();
-        merged.setPackId("ALL");
-        merged.setTs(Instant.now().toEpochMilli());
-        List<TopologyCellDto> cells = new ArrayList<>();
-        for (TopologySnapshotDto snap : all.values()) {
-            if (snap.getCells() != null) {
-                cells.addAll(snap.getCells());
-            }
-        }
-        cells.sort((a, b) -> {
-            String pa = a.getPackId() == null ? "" : a.getPackId();
-            String pb = b.getPackId() == null ? "" : b.getPackId();
-            int p = pa.compareTo(pb);
-            if (p != 0) return p;
-            int r = Integer.compare(a.getRow() == null ? 0 : a.getRow(), b.getRow() == null ? 0 : b.getRow());
-            if (r != 0) return r;
-            return Integer.compare(a.getCol() == null ? 0 : a.getCol(), b.getCol() == null ? 0 : b.getCol());
-        });
-        merged.setCells(cells);
-        computeSummary(merged);
-        return merged;
-    }
-
-    private String detectPackId(String batteryCode) {
+    /**
+     * 由电池编码推导 PACK ID：取最后一个下划线之前的部分，没有则为 default。
+     */
+    public static String detectPackId(String batteryCode) {
         if (batteryCode == null) return "default";
         int i = batteryCode.lastIndexOf('_');
         if (i > 0) return batteryCode.substring(0, i);
         return "default";
     }
-
-    private int extractCellIndex(String batteryCode) {
-        if (batteryCode == null) return -1;
-        Matcher m = CELL_INDEX_PATTERN.matcher(batteryCode);
-        if (!m.find()) return -1;
-        try {
-            return Integer.parseInt(m.group(1));
-        } catch (Exception ignored) {
-            return -1;
-        }
-    }
 }
-
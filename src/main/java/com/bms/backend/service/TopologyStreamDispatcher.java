@@ -0,0 +1,410 @@
+package com.bms.backend.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 拓扑 SSE 投递：每个订阅者一个有界出站队列，由独立发送线程池排空，刷新线程只负责入队。
+ * 队列满时按 overflow-policy 处理：
+ * <ul>
+ *     <li>coalesce：丢弃积压帧，只保留最新状态（增量订阅者改为补发一个关键帧）；</li>
+ *     <li>drop：丢弃新帧（增量订阅者会看到 seq 断档并自行重订阅）；</li>
+ *     <li>disconnect：直接断开该订阅者。</li>
+ * </ul>
+ * 同一订阅者同一时刻最多一个发送任务，保证帧顺序。
+ * 登记时可附带补发帧（历史回放），由发送线程逐帧生成并排在所有实时帧之前，不占用请求线程，也不在 emitter 内整段缓存。
+ * <p>
+ * 单帧发送超过 send-timeout-ms 仍未返回（客户端不读、TCP 窗口塞满）时由看门狗断开该订阅者并中断发送线程；
+ * 阻塞在 socket 上的线程未必响应中断，因此同时为线程池临时补一个线程（至多 sender-threads 个），
+ * 卡住的线程返回后再收回，避免几个失联的浏览器占满全部发送线程。
+ */
+@Component
+public class TopologyStreamDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(TopologyStreamDispatcher.class);
+
+    public enum OverflowPolicy { COALESCE, DROP, DISCONNECT }
+
+    /** 一个出站帧：事件名、SSE 事件 id（可为空）+ 共享的只读 JSON 字节 */
+    private static final class Frame {
+        final String event;
+        final String id;
+        final byte[] json;
+
+        Frame(String event, String id, byte[] json) {
+            this.event = event;
+            this.id = id;
+            this.json = json;
+        }
+    }
+
+    /** 订阅者：emitter、所订视图与模式，以及出站队列（队列与 draining 均由自身锁保护） */
+    public static final class Subscriber {
+        private final SseEmitter emitter;
+        private final String view;
+        private final String mode;
+        private final TopologyWireCodec.Format format;
+        private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+        /** 尚未发完的补发帧（仅发送线程推进，为空表示没有或已发完） */
+        private Iterator<byte[]> replay;
+        private final String replayEvent;
+        private boolean draining = false;
+        private volatile boolean closed = false;
+        /** 当前在途发送的开始时间，0 表示没有在途发送 */
+        private volatile long sendStartedMs = 0L;
+        /** 以下由自身锁保护：正在排空的线程、是否已被看门狗放弃、是否为其补过线程 */
+        private Thread sender;
+        private boolean abandoned = false;
+        private boolean replaced = false;
+
+        Subscriber(SseEmitter emitter, String view, String mode, TopologyWireCodec.Format format,
+                   String replayEvent, Iterator<byte[]> replay) {
+            this.emitter = emitter;
+            this.view = view;
+            this.mode = mode;
+            this.format = format;
+            this.replayEvent = replayEvent;
+            this.replay = replay;
+        }
+
+        public SseEmitter getEmitter() {
+            return emitter;
+        }
+
+        public String getView() {
+            return view;
+        }
+
+        public String getMode() {
+            return mode;
+        }
+
+        /** 帧编码格式（json / columnar） */
+        public TopologyWireCodec.Format getFormat() {
+            return format;
+        }
+
+        public synchronized int pending() {
+            return queue.size();
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+    }
+
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final int senderThreads;
+    private final long sendTimeoutMs;
+    private final ThreadPoolExecutor senderPool;
+    /** 为卡住的发送临时补充的线程数（由 senderPool 锁保护） */
+    private int spareThreads = 0;
+
+    private final Counter evicted;
+    private final Counter coalesced;
+    private final Counter dropped;
+
+    public TopologyStreamDispatcher(@Value("${bms.topology.stream.queue-capacity:4}") int queueCapacity,
+                                    @Value("${bms.topology.stream.overflow-policy:coalesce}") String overflowPolicy,
+                                    @Value("${bms.topology.stream.sender-threads:4}") int senderThreads,
+                                    @Value("${bms.topology.stream.send-timeout-ms:10000}") long sendTimeoutMs,
+                                    MeterRegistry meterRegistry) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.overflowPolicy = parsePolicy(overflowPolicy);
+        this.senderThreads = Math.max(1, senderThreads);
+        this.sendTimeoutMs = sendTimeoutMs;
+        AtomicInteger seq = new AtomicInteger();
+        this.senderPool = new ThreadPoolExecutor(this.senderThreads, this.senderThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "topology-sse-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        Gauge.builder("bms.topology.stream.subscribers", subscribers, List::size)
+                .description("拓扑 SSE 订阅者数")
+                .register(meterRegistry);
+        Gauge.builder("bms.topology.stream.lagging", this, TopologyStreamDispatcher::getLaggingCount)
+                .description("出站队列有积压的订阅者数")
+                .register(meterRegistry);
+        this.evicted = Counter.builder("bms.topology.stream.evicted")
+                .description("因发送失败或队列溢出被断开的订阅者累计数")
+                .register(meterRegistry);
+        this.coalesced = Counter.builder("bms.topology.stream.frames.coalesced")
+                .description("因合并为最新状态而丢弃的积压帧")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("bms.topology.stream.frames.dropped")
+                .description("队列满时直接丢弃的新帧")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        senderPool.shutdownNow();
+    }
+
+    /** 登记订阅者；emitter 完成 / 超时 / 出错时自动移除 */
+    public Subscriber register(SseEmitter emitter, String view, String mode) {
+        return register(emitter, view, mode, TopologyWireCodec.Format.JSON);
+    }
+
+    public Subscriber register(SseEmitter emitter, String view, String mode, TopologyWireCodec.Format format) {
+        return register(emitter, view, mode, format, null, null);
+    }
+
+    /**
+     * 带补发帧登记：replay 在发送线程上按需取下一帧（元素为空时跳过），全部发完后才发送队列中的实时帧。
+     * 补发期间实时帧照常入队并按 overflow-policy 处理。
+     */
+    public Subscriber register(SseEmitter emitter, String view, String mode, TopologyWireCodec.Format format,
+                               String replayEvent, Iterator<byte[]> replay) {
+        Subscriber s = new Subscriber(emitter, view, mode, format == null ? TopologyWireCodec.Format.JSON : format,
+                replayEvent, replay);
+        emitter.onCompletion(() -> remove(s));
+        emitter.onTimeout(() -> remove(s));
+        emitter.onError((ex) -> remove(s));
+        subscribers.add(s);
+        return s;
+    }
+
+    public List<Subscriber> getSubscribers() {
+        return subscribers;
+    }
+
+    /**
+     * 入队一帧，不阻塞调用线程。
+     *
+     * @param resync coalesce 策略下替代积压帧的"最新状态"帧（增量流为关键帧）；为空时使用当前帧本身
+     */
+    public void offer(Subscriber s, String event, byte[] json, Supplier<byte[]> resync) {
+        offer(s, event, null, json, resync);
+    }
+
+    /**
+     * 带 SSE 事件 id 入队（客户端重连时以 Last-Event-ID 回传）。resync 帧表示应用完本帧后的状态，沿用同一 id。
+     */
+    public void offer(Subscriber s, String event, String id, byte[] json, Supplier<byte[]> resync) {
+        if (json == null || s.closed) return;
+        boolean schedule;
+        boolean disconnect = false;
+        synchronized (s) {
+            if (s.queue.size() >= queueCapacity) {
+                switch (overflowPolicy) {
+                    case DROP:
+                        dropped.increment();
+                        return;
+                    case DISCONNECT:
+                        disconnect = true;
+                        break;
+                    default:
+                        coalesced.increment(s.queue.size());
+                        s.queue.clear();
+                        byte[] latest = resync == null ? null : resync.get();
+                        if (latest != null) {
+                            s.queue.add(new Frame("snapshot", id, latest));
+                        } else {
+                            s.queue.add(new Frame(event, id, json));
+                        }
+                        break;
+                }
+            } else {
+                s.queue.add(new Frame(event, id, json));
+            }
+            schedule = !disconnect && !s.draining;
+            if (schedule) s.draining = true;
+        }
+        if (disconnect) {
+            log.warn("⚠️ 拓扑订阅者积压超过 {} 帧，断开连接", queueCapacity);
+            evict(s);
+            return;
+        }
+        if (schedule) {
+            try {
+                senderPool.execute(() -> drain(s));
+            } catch (RejectedExecutionException e) {
+                synchronized (s) {
+                    s.draining = false;
+                }
+            }
+        }
+    }
+
+    private void drain(Subscriber s) {
+        synchronized (s) {
+            s.sender = Thread.currentThread();
+        }
+        try {
+            while (true) {
+                Frame f = null;
+                Iterator<byte[]> replay;
+                synchronized (s) {
+                    replay = s.replay;
+                    if (replay == null || s.closed) {
+                        f = s.queue.poll();
+                        if (f == null || s.closed) {
+                            s.draining = false;
+                            return;
+                        }
+                    }
+                }
+                if (f == null) {
+                    // 补发帧在锁外生成，不阻塞刷新线程入队
+                    byte[] json;
+                    try {
+                        json = replay.hasNext() ? replay.next() : null;
+                    } catch (Exception e) {
+                        log.debug("拓扑补发帧生成失败: {}", e.getMessage());
+                        evict(s);
+                        return;
+                    }
+                    if (json == null) {
+                        if (!replay.hasNext()) {
+                            synchronized (s) {
+                                s.replay = null;
+                            }
+                        }
+                        continue;
+                    }
+                    f = new Frame(s.replayEvent, null, json);
+                }
+                s.sendStartedMs = System.currentTimeMillis();
+                try {
+                    SseEmitter.SseEventBuilder event = SseEmitter.event().name(f.event);
+                    if (f.id != null) event.id(f.id);
+                    s.emitter.send(event.data(f.json, MediaType.APPLICATION_JSON));
+                } catch (Exception e) {
+                    evict(s);
+                    return;
+                } finally {
+                    s.sendStartedMs = 0L;
+                }
+            }
+        } finally {
+            boolean abandoned;
+            boolean replaced;
+            synchronized (s) {
+                s.sender = null;
+                abandoned = s.abandoned;
+                replaced = s.replaced;
+            }
+            if (abandoned) {
+                // 看门狗放弃时未调用 complete（会与阻塞中的 send 争用 emitter 锁），由返回的发送线程收尾
+                try {
+                    s.emitter.complete();
+                } catch (Exception ignored) {
+                }
+            }
+            if (replaced) releaseSpareThread();
+        }
+    }
+
+    /**
+     * 看门狗：断开单帧发送超过 send-timeout-ms 的订阅者。
+     * 不在此处调用 emitter.complete()——SseEmitter 的 send 与 complete 同锁，会把看门狗也卡住。
+     */
+    @Scheduled(fixedDelayString = "${bms.topology.stream.watchdog-interval-ms:1000}", initialDelay = 1000)
+    public void evictStalledSenders() {
+        if (sendTimeoutMs <= 0) return;
+        long now = System.currentTimeMillis();
+        for (Subscriber s : subscribers) {
+            long started = s.sendStartedMs;
+            if (started == 0L || now - started < sendTimeoutMs) continue;
+            synchronized (s) {
+                // 检查期间已发送完成或已换下一帧：不算卡住
+                if (s.sender == null || s.sendStartedMs != started || s.abandoned) continue;
+                s.abandoned = true;
+                s.replaced = acquireSpareThread();
+                // 持锁中断：发送线程离开本订阅者的 drain 前需要拿同一把锁，不会误中断其他订阅者的发送
+                s.sender.interrupt();
+            }
+            log.warn("⚠️ 拓扑订阅者单帧发送超过 {}ms 未返回，断开连接", sendTimeoutMs);
+            if (remove(s)) evicted.increment();
+        }
+    }
+
+    /** 为卡住的发送线程补一个线程，补充数不超过 sender-threads */
+    private boolean acquireSpareThread() {
+        synchronized (senderPool) {
+            if (spareThreads >= senderThreads || senderPool.isShutdown()) return false;
+            spareThreads++;
+            int size = senderThreads + spareThreads;
+            senderPool.setMaximumPoolSize(size);
+            senderPool.setCorePoolSize(size);
+            return true;
+        }
+    }
+
+    private void releaseSpareThread() {
+        synchronized (senderPool) {
+            if (spareThreads == 0) return;
+            spareThreads--;
+            int size = senderThreads + spareThreads;
+            senderPool.setCorePoolSize(size);
+            senderPool.setMaximumPoolSize(size);
+        }
+    }
+
+    /** 主动断开：计入 evicted 指标 */
+    public void evict(Subscriber s) {
+        if (remove(s)) {
+            evicted.increment();
+            try {
+                s.emitter.complete();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    private boolean remove(Subscriber s) {
+        synchronized (s) {
+            s.closed = true;
+            s.queue.clear();
+            s.replay = null;
+        }
+        return subscribers.remove(s);
+    }
+
+    public int getLaggingCount() {
+        int n = 0;
+        for (Subscriber s : subscribers) {
+            if (s.pending() > 0) n++;
+        }
+        return n;
+    }
+
+    public double getEvictedCount() {
+        return evicted.count();
+    }
+
+    private static OverflowPolicy parsePolicy(String raw) {
+        if (raw == null) return OverflowPolicy.COALESCE;
+        try {
+            return OverflowPolicy.valueOf(raw.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            log.warn("⚠️ 未知的 overflow-policy: {}，使用 coalesce", raw);
+            return OverflowPolicy.COALESCE;
+        }
+    }
+}
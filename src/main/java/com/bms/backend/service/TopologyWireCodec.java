@@ -0,0 +1,249 @@
+package com.bms.backend.service;
+
+import com.bms.backend.analysis.AlarmRuleEvaluator;
+import com.bms.backend.dto.TopologyCellDto;
+import com.bms.backend.dto.TopologyColumnarDto;
+import com.bms.backend.dto.TopologyDeltaDto;
+import com.bms.backend.dto.TopologySnapshotDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 拓扑 / 大屏载荷的线上编码。
+ * <ul>
+ *     <li>json：原有对象数组格式（默认，兼容旧客户端）；</li>
+ *     <li>columnar：{@link TopologyColumnarDto} 列式 JSON，状态与原因编码为小整数，量测按比例取整；</li>
+ *     <li>cbor：同 columnar 结构的 CBOR 二进制（仅 REST 与 WebSocket，SSE 为文本协议时退化为 columnar）。</li>
+ * </ul>
+ * 原因码为进程内全局字典，按首次出现顺序分配且不回收，同一连接前后帧的编码保持一致。
+ */
+@Component
+public class TopologyWireCodec {
+
+    private static final Logger log = LoggerFactory.getLogger(TopologyWireCodec.class);
+
+    public static final MediaType APPLICATION_CBOR = MediaType.parseMediaType("application/cbor");
+
+    public enum Format {
+        JSON, COLUMNAR, CBOR;
+
+        /** format 参数优先；未指定时 Accept 含 application/cbor 视为 cbor */
+        public static Format parse(String format, String accept) {
+            if (format != null && !format.trim().isEmpty()) {
+                try {
+                    return valueOf(format.trim().toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    return JSON;
+                }
+            }
+            if (accept != null && accept.toLowerCase(Locale.ROOT).contains(APPLICATION_CBOR.toString())) {
+                return CBOR;
+            }
+            return JSON;
+        }
+
+        public boolean isBinary() {
+            return this == CBOR;
+        }
+
+        public MediaType mediaType() {
+            return isBinary() ? APPLICATION_CBOR : MediaType.APPLICATION_JSON;
+        }
+    }
+
+    public static final int VOLTAGE_SCALE = 1000;
+    public static final int TEMPERATURE_SCALE = 10;
+    public static final int CURRENT_SCALE = 1000;
+    public static final int Z_SCALE = 10;
+
+    private static final List<String> STATUS_CODES = Collections.unmodifiableList(Arrays.asList("normal", "warn", "alarm"));
+    /** 位掩码只有 31 位可用，超出的原因统一记到最后一位 other */
+    private static final int MAX_REASON_CODES = 31;
+    private static final String OTHER_REASON = "other";
+
+    private final ObjectMapper jsonMapper;
+    private final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+    /** 前几位与 AlarmRuleEvaluator 的原因位一致 */
+    private final CopyOnWriteArrayList<String> reasonCodes = new CopyOnWriteArrayList<>(AlarmRuleEvaluator.REASON_NAMES);
+    private final Map<String, Integer> reasonIndex = new HashMap<>();
+
+    public TopologyWireCodec(ObjectMapper jsonMapper) {
+        this.jsonMapper = jsonMapper;
+        for (int i = 0; i < reasonCodes.size(); i++) {
+            reasonIndex.put(reasonCodes.get(i), i);
+        }
+    }
+
+    /** @return 编码后的字节，失败时为 null */
+    public byte[] encode(Object payload, Format format) {
+        try {
+            switch (format) {
+                case COLUMNAR:
+                    return jsonMapper.writeValueAsBytes(toColumnar(payload));
+                case CBOR:
+                    return cborMapper.writeValueAsBytes(toColumnar(payload));
+                default:
+                    return jsonMapper.writeValueAsBytes(payload);
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ 拓扑载荷编码失败 format={}: {}", format, e.getMessage());
+            return null;
+        }
+    }
+
+    /** 大屏等非拓扑载荷：cbor 直接编码原对象，其余格式按 JSON */
+    public byte[] encodePlain(Object payload, Format format) {
+        try {
+            return format.isBinary() ? cborMapper.writeValueAsBytes(payload) : jsonMapper.writeValueAsBytes(payload);
+        } catch (Exception e) {
+            log.warn("⚠️ 载荷编码失败 format={}: {}", format, e.getMessage());
+            return null;
+        }
+    }
+
+    private Object toColumnar(Object payload) {
+        if (payload instanceof TopologySnapshotDto) {
+            TopologySnapshotDto snap = (TopologySnapshotDto) payload;
+            TopologyColumnarDto dto = columns(snap.getCells());
+            dto.setPackId(snap.getPackId());
+            dto.setSeq(snap.getSeq());
+            dto.setTs(snap.getTs());
+            dto.setStale(snap.isStale());
+            dto.setSummary(snap.getSummary());
+            return dto;
+        }
+        if (payload instanceof TopologyDeltaDto) {
+            TopologyDeltaDto delta = (TopologyDeltaDto) payload;
+            TopologyColumnarDto dto = columns(delta.getCells());
+            dto.setPackId(delta.getPackId());
+            dto.setSeq(delta.getSeq());
+            dto.setTs(delta.getTs());
+            dto.setStale(delta.isStale());
+            dto.setSummary(delta.getSummary());
+            dto.setRemoved(delta.getRemoved());
+            return dto;
+        }
+        return payload;
+    }
+
+    private TopologyColumnarDto columns(List<TopologyCellDto> cells) {
+        int n = cells == null ? 0 : cells.size();
+        TopologyColumnarDto dto = new TopologyColumnarDto();
+        dto.setVoltageScale(VOLTAGE_SCALE);
+        dto.setTemperatureScale(TEMPERATURE_SCALE);
+        dto.setCurrentScale(CURRENT_SCALE);
+        dto.setRobustZScale(Z_SCALE);
+        dto.setStatusCodes(STATUS_CODES);
+
+        List<String> packs = new ArrayList<>();
+        Map<String, Integer> packIndex = new HashMap<>();
+        String[] cellId = new String[n];
+        int[] pack = new int[n];
+        int[] row = new int[n];
+        int[] col = new int[n];
+        int[] module = new int[n];
+        Integer[] voltage = new Integer[n];
+        Integer[] temperature = new Integer[n];
+        Integer[] current = new Integer[n];
+        Integer[] voltageZ = new Integer[n];
+        Integer[] temperatureZ = new Integer[n];
+        int[] score = new int[n];
+        int[] status = new int[n];
+        int[] reasons = new int[n];
+        for (int i = 0; i < n; i++) {
+            TopologyCellDto c = cells.get(i);
+            String p = c.getPackId() == null ? "" : c.getPackId();
+            Integer pi = packIndex.get(p);
+            if (pi == null) {
+                pi = packs.size();
+                packs.add(p);
+                packIndex.put(p, pi);
+            }
+            cellId[i] = c.getCellId();
+            pack[i] = pi;
+            row[i] = c.getRow() == null ? 0 : c.getRow();
+            col[i] = c.getCol() == null ? 0 : c.getCol();
+            module[i] = c.getModuleIndex() == null ? 0 : c.getModuleIndex();
+            voltage[i] = scaled(c.getVoltage(), VOLTAGE_SCALE);
+            temperature[i] = scaled(c.getTemperature(), TEMPERATURE_SCALE);
+            current[i] = scaled(c.getCurrent(), CURRENT_SCALE);
+            voltageZ[i] = scaled(c.getVoltageZ(), Z_SCALE);
+            temperatureZ[i] = scaled(c.getTemperatureZ(), Z_SCALE);
+            score[i] = c.getScore() == null ? 0 : c.getScore();
+            int s = STATUS_CODES.indexOf(c.getStatus());
+            status[i] = s < 0 ? 0 : s;
+            reasons[i] = reasonMask(c.getReasons());
+        }
+        dto.setReasonCodes(new ArrayList<>(reasonCodes));
+        dto.setPacks(packs);
+        dto.setCellId(cellId);
+        dto.setPack(pack);
+        dto.setRow(row);
+        dto.setCol(col);
+        dto.setModuleIndex(module);
+        dto.setVoltage(voltage);
+        dto.setTemperature(temperature);
+        dto.setCurrent(current);
+        dto.setVoltageZ(voltageZ);
+        dto.setTemperatureZ(temperatureZ);
+        dto.setScore(score);
+        dto.setStatus(status);
+        dto.setReasons(reasons);
+        return dto;
+    }
+
+    /** 原因列表 -> 位掩码（全局字典，供列式编码与历史环形缓冲共用） */
+    public int reasonMask(List<String> reasons) {
+        int mask = 0;
+        if (reasons != null) {
+            for (String r : reasons) mask |= 1 << reasonCode(r);
+        }
+        return mask;
+    }
+
+    /** 位掩码 -> 原因列表（按字典顺序） */
+    public List<String> reasonsOf(int mask) {
+        List<String> reasons = new ArrayList<>(Integer.bitCount(mask));
+        for (int i = 0; mask != 0 && i < reasonCodes.size(); i++) {
+            if ((mask & (1 << i)) != 0) reasons.add(reasonCodes.get(i));
+        }
+        return reasons;
+    }
+
+    private int reasonCode(String reason) {
+        synchronized (reasonIndex) {
+            Integer idx = reasonIndex.get(reason);
+            if (idx != null) return idx;
+            if (reasonCodes.size() < MAX_REASON_CODES - 1) {
+                idx = reasonCodes.size();
+                reasonCodes.add(reason);
+            } else {
+                if (!reasonIndex.containsKey(OTHER_REASON)) {
+                    reasonIndex.put(OTHER_REASON, reasonCodes.size());
+                    reasonCodes.add(OTHER_REASON);
+                }
+                idx = reasonIndex.get(OTHER_REASON);
+            }
+            reasonIndex.put(reason, idx);
+            return idx;
+        }
+    }
+
+    private static Integer scaled(Double v, int scale) {
+        if (v == null || v.isNaN() || v.isInfinite()) return null;
+        return (int) Math.round(v * scale);
+    }
+}
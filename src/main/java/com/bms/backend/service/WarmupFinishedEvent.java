@@ -0,0 +1,18 @@
+package com.bms.backend.service;
+
+/**
+ * 启动预热结束事件（全部步骤完成或超过 timeout-ms），由 StartupWarmupService 发布。
+ * 定时任务在收到之前跳过执行，不与预热争抢 Influx / 数据库连接。
+ */
+public class WarmupFinishedEvent {
+
+    private final boolean timedOut;
+
+    public WarmupFinishedEvent(boolean timedOut) {
+        this.timedOut = timedOut;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+}
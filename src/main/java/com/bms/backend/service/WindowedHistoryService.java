@@ -0,0 +1,323 @@
+package com.bms.backend.service;
+
+import com.bms.backend.dto.WindowedHistoryResponse;
+import com.bms.backend.dto.WindowedSeriesDto;
+import com.bms.backend.exception.BusinessException;
+import com.bms.backend.influx.CellTimeRangeCatalog;
+import com.bms.backend.influx.InfluxLane;
+import com.bms.backend.influx.InfluxQueryGateway;
+import com.influxdb.query.FluxRecord;
+import com.influxdb.query.FluxTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * 窗口聚合历史：aggregateWindow 下推到 Flux，一次查询用多个 yield 同时取 mean/min/max/last。
+ * 已关闭的窗口结果不可变，按 (cell, field, fn, 窗口大小) 缓存；刷新时只查询缓存末端到现在（通常只有未结束的那个窗口）。
+ * 写入路径补写到已关闭窗口时（见 {@link CellTimeRangeCatalog#pollEarliestWrite(String)}），从补写时间起的缓存窗口失效。
+ */
+@Service
+public class WindowedHistoryService {
+
+    private static final Logger log = LoggerFactory.getLogger(WindowedHistoryService.class);
+
+    private static final Set<String> FIELDS = new LinkedHashSet<>(Arrays.asList("voltage", "current", "temperature", "capacity"));
+    private static final Set<String> FNS = new LinkedHashSet<>(Arrays.asList("mean", "min", "max", "last"));
+    private static final Pattern DURATION_PATTERN = Pattern.compile("-?(\\d+)(ms|s|m|h|d)");
+
+    private final InfluxQueryGateway influxQueryGateway;
+    private final CellTimeRangeCatalog timeRangeCatalog;
+
+    @Value("${influxdb.bucket}")
+    private String bucket;
+
+    /** 未指定 maxPoints 时的窗口数上限；同时也是允许的最大值 */
+    @Value("${bms.history.max-points:1000}")
+    private int maxPointsLimit = 1000;
+
+    @Value("${bms.history.cache.max-cells:256}")
+    private int maxCachedCells = 256;
+
+    @Value("${bms.history.cache.max-buckets-per-series:20000}")
+    private int maxBucketsPerSeries = 20000;
+
+    /** cell_id(小写) -> 缓存，访问顺序 LRU */
+    private final LinkedHashMap<String, CellCache> cells = new LinkedHashMap<String, CellCache>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CellCache> eldest) {
+            return size() > maxCachedCells;
+        }
+    };
+
+    /** 一条序列已缓存的已关闭窗口：[coveredFrom, coveredTo) 内的窗口全部已知，缺失的 key 表示空窗口 */
+    private static final class SeriesCache {
+        final TreeMap<Long, Double> buckets = new TreeMap<>();
+        long coveredFrom = Long.MAX_VALUE;
+        long coveredTo = Long.MIN_VALUE;
+
+        boolean covers(long start) {
+            return coveredFrom <= start && coveredTo >= start;
+        }
+
+        void reset() {
+            buckets.clear();
+            coveredFrom = Long.MAX_VALUE;
+            coveredTo = Long.MIN_VALUE;
+        }
+    }
+
+    private static final class CellCache {
+        final Map<String, SeriesCache> series = new HashMap<>();
+        /** 每次失效 +1；查询期间发生失效则本次结果不写入缓存 */
+        long epoch;
+
+        SeriesCache get(String key) {
+            return series.computeIfAbsent(key, k -> new SeriesCache());
+        }
+    }
+
+    public WindowedHistoryService(InfluxQueryGateway influxQueryGateway, CellTimeRangeCatalog timeRangeCatalog) {
+        this.influxQueryGateway = influxQueryGateway;
+        this.timeRangeCatalog = timeRangeCatalog;
+    }
+
+    /**
+     * @param fields    字段，默认 voltage,current,temperature
+     * @param fns       聚合函数，默认 mean
+     * @param range     回看时长，如 -6h / 90m / 2d，默认 -6h
+     * @param window    窗口大小，如 1m；为空时按 maxPoints 自动推算，过小时会放大到满足点数预算
+     * @param maxPoints 窗口数预算
+     */
+    public WindowedHistoryResponse getHistory(String cellId, List<String> fields, List<String> fns,
+                                              String range, String window, Integer maxPoints) {
+        return getHistory(cellId, fields, fns, range, window, maxPoints, System.currentTimeMillis());
+    }
+
+    public WindowedHistoryResponse getHistory(String cellId, List<String> fields, List<String> fns,
+                                              String range, String window, Integer maxPoints, long nowMs) {
+        if (cellId == null || cellId.trim().isEmpty()) {
+            throw new BusinessException("cellId 不能为空！");
+        }
+        String cell = cellId.trim();
+        List<String> fieldList = normalize(fields, FIELDS, Arrays.asList("voltage", "current", "temperature"), "field");
+        List<String> fnList = normalize(fns, FNS, Arrays.asList("mean"), "fn");
+
+        long rangeMs = parseDurationMs(range == null || range.trim().isEmpty() ? "-6h" : range, "range");
+        int budget = maxPoints == null || maxPoints <= 0 ? maxPointsLimit : Math.min(maxPoints, maxPointsLimit);
+        long windowMs = window == null || window.trim().isEmpty()
+                ? 0L : parseDurationMs(window, "window");
+        long minWindowMs = (rangeMs + budget - 1) / budget;
+        // 按点数预算放大窗口，并取整到秒
+        windowMs = Math.max(windowMs, minWindowMs);
+        windowMs = Math.max(1000L, (windowMs + 999L) / 1000L * 1000L);
+
+        long start = floor(nowMs - rangeMs, windowMs);
+        long openStart = floor(nowMs, windowMs);
+        List<String> keys = new ArrayList<>();
+        for (String f : fieldList) {
+            for (String fn : fnList) {
+                keys.add(seriesKey(f, fn, windowMs));
+            }
+        }
+
+        CellCache cache = cellCache(cell);
+        long queryFrom = openStart;
+        long epoch;
+        synchronized (cache) {
+            long dirtyFrom = timeRangeCatalog.pollEarliestWrite(cell);
+            if (dirtyFrom != Long.MAX_VALUE) {
+                invalidateFrom(cache, dirtyFrom);
+            }
+            for (String key : keys) {
+                SeriesCache sc = cache.get(key);
+                queryFrom = Math.min(queryFrom, sc.covers(start) ? sc.coveredTo : start);
+            }
+            epoch = cache.epoch;
+        }
+
+        Map<String, TreeMap<Long, Double>> fresh = new HashMap<>();
+        boolean stale = false;
+        try {
+            List<FluxTable> tables = influxQueryGateway.query(
+                    buildQuery(cell, fieldList, fnList, queryFrom, nowMs + 1, windowMs), InfluxLane.INTERACTIVE);
+            for (FluxTable table : tables) {
+                for (FluxRecord record : table.getRecords()) {
+                    Object v = record.getValue();
+                    if (!(v instanceof Number) || record.getTime() == null || record.getField() == null) continue;
+                    String key = seriesKey(record.getField(), String.valueOf(record.getValueByKey("result")), windowMs);
+                    // aggregateWindow 以窗口结束时间为 _time，最后一个窗口被截断到 stop
+                    long bucketStart = floor(record.getTime().toEpochMilli() - 1, windowMs);
+                    fresh.computeIfAbsent(key, k -> new TreeMap<>()).put(bucketStart, ((Number) v).doubleValue());
+                }
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ 窗口聚合查询失败 cellId={}, err={}", cell, e.getMessage());
+            stale = true;
+        }
+
+        int buckets = (int) ((openStart - start) / windowMs) + 1;
+        long[] time = new long[buckets];
+        for (int i = 0; i < buckets; i++) {
+            time[i] = start + i * windowMs;
+        }
+
+        WindowedHistoryResponse resp = new WindowedHistoryResponse();
+        resp.setCellId(cell);
+        resp.setWindowMs(windowMs);
+        resp.setStart(start);
+        resp.setStop(nowMs);
+        resp.setTime(time);
+        resp.setStale(stale);
+        resp.setCachedBuckets((int) ((queryFrom - start) / windowMs));
+
+        synchronized (cache) {
+            boolean writable = !stale && cache.epoch == epoch;
+            for (String f : fieldList) {
+                for (String fn : fnList) {
+                    String key = seriesKey(f, fn, windowMs);
+                    SeriesCache sc = cache.get(key);
+                    TreeMap<Long, Double> got = fresh.getOrDefault(key, new TreeMap<>());
+                    if (writable) {
+                        merge(sc, got, start, queryFrom, openStart, windowMs);
+                    }
+                    Double[] values = new Double[buckets];
+                    for (int i = 0; i < buckets; i++) {
+                        long t = time[i];
+                        values[i] = t < queryFrom && sc.covers(start) ? sc.buckets.get(t) : got.get(t);
+                    }
+                    resp.getSeries().add(new WindowedSeriesDto(f, fn, values));
+                }
+            }
+        }
+        return resp;
+    }
+
+    private void merge(SeriesCache sc, TreeMap<Long, Double> got, long start, long queryFrom, long openStart, long windowMs) {
+        if (!sc.covers(queryFrom) || sc.coveredFrom > start) {
+            sc.reset();
+            sc.coveredFrom = queryFrom;
+        }
+        sc.buckets.subMap(queryFrom, openStart).clear();
+        sc.buckets.putAll(got.headMap(openStart));
+        sc.coveredTo = openStart;
+        while (sc.buckets.size() > maxBucketsPerSeries) {
+            long dropped = sc.buckets.pollFirstEntry().getKey();
+            sc.coveredFrom = dropped + windowMs;
+        }
+    }
+
+    /** 补写时间所在窗口及之后的缓存全部作废 */
+    private static void invalidateFrom(CellCache cache, long dirtyFromMs) {
+        cache.epoch++;
+        for (Map.Entry<String, SeriesCache> e : cache.series.entrySet()) {
+            SeriesCache sc = e.getValue();
+            long windowMs = windowOf(e.getKey());
+            long cut = floor(dirtyFromMs, windowMs);
+            sc.buckets.tailMap(cut).clear();
+            if (cut < sc.coveredTo) sc.coveredTo = cut;
+            if (sc.coveredTo <= sc.coveredFrom) sc.reset();
+        }
+    }
+
+    private CellCache cellCache(String cellId) {
+        synchronized (cells) {
+            return cells.computeIfAbsent(cellId.toLowerCase(), k -> new CellCache());
+        }
+    }
+
+    private String buildQuery(String cellId, List<String> fields, List<String> fns,
+                              long fromMs, long stopMs, long windowMs) {
+        String fieldExpr = fields.stream()
+                .map(f -> "r[\"_field\"] == \"" + f + "\"")
+                .collect(Collectors.joining(" or "));
+        StringBuilder flux = new StringBuilder();
+        flux.append(String.format(
+                "data = from(bucket: \"%s\") " +
+                        "|> range(start: %s, stop: %s) " +
+                        "|> filter(fn: (r) => r[\"_measurement\"] == \"battery_metrics\") " +
+                        "|> filter(fn: (r) => r[\"cell_id\"] == \"%s\") " +
+                        "|> filter(fn: (r) => %s) " +
+                        "|> group(columns: [\"_field\"]) " +
+                        "|> sort(columns: [\"_time\"])\n",
+                bucket, Instant.ofEpochMilli(fromMs), Instant.ofEpochMilli(stopMs), cellId, fieldExpr));
+        for (String fn : fns) {
+            flux.append(String.format(
+                    "data |> aggregateWindow(every: %dms, fn: %s, createEmpty: false) |> yield(name: \"%s\")\n",
+                    windowMs, fn, fn));
+        }
+        return flux.toString();
+    }
+
+    private static List<String> normalize(List<String> input, Set<String> allowed, List<String> defaults, String name) {
+        if (input == null || input.isEmpty()) return defaults;
+        List<String> out = new ArrayList<>();
+        for (String s : input) {
+            if (s == null || s.trim().isEmpty()) continue;
+            String v = s.trim().toLowerCase();
+            if (!allowed.contains(v)) {
+                throw new BusinessException("不支持的 " + name + "：" + s + "，可选 " + allowed);
+            }
+            if (!out.contains(v)) out.add(v);
+        }
+        return out.isEmpty() ? defaults : out;
+    }
+
+    /** 解析 6h / -6h / 90m / 30s / 500ms / 2d，返回正的毫秒数 */
+    static long parseDurationMs(String text, String name) {
+        Matcher m = DURATION_PATTERN.matcher(text.trim());
+        if (!m.matches()) {
+            throw new BusinessException(name + " 格式不正确：" + text + "（示例：-6h、30m、10s）");
+        }
+        long n = Long.parseLong(m.group(1));
+        long unitMs;
+        switch (m.group(2)) {
+            case "d":
+                unitMs = 86_400_000L;
+                break;
+            case "h":
+                unitMs = 3_600_000L;
+                break;
+            case "m":
+                unitMs = 60_000L;
+                break;
+            case "s":
+                unitMs = 1000L;
+                break;
+            default:
+                unitMs = 1L;
+                break;
+        }
+        if (n <= 0) {
+            throw new BusinessException(name + " 必须大于 0");
+        }
+        return n * unitMs;
+    }
+
+    private static String seriesKey(String field, String fn, long windowMs) {
+        return field + "|" + fn + "|" + windowMs;
+    }
+
+    private static long windowOf(String seriesKey) {
+        return Long.parseLong(seriesKey.substring(seriesKey.lastIndexOf('|') + 1));
+    }
+
+    private static long floor(long t, long windowMs) {
+        return Math.floorDiv(t, windowMs) * windowMs;
+    }
+}
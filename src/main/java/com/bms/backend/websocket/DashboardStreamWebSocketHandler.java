@@ -0,0 +1,55 @@
+package com.bms.backend.websocket;
+
+import com.bms.backend.service.DashboardStreamHub;
+import com.bms.backend.service.TopologyWireCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 双通道大屏 WebSocket：ws://host/ws/battery-dashboard/stream?idA=..&idB=..
+ * 参数语义与 GET /api/battery-dashboard/stream 一致（缺省为台账最新两块），只下行推送 {@code DashboardData}：
+ * 默认 JSON 文本帧，附加 format=cbor 时为 CBOR 二进制帧。
+ */
+@Component
+public class DashboardStreamWebSocketHandler extends TextWebSocketHandler {
+
+    private final DashboardStreamHub hub;
+
+    @Value("${bms.dashboard.push.send-time-limit-ms:5000}")
+    private int sendTimeLimitMs = 5000;
+
+    @Value("${bms.dashboard.push.buffer-size-limit:65536}")
+    private int bufferSizeLimit = 65536;
+
+    /** 原始 session id -> 带发送保护的装饰 session */
+    private final Map<String, WebSocketSession> decorated = new ConcurrentHashMap<>();
+
+    public DashboardStreamWebSocketHandler(DashboardStreamHub hub) {
+        this.hub = hub;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        Map<String, String> params = UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams().toSingleValueMap();
+        // 防止补发帧与 ticker 帧并发写同一连接；慢客户端由 hub 的发送看门狗断开，不会拖慢 ticker
+        WebSocketSession safe = new ConcurrentWebSocketSessionDecorator(session, sendTimeLimitMs, bufferSizeLimit);
+        decorated.put(session.getId(), safe);
+        hub.subscribe(params.get("idA"), params.get("idB"), safe, TopologyWireCodec.Format.parse(params.get("format"), null));
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        WebSocketSession safe = decorated.remove(session.getId());
+        if (safe != null) {
+            hub.unsubscribe(safe);
+        }
+    }
+}
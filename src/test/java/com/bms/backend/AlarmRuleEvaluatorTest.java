@@ -0,0 +1,124 @@
+package com.bms.backend;
+
+import com.bms.backend.analysis.AlarmRuleEvaluator;
+import com.bms.backend.entity.BatteryAlarmRule;
+import com.bms.backend.repository.BatteryAlarmRuleRepository;
+import com.bms.backend.service.AlarmRuleRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class AlarmRuleEvaluatorTest {
+
+    @Test
+    public void testDefaultRuleMatchesBuiltInThresholds() {
+        double[] v = {3.7, 4.2, 4.16, 3.05, Double.NaN, 3.7};
+        double[] t = {25, 25, 36, 25, 25, Double.NaN};
+        int n = v.length;
+        int[] reasons = new int[n];
+        int[] score = new int[n];
+        byte[] status = new byte[n];
+        AlarmRuleEvaluator.DEFAULT.evaluate(v, t, reasons, score, status, 0, n);
+
+        Assertions.assertArrayEquals(new int[]{100, 60, 60, 80, 90, 90}, score);
+        Assertions.assertEquals(AlarmRuleEvaluator.STATUS_WARN, status[1]);
+        Assertions.assertEquals(AlarmRuleEvaluator.VOLTAGE_OUT_OF_RANGE, reasons[1]);
+        Assertions.assertEquals(AlarmRuleEvaluator.VOLTAGE_NEAR_LIMIT | AlarmRuleEvaluator.TEMPERATURE_WARN, reasons[2]);
+        Assertions.assertEquals(AlarmRuleEvaluator.VOLTAGE_NEAR_LIMIT, reasons[3]);
+        Assertions.assertEquals(AlarmRuleEvaluator.VOLTAGE_MISSING, reasons[4]);
+        Assertions.assertEquals(AlarmRuleEvaluator.TEMPERATURE_MISSING, reasons[5]);
+        Assertions.assertEquals(AlarmRuleEvaluator.STATUS_NORMAL, status[0]);
+    }
+
+    @Test
+    public void testHysteresisHoldsLevelUntilValueClearsBand() {
+        BatteryAlarmRule rule = new BatteryAlarmRule();
+        rule.setTemperatureHysteresis(2.0);
+        AlarmRuleEvaluator e = AlarmRuleRegistry.compile(rule, null);
+        double[] v = {3.7};
+        double[] t = {45.5};
+        int[] reasons = new int[1];
+        int[] score = new int[1];
+        byte[] status = new byte[1];
+
+        e.evaluate(v, t, reasons, score, status, 0, 1);
+        Assertions.assertEquals(AlarmRuleEvaluator.TEMPERATURE_HIGH, reasons[0]);
+        // 回落到阈值以下但仍在回差带内：保持
+        t[0] = 44.0;
+        e.evaluate(v, t, reasons, score, status, 0, 1);
+        Assertions.assertEquals(AlarmRuleEvaluator.TEMPERATURE_HIGH, reasons[0]);
+        t[0] = 42.5;
+        e.evaluate(v, t, reasons, score, status, 0, 1);
+        Assertions.assertEquals(AlarmRuleEvaluator.TEMPERATURE_WARN, reasons[0]);
+    }
+
+    @Test
+    public void testModelRulesInheritDefaultRuleAndHotReload() {
+        BatteryAlarmRule defaults = new BatteryAlarmRule();
+        defaults.setTemperatureAlarm(50.0);
+        BatteryAlarmRule lfp = new BatteryAlarmRule();
+        lfp.setModelId(2L);
+        lfp.setVoltageHighAlarm(3.65);
+        lfp.setVoltageHighWarn(3.6);
+        lfp.setVoltageLowWarn(2.6);
+        lfp.setVoltageLowAlarm(2.5);
+        BatteryAlarmRuleRepository repository = Mockito.mock(BatteryAlarmRuleRepository.class);
+        Mockito.when(repository.findAll())
+                .thenReturn(Arrays.asList(defaults, lfp))
+                .thenReturn(Collections.emptyList());
+        AlarmRuleRegistry registry = new AlarmRuleRegistry(repository);
+
+        AlarmRuleRegistry.RuleSet rules = registry.current();
+        Assertions.assertSame(rules, registry.current());
+        double[] v = {3.7};
+        double[] t = {47};
+        int[] reasons = new int[1];
+        int[] score = new int[1];
+        byte[] status = new byte[1];
+        rules.evaluatorFor(2L).evaluate(v, t, reasons, score, status, 0, 1);
+        // LFP：3.7 V 超限；温度阈值继承默认规则的 50 °C，47 °C 只是 warn
+        Assertions.assertEquals(AlarmRuleEvaluator.VOLTAGE_OUT_OF_RANGE | AlarmRuleEvaluator.TEMPERATURE_WARN, reasons[0]);
+        reasons[0] = 0;
+        rules.evaluatorFor(99L).evaluate(v, t, reasons, score, status, 0, 1);
+        Assertions.assertEquals(AlarmRuleEvaluator.TEMPERATURE_WARN, reasons[0]);
+
+        registry.reload();
+        AlarmRuleRegistry.RuleSet reloaded = registry.current();
+        Assertions.assertTrue(reloaded.getVersion() > rules.getVersion());
+        Assertions.assertSame(AlarmRuleEvaluator.DEFAULT, reloaded.evaluatorFor(2L));
+    }
+
+    @Test
+    public void testCompileRejectsPenaltiesAndHysteresisOutOfRange() {
+        BatteryAlarmRule negativePenalty = new BatteryAlarmRule();
+        negativePenalty.setVoltageAlarmPenalty(-10);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AlarmRuleRegistry.compile(negativePenalty, null));
+
+        BatteryAlarmRule hugePenalty = new BatteryAlarmRule();
+        hugePenalty.setMissingPenalty(101);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AlarmRuleRegistry.compile(hugePenalty, null));
+
+        // 默认临界区间 3.1..4.15 V：回差 0.6 V 时 3.7 V 的单体也清不掉告警
+        BatteryAlarmRule wideBand = new BatteryAlarmRule();
+        wideBand.setVoltageHysteresis(0.6);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AlarmRuleRegistry.compile(wideBand, null));
+
+        BatteryAlarmRule negativeHysteresis = new BatteryAlarmRule();
+        negativeHysteresis.setTemperatureHysteresis(-1.0);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AlarmRuleRegistry.compile(negativeHysteresis, null));
+
+        // 型号规则继承默认规则中的无效回差同样被拒绝
+        BatteryAlarmRule parent = new BatteryAlarmRule();
+        parent.setVoltageHysteresis(0.6);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AlarmRuleRegistry.compile(new BatteryAlarmRule(), parent));
+
+        BatteryAlarmRule ok = new BatteryAlarmRule();
+        ok.setVoltageHysteresis(0.05);
+        ok.setVoltageAlarmPenalty(100);
+        ok.setMissingPenalty(0);
+        Assertions.assertNotNull(AlarmRuleRegistry.compile(ok, null));
+    }
+}
@@ -0,0 +1,55 @@
+package com.bms.backend;
+
+import com.bms.backend.dto.BatteryAlarmRuleRequest;
+import com.bms.backend.entity.BatteryAlarmRule;
+import com.bms.backend.exception.BusinessException;
+import com.bms.backend.repository.BatteryAlarmRuleRepository;
+import com.bms.backend.repository.BatteryModelRepository;
+import com.bms.backend.service.BatteryAlarmRuleService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.util.Optional;
+
+public class BatteryAlarmRuleServiceTest {
+
+    private final BatteryAlarmRuleRepository ruleRepository = Mockito.mock(BatteryAlarmRuleRepository.class);
+    private final ApplicationEventPublisher eventPublisher = Mockito.mock(ApplicationEventPublisher.class);
+    private final BatteryAlarmRuleService service = new BatteryAlarmRuleService(
+            ruleRepository, Mockito.mock(BatteryModelRepository.class), eventPublisher);
+
+    @Test
+    public void testSaveDefaultOverwritesTheExistingDefaultRow() {
+        BatteryAlarmRule existing = new BatteryAlarmRule();
+        existing.setId(7L);
+        Mockito.when(ruleRepository.findFirstByModelIdIsNullOrderByIdAsc()).thenReturn(Optional.of(existing));
+        Mockito.when(ruleRepository.saveAndFlush(ArgumentMatchers.any())).thenAnswer(inv -> inv.getArgument(0));
+        BatteryAlarmRuleRequest request = new BatteryAlarmRuleRequest();
+        request.setVoltageHighAlarm(4.25);
+
+        BatteryAlarmRule saved = service.save(null, request);
+        Assertions.assertSame(existing, saved);
+        Assertions.assertEquals(7L, saved.getId().longValue());
+        Assertions.assertEquals(4.25, saved.getVoltageHighAlarm(), 1e-9);
+        Assertions.assertTrue(saved.getEnabled());
+    }
+
+    @Test
+    public void testInvalidRuleAndConcurrentDefaultInsertFailAsBusinessErrors() {
+        Mockito.when(ruleRepository.findFirstByModelIdIsNullOrderByIdAsc()).thenReturn(Optional.empty());
+        BatteryAlarmRuleRequest invalid = new BatteryAlarmRuleRequest();
+        invalid.setVoltageHysteresis(0.6);
+        Assertions.assertThrows(BusinessException.class, () -> service.save(null, invalid));
+        Mockito.verify(ruleRepository, Mockito.never()).saveAndFlush(ArgumentMatchers.any());
+
+        // 另一请求已插入默认规则：default_rule 唯一约束冲突
+        Mockito.when(ruleRepository.saveAndFlush(ArgumentMatchers.any()))
+                .thenThrow(new DataIntegrityViolationException("uk_default_rule"));
+        Assertions.assertThrows(BusinessException.class, () -> service.save(null, new BatteryAlarmRuleRequest()));
+        Mockito.verifyNoInteractions(eventPublisher);
+    }
+}
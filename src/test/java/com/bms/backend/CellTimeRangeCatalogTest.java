@@ -0,0 +1,36 @@
+package com.bms.backend;
+
+import com.bms.backend.influx.CellTimeRangeCatalog;
+import com.bms.backend.influx.InfluxQueryGateway;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+public class CellTimeRangeCatalogTest {
+
+    @Test
+    public void testLatestAndOpenCycleRangesLeaveStopOpen() {
+        CellTimeRangeCatalog catalog = new CellTimeRangeCatalog(Mockito.mock(InfluxQueryGateway.class));
+        ReflectionTestUtils.setField(catalog, "loaded", true);
+        long now = System.currentTimeMillis();
+        catalog.record("Cell01", 1, now - 60_000L);
+        catalog.record("cell01", 1, now - 50_000L);
+        catalog.record("cell01", 2, now - 40_000L);
+        catalog.record("cell02", 1, now - 30_000L);
+
+        // 最新点：start 收紧到各 cell 最后采样中最早的一个，stop 不封口（其他实例的新写入仍可见）
+        String latest = catalog.rangeForLatest(Arrays.asList("cell01", "cell02"), "-30d");
+        Assertions.assertEquals("range(start: " + Instant.ofEpochMilli(now - 40_000L) + ")", latest);
+        Assertions.assertEquals("range(start: " + Instant.ofEpochMilli(now - 60_000L) + ")", catalog.rangeForCell("cell01", "-365d"));
+
+        // 已结束的 cycle 精确封口，最新 cycle 可能仍在写入
+        Assertions.assertEquals("range(start: " + Instant.ofEpochMilli(now - 60_000L)
+                + ", stop: " + Instant.ofEpochMilli(now - 50_000L + 1) + ")", catalog.rangeForCycle("cell01", 1, "-365d"));
+        Assertions.assertEquals("range(start: " + Instant.ofEpochMilli(now - 40_000L) + ")", catalog.rangeForCycle("cell01", 2, "-365d"));
+        Assertions.assertEquals("range(start: -365d)", catalog.rangeForCycle("cell09", 1, "-365d"));
+    }
+}
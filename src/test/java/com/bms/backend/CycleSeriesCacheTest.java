@@ -0,0 +1,135 @@
+package com.bms.backend;
+
+import com.bms.backend.analysis.CycleSeries;
+import com.bms.backend.service.CycleSeriesCache;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CycleSeriesCacheTest {
+
+    private static CycleSeries series(int cycle, int n) {
+        CycleSeries.Builder b = new CycleSeries.Builder(cycle, CycleSeries.TimeUnit.MINUTES, n);
+        for (int i = 0; i < n; i++) {
+            b.add(i, 3.6 + i * 1e-3, 1.0, 25.0, i * 0.01);
+        }
+        return b.build();
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedByWeight() {
+        long oneSeries = series(1, 1000).estimateBytes();
+        CycleSeriesCache cache = new CycleSeriesCache(oneSeries * 2, 60000L, "", 0L);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("s", 1, true, () -> { loads.incrementAndGet(); return series(1, 1000); });
+        cache.get("s", 2, true, () -> { loads.incrementAndGet(); return series(2, 1000); });
+        // 访问 1，使 2 成为最久未用
+        cache.get("s", 1, true, () -> { loads.incrementAndGet(); return series(1, 1000); });
+        cache.get("s", 3, true, () -> { loads.incrementAndGet(); return series(3, 1000); });
+        Assertions.assertEquals(3, loads.get());
+        Assertions.assertEquals(2, cache.getHeapEntryCount());
+        Assertions.assertTrue(cache.getHeapBytes() <= oneSeries * 2);
+
+        cache.get("s", 1, true, () -> { loads.incrementAndGet(); return series(1, 1000); });
+        Assertions.assertEquals(3, loads.get());
+        cache.get("s", 2, true, () -> { loads.incrementAndGet(); return series(2, 1000); });
+        Assertions.assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void testOpenCycleExpiresAndCompletedDoesNot() {
+        CycleSeriesCache cache = new CycleSeriesCache(1 << 20, 0L, "", 0L);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("s", 1, false, () -> { loads.incrementAndGet(); return series(1, 10); });
+        cache.get("s", 1, false, () -> { loads.incrementAndGet(); return series(1, 10); });
+        Assertions.assertEquals(2, loads.get());
+
+        cache.get("s", 2, true, () -> { loads.incrementAndGet(); return series(2, 10); });
+        cache.get("s", 2, true, () -> { loads.incrementAndGet(); return series(2, 10); });
+        Assertions.assertEquals(3, loads.get());
+
+        // 加载失败不缓存
+        Assertions.assertNull(cache.get("s", 3, true, () -> null));
+        Assertions.assertNull(cache.peek("s", 3));
+    }
+
+    @Test
+    public void testDiskTierSurvivesNewInstanceAndInvalidate() throws Exception {
+        Path dir = Files.createTempDirectory("cycle-cache-test");
+        CycleSeries original = series(7, 50);
+        new CycleSeriesCache(1 << 20, 60000L, dir.toString(), 1 << 20)
+                .get("csv:a/b.csv", 7, true, () -> original);
+
+        CycleSeriesCache reopened = new CycleSeriesCache(1 << 20, 60000L, dir.toString(), 1 << 20);
+        CycleSeries fromDisk = reopened.get("csv:a/b.csv", 7, true, () -> {
+            throw new AssertionError("应从磁盘层命中");
+        });
+        Assertions.assertEquals(50, fromDisk.size());
+        Assertions.assertEquals(CycleSeries.TimeUnit.MINUTES, fromDisk.getTimeUnit());
+        Assertions.assertArrayEquals(original.getVoltage(), fromDisk.getVoltage(), 0.0);
+        Assertions.assertArrayEquals(original.getCapacity(), fromDisk.getCapacity(), 0.0);
+
+        reopened.invalidate("csv:a/b.csv");
+        Assertions.assertNull(reopened.peek("csv:a/b.csv", 7));
+    }
+
+    @Test
+    public void testLoaderErrorReachesWaitersAndInvalidateIsPerSeries() throws Exception {
+        CycleSeriesCache cache = new CycleSeriesCache(1 << 20, 60000L, "", 0L);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        OutOfMemoryError oom = new OutOfMemoryError("test");
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> leader = pool.submit(() -> cache.get("s", 1, true, () -> {
+                loading.countDown();
+                await(release);
+                throw oom;
+            }));
+            Assertions.assertTrue(loading.await(2, TimeUnit.SECONDS));
+            Future<?> waiter = pool.submit(() -> cache.get("s", 1, true, () -> series(1, 10)));
+            Thread.sleep(100L);
+            release.countDown();
+            // 合并等待方拿到同一个 Error，不会永远阻塞在 join 上
+            ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> waiter.get(2, TimeUnit.SECONDS));
+            Assertions.assertSame(oom, e.getCause());
+            Assertions.assertThrows(ExecutionException.class, () -> leader.get(2, TimeUnit.SECONDS));
+
+            // 失效其他 series 不丢弃本 series 的在途加载
+            CountDownLatch loading2 = new CountDownLatch(1);
+            CountDownLatch release2 = new CountDownLatch(1);
+            Future<CycleSeries> other = pool.submit(() -> cache.get("a", 1, true, () -> {
+                loading2.countDown();
+                await(release2);
+                return series(1, 10);
+            }));
+            Assertions.assertTrue(loading2.await(2, TimeUnit.SECONDS));
+            cache.invalidate("b");
+            release2.countDown();
+            Assertions.assertNotNull(other.get(2, TimeUnit.SECONDS));
+            Assertions.assertNotNull(cache.peek("a", 1));
+        } finally {
+            release.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
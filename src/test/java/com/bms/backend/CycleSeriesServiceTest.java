@@ -0,0 +1,108 @@
+package com.bms.backend;
+
+import com.bms.backend.analysis.CycleSeries;
+import com.bms.backend.exception.BusinessException;
+import com.bms.backend.influx.CellTimeRangeCatalog;
+import com.bms.backend.influx.InfluxLane;
+import com.bms.backend.influx.InfluxQueryGateway;
+import com.bms.backend.influx.InfluxUnavailableException;
+import com.bms.backend.service.CycleSeriesCache;
+import com.bms.backend.service.CycleSeriesService;
+import com.bms.backend.storage.ObjectStorageService;
+import com.influxdb.query.FluxRecord;
+import com.influxdb.query.FluxTable;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
+public class CycleSeriesServiceTest {
+
+    private final ObjectStorageService storage = Mockito.mock(ObjectStorageService.class);
+    private final InfluxQueryGateway gateway = Mockito.mock(InfluxQueryGateway.class);
+    private final CycleSeriesService service = new CycleSeriesService(
+            new CycleSeriesCache(1 << 20, 60000L, "", 0L), storage, gateway, new CellTimeRangeCatalog(gateway));
+
+    private void csv(String fileKey, String content) {
+        Mockito.when(storage.downloadCsv(fileKey))
+                .thenAnswer(inv -> new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testColumnsAreMappedByHeaderName() {
+        csv("a.csv", "capacity,Voltage,CYCLE,time_min,Current,Temp\n"
+                + "0.10,3.60,1,0.5,1.0,25\n"
+                + "\n"
+                + "0.20,3.70,1,1.0,1.0,26\n"
+                + "0.05,3.50,2,0.5,-1.0,\n");
+
+        CycleSeries c1 = service.getCsvCycle("a.csv", 1);
+        Assertions.assertEquals(CycleSeries.TimeUnit.MINUTES, c1.getTimeUnit());
+        Assertions.assertEquals(2, c1.size());
+        Assertions.assertEquals(1.0, c1.getTime()[1], 0.0);
+        Assertions.assertEquals(3.70, c1.getVoltage()[1], 0.0);
+        Assertions.assertEquals(0.20, c1.getCapacity()[1], 0.0);
+        Assertions.assertTrue(Double.isNaN(service.getCsvCycle("a.csv", 2).getTemp()[0]));
+    }
+
+    @Test
+    public void testTabSeparatedFileIsParsed() {
+        csv("t.csv", "Cycle\tTime_Min\tVoltage\tCurrent\tTemp\tCapacity\n3\t0.5\t3.6\t1.0\t25\t0.1\n");
+
+        Assertions.assertEquals(3.6, service.getCsvCycle("t.csv", 3).getVoltage()[0], 0.0);
+    }
+
+    @Test
+    public void testMissingRequiredColumnsAreRejected() {
+        csv("no-cap.csv", "Cycle,Time_Min,Voltage,Current,Temp\n1,0.5,3.6,1.0,25\n");
+        BusinessException e = Assertions.assertThrows(BusinessException.class, () -> service.getCsvCycles("no-cap.csv"));
+        Assertions.assertEquals("CSV 中缺少 Cycle 或 Capacity 列", e.getMessage());
+
+        // 没有表头的纯数据文件不再按列位置解析
+        csv("no-header.csv", "1,0.5,3.6,1.0,25,0.1\n1,1.0,3.7,1.0,25,0.2\n");
+        Assertions.assertThrows(BusinessException.class, () -> service.getCsvCycle("no-header.csv", 1));
+
+        csv("no-temp.csv", "Cycle,Time_Min,Voltage,Current,Capacity\n1,0.5,3.6,1.0,0.1\n");
+        e = Assertions.assertThrows(BusinessException.class, () -> service.getCsvCycle("no-temp.csv", 1));
+        Assertions.assertTrue(e.getMessage().startsWith("CSV 表头不符合预期"));
+    }
+
+    @Test
+    public void testInfluxCacheKeyMatchesWriteGuardRegardlessOfCase() {
+        long t = Instant.parse("2026-01-01T00:00:00Z").toEpochMilli();
+        FluxRecord record = new FluxRecord(0);
+        record.getValues().put("_time", Instant.ofEpochMilli(t));
+        record.getValues().put("voltage", 3.6);
+        FluxTable table = new FluxTable();
+        table.getRecords().add(record);
+        List<FluxTable> tables = Collections.singletonList(table);
+        Mockito.when(gateway.query(ArgumentMatchers.anyString(), ArgumentMatchers.any())).thenReturn(tables);
+
+        CycleSeries first = service.getInfluxCycle("B1C0", 1, InfluxLane.INTERACTIVE);
+        Assertions.assertEquals(CycleSeries.TimeUnit.EPOCH_MILLIS, first.getTimeUnit());
+        Assertions.assertEquals((double) t, first.getTime()[0], 0.0);
+
+        // 写入登记用小写 cellId：开始写入时须丢弃以任意大小写缓存的序列
+        service.beginWrite("b1c0");
+        service.getInfluxCycle("B1C0", 1, InfluxLane.INTERACTIVE);
+        service.endWrite("b1c0");
+        Mockito.verify(gateway, Mockito.times(2)).query(ArgumentMatchers.anyString(), ArgumentMatchers.any());
+    }
+
+    @Test
+    public void testFailedInfluxQueryThrowsAndIsNotCached() {
+        Mockito.when(gateway.query(ArgumentMatchers.anyString(), ArgumentMatchers.any()))
+                .thenThrow(new InfluxUnavailableException("timeout", null))
+                .thenReturn(Collections.emptyList());
+
+        Assertions.assertThrows(InfluxUnavailableException.class,
+                () -> service.getInfluxCycle("c1", 1, InfluxLane.BACKGROUND));
+        Assertions.assertEquals(0, service.getInfluxCycle("c1", 1, InfluxLane.BACKGROUND).size());
+    }
+}
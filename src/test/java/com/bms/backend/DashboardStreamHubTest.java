@@ -0,0 +1,114 @@
+package com.bms.backend;
+
+import com.bms.backend.entity.DashboardData;
+import com.bms.backend.service.BatteryDataService;
+import com.bms.backend.service.DashboardStreamHub;
+import com.bms.backend.service.TopologyWireCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class DashboardStreamHubTest {
+
+    @Test
+    public void testOneTickerPerPairFansOutToAllSubscribers() throws Exception {
+        BatteryDataService dataService = Mockito.mock(BatteryDataService.class);
+        DashboardData data = new DashboardData();
+        data.setCellIdA("b1c0");
+        data.setCellIdB("b1c1");
+        CountDownLatch subscribed = new CountDownLatch(1);
+        Mockito.when(dataService.getDashboardStream("b1c0", "b1c1")).thenAnswer(inv -> {
+            subscribed.await(2, TimeUnit.SECONDS);
+            return data;
+        });
+
+        DashboardStreamHub hub = new DashboardStreamHub(dataService, new TopologyWireCodec(new ObjectMapper()));
+        hub.init();
+        try {
+            WebSocketSession s1 = openSession("s1");
+            WebSocketSession s2 = openSession("s2");
+            hub.subscribe("b1c0", "b1c1", s1);
+            hub.subscribe("b1c0", "b1c1", s2);
+            subscribed.countDown();
+
+            Mockito.verify(s1, Mockito.timeout(2000)).sendMessage(Mockito.any(TextMessage.class));
+            Mockito.verify(s2, Mockito.timeout(2000)).sendMessage(Mockito.any(TextMessage.class));
+            // 默认周期 1s：首个 tick 之后两位订阅者共享同一次取数
+            Mockito.verify(dataService, Mockito.times(1)).getDashboardStream("b1c0", "b1c1");
+            Assertions.assertEquals(1, hub.getActivePairCount());
+            Assertions.assertSame(data, hub.latestIfFresh("b1c0", "b1c1"));
+
+            hub.unsubscribe(s1);
+            Assertions.assertEquals(1, hub.getActivePairCount());
+            hub.unsubscribe(s2);
+            Assertions.assertEquals(0, hub.getActivePairCount());
+            Assertions.assertNull(hub.latestIfFresh("b1c0", "b1c1"));
+        } finally {
+            hub.shutdown();
+        }
+    }
+
+    @Test
+    public void testStalledSessionIsEvictedWithoutBlockingOtherSubscribers() throws Exception {
+        BatteryDataService dataService = Mockito.mock(BatteryDataService.class);
+        DashboardData data = new DashboardData();
+        CountDownLatch subscribed = new CountDownLatch(1);
+        Mockito.when(dataService.getDashboardStream("b1c0", "b1c1")).thenAnswer(inv -> {
+            subscribed.await(2, TimeUnit.SECONDS);
+            return data;
+        });
+
+        DashboardStreamHub hub = new DashboardStreamHub(dataService, new TopologyWireCodec(new ObjectMapper()));
+        // 只有一个发送线程：卡住的 session 占住它后，其他订阅者只能靠看门狗补位的线程发送
+        ReflectionTestUtils.setField(hub, "senderThreads", 1);
+        ReflectionTestUtils.setField(hub, "sendTimeoutMs", 200L);
+        ReflectionTestUtils.setField(hub, "watchdogIntervalMs", 100L);
+        hub.init();
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            WebSocketSession stalled = openSession("stalled");
+            // 客户端不读、TCP 窗口塞满：发送不返回，也不响应中断
+            Mockito.doAnswer(inv -> {
+                while (release.getCount() > 0) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                return null;
+            }).when(stalled).sendMessage(Mockito.any());
+            WebSocketSession healthy = openSession("healthy");
+            hub.subscribe("b1c0", "b1c1", stalled);
+            hub.subscribe("b1c0", "b1c1", healthy);
+            subscribed.countDown();
+
+            Mockito.verify(healthy, Mockito.timeout(2000)).sendMessage(Mockito.any(TextMessage.class));
+            Assertions.assertEquals(1, hub.getActivePairCount());
+
+            // 卡住的发送返回后由发送线程关闭被放弃的 session
+            release.countDown();
+            Mockito.verify(stalled, Mockito.timeout(2000)).close();
+            Mockito.verify(stalled, Mockito.times(1)).sendMessage(Mockito.any());
+        } finally {
+            release.countDown();
+            hub.shutdown();
+        }
+    }
+
+    private static WebSocketSession openSession(String id) {
+        WebSocketSession session = Mockito.mock(WebSocketSession.class);
+        HashMap<String, Object> attrs = new HashMap<>();
+        Mockito.when(session.getId()).thenReturn(id);
+        Mockito.when(session.isOpen()).thenReturn(true);
+        Mockito.when(session.getAttributes()).thenReturn(attrs);
+        return session;
+    }
+}
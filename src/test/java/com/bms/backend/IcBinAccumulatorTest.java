@@ -0,0 +1,84 @@
+package com.bms.backend;
+
+import com.bms.backend.analysis.IcBinAccumulator;
+import com.bms.backend.analysis.IcCurveKernel;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class IcBinAccumulatorTest {
+
+    /** Q(V) = 0.5·V + 0.2·tanh((V-3.8)/0.02)，dQ/dV 在 3.8V 处取峰值 0.5 + 10 = 10.5 */
+    private static double q(double v) {
+        return 0.5 * v + 0.2 * Math.tanh((v - 3.8) / 0.02);
+    }
+
+    @Test
+    public void testBinnedCurveRecoversKnownPeakFromCapacity() {
+        IcBinAccumulator acc = new IcBinAccumulator(0.005);
+        int n = 6000;
+        for (int i = 0; i <= n; i++) {
+            double v = 3.55 + 0.7 * i / n;
+            acc.accept(i * 1000L, v, 1.0, q(v));
+        }
+        Assertions.assertTrue(acc.usesCapacity());
+
+        IcCurveKernel.IcCurve curve = acc.finish();
+        Assertions.assertEquals(120, curve.size());
+        for (int i = 1; i < curve.size(); i++) {
+            Assertions.assertTrue(curve.getVoltage()[i] > curve.getVoltage()[i - 1]);
+        }
+        int peak = curve.peakIndex();
+        Assertions.assertEquals(3.8, curve.getVoltage()[peak], 0.005);
+        Assertions.assertEquals(10.5, curve.getDqdv()[peak], 0.5);
+    }
+
+    @Test
+    public void testFallsBackToCoulombCountingWhenCapacityIsFlat() {
+        IcBinAccumulator acc = new IcBinAccumulator(0.01);
+        // 恒流 2A、每秒一个点，电压每秒升 0.5mV：dQ/dV = 2A·(1/3600)h / 0.0005V
+        for (int i = 0; i <= 1200; i++) {
+            acc.accept(i * 1000L, 3.6 + 0.0005 * i, 2.0, 0.0);
+        }
+        Assertions.assertFalse(acc.usesCapacity());
+
+        IcCurveKernel.IcCurve curve = acc.finish();
+        Assertions.assertEquals(60, curve.size());
+        double expected = Math.min(IcCurveKernel.DQDV_ABS_CLIP, 2.0 / 3600.0 / 0.0005);
+        for (int i = 0; i < curve.size(); i++) {
+            Assertions.assertEquals(expected, curve.getDqdv()[i], 1e-6);
+        }
+    }
+
+    @Test
+    public void testOutOfOrderAndInvalidSamplesAreIgnored() {
+        IcBinAccumulator acc = new IcBinAccumulator(0.005);
+        acc.accept(1000L, 3.70, 1.0, Double.NaN);
+        acc.accept(2000L, Double.NaN, 1.0, Double.NaN);
+        acc.accept(500L, 3.90, 1.0, Double.NaN);
+        acc.accept(3000L, 3.71, 1.0, Double.NaN);
+        Assertions.assertEquals(3L, acc.getSampleCount());
+        Assertions.assertEquals(1, acc.finish().size());
+    }
+
+    @Test
+    public void testChargeAndDischargeThroughSameBinsDoNotCancel() {
+        IcBinAccumulator acc = new IcBinAccumulator(0.01);
+        // 恒流 2A 充电升压后再放电回落，经过同一批电压桶
+        long t = 0L;
+        for (int i = 0; i <= 1200; i++) {
+            acc.accept(t, 3.6 + 0.0005 * i, 2.0, 0.0);
+            t += 1000L;
+        }
+        for (int i = 1199; i >= 0; i--) {
+            acc.accept(t, 3.6 + 0.0005 * i, -2.0, 0.0);
+            t += 1000L;
+        }
+
+        IcCurveKernel.IcCurve curve = acc.finish();
+        Assertions.assertEquals(60, curve.size());
+        double expected = Math.min(IcCurveKernel.DQDV_ABS_CLIP, 2.0 / 3600.0 / 0.0005);
+        for (int i = 0; i < curve.size(); i++) {
+            Assertions.assertEquals(expected, curve.getDqdv()[i], 1e-6);
+        }
+    }
+}
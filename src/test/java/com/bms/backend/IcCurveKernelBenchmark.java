@@ -0,0 +1,59 @@
+package com.bms.backend;
+
+import com.bms.backend.analysis.IcCurveKernel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IC 计算基准：XJTU batch1_b1c0 全部 cycle，原 List&lt;IcPointDto&gt; 实现 vs 原始数组内核。
+ * 运行：mvn test-compile 后执行本类 main（需在项目根目录，以便找到 data/XJTU）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IcCurveKernelBenchmark {
+
+    private List<double[][]> cycles;
+
+    @Setup
+    public void load() throws Exception {
+        cycles = XjtuCycles.load("batch1_b1c0.csv");
+    }
+
+    @Benchmark
+    public void legacyBoxedLists(Blackhole bh) {
+        for (double[][] vq : cycles) {
+            bh.consume(LegacyIcReference.calculate(vq[0], vq[1], 5));
+        }
+    }
+
+    @Benchmark
+    public void primitiveKernel(Blackhole bh) {
+        for (double[][] vq : cycles) {
+            bh.consume(IcCurveKernel.compute(vq[0], vq[1], vq[0].length, 5));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(IcCurveKernelBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
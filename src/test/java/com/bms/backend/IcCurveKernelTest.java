@@ -0,0 +1,54 @@
+package com.bms.backend;
+
+import com.bms.backend.analysis.IcCurveKernel;
+import com.bms.backend.dto.IcPointDto;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class IcCurveKernelTest {
+
+    @Test
+    public void testKernelMatchesLegacyCurveOnXjtuCycles() throws Exception {
+        List<double[][]> cycles = XjtuCycles.load("batch1_b1c0.csv");
+        Assertions.assertFalse(cycles.isEmpty());
+        for (double[][] vq : cycles) {
+            List<IcPointDto> expected = LegacyIcReference.calculate(vq[0], vq[1], 5);
+            IcCurveKernel.IcCurve actual = IcCurveKernel.compute(vq[0], vq[1], vq[0].length, 5);
+            Assertions.assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < actual.size(); i++) {
+                Assertions.assertEquals(expected.get(i).getVoltage(), actual.getVoltage()[i], 1e-12);
+                Assertions.assertEquals(expected.get(i).getDqdv(), actual.getDqdv()[i], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testSelectReturnsKthSmallest() {
+        double[] a = {5.0, 1.0, 4.0, 2.0, 3.0, 2.0, 9.0, 0.5};
+        Assertions.assertEquals(2.0, IcCurveKernel.select(a.clone(), a.length, 2));
+        Assertions.assertEquals(3.0, IcCurveKernel.select(a.clone(), a.length, a.length / 2));
+        Assertions.assertEquals(9.0, IcCurveKernel.select(a.clone(), a.length, a.length - 1));
+    }
+
+    @Test
+    public void testPeakFeaturesOnGaussianPeak() {
+        int n = 601;
+        double[] v = new double[n];
+        double[] y = new double[n];
+        double sigma = 0.02;
+        for (int i = 0; i < n; i++) {
+            v[i] = 3.6 + 0.001 * i;
+            y[i] = 8.0 * Math.exp(-Math.pow(v[i] - 3.85, 2) / (2 * sigma * sigma));
+        }
+        IcCurveKernel.PeakFeatures f = IcCurveKernel.peakFeatures(new IcCurveKernel.IcCurve(v, y, n));
+        Assertions.assertEquals(3.85, f.getPeakVoltage(), 1e-9);
+        Assertions.assertEquals(8.0, f.getPeakHeight(), 1e-9);
+        Assertions.assertEquals(2.3548 * sigma, f.getFwhm(), 5e-4);
+        // 半高宽区间内约占高斯总面积的 76.1%
+        Assertions.assertEquals(0.7610 * 8.0 * sigma * Math.sqrt(2 * Math.PI), f.getPeakArea(), 2e-3);
+
+        Assertions.assertNull(IcCurveKernel.peakFeatures(IcCurveKernel.EMPTY));
+    }
+}
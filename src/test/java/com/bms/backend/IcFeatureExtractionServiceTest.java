@@ -0,0 +1,157 @@
+package com.bms.backend;
+
+import com.bms.backend.analysis.IcCurveKernel;
+import com.bms.backend.entity.Battery;
+import com.bms.backend.entity.IcCycleFeature;
+import com.bms.backend.influx.CellTimeRangeCatalog;
+import com.bms.backend.influx.InfluxLane;
+import com.bms.backend.influx.InfluxUnavailableException;
+import com.bms.backend.repository.BatteryRepository;
+import com.bms.backend.repository.IcCycleFeatureRepository;
+import com.bms.backend.service.BatteryDataService;
+import com.bms.backend.service.IcFeatureExtractionService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class IcFeatureExtractionServiceTest {
+
+    private BatteryRepository batteryRepository;
+    private BatteryDataService dataService;
+    private CellTimeRangeCatalog catalog;
+    private IcCycleFeatureRepository featureRepository;
+    private IcFeatureExtractionService service;
+    private long cycleLastMs;
+
+    @BeforeEach
+    public void setUp() {
+        batteryRepository = Mockito.mock(BatteryRepository.class);
+        dataService = Mockito.mock(BatteryDataService.class);
+        catalog = Mockito.mock(CellTimeRangeCatalog.class);
+        featureRepository = Mockito.mock(IcCycleFeatureRepository.class);
+
+        Battery battery = new Battery();
+        battery.setBatteryCode("c1");
+        Mockito.when(batteryRepository.findByDeletedFalse()).thenReturn(Collections.singletonList(battery));
+        // cycle 1 已完成，cycle 2 为仍在写入的最新 cycle
+        cycleLastMs = System.currentTimeMillis() - 3_600_000L;
+        Mockito.when(catalog.cycles("c1")).thenReturn(Arrays.asList(1, 2));
+        Mockito.when(catalog.cycleBounds("c1", 1)).thenReturn(new CellTimeRangeCatalog.TimeBounds(cycleLastMs - 1000L, cycleLastMs));
+        Mockito.when(catalog.cycleBounds("c1", 2)).thenReturn(new CellTimeRangeCatalog.TimeBounds(cycleLastMs, System.currentTimeMillis()));
+        Mockito.when(dataService.calculateRawIcCurve(ArgumentMatchers.anyString(), ArgumentMatchers.anyInt(),
+                ArgumentMatchers.anyInt(), ArgumentMatchers.eq(InfluxLane.BACKGROUND))).thenReturn(IcCurveKernel.EMPTY);
+
+        service = new IcFeatureExtractionService(batteryRepository, dataService, catalog, featureRepository);
+        ReflectionTestUtils.setField(service, "parallelism", 1);
+        ReflectionTestUtils.setField(service, "smoothWindow", 5);
+        ReflectionTestUtils.setField(service, "settleMs", 600_000L);
+        ReflectionTestUtils.setField(service, "retryBackoffMs", 3_600_000L);
+        ReflectionTestUtils.setField(service, "maxRetries", 3);
+        service.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    private IcCycleFeature row(boolean peakFound, int smooth, long sourceLastMs, int attempts, long updatedAgoMs) {
+        IcCycleFeature row = new IcCycleFeature();
+        row.setCellId("c1");
+        row.setCycleIndex(1);
+        row.setPeakFound(peakFound);
+        row.setSmoothWindow(smooth);
+        row.setSourceLastMs(sourceLastMs);
+        row.setAttempts(attempts);
+        row.setUpdatedAt(OffsetDateTime.now().minusNanos(updatedAgoMs * 1_000_000L));
+        return row;
+    }
+
+    @Test
+    public void testCycleWithoutPeakPersistsMarkerRow() {
+        Mockito.when(featureRepository.findByCellId("c1")).thenReturn(Collections.emptyList());
+
+        Assertions.assertEquals(1, service.runIncremental());
+
+        ArgumentCaptor<IcCycleFeature> saved = ArgumentCaptor.forClass(IcCycleFeature.class);
+        Mockito.verify(featureRepository).save(saved.capture());
+        Assertions.assertEquals(1, saved.getValue().getCycleIndex().intValue());
+        Assertions.assertEquals(Boolean.FALSE, saved.getValue().getPeakFound());
+        Assertions.assertEquals(1, saved.getValue().getAttempts().intValue());
+        Assertions.assertEquals(cycleLastMs, saved.getValue().getSourceLastMs().longValue());
+    }
+
+    @Test
+    public void testMarkerRowIsNotRequeriedUntilBackoffElapses() {
+        Mockito.when(featureRepository.findByCellId("c1"))
+                .thenReturn(Collections.singletonList(row(false, 5, cycleLastMs, 1, 60_000L)));
+
+        Assertions.assertEquals(0, service.runIncremental());
+        Mockito.verifyNoInteractions(dataService);
+    }
+
+    @Test
+    public void testMarkerRowIsRetriedWithBackoffUpToMaxRetries() {
+        IcCycleFeature marker = row(false, 5, cycleLastMs, 2, 7_300_000L);
+        Mockito.when(featureRepository.findByCellId("c1")).thenReturn(Collections.singletonList(marker));
+
+        Assertions.assertEquals(1, service.runIncremental());
+        Assertions.assertEquals(3, marker.getAttempts().intValue());
+
+        // 达到 max-retries 后不再重试
+        Mockito.clearInvocations(dataService);
+        marker.setUpdatedAt(OffsetDateTime.now().minusDays(30));
+        Assertions.assertEquals(0, service.runIncremental());
+        Mockito.verifyNoInteractions(dataService);
+    }
+
+    @Test
+    public void testRowWithDifferentSmoothWindowIsRecomputed() {
+        IcCycleFeature done = row(true, 3, cycleLastMs, 0, 60_000L);
+        Mockito.when(featureRepository.findByCellId("c1")).thenReturn(Collections.singletonList(done));
+
+        Assertions.assertEquals(1, service.runIncremental());
+        // 原地更新已有行，不插入重复的 (cell_id, cycle_index)
+        Mockito.verify(featureRepository).save(ArgumentMatchers.same(done));
+        Assertions.assertEquals(5, done.getSmoothWindow().intValue());
+    }
+
+    @Test
+    public void testRowOlderThanCatalogLastWriteIsRecomputed() {
+        Mockito.when(featureRepository.findByCellId("c1"))
+                .thenReturn(Collections.singletonList(row(true, 5, cycleLastMs - 5000L, 0, 60_000L)));
+
+        Assertions.assertEquals(1, service.runIncremental());
+        Mockito.verify(dataService).calculateRawIcCurve("c1", 1, 5, InfluxLane.BACKGROUND);
+    }
+
+    @Test
+    public void testUpToDateRowIsSkipped() {
+        Mockito.when(featureRepository.findByCellId("c1"))
+                .thenReturn(Collections.singletonList(row(true, 5, cycleLastMs, 0, 60_000L)));
+
+        Assertions.assertEquals(0, service.runIncremental());
+        Mockito.verifyNoInteractions(dataService);
+    }
+
+    @Test
+    public void testInfluxFailureDoesNotPersistMarkerRow() {
+        Mockito.when(featureRepository.findByCellId("c1")).thenReturn(Collections.emptyList());
+        Mockito.when(dataService.calculateRawIcCurve(ArgumentMatchers.anyString(), ArgumentMatchers.anyInt(),
+                ArgumentMatchers.anyInt(), ArgumentMatchers.eq(InfluxLane.BACKGROUND)))
+                .thenThrow(new InfluxUnavailableException("lane full", null));
+
+        // 查询失败不是「无峰」：不写标记行，下一轮照常重算
+        Assertions.assertEquals(0, service.runIncremental());
+        Mockito.verify(featureRepository, Mockito.never()).save(ArgumentMatchers.any());
+    }
+}
@@ -0,0 +1,134 @@
+package com.bms.backend;
+
+import com.bms.backend.influx.InfluxBulkhead;
+import com.bms.backend.influx.InfluxLane;
+import com.bms.backend.influx.InfluxQueryGateway;
+import com.bms.backend.influx.InfluxQueryResult;
+import com.influxdb.client.InfluxDBClient;
+import com.influxdb.client.QueryApi;
+import com.influxdb.query.FluxTable;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class InfluxQueryGatewayTest {
+
+    @Test
+    public void testConcurrentIdenticalQueriesHitInfluxOnce() throws Exception {
+        InfluxDBClient client = Mockito.mock(InfluxDBClient.class);
+        QueryApi queryApi = Mockito.mock(QueryApi.class);
+        Mockito.when(client.getQueryApi()).thenReturn(queryApi);
+
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        List<FluxTable> result = Collections.singletonList(new FluxTable());
+        Mockito.when(queryApi.query(Mockito.anyString(), Mockito.anyString())).thenAnswer(inv -> {
+            calls.incrementAndGet();
+            release.await(5, TimeUnit.SECONDS);
+            return result;
+        });
+
+        InfluxQueryGateway gateway = new InfluxQueryGateway(client, newBulkhead(), "bms_org", 0L);
+        ExecutorService pool = Executors.newFixedThreadPool(10);
+        List<Future<List<FluxTable>>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(pool.submit(() -> gateway.query("from(bucket: \"b\") |> range(start: -1m)")));
+        }
+        Thread.sleep(200);
+        release.countDown();
+        for (Future<List<FluxTable>> f : futures) {
+            Assertions.assertEquals(1, f.get(5, TimeUnit.SECONDS).size());
+        }
+        pool.shutdown();
+
+        Assertions.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testResultTtlReusesRecentResult() {
+        InfluxDBClient client = Mockito.mock(InfluxDBClient.class);
+        QueryApi queryApi = Mockito.mock(QueryApi.class);
+        Mockito.when(client.getQueryApi()).thenReturn(queryApi);
+        Mockito.when(queryApi.query(Mockito.anyString(), Mockito.anyString()))
+                .thenReturn(Collections.singletonList(new FluxTable()));
+
+        InfluxQueryGateway gateway = new InfluxQueryGateway(client, newBulkhead(), "bms_org", 60000L);
+        gateway.query("q1");
+        gateway.query("q1");
+        gateway.query("q2");
+
+        Mockito.verify(queryApi, Mockito.times(1)).query("q1", "bms_org");
+        Mockito.verify(queryApi, Mockito.times(1)).query("q2", "bms_org");
+    }
+
+    @Test
+    public void testFailedQueryFallsBackToLastGoodResultMarkedStale() {
+        InfluxDBClient client = Mockito.mock(InfluxDBClient.class);
+        QueryApi queryApi = Mockito.mock(QueryApi.class);
+        Mockito.when(client.getQueryApi()).thenReturn(queryApi);
+        Mockito.when(queryApi.query(Mockito.anyString(), Mockito.anyString()))
+                .thenReturn(Collections.singletonList(new FluxTable()))
+                .thenThrow(new RuntimeException("influx down"));
+
+        InfluxQueryGateway gateway = new InfluxQueryGateway(client, newBulkhead(), "bms_org", 0L);
+        InfluxQueryResult first = gateway.queryOrStale("range(start: -1m)", InfluxLane.REFRESH, "latest");
+        InfluxQueryResult second = gateway.queryOrStale("range(start: -2m)", InfluxLane.REFRESH, "latest");
+
+        Assertions.assertFalse(first.isStale());
+        Assertions.assertTrue(second.isStale());
+        Assertions.assertEquals(1, second.getTables().size());
+    }
+
+    @Test
+    public void testErrorInLeaderReleasesCoalescedWaiters() throws Exception {
+        InfluxBulkhead bulkhead = Mockito.mock(InfluxBulkhead.class);
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Mockito.when(bulkhead.execute(Mockito.any(), Mockito.any())).thenAnswer(inv -> {
+            leaderStarted.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            throw new StackOverflowError("boom");
+        });
+        Mockito.when(bulkhead.awaitShared(Mockito.any(), Mockito.any())).thenAnswer(inv -> {
+            Future<?> shared = inv.getArgument(1);
+            try {
+                return shared.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        });
+        InfluxQueryGateway gateway = new InfluxQueryGateway(Mockito.mock(InfluxDBClient.class), bulkhead, "bms_org", 0L);
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        Future<List<FluxTable>> leader = pool.submit(() -> gateway.query("q"));
+        Assertions.assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+        Future<List<FluxTable>> waiter = pool.submit(() -> gateway.query("q"));
+        Thread.sleep(100);
+        long t0 = System.currentTimeMillis();
+        release.countDown();
+
+        ExecutionException leaderError = Assertions.assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(leaderError.getCause() instanceof StackOverflowError);
+        ExecutionException waiterError = Assertions.assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(waiterError.getCause().getCause() instanceof StackOverflowError);
+        Assertions.assertTrue(System.currentTimeMillis() - t0 < 2000);
+        pool.shutdown();
+    }
+
+    private static InfluxBulkhead newBulkhead() {
+        InfluxBulkhead bulkhead = new InfluxBulkhead();
+        bulkhead.init();
+        return bulkhead;
+    }
+}
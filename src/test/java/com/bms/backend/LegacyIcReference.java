@@ -0,0 +1,80 @@
+package com.bms.backend;
+
+import com.bms.backend.dto.IcPointDto;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 原 BatteryDataService 中基于 List&lt;IcPointDto&gt; 的 IC 计算，保留作正确性对照与基准基线。
+ */
+final class LegacyIcReference {
+
+    private LegacyIcReference() {
+    }
+
+    static List<IcPointDto> calculate(double[] v, double[] q, int smoothWindow) {
+        if (v.length < 3) return new ArrayList<>();
+        List<IcPointDto> raw = new ArrayList<>();
+        for (int i = 1; i < v.length; i++) {
+            double vmid = (v[i - 1] + v[i]) / 2.0;
+            if (vmid < 3.60 || vmid > 4.20) continue;
+            double dv = v[i] - v[i - 1];
+            if (Math.abs(dv) < 1e-6) continue;
+            double dqdv = (q[i] - q[i - 1]) / dv;
+            if (Double.isNaN(dqdv) || Double.isInfinite(dqdv)) continue;
+            dqdv = Math.max(-30.0, Math.min(30.0, dqdv));
+            raw.add(new IcPointDto(vmid, dqdv));
+        }
+        List<IcPointDto> smoothed = smooth(robustClip(raw), Math.max(1, smoothWindow));
+        smoothed.sort(Comparator.comparingDouble(p -> p.getVoltage() == null ? 0.0 : p.getVoltage()));
+        return smoothed;
+    }
+
+    private static List<IcPointDto> smooth(List<IcPointDto> src, int window) {
+        if (window <= 1 || src.size() <= 2) return src;
+        List<IcPointDto> out = new ArrayList<>(src.size());
+        int half = window / 2;
+        for (int i = 0; i < src.size(); i++) {
+            int l = Math.max(0, i - half);
+            int r = Math.min(src.size() - 1, i + half);
+            double sum = 0.0;
+            int n = 0;
+            for (int j = l; j <= r; j++) {
+                if (src.get(j).getDqdv() != null) {
+                    sum += src.get(j).getDqdv();
+                    n++;
+                }
+            }
+            out.add(new IcPointDto(src.get(i).getVoltage(), n > 0 ? sum / n : 0.0));
+        }
+        return out;
+    }
+
+    private static List<IcPointDto> robustClip(List<IcPointDto> src) {
+        if (src == null || src.size() < 8) return src;
+        List<Double> vals = src.stream()
+                .map(IcPointDto::getDqdv)
+                .filter(x -> x != null && !Double.isNaN(x) && !Double.isInfinite(x))
+                .sorted()
+                .collect(Collectors.toList());
+        if (vals.size() < 8) return src;
+        double median = vals.get(vals.size() / 2);
+        List<Double> absDev = vals.stream()
+                .map(x -> Math.abs(x - median))
+                .sorted()
+                .collect(Collectors.toList());
+        double mad = absDev.get(absDev.size() / 2);
+        if (mad < 1e-9) return src;
+        double lo = median - 3.5 * 1.4826 * mad;
+        double hi = median + 3.5 * 1.4826 * mad;
+        List<IcPointDto> out = new ArrayList<>(src.size());
+        for (IcPointDto p : src) {
+            double x = Math.max(lo, Math.min(hi, p.getDqdv()));
+            out.add(new IcPointDto(p.getVoltage(), x));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,105 @@
+package com.bms.backend;
+
+import com.bms.backend.dto.IcAnalysisResponse;
+import com.bms.backend.dto.PackIcComparisonResponse;
+import com.bms.backend.influx.CellTimeRangeCatalog;
+import com.bms.backend.influx.InfluxLane;
+import com.bms.backend.influx.InfluxQueryGateway;
+import com.bms.backend.influx.InfluxUnavailableException;
+import com.bms.backend.service.BatteryDataService;
+import com.bms.backend.service.PackIcAnalysisService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PackIcAnalysisServiceTest {
+
+    private static IcAnalysisResponse ic(String cellId, double drop) {
+        IcAnalysisResponse r = new IcAnalysisResponse();
+        r.setCellId(cellId);
+        r.setRefCycle(1);
+        r.setCurrCycle(10);
+        r.setPeakShift(0.01);
+        r.setPeakDropPercent(drop);
+        return r;
+    }
+
+    @Test
+    public void testFailedAndTimedOutCellsDoNotFailThePack() throws Exception {
+        BatteryDataService dataService = Mockito.mock(BatteryDataService.class);
+        Mockito.when(dataService.findCellIdsByPack("p1")).thenReturn(Arrays.asList("p1_c0", "p1_c1", "p1_c2"));
+        Mockito.when(dataService.getIcPeakComparison(ArgumentMatchers.eq("p1_c0"), ArgumentMatchers.any(), ArgumentMatchers.any(),
+                ArgumentMatchers.anyInt(), ArgumentMatchers.any())).thenReturn(ic("p1_c0", 5.0));
+        Mockito.when(dataService.getIcPeakComparison(ArgumentMatchers.eq("p1_c1"), ArgumentMatchers.any(), ArgumentMatchers.any(),
+                ArgumentMatchers.anyInt(), ArgumentMatchers.any())).thenThrow(new IllegalStateException("bad cell"));
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Mockito.when(dataService.getIcPeakComparison(ArgumentMatchers.eq("p1_c2"), ArgumentMatchers.any(), ArgumentMatchers.any(),
+                ArgumentMatchers.anyInt(), ArgumentMatchers.any())).thenAnswer(inv -> {
+            try {
+                Thread.sleep(10_000L);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return ic("p1_c2", 1.0);
+        });
+
+        PackIcAnalysisService service = new PackIcAnalysisService(dataService);
+        ReflectionTestUtils.setField(service, "parallelism", 3);
+        ReflectionTestUtils.setField(service, "timeoutMs", 300L);
+        service.init();
+        try {
+            PackIcComparisonResponse resp = service.comparePack("p1", null, null, 5);
+            Assertions.assertEquals(3, resp.getCells().size());
+            Assertions.assertEquals(1, resp.getAnalyzedCount().intValue());
+            Assertions.assertEquals("p1_c0", resp.getCells().get(0).getCellId());
+            Assertions.assertEquals("bad cell", resp.getCells().stream()
+                    .filter(c -> "p1_c1".equals(c.getCellId())).findFirst().get().getError());
+            Assertions.assertNotNull(resp.getCells().stream()
+                    .filter(c -> "p1_c2".equals(c.getCellId())).findFirst().get().getError());
+            // 超时的单体被取消（中断），不再占用线程池
+            Assertions.assertTrue(interrupted.await(2, TimeUnit.SECONDS));
+            // 批量查询不走交互通道
+            Mockito.verify(dataService, Mockito.never()).getIcPeakComparison(ArgumentMatchers.anyString(), ArgumentMatchers.any(),
+                    ArgumentMatchers.any(), ArgumentMatchers.anyInt(), ArgumentMatchers.eq(InfluxLane.INTERACTIVE));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void testInfluxFailureIsReportedOnTheCell() {
+        InfluxQueryGateway gateway = Mockito.mock(InfluxQueryGateway.class);
+        Mockito.when(gateway.query(ArgumentMatchers.anyString(), ArgumentMatchers.any())).thenAnswer(inv -> {
+            if (inv.getArgument(0, String.class).contains("\"p1_c0\"")) {
+                throw new InfluxUnavailableException("lane full", null);
+            }
+            return Collections.emptyList();
+        });
+        BatteryDataService dataService = Mockito.spy(new BatteryDataService());
+        ReflectionTestUtils.setField(dataService, "influxQueryGateway", gateway);
+        ReflectionTestUtils.setField(dataService, "timeRangeCatalog", Mockito.mock(CellTimeRangeCatalog.class));
+        Mockito.doReturn(Arrays.asList("p1_c0", "p1_c1")).when(dataService).findCellIdsByPack("p1");
+
+        PackIcAnalysisService service = new PackIcAnalysisService(dataService);
+        ReflectionTestUtils.setField(service, "parallelism", 2);
+        ReflectionTestUtils.setField(service, "timeoutMs", 5000L);
+        service.init();
+        try {
+            PackIcComparisonResponse resp = service.comparePack("p1", null, null, 5);
+            // 查询失败的单体带 error；确实没有 cycle 的单体是正常的空结果
+            Assertions.assertEquals("lane full", resp.getCells().stream()
+                    .filter(c -> "p1_c0".equals(c.getCellId())).findFirst().get().getError());
+            Assertions.assertNull(resp.getCells().stream()
+                    .filter(c -> "p1_c1".equals(c.getCellId())).findFirst().get().getError());
+        } finally {
+            service.shutdown();
+        }
+    }
+}
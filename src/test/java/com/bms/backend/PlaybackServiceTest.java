@@ -0,0 +1,235 @@
+package com.bms.backend;
+
+import com.bms.backend.dto.PlaybackFrameDto;
+import com.bms.backend.exception.BusinessException;
+import com.bms.backend.influx.CellTimeRangeCatalog;
+import com.bms.backend.influx.InfluxLane;
+import com.bms.backend.influx.InfluxQueryGateway;
+import com.bms.backend.service.BatteryDataService;
+import com.bms.backend.service.PlaybackService;
+import com.influxdb.query.FluxRecord;
+import com.influxdb.query.FluxTable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class PlaybackServiceTest {
+
+    private static final long T0 = Instant.parse("2026-01-01T00:00:00Z").toEpochMilli();
+    private static final Pattern FROM = Pattern.compile("range\\(start: ([^,]+), stop: ([^)]+)\\)");
+
+    /** 记录每次发送的事件名、时刻与帧内点数 */
+    private static class RecordingEmitter extends SseEmitter {
+        final List<String> events = new CopyOnWriteArrayList<>();
+        final List<Long> sentAt = new CopyOnWriteArrayList<>();
+        final AtomicInteger points = new AtomicInteger();
+        final CountDownLatch ended = new CountDownLatch(1);
+
+        RecordingEmitter() {
+            super(0L);
+        }
+
+        /** 返回事件名，子类可在此阻塞或抛出断开异常 */
+        String beforeSend(String event) throws IOException {
+            return event;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            String event = null;
+            for (ResponseBodyEmitter.DataWithMediaType d : builder.build()) {
+                Object data = d.getData();
+                if (event == null && data instanceof String && ((String) data).startsWith("event:")) {
+                    String text = (String) data;
+                    event = text.substring("event:".length(), text.indexOf('\n'));
+                } else if (data instanceof List) {
+                    for (Object f : (List<?>) data) points.addAndGet(((PlaybackFrameDto) f).getPoints().size());
+                }
+            }
+            beforeSend(event);
+            events.add(event);
+            sentAt.add(System.currentTimeMillis());
+            if ("end".equals(event)) ended.countDown();
+        }
+    }
+
+    private InfluxQueryGateway gateway;
+    private CellTimeRangeCatalog catalog;
+    private BatteryDataService dataService;
+    private volatile SseEmitter nextEmitter;
+    private PlaybackService service;
+
+    @BeforeEach
+    public void setUp() {
+        gateway = Mockito.mock(InfluxQueryGateway.class);
+        catalog = Mockito.mock(CellTimeRangeCatalog.class);
+        dataService = Mockito.mock(BatteryDataService.class);
+        service = new PlaybackService(gateway, catalog, dataService) {
+            @Override
+            protected SseEmitter createEmitter() {
+                return nextEmitter;
+            }
+        };
+        ReflectionTestUtils.setField(service, "bucket", "bms");
+        ReflectionTestUtils.setField(service, "maxSessions", 2);
+        ReflectionTestUtils.setField(service, "prefetch", 16);
+        ReflectionTestUtils.setField(service, "chunkMs", 1000L);
+        ReflectionTestUtils.setField(service, "minSendIntervalMs", 50L);
+        service.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    /** 每个分段查询按其 range 返回 stepMs 间隔的行 */
+    private void answerRowsEvery(long stepMs) {
+        Mockito.when(gateway.query(ArgumentMatchers.anyString(), ArgumentMatchers.any())).thenAnswer(inv -> {
+            Matcher m = FROM.matcher(inv.getArgument(0, String.class));
+            Assertions.assertTrue(m.find());
+            long from = Instant.parse(m.group(1)).toEpochMilli();
+            long to = Instant.parse(m.group(2)).toEpochMilli();
+            FluxTable table = new FluxTable();
+            for (long t = from; t < to; t += stepMs) {
+                FluxRecord r = new FluxRecord(0);
+                r.getValues().put("_time", Instant.ofEpochMilli(t));
+                r.getValues().put("cell_id", "c1");
+                r.getValues().put("voltage", 3.6);
+                table.getRecords().add(r);
+            }
+            return Collections.singletonList(table);
+        });
+    }
+
+    private static void awaitTrue(java.util.function.BooleanSupplier cond) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!cond.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void bounds(long firstMs, long lastMs) {
+        Mockito.when(catalog.cellBounds("c1")).thenReturn(new CellTimeRangeCatalog.TimeBounds(firstMs, lastMs));
+    }
+
+    @Test
+    public void testFramesArePacedBySpeedAndRangeIsClampedToCatalog() throws Exception {
+        bounds(T0, T0 + 900L);
+        answerRowsEvery(100L);
+
+        RecordingEmitter realtime = new RecordingEmitter();
+        nextEmitter = realtime;
+        // 起点远早于数据：应收敛到目录范围，只查一段
+        service.start("c1", null, "0", null, 1.0);
+        Assertions.assertTrue(realtime.ended.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(10, realtime.points.get());
+        long elapsed = realtime.sentAt.get(realtime.sentAt.size() - 1) - realtime.sentAt.get(0);
+        // 10 帧数据跨度 900ms，1 倍速应接近 900ms
+        Assertions.assertTrue(elapsed >= 700L, "elapsed=" + elapsed);
+        Mockito.verify(gateway, Mockito.times(1)).query(ArgumentMatchers.anyString(), ArgumentMatchers.eq(InfluxLane.BACKGROUND));
+
+        RecordingEmitter fast = new RecordingEmitter();
+        nextEmitter = fast;
+        service.start("c1", null, null, null, 100.0);
+        Assertions.assertTrue(fast.ended.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(10, fast.points.get());
+        Assertions.assertTrue(fast.sentAt.get(fast.sentAt.size() - 1) - fast.sentAt.get(0) < 500L);
+        awaitTrue(() -> service.getActiveSessions() == 0);
+        Assertions.assertEquals(0, service.getActiveSessions());
+    }
+
+    @Test
+    public void testSlowClientStopsFetchingAtBoundedQueue() throws Exception {
+        bounds(T0, T0 + 2999L);
+        answerRowsEvery(10L);
+        // 每帧立即发送，第一帧即阻塞在慢客户端上
+        ReflectionTestUtils.setField(service, "minSendIntervalMs", 0L);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingEmitter stalled = new RecordingEmitter() {
+            @Override
+            String beforeSend(String event) {
+                if ("frames".equals(event)) {
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return event;
+            }
+        };
+        nextEmitter = stalled;
+        service.start("c1", null, null, null, 1000.0);
+
+        Thread.sleep(500L);
+        // 第一段 100 行超过预取队列：取数线程停在队列上，不发起下一段查询
+        Mockito.verify(gateway, Mockito.times(1)).query(ArgumentMatchers.anyString(), ArgumentMatchers.any());
+
+        release.countDown();
+        Assertions.assertTrue(stalled.ended.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(300, stalled.points.get());
+        Mockito.verify(gateway, Mockito.times(3)).query(ArgumentMatchers.anyString(), ArgumentMatchers.any());
+    }
+
+    @Test
+    public void testDisconnectBeforeFirstRowCancelsQuery() throws Exception {
+        bounds(T0, T0 + 900L);
+        CountDownLatch queryStarted = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Mockito.when(gateway.query(ArgumentMatchers.anyString(), ArgumentMatchers.any())).thenAnswer(inv -> {
+            queryStarted.countDown();
+            try {
+                Thread.sleep(10_000L);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return new ArrayList<FluxTable>();
+        });
+        nextEmitter = new RecordingEmitter() {
+            @Override
+            String beforeSend(String event) throws IOException {
+                try {
+                    queryStarted.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("Broken pipe");
+            }
+        };
+        service.start("c1", null, null, null, 1.0);
+
+        Assertions.assertTrue(interrupted.await(2, TimeUnit.SECONDS));
+        awaitTrue(() -> service.getActiveSessions() == 0);
+        Assertions.assertEquals(0, service.getActiveSessions());
+    }
+
+    @Test
+    public void testOutOfRangeTimesAreRejected() {
+        Mockito.when(catalog.cellBounds("c1")).thenReturn(null);
+        nextEmitter = new RecordingEmitter();
+        Assertions.assertThrows(BusinessException.class,
+                () -> service.start("c1", null, "0", String.valueOf(Long.MAX_VALUE), 1.0));
+        Assertions.assertThrows(BusinessException.class,
+                () -> service.start("c1", null, "-99999999d", null, 1.0));
+        Assertions.assertEquals(0, service.getActiveSessions());
+    }
+}
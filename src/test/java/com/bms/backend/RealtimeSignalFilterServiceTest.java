@@ -0,0 +1,46 @@
+package com.bms.backend;
+
+import com.bms.backend.service.RealtimeSignalFilterService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+
+public class RealtimeSignalFilterServiceTest {
+
+    private RealtimeSignalFilterService service;
+
+    @BeforeEach
+    public void setUp() {
+        service = new RealtimeSignalFilterService();
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "voltageAlpha", 0.5);
+        ReflectionTestUtils.setField(service, "currentAlpha", 0.5);
+        ReflectionTestUtils.setField(service, "maxDeltaVoltage", 0.0);
+        ReflectionTestUtils.setField(service, "maxDeltaCurrent", 0.0);
+        ReflectionTestUtils.setField(service, "staleResetSeconds", 120L);
+    }
+
+    @Test
+    public void testRepeatedReadsOfSameSampleDoNotAdvanceEma() {
+        Instant t0 = Instant.parse("2024-01-01T00:00:00Z");
+        Assertions.assertEquals(3.0, service.smoothVoltageReading("c1", 3.0, t0), 1e-12);
+        double first = service.smoothVoltageReading("c1", 4.0, t0.plusSeconds(1));
+        Assertions.assertEquals(3.5, first, 1e-12);
+        // 多个大屏请求读到同一笔采样：EMA 保持不变
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertEquals(first, service.smoothVoltageReading("c1", 4.0, t0.plusSeconds(1)), 1e-12);
+        }
+        Assertions.assertEquals(3.75, service.smoothVoltageReading("c1", 4.0, t0.plusSeconds(2)), 1e-12);
+    }
+
+    @Test
+    public void testStaleResetUsesSampleTime() {
+        Instant t0 = Instant.parse("2024-01-01T00:00:00Z");
+        service.smoothCurrentReading("c1", 1.0, t0);
+        // 采样间隔超过 stale-reset-seconds：冷启动，不受旧状态拖尾
+        Assertions.assertEquals(5.0, service.smoothCurrentReading("c1", 5.0, t0.plusSeconds(300)), 1e-12);
+    }
+}
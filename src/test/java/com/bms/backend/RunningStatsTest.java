@@ -0,0 +1,95 @@
+package com.bms.backend;
+
+import com.bms.backend.analysis.RobustZScore;
+import com.bms.backend.analysis.RunningStats;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+public class RunningStatsTest {
+
+    private static double mean(double[] a) {
+        double s = 0;
+        for (double x : a) s += x;
+        return s / a.length;
+    }
+
+    private static double std(double[] a) {
+        double m = mean(a), s = 0;
+        for (double x : a) s += (x - m) * (x - m);
+        return Math.sqrt(s / a.length);
+    }
+
+    @Test
+    public void testIncrementalReplaceMatchesFullRecompute() {
+        Random random = new Random(7);
+        double[] values = new double[96];
+        RunningStats stats = new RunningStats();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 3.6 + random.nextDouble() * 0.1;
+            stats.add(values[i]);
+        }
+        for (int k = 0; k < 10_000; k++) {
+            int i = random.nextInt(values.length);
+            double next = 3.6 + random.nextDouble() * 0.1;
+            stats.replace(values[i], next);
+            values[i] = next;
+        }
+        stats.refresh(values, values.length);
+        double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+        for (double x : values) {
+            min = Math.min(min, x);
+            max = Math.max(max, x);
+        }
+        Assertions.assertEquals(values.length, stats.getCount());
+        Assertions.assertEquals(mean(values), stats.getMean(), 1e-9);
+        Assertions.assertEquals(std(values), stats.getStd(), 1e-9);
+        Assertions.assertEquals(min, stats.getMin(), 0.0);
+        Assertions.assertEquals(max, stats.getMax(), 0.0);
+
+        // 缺失值进出不影响统计
+        stats.replace(values[0], Double.NaN);
+        Assertions.assertEquals(values.length - 1, stats.getCount());
+        stats.replace(Double.NaN, values[0]);
+        Assertions.assertEquals(mean(values), stats.getMean(), 1e-9);
+    }
+
+    @Test
+    public void testMergeEqualsStatsOfUnion() {
+        double[] a = {3.61, 3.62, 3.65, 3.70};
+        double[] b = {3.50, 3.66, 3.68};
+        RunningStats sa = new RunningStats();
+        RunningStats sb = new RunningStats();
+        for (double x : a) sa.add(x);
+        for (double x : b) sb.add(x);
+        RunningStats all = new RunningStats();
+        all.merge(sa);
+        all.merge(sb);
+        double[] union = {3.61, 3.62, 3.65, 3.70, 3.50, 3.66, 3.68};
+        Assertions.assertEquals(7, all.getCount());
+        Assertions.assertEquals(mean(union), all.getMean(), 1e-12);
+        Assertions.assertEquals(std(union), all.getStd(), 1e-12);
+        Assertions.assertEquals(3.50, all.getMin(), 0.0);
+        Assertions.assertEquals(3.70, all.getMax(), 0.0);
+    }
+
+    @Test
+    public void testRobustZFlagsDriftingCell() {
+        double[] v = {3.700, 3.702, 3.698, 3.701, 3.699, 3.700, 3.703, 3.697, 3.640, Double.NaN};
+        double[] z = new double[v.length];
+        RobustZScore.compute(v, v.length, new double[v.length], z);
+        Assertions.assertTrue(z[8] < -10, "drifting cell z=" + z[8]);
+        for (int i = 0; i < 8; i++) {
+            Assertions.assertTrue(Math.abs(z[i]) < 3.5);
+        }
+        Assertions.assertTrue(Double.isNaN(z[9]));
+
+        // 过半读数相同：MAD 为 0 时仍能识别离群
+        double[] flat = {3.7, 3.7, 3.7, 3.7, 3.7, 3.7, 3.7, 3.71, 3.6};
+        double[] fz = new double[flat.length];
+        RobustZScore.compute(flat, flat.length, new double[flat.length], fz);
+        Assertions.assertTrue(Math.abs(fz[8]) > Math.abs(fz[7]));
+        Assertions.assertEquals(0.0, fz[0], 0.0);
+    }
+}
@@ -0,0 +1,82 @@
+package com.bms.backend;
+
+import com.bms.backend.config.WarmupHealthIndicator;
+import com.bms.backend.entity.Battery;
+import com.bms.backend.influx.CellTimeRangeCatalog;
+import com.bms.backend.influx.InfluxLane;
+import com.bms.backend.repository.BatteryRepository;
+import com.bms.backend.service.BatteryDataService;
+import com.bms.backend.service.CycleSeriesService;
+import com.bms.backend.service.StartupWarmupService;
+import com.bms.backend.service.TopologySnapshotService;
+import com.bms.backend.service.WarmupFinishedEvent;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class StartupWarmupServiceTest {
+
+    @Test
+    public void testReadyOnlyAfterAllStepsComplete() throws Exception {
+        BatteryRepository repository = Mockito.mock(BatteryRepository.class);
+        BatteryDataService dataService = Mockito.mock(BatteryDataService.class);
+        TopologySnapshotService topology = Mockito.mock(TopologySnapshotService.class);
+        CellTimeRangeCatalog catalog = Mockito.mock(CellTimeRangeCatalog.class);
+        CycleSeriesService cycleSeries = Mockito.mock(CycleSeriesService.class);
+
+        Battery b = new Battery();
+        b.setBatteryCode("b1c0");
+        Mockito.when(repository.findByDeletedFalse()).thenReturn(Collections.singletonList(b));
+        long now = System.currentTimeMillis();
+        Mockito.when(catalog.cellBounds("b1c0")).thenReturn(new CellTimeRangeCatalog.TimeBounds(now - 60_000L, now));
+        Mockito.when(catalog.cycles("b1c0")).thenReturn(Arrays.asList(1, 2, 3));
+
+        CountDownLatch release = new CountDownLatch(1);
+        Mockito.when(dataService.getLatestVtcSnapshot(InfluxLane.REFRESH)).thenAnswer(inv -> {
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        });
+
+        ApplicationEventPublisher publisher = Mockito.mock(ApplicationEventPublisher.class);
+        StartupWarmupService warmup = new StartupWarmupService(repository, dataService, topology, catalog, cycleSeries, publisher);
+        WarmupHealthIndicator indicator = new WarmupHealthIndicator(warmup);
+        warmup.onApplicationReady();
+
+        // 最新值还没取到：不就绪，拓扑快照也不应生成
+        Thread.sleep(200);
+        Assertions.assertFalse(warmup.isReady());
+        Assertions.assertEquals(Status.OUT_OF_SERVICE, indicator.health().getStatus());
+        Mockito.verify(topology, Mockito.never()).refreshSnapshot();
+        Mockito.verify(publisher, Mockito.never()).publishEvent(ArgumentMatchers.any(Object.class));
+
+        release.countDown();
+        Mockito.verify(topology, Mockito.timeout(2000)).refreshSnapshot();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!warmup.isReady() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        Assertions.assertTrue(warmup.isReady());
+        Assertions.assertFalse(warmup.isTimedOut());
+        Assertions.assertEquals(Status.UP, indicator.health().getStatus());
+        // 就绪后才放开定时任务
+        ArgumentCaptor<Object> event = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(publisher).publishEvent(event.capture());
+        Assertions.assertTrue(event.getValue() instanceof WarmupFinishedEvent);
+        Assertions.assertFalse(((WarmupFinishedEvent) event.getValue()).isTimedOut());
+
+        // 最近活跃 cell 的首末 cycle 已预取
+        Mockito.verify(catalog).syncFromInflux();
+        Mockito.verify(cycleSeries).getInfluxCycle("b1c0", 1, InfluxLane.BACKGROUND);
+        Mockito.verify(cycleSeries).getInfluxCycle("b1c0", 3, InfluxLane.BACKGROUND);
+        Mockito.verify(cycleSeries, Mockito.never()).getInfluxCycle("b1c0", 2, InfluxLane.BACKGROUND);
+    }
+}
@@ -0,0 +1,117 @@
+package com.bms.backend;
+
+import com.bms.backend.dto.TopologyClusterFrameDto;
+import com.bms.backend.service.TopologyClusterCoordinator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class TopologyClusterCoordinatorTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private StringRedisTemplate redis;
+    private TopologyClusterCoordinator coordinator;
+    private final List<TopologyClusterFrameDto> received = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        redis = Mockito.mock(StringRedisTemplate.class);
+        ObjectProvider<StringRedisTemplate> redisProvider = Mockito.mock(ObjectProvider.class);
+        Mockito.when(redisProvider.getObject()).thenReturn(redis);
+        coordinator = new TopologyClusterCoordinator(mapper, redisProvider, Mockito.mock(ObjectProvider.class));
+        ReflectionTestUtils.setField(coordinator, "enabled", true);
+        coordinator.setFrameListener(received::add);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void acquireReturns(long epoch) {
+        Mockito.when(redis.execute(ArgumentMatchers.any(RedisScript.class), ArgumentMatchers.anyList(),
+                ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(epoch);
+    }
+
+    private void deliver(String node, long epoch) throws Exception {
+        TopologyClusterFrameDto frame = new TopologyClusterFrameDto();
+        frame.setNode(node);
+        frame.setLeaderEpoch(epoch);
+        frame.setFull(true);
+        ReflectionTestUtils.invokeMethod(coordinator, "onMessage", (Object) mapper.writeValueAsBytes(frame));
+    }
+
+    @Test
+    public void testLeaderStampsEpochAndStepsDownOnHigherEpoch() throws Exception {
+        acquireReturns(3L);
+        coordinator.electLeader();
+        Assertions.assertTrue(coordinator.isLeader());
+        Assertions.assertEquals(3L, coordinator.getEpoch());
+
+        coordinator.publish(new TopologyClusterFrameDto());
+        ArgumentCaptor<String> published = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(redis).convertAndSend(ArgumentMatchers.anyString(), published.capture());
+        Assertions.assertEquals(3L, mapper.readValue(published.getValue(), TopologyClusterFrameDto.class).getLeaderEpoch());
+
+        // 自己的帧与旧主节点的帧都不处理
+        deliver(coordinator.getNodeId(), 3L);
+        deliver("old-leader", 2L);
+        Assertions.assertTrue(coordinator.isLeader());
+        Assertions.assertTrue(received.isEmpty());
+
+        // 更高 epoch 说明本节点租约已被接管：立即让位并改为接收
+        deliver("new-leader", 4L);
+        Assertions.assertFalse(coordinator.isLeader());
+        Assertions.assertEquals(1, received.size());
+    }
+
+    @Test
+    public void testFollowerIgnoresFramesFromLowerEpoch() throws Exception {
+        acquireReturns(0L);
+        coordinator.electLeader();
+        Assertions.assertFalse(coordinator.isLeader());
+
+        deliver("a", 5L);
+        // GC 停顿后恢复的旧主节点仍在发布
+        deliver("b", 4L);
+        deliver("a", 5L);
+        Assertions.assertEquals(2, received.size());
+        Assertions.assertEquals("a", received.get(1).getNode());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testEpochContinuesFromHighestSeenAfterCounterReset() throws Exception {
+        acquireReturns(0L);
+        coordinator.electLeader();
+        deliver("a", 5L);
+
+        // 抢租约时带上已见最大 epoch，脚本据此续上计数器
+        acquireReturns(6L);
+        coordinator.electLeader();
+        ArgumentCaptor<Object> seen = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(redis, Mockito.atLeastOnce()).execute(ArgumentMatchers.any(RedisScript.class), ArgumentMatchers.anyList(),
+                ArgumentMatchers.any(), ArgumentMatchers.any(), seen.capture());
+        Assertions.assertEquals("5", seen.getValue());
+        Assertions.assertTrue(coordinator.isLeader());
+        Assertions.assertEquals(6L, coordinator.getEpoch());
+
+        // 计数器倒退后其他节点把它抬到了 9：续期返回新 epoch，主节点改用它发布
+        acquireReturns(10L);
+        coordinator.electLeader();
+        Assertions.assertTrue(coordinator.isLeader());
+        Assertions.assertEquals(10L, coordinator.getEpoch());
+        coordinator.publish(new TopologyClusterFrameDto());
+        ArgumentCaptor<String> published = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(redis).convertAndSend(ArgumentMatchers.anyString(), published.capture());
+        Assertions.assertEquals(10L, mapper.readValue(published.getValue(), TopologyClusterFrameDto.class).getLeaderEpoch());
+    }
+}
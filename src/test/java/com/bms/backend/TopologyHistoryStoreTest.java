@@ -0,0 +1,152 @@
+package com.bms.backend;
+
+import com.bms.backend.dto.TopologyCellDto;
+import com.bms.backend.dto.TopologySnapshotDto;
+import com.bms.backend.dto.TopologyStatsDto;
+import com.bms.backend.service.TopologyHistoryStore;
+import com.bms.backend.service.TopologyWireCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TopologyHistoryStoreTest {
+
+    private static List<TopologyCellDto> cells(String packId, double voltage, String status) {
+        List<TopologyCellDto> list = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            TopologyCellDto c = new TopologyCellDto();
+            c.setPackId(packId);
+            c.setCellId(packId + "_b1c" + i);
+            c.setRow(0);
+            c.setCol(i);
+            c.setModuleIndex(0);
+            c.setVoltage(i == 0 ? voltage : null);
+            c.setTemperature(25.5);
+            c.setCurrent(1.0);
+            c.setScore("alarm".equals(status) ? 40 : 100);
+            c.setStatus(status);
+            c.setReasons("alarm".equals(status) ? Collections.singletonList("voltage_out_of_range") : new ArrayList<>());
+            list.add(c);
+        }
+        return list;
+    }
+
+    @Test
+    public void testRewindAndReplayFromRingBuffer() {
+        TopologyHistoryStore store = new TopologyHistoryStore(new TopologyWireCodec(new ObjectMapper()), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(store, "retentionMs", 3000L);
+        Assertions.assertEquals(3, store.capacity());
+
+        store.record("p1", 1L, 1000L, false, cells("p1", 3.70, "normal"));
+        store.record("p1", 1L, 2000L, false, cells("p1", 4.30, "alarm"));
+        store.record("p2", 1L, 2000L, false, cells("p2", 3.60, "normal"));
+        // 内存占用在分配时即确定：3 帧 × 2 单体 × 22 字节 + 帧头
+        Assertions.assertEquals(2 * (3 * 2 * 22 + 3 * 9L), store.getFootprintBytes());
+
+        TopologySnapshotDto at = store.rewind("p1", 1500L);
+        Assertions.assertEquals(1000L, at.getTs().longValue());
+        Assertions.assertEquals(3.70, at.getCells().get(0).getVoltage(), 1e-9);
+        Assertions.assertNull(at.getCells().get(1).getVoltage());
+
+        TopologySnapshotDto alarm = store.rewind("p1", 2000L);
+        Assertions.assertEquals("alarm", alarm.getCells().get(0).getStatus());
+        Assertions.assertEquals(Collections.singletonList("voltage_out_of_range"), alarm.getCells().get(0).getReasons());
+        Assertions.assertEquals(2, alarm.getSummary().getAlarm().intValue());
+
+        // ALL 合并各 PACK 当时的状态
+        TopologySnapshotDto all = store.rewind(null, 2500L);
+        Assertions.assertEquals(4, all.getCells().size());
+        Assertions.assertNull(store.rewind("p2", 1500L));
+
+        // 超出容量后最旧的帧被覆盖
+        store.record("p1", 1L, 3000L, false, cells("p1", 3.71, "normal"));
+        store.record("p1", 1L, 4000L, true, cells("p1", 3.72, "normal"));
+        Assertions.assertNull(store.rewind("p1", 1500L));
+        Assertions.assertTrue(store.rewind("p1", 5000L).isStale());
+
+        // 补发从 from 时刻生效的那一帧开始
+        Assertions.assertEquals(Arrays.asList(2000L, 3000L, 4000L), store.replayTimes("p1", 2500L));
+        Assertions.assertEquals("alarm", store.rewind("p1", 2000L).getCells().get(0).getStatus());
+    }
+
+    @Test
+    public void testAllViewReplayIsAlignedToFrameIntervalAndCapped() {
+        TopologyHistoryStore store = new TopologyHistoryStore(new TopologyWireCodec(new ObjectMapper()), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(store, "retentionMs", 10000L);
+        ReflectionTestUtils.setField(store, "replayMaxFramesAll", 3);
+        // 两个 PACK 的刷新时刻错开 300ms
+        for (long t = 1000L; t <= 6000L; t += 1000L) {
+            store.record("p1", 1L, t, false, cells("p1", 3.70, "normal"));
+            store.record("p2", 1L, t + 300L, false, cells("p2", 3.60, "normal"));
+        }
+
+        // 单个 PACK 不受 ALL 上限影响
+        Assertions.assertEquals(6, store.replayTimes("p1", 0L).size());
+        // ALL：每个 1s 间隔只取最后一个时间点，且只保留最新 3 帧
+        Assertions.assertEquals(Arrays.asList(4300L, 5300L, 6300L), store.replayTimes(null, 0L));
+        Assertions.assertEquals(4, store.rewind("ALL", 4300L).getCells().size());
+    }
+
+    @Test
+    public void testRewindRestoresRobustZAndRebuildsStats() {
+        TopologyHistoryStore store = new TopologyHistoryStore(new TopologyWireCodec(new ObjectMapper()), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(store, "retentionMs", 3000L);
+        List<TopologyCellDto> p1 = cells("p1", 3.70, "normal");
+        p1.get(0).setVoltageZ(4.2);
+        p1.get(0).setTemperatureZ(-1.3);
+        p1.get(0).setReasons(new ArrayList<>(Collections.singletonList("voltage_outlier")));
+        p1.get(1).setVoltage(3.50);
+        p1.get(1).setVoltageZ(-0.5);
+        store.record("p1", 1L, 1000L, false, p1);
+        List<TopologyCellDto> p2 = cells("p2", 3.60, "normal");
+        p2.get(1).setTemperature(30.5);
+        store.record("p2", 1L, 1000L, false, p2);
+
+        TopologySnapshotDto pack = store.rewind("p1", 1000L);
+        Assertions.assertEquals(4.2, pack.getCells().get(0).getVoltageZ(), 1e-9);
+        Assertions.assertEquals(-1.3, pack.getCells().get(0).getTemperatureZ(), 1e-9);
+        Assertions.assertEquals(-0.5, pack.getCells().get(1).getVoltageZ(), 1e-9);
+        // 样本不足时 z 为空，回看后仍为空
+        Assertions.assertNull(pack.getCells().get(1).getTemperatureZ());
+
+        TopologyStatsDto voltage = pack.getSummary().getVoltageStats();
+        Assertions.assertEquals(2, voltage.getCount().intValue());
+        Assertions.assertEquals(3.60, voltage.getMean(), 1e-6);
+        Assertions.assertEquals(3.50, voltage.getMin(), 1e-6);
+        Assertions.assertEquals(0.20, voltage.getSpread(), 1e-6);
+        Assertions.assertEquals(1, voltage.getOutliers().intValue());
+        Assertions.assertEquals(0, pack.getSummary().getTemperatureStats().getOutliers().intValue());
+
+        // ALL：对全部单体求统计（p2 第二个单体电压缺失，不计入）
+        TopologySnapshotDto all = store.rewind(null, 1000L);
+        Assertions.assertEquals(3, all.getSummary().getVoltageStats().getCount().intValue());
+        Assertions.assertEquals(4, all.getSummary().getTemperatureStats().getCount().intValue());
+        Assertions.assertEquals(30.5, all.getSummary().getTemperatureStats().getMax(), 1e-6);
+        Assertions.assertEquals(1, all.getSummary().getVoltageStats().getOutliers().intValue());
+    }
+
+    @Test
+    public void testHistorySurvivesLayoutVersionChangeWhenPackCellsAreUnchanged() {
+        TopologyHistoryStore store = new TopologyHistoryStore(new TopologyWireCodec(new ObjectMapper()), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(store, "retentionMs", 5000L);
+        store.record("p1", 1L, 1000L, false, cells("p1", 3.70, "normal"));
+        // 其他 PACK 的台账变更使布局版本递增，本 PACK 单体未变：历史保留
+        store.record("p1", 2L, 2000L, false, cells("p1", 3.71, "normal"));
+        Assertions.assertEquals(1000L, store.rewind("p1", 1500L).getTs().longValue());
+        Assertions.assertEquals(Arrays.asList(1000L, 2000L), store.replayTimes("p1", 1000L));
+
+        // 本 PACK 单体换位：旧历史按旧位置无法还原，丢弃
+        List<TopologyCellDto> moved = cells("p1", 3.72, "normal");
+        moved.get(1).setCol(5);
+        store.record("p1", 3L, 3000L, false, moved);
+        Assertions.assertNull(store.rewind("p1", 2500L));
+        Assertions.assertEquals(5, store.rewind("p1", 3000L).getCells().get(1).getCol().intValue());
+    }
+}
@@ -0,0 +1,85 @@
+package com.bms.backend;
+
+import com.bms.backend.repository.BatteryRepository;
+import com.bms.backend.service.BatteryLedgerChangedEvent;
+import com.bms.backend.service.TopologyLayoutCache;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TopologyLayoutCacheTest {
+
+    /** [batteryCode, modelId] */
+    static List<Object[]> rows(String... codes) {
+        List<Object[]> rows = new ArrayList<>();
+        for (String code : codes) rows.add(new Object[]{code, 7L});
+        return rows;
+    }
+
+    @Test
+    public void testLayoutIsBuiltOnceUntilLedgerChanges() {
+        BatteryRepository repository = Mockito.mock(BatteryRepository.class);
+        Mockito.when(repository.findActiveBatteryCodeModels())
+                .thenReturn(rows("packB_b1c9", "packA_b1c1", "packA_b1c0", "  "))
+                .thenReturn(rows("packA_b1c0"));
+        TopologyLayoutCache cache = new TopologyLayoutCache(repository);
+
+        TopologyLayoutCache.Layout first = cache.getLayout();
+        Assertions.assertSame(first, cache.getLayout());
+        Mockito.verify(repository, Mockito.times(1)).findActiveBatteryCodeModels();
+
+        // PACK 有序，PACK 内按行列排序
+        Assertions.assertEquals(Arrays.asList("packA", "packB"), Arrays.asList(first.getByPack().keySet().toArray()));
+        List<TopologyLayoutCache.CellSlot> packA = first.getByPack().get("packA");
+        Assertions.assertEquals("packA_b1c0", packA.get(0).getCellId());
+        Assertions.assertEquals("packa_b1c0", packA.get(0).getLookupKey());
+        TopologyLayoutCache.CellSlot c9 = first.getByPack().get("packB").get(0);
+        Assertions.assertEquals(1, c9.getRow());
+        Assertions.assertEquals(1, c9.getCol());
+        Assertions.assertEquals(0, c9.getModuleIndex());
+        Assertions.assertEquals(7L, c9.getModelId().longValue());
+        Assertions.assertEquals(3, first.cellCount());
+
+        cache.onLedgerChanged(new BatteryLedgerChangedEvent(1L));
+        TopologyLayoutCache.Layout second = cache.getLayout();
+        Assertions.assertNotSame(first, second);
+        Assertions.assertTrue(second.getVersion() > first.getVersion());
+        Assertions.assertEquals(1, second.cellCount());
+        Mockito.verify(repository, Mockito.times(2)).findActiveBatteryCodeModels();
+    }
+
+    @Test
+    public void testUnchangedRebuildKeepsVersionAndInstance() {
+        BatteryRepository repository = Mockito.mock(BatteryRepository.class);
+        Mockito.when(repository.findActiveBatteryCodeModels())
+                .thenReturn(rows("packA_b1c0", "packA_b1c1"))
+                .thenReturn(rows("packA_b1c1", "packA_b1c0"))
+                .thenReturn(rows("packA_b1c0", "packA_b1c1", "packA_b1c2"));
+        TopologyLayoutCache cache = new TopologyLayoutCache(repository);
+        ReflectionTestUtils.setField(cache, "maxAgeMs", 1L);
+
+        TopologyLayoutCache.Layout first = cache.getLayout();
+        sleepPastMaxAge();
+        // 兜底重建：台账未变，沿用同一份布局与版本号
+        Assertions.assertSame(first, cache.getLayout());
+        Mockito.verify(repository, Mockito.times(2)).findActiveBatteryCodeModels();
+
+        sleepPastMaxAge();
+        TopologyLayoutCache.Layout changed = cache.getLayout();
+        Assertions.assertTrue(changed.getVersion() > first.getVersion());
+        Assertions.assertEquals(3, changed.cellCount());
+    }
+
+    private static void sleepPastMaxAge() {
+        try {
+            Thread.sleep(5L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package com.bms.backend;
+
+import com.bms.backend.dto.TopologyClusterFrameDto;
+import com.bms.backend.dto.TopologySnapshotDto;
+import com.bms.backend.influx.InfluxLane;
+import com.bms.backend.repository.BatteryAlarmRuleRepository;
+import com.bms.backend.repository.BatteryRepository;
+import com.bms.backend.service.AlarmRuleRegistry;
+import com.bms.backend.service.BatteryDataService;
+import com.bms.backend.service.RealtimeSignalFilterService;
+import com.bms.backend.service.TopologyClusterCoordinator;
+import com.bms.backend.service.TopologyHistoryStore;
+import com.bms.backend.service.TopologyLayoutCache;
+import com.bms.backend.service.TopologySnapshotService;
+import com.bms.backend.service.TopologyStreamDispatcher;
+import com.bms.backend.service.TopologyWireCodec;
+import com.bms.backend.service.WarmupFinishedEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+public class TopologySnapshotServiceTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * 一个实例：被测服务与它的 mock 依赖。构造参数变化只改这里，各测试只写自己的场景。
+     * 过滤器原样返回读数，分发器没有订阅者，集群协调器默认未启用（单机）。
+     */
+    private static final class Node {
+        final BatteryRepository repository = Mockito.mock(BatteryRepository.class);
+        final BatteryDataService dataService = Mockito.mock(BatteryDataService.class);
+        final RealtimeSignalFilterService filter = Mockito.mock(RealtimeSignalFilterService.class);
+        final TopologyStreamDispatcher dispatcher = Mockito.mock(TopologyStreamDispatcher.class);
+        final TopologyClusterCoordinator cluster = Mockito.mock(TopologyClusterCoordinator.class);
+        final TopologyLayoutCache layoutCache = new TopologyLayoutCache(repository);
+        final TopologySnapshotService service;
+
+        Node(String... cellIds) {
+            Mockito.when(repository.findActiveBatteryCodeModels()).thenReturn(TopologyLayoutCacheTest.rows(cellIds));
+            Mockito.when(filter.smoothVtcReading(ArgumentMatchers.anyString(), ArgumentMatchers.any()))
+                    .thenAnswer(inv -> inv.getArgument(1));
+            Mockito.when(dispatcher.getSubscribers()).thenReturn(Collections.emptyList());
+            TopologyWireCodec codec = new TopologyWireCodec(MAPPER);
+            service = new TopologySnapshotService(
+                    layoutCache, dataService, filter, codec, dispatcher,
+                    new TopologyHistoryStore(codec, new SimpleMeterRegistry()),
+                    new AlarmRuleRegistry(Mockito.mock(BatteryAlarmRuleRepository.class)), cluster);
+        }
+
+        /** 每次全量读取返回 values 当时内容的副本 */
+        Node serving(Map<String, BatteryDataService.LatestVtc> values) {
+            Mockito.when(dataService.getLatestVtcSnapshot(InfluxLane.REFRESH))
+                    .thenAnswer(inv -> new BatteryDataService.LatestVtcSnapshot(new HashMap<>(values), false));
+            return this;
+        }
+
+        /** 集群主节点，远端关注 ALL */
+        Node leader() {
+            Mockito.when(cluster.isEnabled()).thenReturn(true);
+            Mockito.when(cluster.isLeader()).thenReturn(true);
+            Mockito.when(cluster.remoteDemand(ArgumentMatchers.anyLong(), ArgumentMatchers.anyLong()))
+                    .thenReturn(Collections.singleton(TopologySnapshotService.VIEW_ALL));
+            return this;
+        }
+
+        /** 集群从节点：只接收主节点的帧 */
+        Node follower() {
+            Mockito.when(cluster.isEnabled()).thenReturn(true);
+            Mockito.when(cluster.getLeaseMs()).thenReturn(10000L);
+            return this;
+        }
+    }
+
+    private static BatteryDataService.LatestVtc vtc(double v, double t, long timeMs) {
+        BatteryDataService.LatestVtc x = new BatteryDataService.LatestVtc();
+        x.setVoltage(v);
+        x.setTemperature(t);
+        x.setCurrent(1.0);
+        x.setTime(Instant.ofEpochMilli(timeMs));
+        return x;
+    }
+
+    private static Map<String, BatteryDataService.LatestVtc> threeCells() {
+        Map<String, BatteryDataService.LatestVtc> values = new HashMap<>();
+        values.put("p1_b1c0", vtc(3.7, 25, 1000L));
+        values.put("p1_b1c1", vtc(3.7, 25, 1000L));
+        values.put("p2_b1c0", vtc(3.7, 25, 1000L));
+        return values;
+    }
+
+    private static TopologyClusterFrameDto overRedis(TopologyClusterFrameDto frame) throws Exception {
+        // 经 Redis 传输的是 JSON
+        return MAPPER.readValue(MAPPER.writeValueAsBytes(frame), TopologyClusterFrameDto.class);
+    }
+
+    @Test
+    public void testOnlyCellsWithNewSamplesAreRecomputed() {
+        Map<String, BatteryDataService.LatestVtc> values = threeCells();
+        Node node = new Node("p1_b1c0", "p1_b1c1", "p2_b1c0").serving(values);
+        TopologySnapshotService service = node.service;
+        RealtimeSignalFilterService filter = node.filter;
+
+        // 有人通过 REST 看 ALL：全部 PACK 每个 tick 刷新
+        service.getSnapshotJson(null);
+
+        service.refreshSnapshot();
+        TopologySnapshotDto first = service.getSnapshot("p1");
+        TopologySnapshotDto p2Before = service.getSnapshot("p2");
+        Assertions.assertEquals(2, first.getCells().size());
+        Assertions.assertEquals(3, service.getSnapshot(null).getSummary().getNormal().intValue());
+        Mockito.verify(filter, Mockito.times(3)).smoothVtcReading(ArgumentMatchers.anyString(), ArgumentMatchers.any());
+
+        // 采样时间不变：不重算，单体对象与列表原样复用
+        service.refreshSnapshot();
+        TopologySnapshotDto second = service.getSnapshot("p1");
+        Assertions.assertSame(first.getCells(), second.getCells());
+        Mockito.verify(filter, Mockito.times(3)).smoothVtcReading(ArgumentMatchers.anyString(), ArgumentMatchers.any());
+
+        // 只有 p1_b1c1 有新采样，且进入告警
+        values.put("p1_b1c1", vtc(4.3, 50, 2000L));
+        service.refreshSnapshot();
+        TopologySnapshotDto third = service.getSnapshot("p1");
+        Mockito.verify(filter, Mockito.times(4)).smoothVtcReading(ArgumentMatchers.anyString(), ArgumentMatchers.any());
+        Assertions.assertSame(first.getCells().get(0), third.getCells().get(0));
+        Assertions.assertNotSame(first.getCells().get(1), third.getCells().get(1));
+        Assertions.assertEquals("alarm", third.getCells().get(1).getStatus());
+        Assertions.assertEquals(1, third.getSummary().getNormal().intValue());
+        Assertions.assertEquals(1, third.getSummary().getAlarm().intValue());
+        // 无变化的 PACK 复用上一帧的单体列表
+        Assertions.assertSame(p2Before.getCells(), service.getSnapshot("p2").getCells());
+
+        TopologySnapshotDto all = service.getSnapshot(null);
+        Assertions.assertEquals(3, all.getSummary().getTotal().intValue());
+        Assertions.assertEquals(2, all.getSummary().getNormal().intValue());
+        Assertions.assertEquals(1, all.getSummary().getAlarm().intValue());
+    }
+
+    @Test
+    public void testScheduledRefreshWaitsForWarmup() {
+        Node node = new Node("p1_b1c0").serving(new HashMap<>());
+        TopologySnapshotService service = node.service;
+
+        // 预热未结束：定时刷新不查 Influx / 台账
+        service.scheduledRefresh();
+        Mockito.verifyNoInteractions(node.dataService, node.repository);
+
+        service.onWarmupFinished(new WarmupFinishedEvent(true));
+        service.scheduledRefresh();
+        Mockito.verify(node.dataService).getLatestVtcSnapshot(InfluxLane.REFRESH);
+    }
+
+    @Test
+    public void testUnwatchedPacksAreNotQueried() {
+        Node node = new Node("p1_b1c0", "p2_b1c0").serving(new HashMap<>());
+        BatteryDataService dataService = node.dataService;
+        Mockito.when(dataService.getLatestVtcSnapshotForCellIds(ArgumentMatchers.anySet(), ArgumentMatchers.eq(InfluxLane.REFRESH)))
+                .thenReturn(new BatteryDataService.LatestVtcSnapshot(Collections.emptyMap(), false));
+        TopologySnapshotService service = node.service;
+
+        // 首次刷新建立全部 PACK 的初始状态
+        service.refreshSnapshot();
+        Mockito.verify(dataService, Mockito.times(1)).getLatestVtcSnapshot(InfluxLane.REFRESH);
+
+        // 无人关注：不再查询
+        service.refreshSnapshot();
+        service.refreshSnapshot();
+        Mockito.verify(dataService, Mockito.times(1)).getLatestVtcSnapshot(InfluxLane.REFRESH);
+        Mockito.verify(dataService, Mockito.never())
+                .getLatestVtcSnapshotForCellIds(ArgumentMatchers.anySet(), ArgumentMatchers.any());
+        Mockito.verify(node.repository, Mockito.times(1)).findActiveBatteryCodeModels();
+
+        // 只读 p1：只查询 p1 的单体
+        service.getSnapshotJson("p1");
+        service.refreshSnapshot();
+        Mockito.verify(dataService).getLatestVtcSnapshotForCellIds(
+                ArgumentMatchers.eq(Collections.singleton("p1_b1c0")), ArgumentMatchers.eq(InfluxLane.REFRESH));
+        Mockito.verify(dataService, Mockito.times(1)).getLatestVtcSnapshot(InfluxLane.REFRESH);
+    }
+
+    @Test
+    public void testFollowerPublishesLeaderFramesWithoutQuerying() throws Exception {
+        Map<String, BatteryDataService.LatestVtc> values = threeCells();
+        Node leaderNode = new Node("p1_b1c0", "p1_b1c1", "p2_b1c0").serving(values).leader();
+        Node followerNode = new Node("p1_b1c0", "p1_b1c1", "p2_b1c0").follower();
+        TopologySnapshotService leader = leaderNode.service;
+        TopologySnapshotService follower = followerNode.service;
+
+        // 从节点的读取只登记关注度，交给主节点决定刷新节奏
+        follower.getSnapshotJson(null);
+        follower.refreshSnapshot();
+        Mockito.verify(followerNode.cluster).reportDemand(ArgumentMatchers.eq(Collections.singleton(TopologySnapshotService.VIEW_ALL)), ArgumentMatchers.anyLong());
+
+        leader.refreshSnapshot();
+        values.put("p1_b1c1", vtc(4.3, 50, 2000L));
+        leader.refreshSnapshot();
+
+        ArgumentCaptor<TopologyClusterFrameDto> frames = ArgumentCaptor.forClass(TopologyClusterFrameDto.class);
+        Mockito.verify(leaderNode.cluster, Mockito.times(2)).publish(frames.capture());
+        TopologyClusterFrameDto first = overRedis(frames.getAllValues().get(0));
+        TopologyClusterFrameDto second = overRedis(frames.getAllValues().get(1));
+        Assertions.assertTrue(first.isFull());
+        Assertions.assertFalse(second.isFull());
+
+        // 增量帧在 full 帧之前到达：没有基线，忽略
+        follower.onClusterFrame(second);
+        Assertions.assertTrue(follower.getSnapshot(null).getCells().isEmpty());
+
+        follower.onClusterFrame(first);
+        TopologySnapshotDto p2 = follower.getSnapshot("p2");
+        Assertions.assertEquals(2, follower.getSnapshot("p1").getCells().size());
+        Assertions.assertEquals(3, follower.getSnapshot(null).getSummary().getNormal().intValue());
+
+        // 重新读取后的第二帧：p1 带新单体，p2 未变化只带摘要，从节点沿用上一帧的单体列表
+        second = overRedis(frames.getAllValues().get(1));
+        follower.onClusterFrame(second);
+        Assertions.assertEquals("alarm", follower.getSnapshot("p1").getCells().get(1).getStatus());
+        Assertions.assertSame(p2.getCells(), follower.getSnapshot("p2").getCells());
+        Assertions.assertEquals(3, follower.getSnapshot(null).getCells().size());
+        Assertions.assertEquals(1, follower.getSnapshot(null).getSummary().getAlarm().intValue());
+
+        Mockito.verifyNoInteractions(followerNode.repository, followerNode.dataService);
+    }
+
+    @Test
+    public void testReconnectWithLastEventIdResumesWithoutKeyframe() {
+        Map<String, BatteryDataService.LatestVtc> values = threeCells();
+        Node node = new Node("p1_b1c0", "p1_b1c1", "p2_b1c0").serving(values);
+        TopologySnapshotService service = node.service;
+        TopologyStreamDispatcher dispatcher = node.dispatcher;
+        ReflectionTestUtils.setField(service, "keyframeInterval", 2);
+        ReflectionTestUtils.setField(service, "resumeLogFrames", 4);
+
+        service.getSnapshotJson(null);
+        service.refreshSnapshot();
+
+        service.subscribe(null, TopologySnapshotService.MODE_DELTA, TopologyWireCodec.Format.JSON, null, null);
+        ArgumentCaptor<String> ids = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(dispatcher).offer(ArgumentMatchers.any(), ArgumentMatchers.eq("snapshot"), ids.capture(),
+                ArgumentMatchers.any(), ArgumentMatchers.isNull());
+        String lastEventId = ids.getValue();
+
+        // 断线期间（无订阅者）视图流继续推进：一次新采样，并跨过一个关键帧
+        values.put("p1_b1c1", vtc(4.3, 50, 2000L));
+        service.refreshSnapshot();
+        service.refreshSnapshot();
+        service.refreshSnapshot();
+
+        // 带 Last-Event-ID 重连：只补发错过的增量，不再入队关键帧
+        service.subscribe(null, TopologySnapshotService.MODE_DELTA, TopologyWireCodec.Format.JSON, null, lastEventId);
+        // 首次订阅经带补发帧的入口登记（无 from 时补发为空），续传直接登记
+        Mockito.verify(dispatcher).register(ArgumentMatchers.any(), ArgumentMatchers.eq(TopologySnapshotService.VIEW_ALL),
+                ArgumentMatchers.eq(TopologySnapshotService.MODE_DELTA), ArgumentMatchers.eq(TopologyWireCodec.Format.JSON),
+                ArgumentMatchers.eq("history"), ArgumentMatchers.isNull());
+        Mockito.verify(dispatcher).register(ArgumentMatchers.any(), ArgumentMatchers.eq(TopologySnapshotService.VIEW_ALL),
+                ArgumentMatchers.eq(TopologySnapshotService.MODE_DELTA), ArgumentMatchers.eq(TopologyWireCodec.Format.JSON));
+        Mockito.verify(dispatcher, Mockito.times(1)).offer(ArgumentMatchers.any(), ArgumentMatchers.eq("snapshot"),
+                ArgumentMatchers.anyString(), ArgumentMatchers.any(), ArgumentMatchers.any());
+
+        // 未知的 id：回到关键帧
+        service.subscribe(null, TopologySnapshotService.MODE_DELTA, TopologyWireCodec.Format.JSON, null, "unknown.1");
+        Mockito.verify(dispatcher, Mockito.times(2)).offer(ArgumentMatchers.any(), ArgumentMatchers.eq("snapshot"),
+                ArgumentMatchers.anyString(), ArgumentMatchers.any(), ArgumentMatchers.any());
+
+        // 落后超过事件日志：回到关键帧
+        for (int i = 0; i < 5; i++) service.refreshSnapshot();
+        service.subscribe(null, TopologySnapshotService.MODE_DELTA, TopologyWireCodec.Format.JSON, null, lastEventId);
+        Mockito.verify(dispatcher, Mockito.times(3)).offer(ArgumentMatchers.any(), ArgumentMatchers.eq("snapshot"),
+                ArgumentMatchers.anyString(), ArgumentMatchers.any(), ArgumentMatchers.any());
+    }
+
+    @Test
+    public void testStreamIdsAreAssignedByLeaderAndResumableOnFollower() throws Exception {
+        Map<String, BatteryDataService.LatestVtc> values = threeCells();
+        Node leaderNode = new Node("p1_b1c0", "p1_b1c1", "p2_b1c0").serving(values).leader();
+        Node followerNode = new Node("p1_b1c0", "p1_b1c1", "p2_b1c0").serving(values).follower();
+        TopologySnapshotService leader = leaderNode.service;
+        TopologySnapshotService follower = followerNode.service;
+        TopologyClusterCoordinator leaderCluster = leaderNode.cluster;
+        TopologyClusterCoordinator followerCluster = followerNode.cluster;
+        TopologyStreamDispatcher leaderDispatcher = leaderNode.dispatcher;
+        TopologyStreamDispatcher followerDispatcher = followerNode.dispatcher;
+        ReflectionTestUtils.setField(leader, "keyframeInterval", 2);
+        ReflectionTestUtils.setField(follower, "keyframeInterval", 2);
+
+        ArgumentCaptor<TopologyClusterFrameDto> frames = ArgumentCaptor.forClass(TopologyClusterFrameDto.class);
+        leader.refreshSnapshot();
+        Mockito.verify(leaderCluster, Mockito.times(1)).publish(frames.capture());
+        follower.onClusterFrame(overRedis(frames.getValue()));
+
+        // 两个实例各有一个 ALL 增量订阅者（各自从本地 epoch 开始，到 seq 为 2 的倍数时对齐）
+        leader.subscribe(null, TopologySnapshotService.MODE_DELTA, TopologyWireCodec.Format.JSON, null, null);
+        follower.subscribe(null, TopologySnapshotService.MODE_DELTA, TopologyWireCodec.Format.JSON, null, null);
+        ArgumentCaptor<String> leaderIds = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(leaderDispatcher).offer(ArgumentMatchers.any(), ArgumentMatchers.eq("snapshot"), leaderIds.capture(),
+                ArgumentMatchers.any(), ArgumentMatchers.isNull());
+        String beforeAlignment = leaderIds.getValue();
+
+        values.put("p1_b1c1", vtc(4.3, 50, 2000L));
+        leader.refreshSnapshot();
+        values.put("p1_b1c0", vtc(3.9, 25, 3000L));
+        leader.refreshSnapshot();
+        Mockito.verify(leaderCluster, Mockito.times(3)).publish(frames.capture());
+        List<TopologyClusterFrameDto> published = frames.getAllValues();
+        for (TopologyClusterFrameDto frame : published.subList(published.size() - 2, published.size())) {
+            follower.onClusterFrame(overRedis(frame));
+        }
+        String epoch = published.get(0).getStreamEpoch();
+        Assertions.assertNotNull(epoch);
+        Assertions.assertEquals(epoch, published.get(published.size() - 1).getStreamEpoch());
+        Assertions.assertEquals(3L, published.get(published.size() - 1).getStreamSeq());
+
+        // 主节点上收到 epoch.2 的客户端改连从节点：只补发 seq 3 的增量，不发关键帧
+        follower.subscribe(null, TopologySnapshotService.MODE_DELTA, TopologyWireCodec.Format.JSON, null, epoch + ".2");
+        Mockito.verify(followerDispatcher).register(ArgumentMatchers.any(), ArgumentMatchers.eq(TopologySnapshotService.VIEW_ALL),
+                ArgumentMatchers.eq(TopologySnapshotService.MODE_DELTA), ArgumentMatchers.eq(TopologyWireCodec.Format.JSON));
+        Mockito.verify(followerDispatcher, Mockito.times(1)).offer(ArgumentMatchers.any(), ArgumentMatchers.eq("snapshot"),
+                ArgumentMatchers.anyString(), ArgumentMatchers.any(), ArgumentMatchers.any());
+
+        // 对齐前主节点的本地 id 在其他实例上无意义：回到关键帧
+        follower.subscribe(null, TopologySnapshotService.MODE_DELTA, TopologyWireCodec.Format.JSON, null, beforeAlignment);
+        Mockito.verify(followerDispatcher, Mockito.times(2)).offer(ArgumentMatchers.any(), ArgumentMatchers.eq("snapshot"),
+                ArgumentMatchers.anyString(), ArgumentMatchers.any(), ArgumentMatchers.any());
+
+        // 从节点接任主节点：沿用同一 epoch，在最后收到的序号上继续编号
+        Mockito.when(followerCluster.isLeader()).thenReturn(true);
+        follower.refreshSnapshot();
+        ArgumentCaptor<TopologyClusterFrameDto> takeover = ArgumentCaptor.forClass(TopologyClusterFrameDto.class);
+        Mockito.verify(followerCluster).publish(takeover.capture());
+        Assertions.assertEquals(epoch, takeover.getValue().getStreamEpoch());
+        Assertions.assertEquals(4L, takeover.getValue().getStreamSeq());
+        Assertions.assertTrue(takeover.getValue().isFull());
+    }
+
+    @Test
+    public void testSubscribeFromReplaysHistoryFramesBeforeLiveFrames() throws Exception {
+        Map<String, BatteryDataService.LatestVtc> values = threeCells();
+        Node node = new Node("p1_b1c0", "p1_b1c1", "p2_b1c0").serving(values);
+        TopologySnapshotService service = node.service;
+        service.getSnapshotJson(null);
+        service.refreshSnapshot();
+        Thread.sleep(5L);
+        values.put("p1_b1c1", vtc(4.3, 50, 2000L));
+        service.refreshSnapshot();
+
+        service.subscribe("p1", TopologySnapshotService.MODE_FULL, TopologyWireCodec.Format.JSON, 0L);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Iterator<byte[]>> history = ArgumentCaptor.forClass(Iterator.class);
+        Mockito.verify(node.dispatcher).register(ArgumentMatchers.any(), ArgumentMatchers.eq("p1"),
+                ArgumentMatchers.eq(TopologySnapshotService.MODE_FULL), ArgumentMatchers.eq(TopologyWireCodec.Format.JSON),
+                ArgumentMatchers.eq("history"), history.capture());
+
+        // 由发送线程逐帧取出：两次写入的历史帧按时间升序
+        List<TopologySnapshotDto> frames = new ArrayList<>();
+        history.getValue().forEachRemaining(bytes -> {
+            try {
+                frames.add(MAPPER.readValue(bytes, TopologySnapshotDto.class));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        Assertions.assertEquals(2, frames.size());
+        Assertions.assertEquals("normal", frames.get(0).getCells().get(1).getStatus());
+        Assertions.assertEquals("alarm", frames.get(1).getCells().get(1).getStatus());
+        Assertions.assertTrue(frames.get(0).getTs() < frames.get(1).getTs());
+    }
+
+    @Test
+    public void testLeaderSendsFullFrameAfterLayoutChange() throws Exception {
+        Map<String, BatteryDataService.LatestVtc> values = threeCells();
+        Node leaderNode = new Node("p1_b1c0", "p1_b1c1", "p2_b1c0").serving(values).leader();
+        Node followerNode = new Node().follower();
+        TopologySnapshotService leader = leaderNode.service;
+        TopologySnapshotService follower = followerNode.service;
+
+        leader.refreshSnapshot();
+        leader.refreshSnapshot();
+        // 台账新增 p2_b1c1：布局版本变化
+        values.put("p2_b1c1", vtc(3.7, 25, 1000L));
+        Mockito.when(leaderNode.repository.findActiveBatteryCodeModels())
+                .thenReturn(TopologyLayoutCacheTest.rows("p1_b1c0", "p1_b1c1", "p2_b1c0", "p2_b1c1"));
+        leaderNode.layoutCache.invalidate();
+        leader.refreshSnapshot();
+
+        ArgumentCaptor<TopologyClusterFrameDto> frames = ArgumentCaptor.forClass(TopologyClusterFrameDto.class);
+        Mockito.verify(leaderNode.cluster, Mockito.times(3)).publish(frames.capture());
+        List<TopologyClusterFrameDto> published = frames.getAllValues();
+        Assertions.assertFalse(published.get(1).isFull());
+        TopologyClusterFrameDto afterChange = overRedis(published.get(2));
+        Assertions.assertTrue(afterChange.isFull());
+        Assertions.assertNotEquals(published.get(0).getLayoutVersion(), afterChange.getLayoutVersion());
+
+        // 从节点此前跟随旧布局，新布局的首帧即可接受
+        follower.onClusterFrame(overRedis(published.get(0)));
+        follower.onClusterFrame(afterChange);
+        Assertions.assertEquals(2, follower.getSnapshot("p2").getCells().size());
+        Assertions.assertEquals(4, follower.getSnapshot(null).getCells().size());
+    }
+}
@@ -0,0 +1,242 @@
+package com.bms.backend;
+
+import com.bms.backend.service.TopologyStreamDispatcher;
+import com.bms.backend.service.TopologyWireCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TopologyStreamDispatcherTest {
+
+    /** send 阻塞直到 release 的慢客户端 */
+    private static class StalledEmitter extends SseEmitter {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger sent = new AtomicInteger();
+
+        StalledEmitter() {
+            super(0L);
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sent.incrementAndGet();
+        }
+    }
+
+    /** send 永不返回且不响应中断的失联客户端；与 SseEmitter 一致，send 持有 emitter 锁（模拟塞满的 TCP 写） */
+    private static class HungEmitter extends SseEmitter {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger interrupts = new AtomicInteger();
+
+        HungEmitter() {
+            super(0L);
+        }
+
+        @Override
+        public synchronized void send(SseEventBuilder builder) {
+            entered.countDown();
+            while (release.getCount() > 0) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    interrupts.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /** 按顺序记录事件名 */
+    private static class RecordingEmitter extends SseEmitter {
+        final List<String> events = new CopyOnWriteArrayList<>();
+
+        RecordingEmitter() {
+            super(0L);
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            for (ResponseBodyEmitter.DataWithMediaType d : builder.build()) {
+                Object data = d.getData();
+                if (data instanceof String && ((String) data).startsWith("event:")) {
+                    String text = (String) data;
+                    events.add(text.substring("event:".length(), text.indexOf('\n')));
+                    return;
+                }
+            }
+        }
+    }
+
+    private static class CountingEmitter extends SseEmitter {
+        final AtomicInteger sent = new AtomicInteger();
+
+        CountingEmitter() {
+            super(0L);
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            sent.incrementAndGet();
+        }
+    }
+
+    private static byte[] frame(int i) {
+        return ("{\"seq\":" + i + "}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void awaitTrue(java.util.function.BooleanSupplier cond) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!cond.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testSlowSubscriberDoesNotBlockOthersAndIsCoalesced() throws Exception {
+        TopologyStreamDispatcher dispatcher = new TopologyStreamDispatcher(2, "coalesce", 2, 10000L, new SimpleMeterRegistry());
+        try {
+            StalledEmitter slowEmitter = new StalledEmitter();
+            CountingEmitter fastEmitter = new CountingEmitter();
+            TopologyStreamDispatcher.Subscriber slow = dispatcher.register(slowEmitter, "ALL", "full");
+            TopologyStreamDispatcher.Subscriber fast = dispatcher.register(fastEmitter, "ALL", "full");
+
+            long offerMs = 0L;
+            for (int i = 0; i < 20; i++) {
+                long t0 = System.currentTimeMillis();
+                dispatcher.offer(slow, "snapshot", frame(i), null);
+                offerMs += System.currentTimeMillis() - t0;
+                dispatcher.offer(fast, "snapshot", frame(i), null);
+                // 按快客户端的消费节奏入队，它自己的队列不触发合并
+                awaitTrue(() -> fast.pending() == 0);
+            }
+            // 入队不应被慢客户端阻塞
+            Assertions.assertTrue(offerMs < 1000);
+            awaitTrue(() -> fastEmitter.sent.get() == 20);
+            Assertions.assertEquals(20, fastEmitter.sent.get());
+            Assertions.assertTrue(slow.pending() <= 2);
+            Assertions.assertEquals(1, dispatcher.getLaggingCount());
+
+            slowEmitter.release.countDown();
+            awaitTrue(() -> slow.pending() == 0 && dispatcher.getLaggingCount() == 0);
+            // 1 帧在途 + 合并后至多 2 帧
+            Assertions.assertTrue(slowEmitter.sent.get() <= 3);
+            Assertions.assertEquals(0, dispatcher.getLaggingCount());
+            Assertions.assertEquals(2, dispatcher.getSubscribers().size());
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testDisconnectPolicyEvictsLaggingSubscriber() throws Exception {
+        TopologyStreamDispatcher dispatcher = new TopologyStreamDispatcher(1, "disconnect", 1, 10000L, new SimpleMeterRegistry());
+        try {
+            StalledEmitter slowEmitter = new StalledEmitter();
+            TopologyStreamDispatcher.Subscriber slow = dispatcher.register(slowEmitter, "p1", "delta");
+            for (int i = 0; i < 5; i++) {
+                dispatcher.offer(slow, "delta", frame(i), null);
+            }
+            Assertions.assertTrue(slow.isClosed());
+            Assertions.assertTrue(dispatcher.getSubscribers().isEmpty());
+            Assertions.assertEquals(1.0, dispatcher.getEvictedCount(), 0.0);
+            slowEmitter.release.countDown();
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testWatchdogEvictsSendThatNeverReturnsAndFreesSenderCapacity() throws Exception {
+        TopologyStreamDispatcher dispatcher = new TopologyStreamDispatcher(2, "coalesce", 1, 200L, new SimpleMeterRegistry());
+        HungEmitter hungEmitter = new HungEmitter();
+        try {
+            TopologyStreamDispatcher.Subscriber hung = dispatcher.register(hungEmitter, "ALL", "full");
+            dispatcher.offer(hung, "snapshot", frame(0), null);
+            Assertions.assertTrue(hungEmitter.entered.await(2, TimeUnit.SECONDS));
+
+            // 唯一的发送线程已卡住：健康订阅者的帧只能排队
+            CountingEmitter healthyEmitter = new CountingEmitter();
+            TopologyStreamDispatcher.Subscriber healthy = dispatcher.register(healthyEmitter, "ALL", "full");
+            dispatcher.offer(healthy, "snapshot", frame(0), null);
+            Thread.sleep(100L);
+            Assertions.assertEquals(0, healthyEmitter.sent.get());
+
+            // 未超时前看门狗不动作
+            dispatcher.evictStalledSenders();
+            Assertions.assertFalse(hung.isClosed());
+
+            Thread.sleep(250L);
+            long t0 = System.currentTimeMillis();
+            dispatcher.evictStalledSenders();
+            // 看门狗本身不能被卡住的 send 拖住
+            Assertions.assertTrue(System.currentTimeMillis() - t0 < 1000);
+            Assertions.assertTrue(hung.isClosed());
+            Assertions.assertEquals(1, dispatcher.getSubscribers().size());
+            Assertions.assertEquals(1.0, dispatcher.getEvictedCount(), 0.0);
+            Assertions.assertEquals(1, hungEmitter.interrupts.get());
+
+            // 补位线程接手排队的帧
+            awaitTrue(() -> healthyEmitter.sent.get() == 1);
+            Assertions.assertEquals(1, healthyEmitter.sent.get());
+            dispatcher.offer(healthy, "snapshot", frame(1), null);
+            awaitTrue(() -> healthyEmitter.sent.get() == 2);
+            Assertions.assertEquals(2, healthyEmitter.sent.get());
+            Assertions.assertFalse(healthy.isClosed());
+        } finally {
+            hungEmitter.release.countDown();
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testReplayFramesAreGeneratedOnSenderThreadBeforeLiveFrames() throws Exception {
+        TopologyStreamDispatcher dispatcher = new TopologyStreamDispatcher(2, "coalesce", 1, 10000L, new SimpleMeterRegistry());
+        try {
+            Thread caller = Thread.currentThread();
+            List<Thread> producers = new CopyOnWriteArrayList<>();
+            Iterator<byte[]> replay = Arrays.asList(frame(1), null, frame(2), frame(3)).iterator();
+            Iterator<byte[]> lazy = new Iterator<byte[]>() {
+                @Override
+                public boolean hasNext() {
+                    return replay.hasNext();
+                }
+
+                @Override
+                public byte[] next() {
+                    producers.add(Thread.currentThread());
+                    return replay.next();
+                }
+            };
+            RecordingEmitter emitter = new RecordingEmitter();
+            TopologyStreamDispatcher.Subscriber sub = dispatcher.register(emitter, "ALL", "full",
+                    TopologyWireCodec.Format.JSON, "history", lazy);
+            // 登记时不生成任何补发帧
+            Assertions.assertTrue(producers.isEmpty());
+            dispatcher.offer(sub, "snapshot", frame(9), null);
+
+            awaitTrue(() -> emitter.events.size() == 4);
+            // 空元素被跳过，实时帧排在全部补发帧之后
+            Assertions.assertEquals(Arrays.asList("history", "history", "history", "snapshot"), emitter.events);
+            Assertions.assertEquals(4, producers.size());
+            Assertions.assertFalse(producers.contains(caller));
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.bms.backend;
+
+import com.bms.backend.dto.TopologyCellDto;
+import com.bms.backend.dto.TopologyColumnarDto;
+import com.bms.backend.dto.TopologySnapshotDto;
+import com.bms.backend.dto.TopologySummaryDto;
+import com.bms.backend.service.TopologyWireCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class TopologyWireCodecTest {
+
+    private static TopologySnapshotDto snapshot(int cells) {
+        List<TopologyCellDto> list = new ArrayList<>();
+        for (int i = 0; i < cells; i++) {
+            TopologyCellDto c = new TopologyCellDto();
+            c.setPackId("p" + (i / 96));
+            c.setCellId("p" + (i / 96) + "_b1c" + (i % 96));
+            c.setRow((i % 96) / 8);
+            c.setCol(i % 8);
+            c.setModuleIndex((i % 96) / 16);
+            c.setVoltage(3.651234 + i * 0.0001);
+            c.setTemperature(25.43);
+            c.setCurrent(1.2345);
+            c.setScore(100);
+            c.setStatus(i % 50 == 0 ? "warn" : "normal");
+            c.setReasons(i % 50 == 0 ? Collections.singletonList("temperature_warn") : Collections.emptyList());
+            list.add(c);
+        }
+        TopologySnapshotDto snap = new TopologySnapshotDto();
+        snap.setPackId("ALL");
+        snap.setTs(1700000000000L);
+        snap.setStale(false);
+        snap.setSummary(new TopologySummaryDto());
+        snap.setCells(list);
+        return snap;
+    }
+
+    @Test
+    public void testColumnarRoundTripAndCborIsMuchSmaller() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        TopologyWireCodec codec = new TopologyWireCodec(mapper);
+        TopologySnapshotDto snap = snapshot(960);
+
+        byte[] json = codec.encode(snap, TopologyWireCodec.Format.JSON);
+        byte[] columnar = codec.encode(snap, TopologyWireCodec.Format.COLUMNAR);
+        byte[] cbor = codec.encode(snap, TopologyWireCodec.Format.CBOR);
+        Assertions.assertTrue(columnar.length * 3 < json.length);
+        Assertions.assertTrue(cbor.length * 5 < json.length);
+
+        TopologyColumnarDto dto = mapper.readValue(columnar, TopologyColumnarDto.class);
+        Assertions.assertEquals(960, dto.getCellId().length);
+        Assertions.assertEquals(10, dto.getPacks().size());
+        Assertions.assertEquals(3651, dto.getVoltage()[0].intValue());
+        Assertions.assertEquals(254, dto.getTemperature()[0].intValue());
+        Assertions.assertEquals("warn", dto.getStatusCodes().get(dto.getStatus()[0]));
+        int warnBit = dto.getReasonCodes().indexOf("temperature_warn");
+        Assertions.assertEquals(1 << warnBit, dto.getReasons()[0]);
+        Assertions.assertEquals(0, dto.getReasons()[1]);
+    }
+
+    @Test
+    public void testFormatNegotiation() {
+        Assertions.assertEquals(TopologyWireCodec.Format.COLUMNAR, TopologyWireCodec.Format.parse("columnar", "application/cbor"));
+        Assertions.assertEquals(TopologyWireCodec.Format.CBOR, TopologyWireCodec.Format.parse(null, "application/cbor, */*"));
+        Assertions.assertEquals(TopologyWireCodec.Format.JSON, TopologyWireCodec.Format.parse(null, "application/json"));
+        Assertions.assertEquals(TopologyWireCodec.Format.JSON, TopologyWireCodec.Format.parse("xml", null));
+    }
+}
@@ -0,0 +1,104 @@
+package com.bms.backend;
+
+import com.bms.backend.dto.WindowedHistoryResponse;
+import com.bms.backend.influx.CellTimeRangeCatalog;
+import com.bms.backend.influx.InfluxLane;
+import com.bms.backend.influx.InfluxQueryGateway;
+import com.bms.backend.service.WindowedHistoryService;
+import com.influxdb.query.FluxRecord;
+import com.influxdb.query.FluxTable;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class WindowedHistoryServiceTest {
+
+    private static final long MINUTE = 60_000L;
+    private static final long T0 = Instant.parse("2026-01-01T10:00:00Z").toEpochMilli();
+
+    @Test
+    public void testRefreshQueriesOnlyFromOpenBucketAndServesClosedBucketsFromCache() {
+        InfluxQueryGateway gateway = Mockito.mock(InfluxQueryGateway.class);
+        CellTimeRangeCatalog catalog = new CellTimeRangeCatalog(gateway);
+        WindowedHistoryService service = new WindowedHistoryService(gateway, catalog);
+        List<String> fields = Collections.singletonList("voltage");
+        List<String> fns = Collections.singletonList("mean");
+
+        // 首次：09:55 ~ 10:00 共 6 个窗口，全部查询
+        long now1 = T0 + 30_000L;
+        Mockito.when(gateway.query(Mockito.anyString(), Mockito.eq(InfluxLane.INTERACTIVE))).thenReturn(tables(
+                point(T0 - 4 * MINUTE, 3.51), point(T0 - 3 * MINUTE, 3.52), point(T0 - 2 * MINUTE, 3.53),
+                point(T0 - MINUTE, 3.54), point(T0, 3.55), point(now1 + 1, 3.56)));
+        WindowedHistoryResponse first = service.getHistory("b1c0", fields, fns, "-5m", "1m", null, now1);
+        Assertions.assertEquals(6, first.getTime().length);
+        Assertions.assertEquals(0, first.getCachedBuckets());
+        Assertions.assertEquals(3.56, first.getSeries().get(0).getValues()[5], 1e-9);
+
+        // 刷新：只查 10:00 起（上次未结束的窗口），更早的窗口直接取缓存
+        long now2 = T0 + MINUTE + 10_000L;
+        Mockito.when(gateway.query(Mockito.anyString(), Mockito.eq(InfluxLane.INTERACTIVE))).thenReturn(tables(
+                point(T0 + MINUTE, 3.60), point(now2 + 1, 3.61)));
+        WindowedHistoryResponse second = service.getHistory("b1c0", fields, fns, "-5m", "1m", null, now2);
+        Assertions.assertTrue(lastQuery(gateway).contains("range(start: " + Instant.ofEpochMilli(T0)));
+        Assertions.assertEquals(4, second.getCachedBuckets());
+        Double[] values = second.getSeries().get(0).getValues();
+        Assertions.assertEquals(6, values.length);
+        Assertions.assertEquals(3.52, values[0], 1e-9);
+        Assertions.assertEquals(3.55, values[3], 1e-9);
+        Assertions.assertEquals(3.60, values[4], 1e-9);
+        Assertions.assertEquals(3.61, values[5], 1e-9);
+
+        // 补写到 09:58 的窗口：从该窗口起缓存失效，重新查询
+        catalog.record("b1c0", 1, T0 - 2 * MINUTE + 5_000L);
+        Mockito.when(gateway.query(Mockito.anyString(), Mockito.eq(InfluxLane.INTERACTIVE))).thenReturn(tables(
+                point(T0 - MINUTE, 3.70), point(T0, 3.54), point(T0 + MINUTE, 3.60), point(now2 + 1, 3.61)));
+        WindowedHistoryResponse third = service.getHistory("b1c0", fields, fns, "-5m", "1m", null, now2);
+        Assertions.assertTrue(lastQuery(gateway).contains("range(start: " + Instant.ofEpochMilli(T0 - 2 * MINUTE)));
+        Assertions.assertEquals(2, third.getCachedBuckets());
+        Assertions.assertEquals(3.70, third.getSeries().get(0).getValues()[2], 1e-9);
+    }
+
+    @Test
+    public void testWindowIsWidenedToRespectPointBudget() {
+        InfluxQueryGateway gateway = Mockito.mock(InfluxQueryGateway.class);
+        Mockito.when(gateway.query(Mockito.anyString(), Mockito.any())).thenReturn(Collections.<FluxTable>emptyList());
+        WindowedHistoryService service = new WindowedHistoryService(gateway, new CellTimeRangeCatalog(gateway));
+
+        WindowedHistoryResponse resp = service.getHistory("b1c0", null, Arrays.asList("min", "max"), "-6h", "1s", 100, T0);
+        Assertions.assertEquals(216_000L, resp.getWindowMs());
+        Assertions.assertTrue(resp.getTime().length <= 101);
+        Assertions.assertEquals(6, resp.getSeries().size());
+        String flux = lastQuery(gateway);
+        Assertions.assertTrue(flux.contains("yield(name: \"min\")"));
+        Assertions.assertTrue(flux.contains("yield(name: \"max\")"));
+    }
+
+    private static String lastQuery(InfluxQueryGateway gateway) {
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(gateway, Mockito.atLeastOnce()).query(captor.capture(), Mockito.any());
+        List<String> all = captor.getAllValues();
+        return all.get(all.size() - 1);
+    }
+
+    /** aggregateWindow 输出：_time 为窗口结束时间 */
+    private static FluxRecord point(long windowStopMs, double value) {
+        FluxRecord record = new FluxRecord(0);
+        record.getValues().put("result", "mean");
+        record.getValues().put("_field", "voltage");
+        record.getValues().put("_time", Instant.ofEpochMilli(windowStopMs));
+        record.getValues().put("_value", value);
+        return record;
+    }
+
+    private static List<FluxTable> tables(FluxRecord... records) {
+        FluxTable table = new FluxTable();
+        table.getRecords().addAll(Arrays.asList(records));
+        return Collections.singletonList(table);
+    }
+}
@@ -0,0 +1,57 @@
+package com.bms.backend;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 测试/基准用：读取 data/XJTU 下的 CSV，按 cycle 切分并用电流梯形积分得到 (V, Q) 序列（与线上 IC 回退路径一致）。
+ */
+final class XjtuCycles {
+
+    private XjtuCycles() {
+    }
+
+    /** 每个元素为 {电压[], 容量[]} */
+    static List<double[][]> load(String fileName) throws IOException {
+        Map<Integer, List<double[]>> byCycle = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(
+                Paths.get(System.getProperty("user.dir"), "data", "XJTU", "charge", fileName), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                String[] p = line.split(",");
+                if (p.length < 6) continue;
+                int cycle = Integer.parseInt(p[0].trim());
+                double timeMin = Double.parseDouble(p[1].trim());
+                double voltage = Double.parseDouble(p[2].trim());
+                double current = Double.parseDouble(p[3].trim());
+                byCycle.computeIfAbsent(cycle, k -> new ArrayList<>()).add(new double[]{timeMin, voltage, current});
+            }
+        }
+        List<double[][]> out = new ArrayList<>();
+        for (List<double[]> rows : byCycle.values()) {
+            double[] v = new double[rows.size()];
+            double[] q = new double[rows.size()];
+            int m = 0;
+            double qAh = 0.0;
+            v[m] = rows.get(0)[1];
+            q[m++] = qAh;
+            for (int i = 1; i < rows.size(); i++) {
+                double dtHour = (rows.get(i)[0] - rows.get(i - 1)[0]) / 60.0;
+                if (dtHour <= 0) continue;
+                qAh += (Math.abs(rows.get(i - 1)[2]) + Math.abs(rows.get(i)[2])) / 2.0 * dtHour;
+                v[m] = rows.get(i)[1];
+                q[m++] = qAh;
+            }
+            out.add(new double[][]{Arrays.copyOf(v, m), Arrays.copyOf(q, m)});
+        }
+        return out;
+    }
+}